@@ -0,0 +1,135 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import java.util.Random;
+
+/**
+ * Synthetic Luciphor and DTASelect lines for the benchmarks, with the same
+ * columns and the same kind of values as the real files. They are generated
+ * from a fixed seed, so that all the runs measure the same input.
+ */
+public class BenchmarkData {
+	public static final String LUCIPHOR_HEADER = "specId\tpeptide\tpredictedPep1\tpredictedPep2\tnumPPS\tnumRPS\tdeltaScore\tpep1score\tpep2score\tglobalFLR\tlocalFLR";
+	public static final String DTASELECT_PROTEIN_HEADER = "Locus\tSequence Count\tSpectrum Count\tSequence Coverage\tLength\tMolWt\tpI\tValidation Status\tNSAF\tEMPAI\tDescriptive Name";
+	public static final String DTASELECT_PSM_HEADER = "Unique\tFileName\tXCorr\tDeltCN\tConf%\tM+H+\tCalcM+H+\tPPM\tTotalIntensity\tSpR\tProb Score\tpI\tIonProportion\tRedundancy\tSequence";
+	private static final String AAS = "ACDEFGHIKLMNPQRSTVWY";
+	private static final String MODIFIABLE_AAS = "STY";
+	private static final String PHOSPHO = "(79.966331)";
+	private static final String OXIDATION = "(15.994915)";
+
+	private final Random random;
+
+	public BenchmarkData() {
+		this(1234);
+	}
+
+	public BenchmarkData(long seed) {
+		random = new Random(seed);
+	}
+
+	/**
+	 *
+	 * @param minLength
+	 * @param maxLength
+	 * @return a random peptide sequence with at least one S, T or Y
+	 */
+	public String nextPeptide(int minLength, int maxLength) {
+		final int length = minLength + random.nextInt(maxLength - minLength + 1);
+		final StringBuilder ret = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			ret.append(AAS.charAt(random.nextInt(AAS.length())));
+		}
+		ret.setCharAt(random.nextInt(length), MODIFIABLE_AAS.charAt(random.nextInt(MODIFIABLE_AAS.length())));
+		return ret.toString();
+	}
+
+	/**
+	 *
+	 * @param peptide
+	 * @param dtaSelectSequence the peptide as in the Sequence column of DTASelect
+	 * @return the peptide with as many S, T or Y in lower case as phosphorylations
+	 *         in the DTASelect sequence, as in the predictedPep1 column of
+	 *         Luciphor
+	 */
+	public String nextLuciphorPrediction(String peptide, String dtaSelectSequence) {
+		int numPhospho = 0;
+		for (int i = dtaSelectSequence.indexOf(PHOSPHO); i >= 0; i = dtaSelectSequence.indexOf(PHOSPHO, i + 1)) {
+			numPhospho++;
+		}
+		final StringBuilder ret = new StringBuilder(peptide);
+		while (numPhospho > 0) {
+			final int i = random.nextInt(ret.length());
+			if (MODIFIABLE_AAS.indexOf(ret.charAt(i)) >= 0) {
+				ret.setCharAt(i, Character.toLowerCase(ret.charAt(i)));
+				numPhospho--;
+			}
+		}
+		return ret.toString();
+	}
+
+	/**
+	 *
+	 * @param peptide
+	 * @return the peptide as in the Sequence column of DTASelect, with the
+	 *         surrounding aminoacids and the masses of the PTMs in brackets
+	 */
+	public String nextDTASelectSequence(String peptide) {
+		final StringBuilder ret = new StringBuilder();
+		ret.append(random.nextInt(4) == 0 ? '-' : AAS.charAt(random.nextInt(AAS.length()))).append('.');
+		boolean phosphorylated = false;
+		for (int i = 0; i < peptide.length(); i++) {
+			final char aa = peptide.charAt(i);
+			ret.append(aa);
+			if (MODIFIABLE_AAS.indexOf(aa) >= 0 && (!phosphorylated || random.nextInt(4) == 0)) {
+				ret.append(PHOSPHO);
+				phosphorylated = true;
+			} else if (aa == 'M' && random.nextBoolean()) {
+				ret.append(OXIDATION);
+			}
+		}
+		ret.append('.').append(random.nextInt(4) == 0 ? '-' : AAS.charAt(random.nextInt(AAS.length())));
+		return ret.toString();
+	}
+
+	public String getPSMID(int i) {
+		return "sample_" + (i % 3) + "." + (10000 + i) + "." + (10000 + i) + "." + (2 + i % 3);
+	}
+
+	/**
+	 *
+	 * @param i
+	 * @param peptide
+	 * @param prediction
+	 * @return a line of the Luciphor file with {@link #LUCIPHOR_HEADER} columns
+	 */
+	public String getLuciphorLine(int i, String peptide, String prediction) {
+		final double pep1Score = random.nextDouble() * 30;
+		final double pep2Score = pep1Score - random.nextDouble() * 20;
+		return getPSMID(i) + "\t" + peptide + "\t" + prediction + "\t" + prediction + "\t2\t1\t"
+				+ (pep1Score - pep2Score) + "\t" + pep1Score + "\t" + pep2Score + "\t" + random.nextDouble() * 0.6
+				+ "\t" + random.nextDouble() * 0.7;
+	}
+
+	/**
+	 *
+	 * @param i
+	 * @param dtaSelectSequence
+	 * @return a line of a PSM of the DTASelect file with
+	 *         {@link #DTASELECT_PSM_HEADER} columns
+	 */
+	public String getDTASelectPSMLine(int i, String dtaSelectSequence) {
+		return (random.nextBoolean() ? "*" : "") + "\t" + getPSMID(i)
+				+ "\t3.21\t0.3\t99.9\t1500.7\t1500.6\t1.2\t12000.0\t1\t50.0\t5.5\t40.0\t" + (1 + random.nextInt(3))
+				+ "\t" + dtaSelectSequence;
+	}
+
+	/**
+	 *
+	 * @param i
+	 * @return a line of a protein of the DTASelect file with
+	 *         {@link #DTASELECT_PROTEIN_HEADER} columns
+	 */
+	public String getDTASelectProteinLine(int i) {
+		return "sp|P" + (10000 + i) + "|PROT" + i + "_HUMAN\t3\t7\t12.5%\t400\t45000\t6.1\tU\t0.0001\t0.3\tProtein "
+				+ i;
+	}
+}
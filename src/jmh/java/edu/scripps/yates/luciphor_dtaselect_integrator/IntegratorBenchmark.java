@@ -0,0 +1,172 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.scripps.yates.luciphor_dtaselect_integrator.utils.TabTokenizer;
+
+/**
+ * Throughput of the per-line work of the integrator: parsing the rows of the
+ * Luciphor file, looking up and rewriting the PSM lines of the DTASelect file,
+ * recounting the protein groups and formatting the predicted sequences. Each
+ * operation is one line, one protein group or one sequence.<br>
+ * Run with the GC profiler (as the benchmark profile does) to get the
+ * allocation rate next to the throughput.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class IntegratorBenchmark {
+	private static final int NUM_LINES = 1000;
+	private static final int NUM_PROTEIN_GROUPS = 100;
+	private static final int PSMS_PER_PROTEIN_GROUP = 8;
+
+	private LuciphorFileReader luciphorFileReader;
+	private LuciphorSchema luciphorSchema;
+	private String[] luciphorLines;
+	private LuciphorResults luciphorResults;
+	private DTASelectRewriter dtaSelectRewriter;
+	private final DTASelectSchema dtaSelectSchema = new DTASelectSchema();
+	private String[] psmLines;
+	private byte[][] psmLineBytes;
+	private int[] luciphorRows;
+	private byte[][] proteinGroups;
+	private String[] originalSequences;
+	private final TabTokenizer tokenizer = new TabTokenizer();
+	private final ProteinGroupBuffer proteinGroupBuffer = new ProteinGroupBuffer();
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+
+	@Setup
+	public void setup() {
+		final BenchmarkData data = new BenchmarkData();
+		luciphorFileReader = new LuciphorFileReader(new File("benchmark.tsv"), null, null);
+		luciphorSchema = LuciphorSchema.compile(BenchmarkData.LUCIPHOR_HEADER);
+		dtaSelectSchema.compilePSMHeader(BenchmarkData.DTASELECT_PSM_HEADER);
+		dtaSelectSchema.compileProteinHeader(BenchmarkData.DTASELECT_PROTEIN_HEADER);
+		luciphorLines = new String[NUM_LINES];
+		psmLines = new String[NUM_LINES];
+		originalSequences = new String[NUM_LINES];
+		for (int i = 0; i < NUM_LINES; i++) {
+			final String peptide = data.nextPeptide(7, 25);
+			originalSequences[i] = data.nextDTASelectSequence(peptide);
+			luciphorLines[i] = data.getLuciphorLine(i, peptide,
+					data.nextLuciphorPrediction(peptide, originalSequences[i]));
+			psmLines[i] = data.getDTASelectPSMLine(i, originalSequences[i]);
+		}
+		luciphorResults = new LuciphorResults();
+		for (final String line : luciphorLines) {
+			luciphorFileReader.parseLine(line, luciphorSchema, luciphorResults, tokenizer);
+		}
+		// the reader learns the modified aminoacids in its own set
+		for (int row = 0; row < luciphorResults.getNumRows(); row++) {
+			LuciphorEntry.findModifiedAAs(luciphorResults.getPredictedSequence(row),
+					luciphorResults.getModifiedAAs());
+		}
+		dtaSelectRewriter = new DTASelectRewriter(luciphorResults, false);
+		luciphorRows = new int[NUM_LINES];
+		psmLineBytes = new byte[NUM_LINES][];
+		for (int i = 0; i < NUM_LINES; i++) {
+			psmLineBytes[i] = psmLines[i].getBytes(StandardCharsets.ISO_8859_1);
+			luciphorRows[i] = luciphorResults.getRow(data.getPSMID(i));
+		}
+		proteinGroups = new byte[NUM_PROTEIN_GROUPS][];
+		for (int i = 0; i < NUM_PROTEIN_GROUPS; i++) {
+			final StringBuilder group = new StringBuilder();
+			group.append(data.getDTASelectProteinLine(i)).append("\n");
+			for (int j = 0; j < PSMS_PER_PROTEIN_GROUP; j++) {
+				group.append(psmLines[(i * PSMS_PER_PROTEIN_GROUP + j) % NUM_LINES]).append("\n");
+			}
+			proteinGroups[i] = group.toString().getBytes(StandardCharsets.ISO_8859_1);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_LINES)
+	public LuciphorResults parseLuciphorLines() {
+		final LuciphorResults ret = new LuciphorResults();
+		for (final String line : luciphorLines) {
+			luciphorFileReader.parseLine(line, luciphorSchema, ret, tokenizer);
+		}
+		return ret;
+	}
+
+	/**
+	 * Finds the PSM ID of each PSM line and looks it up in the index of the
+	 * Luciphor entries, as the rewriter does before rewriting the line
+	 */
+	@Benchmark
+	@OperationsPerInvocation(NUM_LINES)
+	public int lookupPSMLines() {
+		int ret = 0;
+		final int psmIDColumn = dtaSelectSchema.getPSMIDColumn();
+		for (final byte[] psmLine : psmLineBytes) {
+			tokenizer.tokenize(psmLine, 0, psmLine.length);
+			ret += luciphorResults.getRow(psmLine, tokenizer.getColumnStart(psmIDColumn),
+					tokenizer.getColumnEnd(psmIDColumn));
+		}
+		return ret;
+	}
+
+	/**
+	 * Rewrites each PSM line through the package-private seam of the rewriter,
+	 * with the same code as {@link DTASelectRewriter#rewrite(File, File)} but
+	 * without its threads and without memoizing the rewritten PSMs
+	 */
+	@Benchmark
+	@OperationsPerInvocation(NUM_LINES)
+	public void rewritePSMLines(Blackhole blackhole) throws IOException {
+		out.reset();
+		for (int i = 0; i < NUM_LINES; i++) {
+			tokenizer.tokenize(psmLineBytes[i], 0, psmLineBytes[i].length);
+			dtaSelectRewriter.rewritePSMLine(tokenizer, luciphorRows[i], dtaSelectSchema, out);
+			out.write('\n');
+		}
+		blackhole.consume(out.size());
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_PROTEIN_GROUPS)
+	public void processProteinGroups(Blackhole blackhole) throws IOException {
+		out.reset();
+		for (final byte[] proteinGroup : proteinGroups) {
+			proteinGroupBuffer.clear();
+			for (int start = 0; start < proteinGroup.length;) {
+				int end = start;
+				while (proteinGroup[end] != '\n') {
+					end++;
+				}
+				if (proteinGroup[start] == '\t' || proteinGroup[start] == '*') {
+					tokenizer.tokenize(proteinGroup, start, end);
+					proteinGroupBuffer.addPSMLine(proteinGroup, start, end,
+							tokenizer.getInt(dtaSelectSchema.getRedundancyColumn()));
+				} else {
+					proteinGroupBuffer.addProteinLine(proteinGroup, start, end, dtaSelectSchema, tokenizer);
+				}
+				start = end + 1;
+			}
+			proteinGroupBuffer.writeTo(out);
+		}
+		blackhole.consume(out.size());
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_LINES)
+	public void getFormattedPredictedSequence(Blackhole blackhole) {
+		for (int i = 0; i < NUM_LINES; i++) {
+			blackhole.consume(luciphorResults.getFormattedPredictedSequence(luciphorRows[i], originalSequences[i]));
+		}
+	}
+}
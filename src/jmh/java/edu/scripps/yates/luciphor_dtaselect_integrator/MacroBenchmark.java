@@ -0,0 +1,239 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Runs the whole {@link LuciphorDtaselectIntegrator#run()} on a dataset written
+ * by {@link SyntheticDatasetGenerator} (which is generated if it is not in the
+ * folder yet) and reports, for each iteration, the wall time, the peak heap,
+ * the peak RSS of the process, the time spent in GC and the MB/s of input
+ * (Luciphor plus DTASelect file) processed.<br>
+ * Every iteration works on a fresh copy of the DTASelect file, because the
+ * integrator rewrites it. The peak RSS is read from /proc/self/status, so it is
+ * only available in Linux.
+ */
+public class MacroBenchmark {
+	private static final String OPTION_DIR = "dir";
+	private static final String OPTION_PSMS = "n";
+	private static final String OPTION_SEED = "seed";
+	private static final String OPTION_ITERATIONS = "i";
+	private static final String OPTION_THREADS = "t";
+	private static final String OPTION_LFLR = "lflr";
+	private static final String OPTION_GFLR = "gflr";
+	private static final String OPTION_REMOVE = "rem";
+	private static final String OPTION_CACHE = "cache";
+	private static final double MB = 1024.0 * 1024.0;
+	private static final DecimalFormat FORMAT = new DecimalFormat("#.#");
+
+	private final File luciphorFile;
+	private final File dtaSelectFile;
+	private final Double lflrThreshold;
+	private final Double gflrThreshold;
+	private final boolean remove;
+	private final int numThreads;
+	private final boolean useCache;
+
+	public MacroBenchmark(File luciphorFile, File dtaSelectFile, Double lflrThreshold, Double gflrThreshold,
+			boolean remove, int numThreads, boolean useCache) {
+		this.luciphorFile = luciphorFile;
+		this.dtaSelectFile = dtaSelectFile;
+		this.lflrThreshold = lflrThreshold;
+		this.gflrThreshold = gflrThreshold;
+		this.remove = remove;
+		this.numThreads = numThreads;
+		this.useCache = useCache;
+	}
+
+	/**
+	 * Runs the integrator the number of iterations, printing the measures of each
+	 * one and the median of all of them
+	 *
+	 * @param iterations
+	 * @throws Exception
+	 */
+	public void run(int iterations) throws Exception {
+		final File workFolder = new File(dtaSelectFile.getParentFile(), "run");
+		final File workDTASelectFile = new File(workFolder, dtaSelectFile.getName());
+		final double inputMB = (luciphorFile.length() + dtaSelectFile.length()) / MB;
+		final double[][] measures = new double[iterations][];
+		for (int i = 0; i < iterations; i++) {
+			FileUtils.copyFile(dtaSelectFile, workDTASelectFile);
+			System.gc();
+			measures[i] = runIteration(workDTASelectFile, inputMB);
+		}
+		System.out.println();
+		System.out.println("Input: " + FORMAT.format(inputMB) + " MB (" + luciphorFile.getName() + " + "
+				+ dtaSelectFile.getName() + "), " + numThreads + " threads");
+		System.out.println("iteration\twall time (ms)\tMB/s\tpeak heap (MB)\tpeak RSS (MB)\tGC time (ms)\tGC count");
+		for (int i = 0; i < iterations; i++) {
+			System.out.println((i + 1) + "\t" + format(measures[i]));
+		}
+		final double[] medians = new double[measures[0].length];
+		for (int j = 0; j < medians.length; j++) {
+			final double[] values = new double[iterations];
+			for (int i = 0; i < iterations; i++) {
+				values[i] = measures[i][j];
+			}
+			Arrays.sort(values);
+			medians[j] = values[iterations / 2];
+		}
+		System.out.println("median\t" + format(medians));
+	}
+
+	/**
+	 *
+	 * @return wall time in ms, MB/s, peak heap in MB, peak RSS in MB (NaN if not
+	 *         available), GC time in ms and GC count
+	 * @throws Exception
+	 */
+	private double[] runIteration(File workDTASelectFile, double inputMB) throws Exception {
+		final List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+		for (final MemoryPoolMXBean pool : pools) {
+			pool.resetPeakUsage();
+		}
+		resetPeakRSS();
+		final long gcTimeBefore = getGCTime();
+		final long gcCountBefore = getGCCount();
+		final long start = System.nanoTime();
+
+		final LuciphorDtaselectIntegrator integrator = new LuciphorDtaselectIntegrator(
+				luciphorFile.getAbsolutePath(), workDTASelectFile.getAbsolutePath(), lflrThreshold, gflrThreshold,
+				remove, numThreads, useCache);
+		integrator.run();
+		if (integrator.getDTASelectError() != null) {
+			throw integrator.getDTASelectError();
+		}
+
+		final double wallTime = (System.nanoTime() - start) / 1000000.0;
+		long peakHeap = 0;
+		for (final MemoryPoolMXBean pool : pools) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peakHeap += pool.getPeakUsage().getUsed();
+			}
+		}
+		return new double[] { wallTime, inputMB / (wallTime / 1000.0), peakHeap / MB, getPeakRSSInKB() / 1024.0,
+				getGCTime() - gcTimeBefore, getGCCount() - gcCountBefore };
+	}
+
+	private static String format(double[] measures) {
+		final StringBuilder ret = new StringBuilder();
+		for (final double measure : measures) {
+			if (ret.length() > 0) {
+				ret.append("\t");
+			}
+			ret.append(Double.isNaN(measure) ? "n/a" : FORMAT.format(measure));
+		}
+		return ret.toString();
+	}
+
+	private static long getGCTime() {
+		long ret = 0;
+		for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			ret += Math.max(0, gc.getCollectionTime());
+		}
+		return ret;
+	}
+
+	private static long getGCCount() {
+		long ret = 0;
+		for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			ret += Math.max(0, gc.getCollectionCount());
+		}
+		return ret;
+	}
+
+	/**
+	 * Resets the peak RSS of the process (VmHWM) to the current RSS, which Linux
+	 * does when writing 5 to /proc/self/clear_refs. If it is not possible, the
+	 * peak RSS is the one since the start of the process.
+	 */
+	private static void resetPeakRSS() {
+		try {
+			Files.write(new File("/proc/self/clear_refs").toPath(), "5".getBytes(StandardCharsets.US_ASCII));
+		} catch (final IOException | UnsupportedOperationException | SecurityException e) {
+			// not available
+		}
+	}
+
+	/**
+	 *
+	 * @return VmHWM from /proc/self/status or NaN if it is not available
+	 */
+	private static double getPeakRSSInKB() {
+		try {
+			for (final String line : Files.readAllLines(new File("/proc/self/status").toPath(),
+					StandardCharsets.US_ASCII)) {
+				if (line.startsWith("VmHWM:")) {
+					return Double.valueOf(line.substring("VmHWM:".length()).replace("kB", "").trim());
+				}
+			}
+		} catch (final IOException | NumberFormatException e) {
+			// not available
+		}
+		return Double.NaN;
+	}
+
+	private static Options defineCommandLineOptions() {
+		final Options options = new Options();
+		options.addOption(Option.builder(OPTION_DIR)
+				.desc("Folder with the dataset, which is generated if it doesn't have it").hasArg().required().build());
+		options.addOption(Option.builder(OPTION_PSMS)
+				.desc("Number of PSMs of the dataset to generate. If set, the dataset is generated again").hasArg()
+				.build());
+		options.addOption(Option.builder(OPTION_SEED).desc("Seed of the dataset to generate (default 1234)").hasArg()
+				.build());
+		options.addOption(Option.builder(OPTION_ITERATIONS).desc("Number of iterations (default 3)").hasArg().build());
+		options.addOption(Option.builder(OPTION_THREADS).desc("Number of threads (default 1)").hasArg().build());
+		options.addOption(Option.builder(OPTION_LFLR).desc("Local-FLR threshold").hasArg().build());
+		options.addOption(Option.builder(OPTION_GFLR).desc("Global-FLR threshold").hasArg().build());
+		options.addOption(Option.builder(OPTION_REMOVE).desc("Remove PSMs not passing the thresholds").build());
+		options.addOption(Option.builder(OPTION_CACHE).desc("Use the binary cache of the luciphor file").build());
+		return options;
+	}
+
+	public static void main(String[] args) throws Exception {
+		final Options options = defineCommandLineOptions();
+		final CommandLine cmd;
+		try {
+			cmd = new DefaultParser().parse(options, args);
+		} catch (final ParseException e) {
+			System.err.println(e.getMessage());
+			new HelpFormatter().printHelp(MacroBenchmark.class.getSimpleName(), options);
+			System.exit(-1);
+			return;
+		}
+		final File folder = new File(cmd.getOptionValue(OPTION_DIR));
+		final File luciphorFile = new File(folder, SyntheticDatasetGenerator.LUCIPHOR_FILE_NAME);
+		final File dtaSelectFile = new File(folder, SyntheticDatasetGenerator.DTASELECT_FILE_NAME);
+		if (cmd.hasOption(OPTION_PSMS) || !luciphorFile.isFile() || !dtaSelectFile.isFile()) {
+			final long numPSMs = Long.valueOf(cmd.getOptionValue(OPTION_PSMS, "10000"));
+			final long seed = Long.valueOf(cmd.getOptionValue(OPTION_SEED, "1234"));
+			System.out.println("Generating dataset of " + numPSMs + " PSMs in '" + folder.getAbsolutePath() + "'");
+			new SyntheticDatasetGenerator(numPSMs, seed).generate(folder);
+		}
+		final Double lflr = cmd.hasOption(OPTION_LFLR) ? Double.valueOf(cmd.getOptionValue(OPTION_LFLR)) : null;
+		final Double gflr = cmd.hasOption(OPTION_GFLR) ? Double.valueOf(cmd.getOptionValue(OPTION_GFLR)) : null;
+		final MacroBenchmark benchmark = new MacroBenchmark(luciphorFile, dtaSelectFile, lflr, gflr,
+				cmd.hasOption(OPTION_REMOVE), Integer.valueOf(cmd.getOptionValue(OPTION_THREADS, "1")),
+				cmd.hasOption(OPTION_CACHE));
+		benchmark.run(Integer.valueOf(cmd.getOptionValue(OPTION_ITERATIONS, "3")));
+	}
+}
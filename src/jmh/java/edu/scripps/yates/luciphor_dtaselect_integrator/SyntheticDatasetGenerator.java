@@ -0,0 +1,171 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Writes a Luciphor results file and a DTASelect-filter.txt file with
+ * synthetic PSMs, at the scale requested, with the layout that
+ * {@link LuciphorFileReader} and {@link DTASelectRewriter} expect: the
+ * DTASelect header lines, protein groups of one or more protein lines followed
+ * by their PSMs ('*' for the unique ones), PTM masses in the sequences, and the
+ * table of proteins, peptides and spectra at the bottom.<br>
+ * Some PSMs are repeated in more than one protein group, as shared peptides,
+ * and some of them are not in the Luciphor file. Both files are written in a
+ * single pass, so that the memory used doesn't depend on the number of PSMs.
+ */
+public class SyntheticDatasetGenerator {
+	public static final String LUCIPHOR_FILE_NAME = "luciphor_results.tsv";
+	public static final String DTASELECT_FILE_NAME = "DTASelect-filter.txt";
+	/**
+	 * Probability of a PSM line of being a PSM already written in a previous
+	 * protein group
+	 */
+	private static final double SHARED_PSM_PROBABILITY = 0.3;
+	/**
+	 * Probability of a PSM of not being in the Luciphor file
+	 */
+	private static final double MISSING_IN_LUCIPHOR_PROBABILITY = 0.15;
+	/**
+	 * Number of last PSMs from which the shared ones are taken
+	 */
+	private static final int NUM_RECENT_PSMS = 256;
+	private final long numPSMs;
+	private final long seed;
+	private long numProteins;
+	private long numPSMLines;
+
+	/**
+	 *
+	 * @param numPSMs number of different PSMs in the DTASelect file
+	 * @param seed    seed of the random values, so that the same dataset can be
+	 *                generated again
+	 */
+	public SyntheticDatasetGenerator(long numPSMs, long seed) {
+		this.numPSMs = numPSMs;
+		this.seed = seed;
+	}
+
+	/**
+	 * Writes {@link #LUCIPHOR_FILE_NAME} and {@link #DTASELECT_FILE_NAME} in the
+	 * folder, replacing them if they exist
+	 *
+	 * @param folder
+	 * @throws IOException
+	 */
+	public void generate(File folder) throws IOException {
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			throw new IOException("Folder '" + folder.getAbsolutePath() + "' can not be created");
+		}
+		numProteins = 0;
+		numPSMLines = 0;
+		final BenchmarkData data = new BenchmarkData(seed);
+		// a different sequence than the one of the lines, for the layout of the groups
+		final Random random = new Random(~seed);
+		final String[] recentPSMIDs = new String[NUM_RECENT_PSMS];
+		final String[] recentSequences = new String[NUM_RECENT_PSMS];
+		try (BufferedWriter luciphor = Files.newBufferedWriter(new File(folder, LUCIPHOR_FILE_NAME).toPath(),
+				StandardCharsets.UTF_8);
+				BufferedWriter dtaSelect = Files.newBufferedWriter(new File(folder, DTASELECT_FILE_NAME).toPath(),
+						StandardCharsets.UTF_8)) {
+			luciphor.write(BenchmarkData.LUCIPHOR_HEADER + "\n");
+			writeDTASelectHeader(dtaSelect);
+			long psm = 0;
+			while (psm < numPSMs) {
+				final int proteinsInGroup = random.nextInt(5) < 3 ? 1 : 2 + random.nextInt(2);
+				for (int i = 0; i < proteinsInGroup; i++) {
+					dtaSelect.write(data.getDTASelectProteinLine((int) (numProteins++ % Integer.MAX_VALUE)) + "\n");
+				}
+				final int psmsInGroup = 1 + random.nextInt(5);
+				for (int i = 0; i < psmsInGroup && psm < numPSMs; i++) {
+					final String psmID;
+					final String sequence;
+					if (psm > 0 && random.nextDouble() < SHARED_PSM_PROBABILITY) {
+						final int recent = random.nextInt((int) Math.min(psm, NUM_RECENT_PSMS));
+						psmID = recentPSMIDs[recent];
+						sequence = recentSequences[recent];
+					} else {
+						final int index = (int) (psm % NUM_RECENT_PSMS);
+						final String peptide = data.nextPeptide(7, 25);
+						psmID = data.getPSMID((int) (psm % Integer.MAX_VALUE));
+						sequence = data.nextDTASelectSequence(peptide);
+						if (random.nextDouble() >= MISSING_IN_LUCIPHOR_PROBABILITY) {
+							luciphor.write(data.getLuciphorLine((int) (psm % Integer.MAX_VALUE), peptide,
+									data.nextLuciphorPrediction(peptide, sequence)) + "\n");
+						}
+						recentPSMIDs[index] = psmID;
+						recentSequences[index] = sequence;
+						psm++;
+					}
+					dtaSelect.write(getDTASelectPSMLine(psmID, sequence, random) + "\n");
+					numPSMLines++;
+				}
+			}
+			writeDTASelectFooter(dtaSelect);
+		}
+	}
+
+	private static String getDTASelectPSMLine(String psmID, String sequence, Random random) {
+		return (random.nextBoolean() ? "*" : "") + "\t" + psmID
+				+ "\t3.21\t0.3\t99.9\t1500.7\t1500.6\t1.2\t12000.0\t1\t50.0\t5.5\t40.0\t" + (1 + random.nextInt(4))
+				+ "\t" + sequence;
+	}
+
+	private static void writeDTASelectHeader(Writer writer) throws IOException {
+		writer.write("DTASelect v2.1.12\n");
+		writer.write("/data/synthetic\n");
+		writer.write("/data/synthetic.fasta\n");
+		writer.write("SEQUEST 3.0 in SQT format.\n");
+		writer.write(" --sfp 0.01\n");
+		writer.write("true\tUse criteria\n");
+		writer.write(BenchmarkData.DTASELECT_PROTEIN_HEADER + "\n");
+		writer.write(BenchmarkData.DTASELECT_PSM_HEADER + "\n");
+	}
+
+	private void writeDTASelectFooter(Writer writer) throws IOException {
+		writer.write("\tProteins\tPeptide IDs\tSpectra\n");
+		final String counts = numProteins + "\t" + numPSMs + "\t" + numPSMLines + "\n";
+		writer.write("Unfiltered\t" + counts);
+		writer.write("Filtered\t" + counts);
+		writer.write("Forward matches\t" + counts);
+		writer.write("Redundant Forward matches\t" + counts);
+		writer.write("Decoy matches\t0\t0\t0\n");
+		writer.write("Redundant Decoy matches\t0\t0\t0\n");
+		writer.write("Forward FDR\t0.0\t0.0\t0.0\n");
+	}
+
+	public long getNumProteins() {
+		return numProteins;
+	}
+
+	public long getNumPSMLines() {
+		return numPSMLines;
+	}
+
+	/**
+	 * Usage: SyntheticDatasetGenerator folder numPSMs [seed]
+	 *
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: " + SyntheticDatasetGenerator.class.getSimpleName() + " folder numPSMs [seed]");
+			System.exit(-1);
+		}
+		final File folder = new File(args[0]);
+		final long numPSMs = Long.valueOf(args[1]);
+		final long seed = args.length > 2 ? Long.valueOf(args[2]) : 1234;
+		final long start = System.currentTimeMillis();
+		final SyntheticDatasetGenerator generator = new SyntheticDatasetGenerator(numPSMs, seed);
+		generator.generate(folder);
+		System.out.println(numPSMs + " PSMs in " + generator.getNumPSMLines() + " lines of "
+				+ generator.getNumProteins() + " proteins written to '" + folder.getAbsolutePath() + "' in "
+				+ (System.currentTimeMillis() - start) + " ms");
+	}
+}
@@ -0,0 +1,247 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator.utils;
+
+import java.text.DecimalFormat;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.scripps.yates.luciphor_dtaselect_integrator.BenchmarkData;
+
+/**
+ * Throughput of the sequence utilities used for each PSM: parsing the PTMs of
+ * a DTASelect sequence (with {@link FastaParser} or with
+ * {@link PeptideSequenceScanner}), cleaning it, formatting the delta masses,
+ * finding the positions of characters and calculating the fragment ion
+ * ladders. Each operation is one sequence.<br>
+ * Run with the GC profiler (as the benchmark profile does) to get the
+ * allocation rate next to the throughput.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class UtilsBenchmark {
+	private static final int NUM_SEQUENCES = 1000;
+	private static final double PHOSPHO_MASS = 79.966331;
+
+	private String[] dtaSelectSequences;
+	/**
+	 * DTASelect sequences without the aminoacids before and after the peptide
+	 */
+	private String[] sequencesInBetween;
+	private String[] peptides;
+	private int[][] modIndexHashes;
+	private final PeptideSequenceScanner scanner = new PeptideSequenceScanner();
+	/**
+	 * Delta masses of PTMs, mostly the usual ones as in a run
+	 */
+	private double[] deltaMasses;
+	private final DecimalFormat decimalFormat = new DecimalFormat("#.######");
+	/**
+	 * Monoisotopic masses with the phosphorylation of S, T and Y
+	 */
+	private MassContext massContext;
+	private FragmentLadderEngine ladderEngine;
+	private final double[] ladderBuffer = new double[6 * 64];
+	private FragmentLadderEngine.Ladders ladders;
+	/**
+	 * Cache with room for all the peptides, as when they are found again in
+	 * other PSMs
+	 */
+	private FragmentLadderCache ladderCache;
+	private double[] precursorMasses;
+	private final double[] isotopeBuffer = new double[IsotopeEnvelopeCalculator.DEFAULT_NUM_PEAKS];
+	/**
+	 * Without table, so that every envelope is calculated
+	 */
+	private final IsotopeEnvelopeCalculator isotopeCalculatorWithoutTable = new IsotopeEnvelopeCalculator(1.0, 1.0,
+			IsotopeEnvelopeCalculator.DEFAULT_NUM_PEAKS);
+
+	@Setup
+	public void setup() {
+		final BenchmarkData data = new BenchmarkData();
+		dtaSelectSequences = new String[NUM_SEQUENCES];
+		sequencesInBetween = new String[NUM_SEQUENCES];
+		peptides = new String[NUM_SEQUENCES];
+		modIndexHashes = new int[NUM_SEQUENCES][];
+		for (int i = 0; i < NUM_SEQUENCES; i++) {
+			peptides[i] = data.nextPeptide(7, 25);
+			dtaSelectSequences[i] = data.nextDTASelectSequence(peptides[i]);
+			sequencesInBetween[i] = FastaParser.getSequenceInBetween(dtaSelectSequences[i]);
+			modIndexHashes[i] = new int[peptides[i].length() + 1];
+			for (final PTMInPeptide ptm : FastaParser.getPTMsInPeptide(sequencesInBetween[i])) {
+				if (ptm.getPosition() > 0) {
+					modIndexHashes[i][ptm.getPosition() - 1] = 1;
+				}
+			}
+		}
+		final double[] usualDeltaMasses = { PHOSPHO_MASS, 15.994915, 203.079373, 57.021464, 42.010565 };
+		final Random random = new Random(1234);
+		deltaMasses = new double[NUM_SEQUENCES];
+		for (int i = 0; i < NUM_SEQUENCES; i++) {
+			deltaMasses[i] = i % 10 == 0 ? random.nextDouble() * 100
+					: usualDeltaMasses[random.nextInt(usualDeltaMasses.length)];
+		}
+		massContext = MassContext.monoisotopic();
+		for (final char aa : "STY".toCharArray()) {
+			massContext = massContext.withDiffMod(aa, PHOSPHO_MASS);
+		}
+		ladderEngine = new FragmentLadderEngine(massContext, false, FragmentLadderEngine.A_ION,
+				FragmentLadderEngine.B_ION, FragmentLadderEngine.C_ION, FragmentLadderEngine.X_ION,
+				FragmentLadderEngine.Y_ION, FragmentLadderEngine.Z_ION);
+		ladderCache = new FragmentLadderCache(ladderEngine, 2 * NUM_SEQUENCES);
+		precursorMasses = new double[NUM_SEQUENCES];
+		for (int i = 0; i < NUM_SEQUENCES; i++) {
+			precursorMasses[i] = 500.0 + random.nextDouble() * 4500.0;
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_SEQUENCES)
+	public void getPTMsInPeptide(Blackhole blackhole) {
+		for (final String sequence : sequencesInBetween) {
+			blackhole.consume(FastaParser.getPTMsInPeptide(sequence));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_SEQUENCES)
+	public void getPTMsInPeptideWithFlanks(Blackhole blackhole) {
+		for (final String sequence : dtaSelectSequences) {
+			blackhole.consume(FastaParser.getBeforeSeq(sequence));
+			blackhole.consume(FastaParser.getAfterSeq(sequence));
+			blackhole.consume(FastaParser.getPTMsInPeptide(FastaParser.getSequenceInBetween(sequence)));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_SEQUENCES)
+	public void scanPeptideSequence(Blackhole blackhole) {
+		for (final String sequence : dtaSelectSequences) {
+			blackhole.consume(scanner.scan(sequence).getNumPTMs());
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_SEQUENCES)
+	public void formatDeltaMassWithDecimalFormat(Blackhole blackhole) {
+		for (final double deltaMass : deltaMasses) {
+			blackhole.consume(decimalFormat.format(deltaMass));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_SEQUENCES)
+	public void formatDeltaMass(Blackhole blackhole) {
+		for (final double deltaMass : deltaMasses) {
+			blackhole.consume(DeltaMassFormatter.format(deltaMass));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_SEQUENCES)
+	public void cleanSequence(Blackhole blackhole) {
+		for (final String sequence : dtaSelectSequences) {
+			blackhole.consume(FastaParser.cleanSequence(sequence));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_SEQUENCES)
+	public void allPositionsOfString(Blackhole blackhole) {
+		for (final String sequence : dtaSelectSequences) {
+			blackhole.consume(StringUtils.allPositionsOf(sequence, "("));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_SEQUENCES)
+	public void allPositionsOfChar(Blackhole blackhole) {
+		for (final String peptide : peptides) {
+			blackhole.consume(StringUtils.allPositionsOf(peptide, 'S'));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_SEQUENCES)
+	public void getFragIonArr(Blackhole blackhole) {
+		for (final String peptide : peptides) {
+			blackhole.consume(massContext.getFragIonArr(peptide, 1));
+			blackhole.consume(massContext.getFragIonArrRev(peptide, 7));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_SEQUENCES)
+	public void getFragIonArrMod(Blackhole blackhole) {
+		for (int i = 0; i < NUM_SEQUENCES; i++) {
+			blackhole.consume(massContext.getFragIonArrMod(peptides[i], 1, modIndexHashes[i]));
+			blackhole.consume(massContext.getFragIonArrRevMod(peptides[i], 7, modIndexHashes[i]));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_SEQUENCES)
+	public void getAllFragIonArrsMod(Blackhole blackhole) {
+		for (int i = 0; i < NUM_SEQUENCES; i++) {
+			for (int ion = FragmentLadderEngine.A_ION; ion <= FragmentLadderEngine.C_ION; ion++) {
+				blackhole.consume(massContext.getFragIonArrMod(peptides[i], ion, modIndexHashes[i]));
+			}
+			for (int ion = FragmentLadderEngine.X_ION; ion <= FragmentLadderEngine.Z_ION; ion++) {
+				blackhole.consume(massContext.getFragIonArrRevMod(peptides[i], ion, modIndexHashes[i]));
+			}
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_SEQUENCES)
+	public void computeLadders(Blackhole blackhole) {
+		for (int i = 0; i < NUM_SEQUENCES; i++) {
+			blackhole.consume(ladderEngine.compute(peptides[i], modIndexHashes[i], ladderBuffer, 0));
+		}
+		blackhole.consume(ladderBuffer);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_SEQUENCES)
+	public void computeLadderBatch(Blackhole blackhole) {
+		ladders = ladderEngine.compute(peptides, modIndexHashes, ladders);
+		blackhole.consume(ladders);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_SEQUENCES)
+	public void getCachedLadders(Blackhole blackhole) {
+		for (int i = 0; i < NUM_SEQUENCES; i++) {
+			blackhole.consume(ladderCache.get(peptides[i], modIndexHashes[i], ladderBuffer, 0));
+		}
+		blackhole.consume(ladderBuffer);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_SEQUENCES)
+	public void getIsotopeEnvelope(Blackhole blackhole) {
+		final IsotopeEnvelopeCalculator calculator = IsotopeEnvelopeCalculator.getDefault();
+		for (int i = 0; i < NUM_SEQUENCES; i++) {
+			blackhole.consume(calculator.getAbundances(precursorMasses[i], isotopeBuffer, 0));
+		}
+		blackhole.consume(isotopeBuffer);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_SEQUENCES)
+	public void calculateIsotopeEnvelope(Blackhole blackhole) {
+		for (int i = 0; i < NUM_SEQUENCES; i++) {
+			blackhole.consume(isotopeCalculatorWithoutTable.getAbundances(precursorMasses[i], isotopeBuffer, 0));
+		}
+		blackhole.consume(isotopeBuffer);
+	}
+}
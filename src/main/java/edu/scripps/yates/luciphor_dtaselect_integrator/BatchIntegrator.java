@@ -0,0 +1,388 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs several {@link LuciphorDtaselectIntegrator} jobs in the same process, in
+ * a work-stealing pool, scheduling the jobs with the biggest input files first
+ * so that they don't end up running alone at the end.<br>
+ * The jobs can be defined in a manifest file or found in a directory. A summary
+ * of all the jobs is written to a tab separated file.
+ */
+public class BatchIntegrator {
+	public static final String SUMMARY_FILE_NAME = "luciphor_dtaselect_integrator_batch_summary.tsv";
+	private static final String DTASELECT_FILE_NAME = "DTASelect-filter.txt";
+	private static final String NO_THRESHOLD = "-";
+	private final List<BatchJob> jobs;
+	private final File summaryFile;
+	private final int numThreads;
+	private boolean useCache;
+
+	/**
+	 *
+	 * @param jobs
+	 * @param summaryFile
+	 * @param numThreads  number of jobs running at the same time
+	 * @throws IllegalArgumentException if the same DTASelect file is in more than
+	 *                                  one job
+	 */
+	public BatchIntegrator(List<BatchJob> jobs, File summaryFile, int numThreads) {
+		checkDTASelectFiles(jobs);
+		this.jobs = jobs;
+		this.summaryFile = summaryFile;
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Creates a {@link BatchIntegrator} from a manifest file, that is a tab
+	 * separated file in which each line defines a job with these columns:<br>
+	 * luciphor file, dtaselect file, local FLR threshold, global FLR threshold and
+	 * remove option (true or false).<br>
+	 * The last three columns are optional and the thresholds can be empty or '-'
+	 * if they are not used. Paths can be relative to the folder of the manifest.
+	 * Empty lines and lines starting by '#' are ignored. A DTASelect file can
+	 * only be in one line.<br>
+	 * The summary is written in the same folder of the manifest.
+	 *
+	 * @param manifest
+	 * @param numThreads number of jobs running at the same time
+	 * @return
+	 * @throws IOException
+	 */
+	public static BatchIntegrator fromManifest(File manifest, int numThreads) throws IOException {
+		final File folder = manifest.getAbsoluteFile().getParentFile();
+		final List<BatchJob> jobs = new ArrayList<BatchJob>();
+		try (BufferedReader br = Files.newBufferedReader(manifest.toPath())) {
+			String line = null;
+			int numLine = 0;
+			while ((line = br.readLine()) != null) {
+				numLine++;
+				if ("".equals(line.trim()) || line.startsWith("#")) {
+					continue;
+				}
+				final String[] split = line.split("\t");
+				if (split.length < 2) {
+					throw new IllegalArgumentException("Line " + numLine + " of manifest '"
+							+ manifest.getAbsolutePath() + "' should have at least the luciphor and dtaselect files");
+				}
+				final File luciphorFile = resolve(folder, split[0].trim());
+				final File dtaselectFile = resolve(folder, split[1].trim());
+				final Double lflr = split.length > 2 ? parseThreshold(split[2], numLine) : null;
+				final Double gflr = split.length > 3 ? parseThreshold(split[3], numLine) : null;
+				final boolean removePSMs = split.length > 4 && Boolean.valueOf(split[4].trim());
+				jobs.add(new BatchJob(luciphorFile, dtaselectFile, lflr, gflr, removePSMs));
+			}
+		}
+		return new BatchIntegrator(jobs, new File(folder, SUMMARY_FILE_NAME), numThreads);
+	}
+
+	/**
+	 * Creates a {@link BatchIntegrator} with a job for each folder under the
+	 * directory (including itself) containing a DTASelect-filter.txt file and a
+	 * single luciphor results file, which is a .tsv or .txt file with 'luciphor'
+	 * in its name. All the jobs use the same thresholds and remove option.<br>
+	 * The summary is written in the directory.
+	 *
+	 * @param directory
+	 * @param lflrThreshold
+	 * @param gflrThreshold
+	 * @param removePSMsNotPassingThreshold
+	 * @param numThreads                    number of jobs running at the same time
+	 * @return
+	 */
+	public static BatchIntegrator fromDirectory(File directory, Double lflrThreshold, Double gflrThreshold,
+			boolean removePSMsNotPassingThreshold, int numThreads) {
+		final List<BatchJob> jobs = new ArrayList<BatchJob>();
+		addJobsFromDirectory(directory, lflrThreshold, gflrThreshold, removePSMsNotPassingThreshold, jobs);
+		return new BatchIntegrator(jobs, new File(directory, SUMMARY_FILE_NAME), numThreads);
+	}
+
+	private static void addJobsFromDirectory(File directory, Double lflrThreshold, Double gflrThreshold,
+			boolean removePSMsNotPassingThreshold, List<BatchJob> jobs) {
+		final File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		final File dtaselectFile = new File(directory, DTASELECT_FILE_NAME);
+		if (dtaselectFile.isFile()) {
+			final List<File> luciphorFiles = new ArrayList<File>();
+			for (final File file : files) {
+				final String name = file.getName().toLowerCase();
+				if (file.isFile() && name.contains("luciphor") && (name.endsWith(".tsv") || name.endsWith(".txt"))) {
+					luciphorFiles.add(file);
+				}
+			}
+			if (luciphorFiles.size() == 1) {
+				jobs.add(new BatchJob(luciphorFiles.get(0), dtaselectFile, lflrThreshold, gflrThreshold,
+						removePSMsNotPassingThreshold));
+			} else {
+				System.out.println("Folder '" + directory.getAbsolutePath() + "' is skipped because it has "
+						+ luciphorFiles.size() + " luciphor results files instead of 1");
+			}
+		}
+		final List<File> subdirectories = new ArrayList<File>();
+		for (final File file : files) {
+			if (file.isDirectory()) {
+				subdirectories.add(file);
+			}
+		}
+		Collections.sort(subdirectories);
+		for (final File subdirectory : subdirectories) {
+			addJobsFromDirectory(subdirectory, lflrThreshold, gflrThreshold, removePSMsNotPassingThreshold, jobs);
+		}
+	}
+
+	/**
+	 * Checks that no DTASelect file is in more than one job, as the jobs run at
+	 * the same time and each one rewrites its DTASelect file in place, after
+	 * copying it to a backup file that is the same for all the jobs of that file
+	 *
+	 * @param jobs
+	 */
+	private static void checkDTASelectFiles(List<BatchJob> jobs) {
+		final Map<String, BatchJob> jobsByDTASelectFile = new HashMap<String, BatchJob>();
+		for (final BatchJob job : jobs) {
+			final String path = getCanonicalPath(job.getDtaselectFile());
+			final BatchJob otherJob = jobsByDTASelectFile.put(path, job);
+			if (otherJob != null) {
+				throw new IllegalArgumentException("DTASelect file '" + path + "' is in more than one job (with '"
+						+ otherJob.getLuciphorFile().getAbsolutePath() + "' and '"
+						+ job.getLuciphorFile().getAbsolutePath()
+						+ "'). Each DTASelect file can only be integrated once in a batch");
+			}
+		}
+	}
+
+	private static String getCanonicalPath(File file) {
+		try {
+			return file.getCanonicalPath();
+		} catch (final IOException e) {
+			return file.getAbsolutePath();
+		}
+	}
+
+	private static File resolve(File folder, String path) {
+		final File file = new File(path);
+		if (file.isAbsolute()) {
+			return file;
+		}
+		return new File(folder, path);
+	}
+
+	private static Double parseThreshold(String value, int numLine) {
+		value = value.trim();
+		if ("".equals(value) || NO_THRESHOLD.equals(value)) {
+			return null;
+		}
+		final Double ret = Double.valueOf(value);
+		if (ret < 0.0 || ret > 1.0 || ret.isNaN()) {
+			throw new IllegalArgumentException("Threshold '" + value + "' at line " + numLine
+					+ " of manifest not valid. It must be a real number between 0 and 1.0");
+		}
+		return ret;
+	}
+
+	/**
+	 * Runs all the jobs and writes the summary file
+	 *
+	 * @return the results of the jobs, in the same order as the jobs
+	 * @throws IOException
+	 */
+	public List<BatchJobResult> run() throws IOException {
+		System.out.println("Running " + jobs.size() + " jobs with " + numThreads + " threads");
+		// biggest jobs first
+		final List<BatchJob> sortedJobs = new ArrayList<BatchJob>(jobs);
+		Collections.sort(sortedJobs, Comparator.comparingLong(BatchJob::getSize).reversed());
+		// asynchronous mode, so that jobs are taken in the order they are submitted
+		final ForkJoinPool pool = new ForkJoinPool(numThreads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null,
+				true);
+		// by identity, as BatchJob doesn't override equals
+		final Map<BatchJob, Future<BatchJobResult>> futures = new IdentityHashMap<BatchJob, Future<BatchJobResult>>();
+		try {
+			for (final BatchJob job : sortedJobs) {
+				futures.put(job, pool.submit(() -> runJob(job)));
+			}
+			final List<BatchJobResult> results = new ArrayList<BatchJobResult>();
+			for (final BatchJob job : jobs) {
+				results.add(futures.get(job).get());
+			}
+			writeSummary(results);
+			int numFailed = 0;
+			for (final BatchJobResult result : results) {
+				if (!result.isSuccessful()) {
+					numFailed++;
+				}
+			}
+			System.out.println((results.size() - numFailed) + " jobs finished correctly and " + numFailed
+					+ " failed. Summary written to '" + summaryFile.getAbsolutePath() + "'");
+			return results;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while running the batch", e);
+		} catch (final ExecutionException e) {
+			// runJob doesn't throw exceptions
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private BatchJobResult runJob(BatchJob job) {
+		System.out.println("Integrating '" + job.getLuciphorFile().getAbsolutePath() + "' into '"
+				+ job.getDtaselectFile().getAbsolutePath() + "'");
+		final long start = System.currentTimeMillis();
+		// each job parses its luciphor file in a single thread, as the jobs already
+		// run in parallel
+		final LuciphorDtaselectIntegrator integrator = new LuciphorDtaselectIntegrator(
+				job.getLuciphorFile().getAbsolutePath(), job.getDtaselectFile().getAbsolutePath(),
+				job.getLflrThreshold(), job.getGflrThreshold(), job.isRemovePSMsNotPassingThreshold(), 1, useCache);
+		Exception error = null;
+		try {
+			integrator.run();
+			error = integrator.getDTASelectError();
+		} catch (final Exception e) {
+			error = e;
+		}
+		if (error != null) {
+			System.err.println("Error integrating '" + job.getLuciphorFile().getAbsolutePath() + "' into '"
+					+ job.getDtaselectFile().getAbsolutePath() + "': " + error);
+		}
+		return new BatchJobResult(job, integrator, error, System.currentTimeMillis() - start);
+	}
+
+	private void writeSummary(List<BatchJobResult> results) throws IOException {
+		try (FileWriter fw = new FileWriter(summaryFile, false)) {
+			fw.write("luciphor_file\tdtaselect_file\tlflr\tgflr\trem\tstatus\tluciphor_PSMs\t"
+					+ "luciphor_PSMs_passing_thresholds\tdtaselect_PSMs\tPSMs_changed\tPSMs_removed\t"
+					+ "proteins_removed\ttime_ms\terror\n");
+			for (final BatchJobResult result : results) {
+				final BatchJob job = result.getJob();
+				final LuciphorDtaselectIntegrator integrator = result.getIntegrator();
+				fw.write(job.getLuciphorFile().getAbsolutePath() + "\t" + job.getDtaselectFile().getAbsolutePath()
+						+ "\t" + (job.getLflrThreshold() != null ? job.getLflrThreshold() : NO_THRESHOLD) + "\t"
+						+ (job.getGflrThreshold() != null ? job.getGflrThreshold() : NO_THRESHOLD) + "\t"
+						+ job.isRemovePSMsNotPassingThreshold() + "\t" + (result.isSuccessful() ? "OK" : "FAILED")
+						+ "\t" + integrator.getNumLuciphorPSMs() + "\t"
+						+ integrator.getNumLuciphorPSMsPassingThresholds() + "\t" + integrator.getNumDTASelectPSMs()
+						+ "\t" + integrator.getNumPSMsChanged() + "\t" + integrator.getNumPSMsRemoved() + "\t"
+						+ integrator.getNumProteinsRemoved() + "\t" + result.getTimeInMs() + "\t"
+						+ (result.getError() != null ? String.valueOf(result.getError()).replace('\t', ' ') : "")
+						+ "\n");
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @param useCache if true, the luciphor files are read from their binary
+	 *                 sidecars, see {@link LuciphorCache}
+	 */
+	public void setUseCache(boolean useCache) {
+		this.useCache = useCache;
+	}
+
+	public List<BatchJob> getJobs() {
+		return jobs;
+	}
+
+	/**
+	 * The input files and parameters of a single integration
+	 */
+	public static class BatchJob {
+		private final File luciphorFile;
+		private final File dtaselectFile;
+		private final Double lflrThreshold;
+		private final Double gflrThreshold;
+		private final boolean removePSMsNotPassingThreshold;
+
+		public BatchJob(File luciphorFile, File dtaselectFile, Double lflrThreshold, Double gflrThreshold,
+				boolean removePSMsNotPassingThreshold) {
+			this.luciphorFile = luciphorFile;
+			this.dtaselectFile = dtaselectFile;
+			this.lflrThreshold = lflrThreshold;
+			this.gflrThreshold = gflrThreshold;
+			this.removePSMsNotPassingThreshold = removePSMsNotPassingThreshold;
+		}
+
+		/**
+		 *
+		 * @return the size in bytes of both input files, used to schedule the
+		 *         biggest jobs first
+		 */
+		public long getSize() {
+			return luciphorFile.length() + dtaselectFile.length();
+		}
+
+		public File getLuciphorFile() {
+			return luciphorFile;
+		}
+
+		public File getDtaselectFile() {
+			return dtaselectFile;
+		}
+
+		public Double getLflrThreshold() {
+			return lflrThreshold;
+		}
+
+		public Double getGflrThreshold() {
+			return gflrThreshold;
+		}
+
+		public boolean isRemovePSMsNotPassingThreshold() {
+			return removePSMsNotPassingThreshold;
+		}
+	}
+
+	/**
+	 * The result of a {@link BatchJob}
+	 */
+	public static class BatchJobResult {
+		private final BatchJob job;
+		private final LuciphorDtaselectIntegrator integrator;
+		private final Exception error;
+		private final long timeInMs;
+
+		private BatchJobResult(BatchJob job, LuciphorDtaselectIntegrator integrator, Exception error,
+				long timeInMs) {
+			this.job = job;
+			this.integrator = integrator;
+			this.error = error;
+			this.timeInMs = timeInMs;
+		}
+
+		public boolean isSuccessful() {
+			return error == null;
+		}
+
+		public BatchJob getJob() {
+			return job;
+		}
+
+		public LuciphorDtaselectIntegrator getIntegrator() {
+			return integrator;
+		}
+
+		public Exception getError() {
+			return error;
+		}
+
+		public long getTimeInMs() {
+			return timeInMs;
+		}
+	}
+}
@@ -0,0 +1,319 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Scanner of DTASelect-filter.txt files that maps the file in windows of bytes
+ * and finds the line boundaries and the type of each line directly in the
+ * bytes, without decoding them.<br>
+ * The bytes of the current line are copied into a buffer that is reused from
+ * line to line, so lines that are written back as they are don't create any
+ * object. Lines are terminated by '\n', '\r' or "\r\n", as in
+ * {@link java.io.BufferedReader#readLine()}.<br>
+ * Files bigger than 2Gb are supported because only a window of the file is
+ * mapped at a time.
+ */
+public class DTASelectFileScanner implements Closeable {
+	private static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+	public enum LineType {
+		/**
+		 * Header of the protein lines, starting by "Locus\t"
+		 */
+		PROTEIN_HEADER,
+		/**
+		 * Header of the PSM lines, starting by "Unique\t"
+		 */
+		PSM_HEADER,
+		/**
+		 * First line of the table at the bottom of the file, starting by
+		 * "\tProteins"
+		 */
+		FINAL_TABLE,
+		/**
+		 * PSM line, starting by "\t" or "*\t"
+		 */
+		PSM,
+		/**
+		 * Any other line
+		 */
+		OTHER
+	}
+
+	private static final byte[] LOCUS = "Locus\t".getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] UNIQUE = "Unique\t".getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] PROTEINS = "\tProteins".getBytes(StandardCharsets.ISO_8859_1);
+
+	private final FileChannel channel;
+	private final long fileSize;
+	private int windowSize;
+	private MappedByteBuffer window;
+	private long windowStart;
+	private int position;
+	private byte[] line = new byte[8 * 1024];
+	private int lineLength;
+	private LineType lineType;
+
+	public DTASelectFileScanner(File file) throws IOException {
+		this(file, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 *
+	 * @param file
+	 * @param windowSize size in bytes of the windows of the file that are mapped
+	 *                   in memory. It is enlarged if a line doesn't fit in it.
+	 * @throws IOException
+	 */
+	public DTASelectFileScanner(File file, int windowSize) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		fileSize = channel.size();
+		this.windowSize = windowSize;
+		map(0);
+	}
+
+	/**
+	 * Maps the window starting at start. The previous window is not unmapped
+	 * until its buffer is garbage collected, as there is no public way of
+	 * unmapping it before Java 9, so the mapped address space can grow with the
+	 * size of the file between collections. It is only address space: the pages
+	 * are backed by the file and can be dropped by the operating system at any
+	 * time, and with the default window size there is a mapping every
+	 * {@value #DEFAULT_WINDOW_SIZE} bytes.
+	 */
+	private void map(long start) throws IOException {
+		windowStart = start;
+		window = channel.map(MapMode.READ_ONLY, start, Math.min(windowSize, fileSize - start));
+		position = 0;
+	}
+
+	/**
+	 * Moves to the next line of the file
+	 *
+	 * @return false if there are no more lines
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException {
+		final long lineStart = windowStart + position;
+		if (lineStart >= fileSize) {
+			return false;
+		}
+		while (true) {
+			final int limit = window.limit();
+			final boolean isLastWindow = windowStart + limit >= fileSize;
+			int end = position;
+			byte b = 0;
+			while (end < limit) {
+				b = window.get(end);
+				if (b == '\n' || b == '\r') {
+					break;
+				}
+				end++;
+			}
+			int terminatorLength = 1;
+			if (end < limit && b == '\r') {
+				if (end + 1 < limit) {
+					if (window.get(end + 1) == '\n') {
+						terminatorLength = 2;
+					}
+				} else if (!isLastWindow) {
+					// we need to see the next byte, which is in the next window
+					mapFromLineStart(lineStart);
+					continue;
+				}
+			}
+			if (end == limit) {
+				if (!isLastWindow) {
+					// the line continues in the next window
+					mapFromLineStart(lineStart);
+					continue;
+				}
+				// last line of the file without new line at the end
+				terminatorLength = 0;
+			}
+			copyLine(end - position);
+			position = end + terminatorLength;
+			lineType = classifyLine();
+			return true;
+		}
+	}
+
+	/**
+	 * Maps a new window starting at the beginning of the current line, which
+	 * doesn't end in the current window. If the current window already started at
+	 * the beginning of the line, the line is longer than the window, so the size
+	 * of the window is doubled.
+	 *
+	 * @param lineStart
+	 * @throws IOException
+	 */
+	private void mapFromLineStart(long lineStart) throws IOException {
+		if (position == 0) {
+			windowSize = (int) Math.min(Integer.MAX_VALUE, windowSize * 2L);
+		}
+		map(lineStart);
+	}
+
+	private void copyLine(int length) {
+		if (line.length < length) {
+			line = new byte[Math.max(length, line.length * 2)];
+		}
+		window.position(position);
+		window.get(line, 0, length);
+		lineLength = length;
+	}
+
+	private LineType classifyLine() {
+		if (startsWith(LOCUS)) {
+			return LineType.PROTEIN_HEADER;
+		} else if (startsWith(UNIQUE)) {
+			return LineType.PSM_HEADER;
+		} else if (startsWith(PROTEINS)) {
+			return LineType.FINAL_TABLE;
+		} else if (lineLength > 0 && line[0] == '\t') {
+			return LineType.PSM;
+		} else if (lineLength > 1 && line[0] == '*' && line[1] == '\t') {
+			return LineType.PSM;
+		}
+		return LineType.OTHER;
+	}
+
+	private boolean startsWith(byte[] prefix) {
+		if (lineLength < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (line[i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public LineType getLineType() {
+		return lineType;
+	}
+
+	/**
+	 * The bytes of the current line, without the new line characters. Only the
+	 * first {@link #getLineLength()} bytes are valid, and they are overridden when
+	 * moving to the next line.
+	 *
+	 * @return
+	 */
+	public byte[] getLineBytes() {
+		return line;
+	}
+
+	public int getLineLength() {
+		return lineLength;
+	}
+
+	/**
+	 * Creates a {@link String} with the current line. Bytes are decoded as
+	 * ISO-8859-1 so that writing them back in the same encoding keeps them as
+	 * they were.
+	 *
+	 * @return
+	 */
+	public String getLineAsString() {
+		return new String(line, 0, lineLength, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Gets the value of a tab separated column of the current line as a
+	 * {@link String} decoded as UTF-8, the same as the values read from the
+	 * Luciphor file
+	 *
+	 * @param columnIndex
+	 * @return the value or null if the line doesn't have that column
+	 */
+	public String getColumn(int columnIndex) {
+		return getColumn(line, 0, lineLength, columnIndex);
+	}
+
+	/**
+	 * Gets the value of a tab separated column of the line between start and end
+	 * as a {@link String} decoded as UTF-8, the same as the values read from the
+	 * Luciphor file
+	 *
+	 * @param bytes
+	 * @param start
+	 * @param end
+	 * @param columnIndex
+	 * @return the value or null if the line doesn't have that column
+	 */
+	public static String getColumn(byte[] bytes, int start, int end, int columnIndex) {
+		final int columnStart = getColumnStart(bytes, start, end, columnIndex);
+		if (columnStart < 0) {
+			return null;
+		}
+		final int columnEnd = getColumnEnd(bytes, columnStart, end);
+		return new String(bytes, columnStart, columnEnd - columnStart, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Finds where a tab separated column of the line between start and end
+	 * starts
+	 *
+	 * @param bytes
+	 * @param start
+	 * @param end
+	 * @param columnIndex
+	 * @return the position of the first byte of the column or -1 if the line
+	 *         doesn't have that column
+	 */
+	public static int getColumnStart(byte[] bytes, int start, int end, int columnIndex) {
+		for (int column = 0; column < columnIndex; column++) {
+			while (start < end && bytes[start] != '\t') {
+				start++;
+			}
+			if (start == end) {
+				return -1;
+			}
+			start++;
+		}
+		return start;
+	}
+
+	/**
+	 *
+	 * @param bytes
+	 * @param columnStart
+	 * @param end
+	 * @return the position after the last byte of the column starting at
+	 *         columnStart in a line ending at end
+	 */
+	public static int getColumnEnd(byte[] bytes, int columnStart, int end) {
+		int columnEnd = columnStart;
+		while (columnEnd < end && bytes[columnEnd] != '\t') {
+			columnEnd++;
+		}
+		return columnEnd;
+	}
+
+	/**
+	 * Writes the current line followed by a '\n'
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeLine(OutputStream out) throws IOException {
+		out.write(line, 0, lineLength);
+		out.write('\n');
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+}
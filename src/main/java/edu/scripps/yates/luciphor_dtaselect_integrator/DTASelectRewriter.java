@@ -0,0 +1,678 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import edu.scripps.yates.luciphor_dtaselect_integrator.DTASelectFileScanner.LineType;
+import edu.scripps.yates.luciphor_dtaselect_integrator.utils.ByteOutputEncoder;
+import edu.scripps.yates.luciphor_dtaselect_integrator.utils.DoubleFormatter;
+import edu.scripps.yates.luciphor_dtaselect_integrator.utils.TabTokenizer;
+
+/**
+ * Rewrites a DTASelect-filter.txt file incorporating the Luciphor entries that
+ * pass the thresholds.<br>
+ * The work is done in a pipeline of three stages joined by bounded queues: a
+ * reader thread that scans the input file and groups its lines in blocks (a
+ * protein group with its PSMs, a header line or a set of lines to be written as
+ * they are), a transform stage that rewrites the PSMs and recounts each protein
+ * group, and a writer thread that writes the result to the output file. Blocks
+ * go through the pipeline in the order of the input file, so the output is the
+ * same as processing the file sequentially. When a stage fails, the others are
+ * interrupted and its error is thrown.
+ */
+public class DTASelectRewriter {
+	static final String DTA_COL_PSMID = "FileName";
+	static final String DTA_COL_SEQUENCE = "Sequence";
+	static final String REDUNDANCY = "Redundancy";
+	static final String SEQUENCE_COUNT = "Sequence Count";
+	static final String SPECTRUM_COUNT = "Spectrum Count";
+	private static final String NEW_PSM_COLUMNS = "\toriginal_sequence\tluciphor_pep1Score\tluciphor_pep2Score\tluciphor_deltaScore\t"
+			+ LuciphorFileReader.COL_GLOBAL_FLR + "\t" + LuciphorFileReader.COL_LOCAL_FLR + "\n";
+	/**
+	 * Number of the new columns with scores, after the original sequence
+	 */
+	private static final int NUM_SCORE_COLUMNS = 5;
+	private static final byte[] EMPTY_NEW_PSM_COLUMNS = "\t\t\t\t\t\t".getBytes(StandardCharsets.ISO_8859_1);
+	/**
+	 * Number of blocks that can wait in each one of the queues between stages
+	 */
+	private static final int QUEUE_CAPACITY = 64;
+	/**
+	 * Approximate size in bytes of the blocks of lines that are written as they
+	 * are and of the chunks of output passed to the writer
+	 */
+	private static final int CHUNK_SIZE = 1024 * 1024;
+	/**
+	 * Passed to the writer after the last chunk
+	 */
+	private static final ByteArrayOutputStream END_OF_CHUNKS = new ByteArrayOutputStream(0);
+	/**
+	 * Maximum number of rewritten PSMs kept to be reused when the PSM appears
+	 * again in another protein group
+	 */
+	private static final int MAX_MEMOIZED_PSMS = 64 * 1024;
+
+	private final LuciphorResults filteredLuciphorEntries;
+	private final boolean removePSMsNotPassingThreshold;
+	private int numPSMs;
+	private int numChanged;
+	private int numPSMsFromMemo;
+	private int numPSMsRemoved;
+	private int numProteinsRemoved;
+
+	public DTASelectRewriter(LuciphorResults filteredLuciphorEntries, boolean removePSMsNotPassingThreshold) {
+		this.filteredLuciphorEntries = filteredLuciphorEntries;
+		this.removePSMsNotPassingThreshold = removePSMsNotPassingThreshold;
+	}
+
+	/**
+	 * Reads the input DTASelect file and writes the output file with the
+	 * sequences of the PSMs overridden by the ones in the Luciphor entries and the
+	 * new columns with their scores
+	 *
+	 * @param input
+	 * @param output
+	 * @throws IOException
+	 */
+	public void rewrite(File input, File output) throws IOException {
+		numPSMs = 0;
+		numChanged = 0;
+		numPSMsFromMemo = 0;
+		numPSMsRemoved = 0;
+		numProteinsRemoved = 0;
+		final BlockingQueue<Block> blocks = new ArrayBlockingQueue<Block>(QUEUE_CAPACITY);
+		final BlockingQueue<ByteArrayOutputStream> chunks = new ArrayBlockingQueue<ByteArrayOutputStream>(
+				QUEUE_CAPACITY);
+		final ExecutorService executor = Executors.newFixedThreadPool(3);
+		final CompletionService<Void> completionService = new ExecutorCompletionService<Void>(executor);
+		final List<Future<Void>> stages = new ArrayList<Future<Void>>();
+		try {
+			stages.add(completionService.submit(new Reader(input, blocks)));
+			stages.add(completionService.submit(new Transformer(blocks, chunks)));
+			stages.add(completionService.submit(new Writer(output, chunks)));
+			// in the order in which they end, so that the first one that fails is
+			// seen at once, and not after the stages before it, which would wait
+			// forever on a full queue
+			for (int i = 0; i < stages.size(); i++) {
+				completionService.take().get();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while rewriting " + input.getAbsolutePath(), e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} finally {
+			// if one stage failed, the others could be waiting on the queues
+			for (final Future<Void> stage : stages) {
+				stage.cancel(true);
+			}
+			executor.shutdownNow();
+			awaitTermination(executor);
+		}
+	}
+
+	/**
+	 * Waits for the stages to end after being interrupted, so that the output file
+	 * is closed when {@link #rewrite(File, File)} returns
+	 */
+	private static void awaitTermination(ExecutorService executor) {
+		try {
+			if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				System.err.println("The stages of the rewriting didn't end after being interrupted");
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Type of the blocks in which the lines of the file are grouped by the reader
+	 */
+	private enum BlockType {
+		/**
+		 * Lines to be written as they are
+		 */
+		LINES,
+		/**
+		 * The header line of the proteins
+		 */
+		PROTEIN_HEADER,
+		/**
+		 * The header line of the PSMs
+		 */
+		PSM_HEADER,
+		/**
+		 * The lines of a protein group: the proteins followed by their PSMs
+		 */
+		PROTEIN_GROUP,
+		/**
+		 * The line starting the table at the bottom of the file
+		 */
+		FINAL_TABLE,
+		/**
+		 * Marks the end of the file
+		 */
+		END
+	}
+
+	/**
+	 * Some consecutive lines of the file, stored in a byte array, with the end of
+	 * each line (excluding the new line) and whether it is a PSM line
+	 */
+	private static class Block {
+		private final BlockType type;
+		private byte[] data = new byte[256];
+		private int length;
+		private int[] lineEnds = new int[8];
+		private boolean[] psmLines = new boolean[8];
+		private int numLines;
+
+		private Block(BlockType type) {
+			this.type = type;
+		}
+
+		private void addLine(byte[] bytes, int lineLength, boolean isPSMLine) {
+			if (length + lineLength + 1 > data.length) {
+				data = Arrays.copyOf(data, Math.max(length + lineLength + 1, data.length * 2));
+			}
+			if (numLines == lineEnds.length) {
+				lineEnds = Arrays.copyOf(lineEnds, numLines * 2);
+				psmLines = Arrays.copyOf(psmLines, numLines * 2);
+			}
+			System.arraycopy(bytes, 0, data, length, lineLength);
+			length += lineLength;
+			lineEnds[numLines] = length;
+			psmLines[numLines] = isPSMLine;
+			numLines++;
+			data[length++] = '\n';
+		}
+
+		private int getLineStart(int line) {
+			if (line == 0) {
+				return 0;
+			}
+			return lineEnds[line - 1] + 1;
+		}
+
+		private String getLineAsString(int line) {
+			final int start = getLineStart(line);
+			return new String(data, start, lineEnds[line] - start, StandardCharsets.ISO_8859_1);
+		}
+	}
+
+	/**
+	 * Scans the input file and groups its lines in blocks
+	 */
+	private class Reader implements Callable<Void> {
+		private final File input;
+		private final BlockingQueue<Block> blocks;
+
+		private Reader(File input, BlockingQueue<Block> blocks) {
+			this.input = input;
+			this.blocks = blocks;
+		}
+
+		@Override
+		public Void call() throws IOException, InterruptedException {
+			boolean passedPSMHeader = false;
+			boolean isFinalTable = false;
+			boolean isProtein = false;
+			Block lines = null;
+			Block proteinGroup = null;
+			try (DTASelectFileScanner scanner = new DTASelectFileScanner(input)) {
+				while (scanner.next()) {
+					final byte[] bytes = scanner.getLineBytes();
+					final int lineLength = scanner.getLineLength();
+					final LineType lineType = isFinalTable ? LineType.OTHER : scanner.getLineType();
+					if (lineType == LineType.PROTEIN_HEADER || lineType == LineType.PSM_HEADER) {
+						lines = put(lines);
+						final Block header = new Block(
+								lineType == LineType.PROTEIN_HEADER ? BlockType.PROTEIN_HEADER : BlockType.PSM_HEADER);
+						header.addLine(bytes, lineLength, false);
+						blocks.put(header);
+						if (lineType == LineType.PSM_HEADER) {
+							passedPSMHeader = true;
+						}
+					} else if (lineType == LineType.FINAL_TABLE) {
+						proteinGroup = put(proteinGroup);
+						lines = put(lines);
+						final Block finalTable = new Block(BlockType.FINAL_TABLE);
+						finalTable.addLine(bytes, lineLength, false);
+						blocks.put(finalTable);
+						isProtein = false;
+						isFinalTable = true;
+					} else if (lineType == LineType.PSM) {
+						if (proteinGroup == null) {
+							proteinGroup = new Block(BlockType.PROTEIN_GROUP);
+						}
+						proteinGroup.addLine(bytes, lineLength, true);
+						isProtein = false;
+					} else if (passedPSMHeader && !isFinalTable) {
+						// a protein line
+						if (!isProtein) {
+							// a new protein group starts
+							proteinGroup = put(proteinGroup);
+							proteinGroup = new Block(BlockType.PROTEIN_GROUP);
+						}
+						proteinGroup.addLine(bytes, lineLength, false);
+						isProtein = true;
+					} else {
+						// a line to be written as it is
+						if (lines == null) {
+							lines = new Block(BlockType.LINES);
+						}
+						lines.addLine(bytes, lineLength, false);
+						if (lines.length >= CHUNK_SIZE) {
+							lines = put(lines);
+						}
+					}
+				}
+			}
+			put(proteinGroup);
+			put(lines);
+			blocks.put(new Block(BlockType.END));
+			return null;
+		}
+
+		/**
+		 * Puts the block in the queue if it is not null
+		 *
+		 * @param block
+		 * @return null, to be assigned to the block put in the queue
+		 * @throws InterruptedException
+		 */
+		private Block put(Block block) throws InterruptedException {
+			if (block != null) {
+				blocks.put(block);
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Rewrites the PSMs of each protein group and recounts them, writing the
+	 * result in chunks of bytes for the writer
+	 */
+	private class Transformer implements Callable<Void> {
+		private final BlockingQueue<Block> blocks;
+		private final BlockingQueue<ByteArrayOutputStream> chunks;
+		private ByteArrayOutputStream out = new ByteArrayOutputStream(CHUNK_SIZE);
+		private final DTASelectSchema schema = new DTASelectSchema();
+		/**
+		 * The protein group that was transformed last. It is not written until the
+		 * next one or the final table is found, to keep the same order in which the
+		 * lines were written when the file was processed line by line
+		 */
+		private final ProteinGroupBuffer lastProteinGroup = new ProteinGroupBuffer();
+		private final TabTokenizer tokenizer = new TabTokenizer();
+		private final RewrittenPSMMemo rewrittenPSMs = new RewrittenPSMMemo(MAX_MEMOIZED_PSMS);
+
+		private Transformer(BlockingQueue<Block> blocks, BlockingQueue<ByteArrayOutputStream> chunks) {
+			this.blocks = blocks;
+			this.chunks = chunks;
+		}
+
+		@Override
+		public Void call() throws IOException, InterruptedException {
+			while (true) {
+				final Block block = blocks.take();
+				switch (block.type) {
+				case LINES:
+					out.write(block.data, 0, block.length);
+					break;
+				case PROTEIN_HEADER:
+					compileProteinHeader(block.getLineAsString(0));
+					out.write(block.data, 0, block.length);
+					break;
+				case PSM_HEADER:
+					compilePSMHeader(block.getLineAsString(0));
+					// add new columns for the original sequence and the luciphor scores
+					out.write(block.data, 0, block.lineEnds[0]);
+					write(out, NEW_PSM_COLUMNS);
+					break;
+				case PROTEIN_GROUP:
+					writeLastProteinGroup();
+					transformProteinGroup(block);
+					break;
+				case FINAL_TABLE:
+					writeLastProteinGroup();
+					out.write(block.data, 0, block.length);
+					break;
+				case END:
+					chunks.put(out);
+					chunks.put(END_OF_CHUNKS);
+					return null;
+				}
+				if (out.size() >= CHUNK_SIZE) {
+					chunks.put(out);
+					out = new ByteArrayOutputStream(CHUNK_SIZE);
+				}
+			}
+		}
+
+		/**
+		 * Resolves the count columns of the protein lines, which are rewritten with
+		 * the PSMs that are kept
+		 */
+		private void compileProteinHeader(String headerLine) {
+			schema.compileProteinHeader(headerLine);
+			DTASelectSchema.checkColumn(schema.hasSequenceCount(), SEQUENCE_COUNT, headerLine);
+			DTASelectSchema.checkColumn(schema.hasSpectrumCount(), SPECTRUM_COUNT, headerLine);
+		}
+
+		/**
+		 * Resolves the columns of the PSM lines, which are looked up by their PSM ID
+		 * and counted with their redundancy
+		 */
+		private void compilePSMHeader(String headerLine) {
+			schema.compilePSMHeader(headerLine);
+			DTASelectSchema.checkColumn(schema.hasPSMID(), DTA_COL_PSMID, headerLine);
+			DTASelectSchema.checkColumn(schema.hasSequence(), DTA_COL_SEQUENCE, headerLine);
+			DTASelectSchema.checkColumn(schema.hasRedundancy(), REDUNDANCY, headerLine);
+		}
+
+		private void writeLastProteinGroup() throws IOException {
+			if (!lastProteinGroup.isEmpty()) {
+				if (lastProteinGroup.getNumPSMLines() > 0) {
+					lastProteinGroup.writeTo(out);
+				} else {
+					numProteinsRemoved++;
+				}
+			}
+			lastProteinGroup.clear();
+		}
+
+		private void transformProteinGroup(Block block) throws IOException {
+			for (int line = 0; line < block.numLines; line++) {
+				final int start = block.getLineStart(line);
+				final int end = block.lineEnds[line];
+				if (!block.psmLines[line]) {
+					lastProteinGroup.addProteinLine(block.data, start, end, schema, tokenizer);
+					continue;
+				}
+				if (!schema.hasPSMID()) {
+					throw new IllegalArgumentException("PSM line found before the header line of the PSMs: '"
+							+ block.getLineAsString(line) + "'");
+				}
+				numPSMs++;
+				// the line is tokenized once to look up its PSM ID and to rewrite it
+				final int luciphorRow = findLuciphorRow(block.data, start, end);
+				if (luciphorRow >= 0) {
+					writeRewrittenPSMLine(tokenizer, getRewrittenPSM(block.data, luciphorRow), schema, lastProteinGroup);
+					lastProteinGroup.endPSMLine(tokenizer.getInt(schema.getRedundancyColumn()));
+				} else {
+					// in this case it is because it doesn't pass the threshold
+					if (!removePSMsNotPassingThreshold) {
+						lastProteinGroup.write(block.data, start, end - start);
+						lastProteinGroup.write(EMPTY_NEW_PSM_COLUMNS);
+						lastProteinGroup.endPSMLine(tokenizer.getInt(schema.getRedundancyColumn()));
+					} else {
+						numPSMsRemoved++;
+					}
+				}
+			}
+		}
+
+		/**
+		 *
+		 * @param bytes       bytes of the PSM line in the tokenizer
+		 * @param luciphorRow row of the Luciphor entry of the PSM line
+		 * @return the PSM rewritten, from the memo if it was rewritten before from
+		 *         the same sequence
+		 */
+		private RewrittenPSM getRewrittenPSM(byte[] bytes, int luciphorRow) {
+			final int sequenceColumn = schema.getSequenceColumn();
+			RewrittenPSM ret = rewrittenPSMs.get(luciphorRow);
+			if (ret != null && ret.isRewrittenFrom(bytes, tokenizer.getColumnStart(sequenceColumn),
+					tokenizer.getColumnEnd(sequenceColumn))) {
+				numPSMsFromMemo++;
+				return ret;
+			}
+			ret = rewritePSM(luciphorRow, tokenizer.getString(sequenceColumn));
+			rewrittenPSMs.put(luciphorRow, ret);
+			return ret;
+		}
+
+		/**
+		 * Tokenizes the PSM line and looks up its PSM ID
+		 *
+		 * @return the row of the Luciphor entry of the PSM line or -1 if there is
+		 *         not any
+		 */
+		private int findLuciphorRow(byte[] bytes, int start, int end) {
+			tokenizer.tokenize(bytes, start, end);
+			final int psmIDColumn = schema.getPSMIDColumn();
+			int ret = -1;
+			if (psmIDColumn < tokenizer.getNumColumns()) {
+				ret = filteredLuciphorEntries.getRow(bytes, tokenizer.getColumnStart(psmIDColumn),
+						tokenizer.getColumnEnd(psmIDColumn));
+			}
+			return ret;
+		}
+	}
+
+	/**
+	 * Replaces the sequence of the PSM line by the one predicted by Luciphor,
+	 * adding the new columns, and writes it to the output without the new line.
+	 * The columns are copied from the bytes of the line, and only the sequence is
+	 * decoded.<br>
+	 * It is not used by {@link #rewrite(File, File)}, which memoizes the
+	 * rewritten PSMs, but it is the seam for the benchmarks in src/jmh, which
+	 * measure the rewriting of the lines without the reader and writer threads.
+	 * Both write the lines with the same code.
+	 *
+	 * @param tokenizer   tokenizer with the PSM line, tokenized from its bytes
+	 * @param luciphorRow row of the Luciphor entry of the PSM
+	 * @param schema
+	 * @param out
+	 * @throws IOException
+	 */
+	void rewritePSMLine(TabTokenizer tokenizer, int luciphorRow, DTASelectSchema schema, OutputStream out)
+			throws IOException {
+		final RewrittenPSM rewrittenPSM = rewritePSM(luciphorRow,
+				tokenizer.getString(schema.getSequenceColumn()));
+		writeRewrittenPSMLine(tokenizer, rewrittenPSM, schema, out);
+	}
+
+	/**
+	 *
+	 * @param luciphorRow      row of the Luciphor entry of the PSM
+	 * @param originalSequence sequence of the PSM in the DTASelect file
+	 * @return the sequence predicted by Luciphor and the new columns of the PSM
+	 */
+	private RewrittenPSM rewritePSM(int luciphorRow, String originalSequence) {
+		final String sequenceToReplace = filteredLuciphorEntries.getFormattedPredictedSequence(luciphorRow,
+				originalSequence);
+		final boolean changed = !originalSequence.equals(sequenceToReplace);
+		final byte[] originalSequenceBytes = originalSequence.getBytes(StandardCharsets.ISO_8859_1);
+		// the scores are written with the text of String.valueOf(double)
+		final byte[] newColumns = new byte[1 + originalSequenceBytes.length
+				+ NUM_SCORE_COLUMNS * (1 + DoubleFormatter.MAX_LENGTH)];
+		int length = 0;
+		newColumns[length++] = '\t';
+		if (changed) {
+			System.arraycopy(originalSequenceBytes, 0, newColumns, length, originalSequenceBytes.length);
+			length += originalSequenceBytes.length;
+		}
+		length = writeScoreColumn(filteredLuciphorEntries.getPep1Score(luciphorRow), newColumns, length);
+		length = writeScoreColumn(filteredLuciphorEntries.getPep2Score(luciphorRow), newColumns, length);
+		length = writeScoreColumn(filteredLuciphorEntries.getDeltaScore(luciphorRow), newColumns, length);
+		length = writeScoreColumn(filteredLuciphorEntries.getGlobalFLR(luciphorRow), newColumns, length);
+		length = writeScoreColumn(filteredLuciphorEntries.getLocalFLR(luciphorRow), newColumns, length);
+		return new RewrittenPSM(originalSequenceBytes, sequenceToReplace.getBytes(StandardCharsets.ISO_8859_1),
+				Arrays.copyOf(newColumns, length), changed);
+	}
+
+	private static int writeScoreColumn(double score, byte[] buffer, int offset) {
+		buffer[offset++] = '\t';
+		return DoubleFormatter.write(score, buffer, offset);
+	}
+
+	/**
+	 * Writes the columns of the PSM line with the sequence replaced and the new
+	 * columns at the end
+	 */
+	private void writeRewrittenPSMLine(TabTokenizer tokenizer, RewrittenPSM rewrittenPSM, DTASelectSchema schema,
+			OutputStream out) throws IOException {
+		final int sequenceColumn = schema.getSequenceColumn();
+		for (int i = 0; i < tokenizer.getNumColumns(); i++) {
+			if (i > 0) {
+				out.write('\t');
+			}
+			if (i == sequenceColumn) {
+				out.write(rewrittenPSM.sequence);
+			} else {
+				tokenizer.writeColumn(out, i);
+			}
+		}
+		out.write(rewrittenPSM.newColumns);
+		if (rewrittenPSM.changed) {
+			numChanged++;
+		}
+	}
+
+	/**
+	 * The parts of a PSM line that change when it is rewritten, which are the
+	 * same every time the PSM appears in the file
+	 */
+	private static class RewrittenPSM {
+		private final byte[] originalSequence;
+		private final byte[] sequence;
+		private final byte[] newColumns;
+		private final boolean changed;
+
+		private RewrittenPSM(byte[] originalSequence, byte[] sequence, byte[] newColumns, boolean changed) {
+			this.originalSequence = originalSequence;
+			this.sequence = sequence;
+			this.newColumns = newColumns;
+			this.changed = changed;
+		}
+
+		/**
+		 *
+		 * @return true if the PSM was rewritten from the same sequence that is
+		 *         between start and end
+		 */
+		private boolean isRewrittenFrom(byte[] bytes, int start, int end) {
+			if (end - start != originalSequence.length) {
+				return false;
+			}
+			for (int i = 0; i < originalSequence.length; i++) {
+				if (bytes[start + i] != originalSequence[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * The last PSMs rewritten, by their Luciphor row, so that a PSM that appears
+	 * in more than one protein group is only rewritten the first time. When it is
+	 * full, the PSM used least recently is removed.
+	 */
+	private static class RewrittenPSMMemo extends LinkedHashMap<Integer, RewrittenPSM> {
+		private static final long serialVersionUID = 1L;
+		private final int maxSize;
+
+		private RewrittenPSMMemo(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, RewrittenPSM> eldest) {
+			return size() > maxSize;
+		}
+	}
+
+	/**
+	 * Writes the chunks of bytes to the output file, through a
+	 * {@link ByteOutputEncoder} so that the file is written in large aligned
+	 * writes whatever the size of the chunks
+	 */
+	private class Writer implements Callable<Void> {
+		private final File output;
+		private final BlockingQueue<ByteArrayOutputStream> chunks;
+
+		private Writer(File output, BlockingQueue<ByteArrayOutputStream> chunks) {
+			this.output = output;
+			this.chunks = chunks;
+		}
+
+		@Override
+		public Void call() throws IOException, InterruptedException {
+			try (ByteOutputEncoder encoder = new ByteOutputEncoder(output)) {
+				while (true) {
+					final ByteArrayOutputStream chunk = chunks.take();
+					if (chunk == END_OF_CHUNKS) {
+						return null;
+					}
+					chunk.writeTo(encoder);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes a {@link String} encoded as ISO-8859-1, which is the encoding in
+	 * which the lines of the DTASelect file are decoded, so that their bytes are
+	 * kept as they were
+	 *
+	 * @param out
+	 * @param string
+	 * @throws IOException
+	 */
+	private static void write(OutputStream out, String string) throws IOException {
+		out.write(string.getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	public int getNumPSMs() {
+		return numPSMs;
+	}
+
+	public int getNumChanged() {
+		return numChanged;
+	}
+
+	/**
+	 *
+	 * @return number of PSM lines that were rewritten reusing the rewritten
+	 *         sequence and new columns of a previous line of the same PSM
+	 */
+	public int getNumPSMsFromMemo() {
+		return numPSMsFromMemo;
+	}
+
+	public int getNumPSMsRemoved() {
+		return numPSMsRemoved;
+	}
+
+	public int getNumProteinsRemoved() {
+		return numProteinsRemoved;
+	}
+}
@@ -0,0 +1,103 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import gnu.trove.map.TObjectIntMap;
+
+/**
+ * Positions of the columns of the DTASelect file used by the tool, resolved
+ * once from the header line of the proteins ('Locus\t...') and the header line
+ * of the PSMs ('Unique\t...'), so that the lines are processed without looking
+ * up the columns by name.<br>
+ * A column that is not in its header (or whose header was not compiled) is at
+ * position -1, and if it appears more than once, the last one is used.
+ */
+public class DTASelectSchema {
+	private static final int MISSING = -1;
+	private int psmIDColumn = MISSING;
+	private int sequenceColumn = MISSING;
+	private int redundancyColumn = MISSING;
+	private int sequenceCountColumn = MISSING;
+	private int spectrumCountColumn = MISSING;
+
+	/**
+	 * Resolves the columns of the PSM lines
+	 *
+	 * @param headerLine
+	 */
+	public void compilePSMHeader(String headerLine) {
+		final TObjectIntMap<String> indexByHeader = LuciphorDtaselectIntegrator.getIndexByHeader(headerLine);
+		psmIDColumn = getColumn(indexByHeader, DTASelectRewriter.DTA_COL_PSMID);
+		sequenceColumn = getColumn(indexByHeader, DTASelectRewriter.DTA_COL_SEQUENCE);
+		redundancyColumn = getColumn(indexByHeader, DTASelectRewriter.REDUNDANCY);
+	}
+
+	/**
+	 * Resolves the columns of the protein lines
+	 *
+	 * @param headerLine
+	 */
+	public void compileProteinHeader(String headerLine) {
+		final TObjectIntMap<String> indexByHeader = LuciphorDtaselectIntegrator.getIndexByHeader(headerLine);
+		sequenceCountColumn = getColumn(indexByHeader, DTASelectRewriter.SEQUENCE_COUNT);
+		spectrumCountColumn = getColumn(indexByHeader, DTASelectRewriter.SPECTRUM_COUNT);
+	}
+
+	private static int getColumn(TObjectIntMap<String> indexByHeader, String header) {
+		return indexByHeader.containsKey(header) ? indexByHeader.get(header) : MISSING;
+	}
+
+	/**
+	 * Checks that a column needed to process the lines is in its header
+	 *
+	 * @param found      whether the column is in the header, as given by one of
+	 *                   the has methods
+	 * @param header     name of the column
+	 * @param headerLine
+	 * @throws IllegalArgumentException if it is not found
+	 */
+	static void checkColumn(boolean found, String header, String headerLine) {
+		if (!found) {
+			throw new IllegalArgumentException(
+					"Column '" + header + "' not found in the header line '" + headerLine + "'");
+		}
+	}
+
+	public boolean hasPSMID() {
+		return psmIDColumn != MISSING;
+	}
+
+	public int getPSMIDColumn() {
+		return psmIDColumn;
+	}
+
+	public boolean hasSequence() {
+		return sequenceColumn != MISSING;
+	}
+
+	public int getSequenceColumn() {
+		return sequenceColumn;
+	}
+
+	public boolean hasRedundancy() {
+		return redundancyColumn != MISSING;
+	}
+
+	public int getRedundancyColumn() {
+		return redundancyColumn;
+	}
+
+	public boolean hasSequenceCount() {
+		return sequenceCountColumn != MISSING;
+	}
+
+	public int getSequenceCountColumn() {
+		return sequenceCountColumn;
+	}
+
+	public boolean hasSpectrumCount() {
+		return spectrumCountColumn != MISSING;
+	}
+
+	public int getSpectrumCountColumn() {
+		return spectrumCountColumn;
+	}
+}
@@ -0,0 +1,278 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import edu.scripps.yates.luciphor_dtaselect_integrator.DTASelectFileScanner.LineType;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+
+/**
+ * Scores the localization of the PTMs of the PSMs of a DTASelect file in
+ * process, instead of reading the results of Luciphor: the spectrum of each
+ * PSM is read from the .ms2 file named as its PSM ID (sample_1.1234.1234.2 is
+ * the scan 1234 of sample_1.ms2, with charge 2) in the directory of the .ms2
+ * files, and it is scored by a {@link LocalizationScorer}.<br>
+ * The .ms2 files are read one by one, only keeping the spectra of their PSMs,
+ * and the PSMs of each file are scored in parallel in a {@link ForkJoinPool}.
+ * The entries are added to the results in the order of the DTASelect file.
+ */
+public class LocalizationRescorer {
+	public static final String MS2_EXTENSION = ".ms2";
+	private final File ms2Directory;
+	private final LocalizationScorer scorer;
+	private final int numThreads;
+	private final Set<Character> modifiedAAs = ConcurrentHashMap.newKeySet();
+	private int numPSMs;
+	private int numPSMsScored;
+	private int numPSMsWithoutSpectrum;
+
+	/**
+	 * Scores phosphorylations using all the processors
+	 *
+	 * @param ms2Directory directory with the .ms2 files
+	 */
+	public LocalizationRescorer(File ms2Directory) {
+		this(ms2Directory, new LocalizationScorer(), Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 *
+	 * @param ms2Directory directory with the .ms2 files
+	 * @param scorer
+	 * @param numThreads   number of threads scoring the PSMs
+	 */
+	public LocalizationRescorer(File ms2Directory, LocalizationScorer scorer, int numThreads) {
+		this.ms2Directory = ms2Directory;
+		this.scorer = scorer;
+		this.numThreads = numThreads;
+		// all the target residues are considered as modified from the start, as
+		// a PTM can be moved from a residue that is in lower case in no other PSM
+		for (int i = 0; i < scorer.getTargetResidues().length(); i++) {
+			LuciphorEntry.registerModifiedAA(scorer.getTargetResidues().charAt(i), modifiedAAs);
+		}
+	}
+
+	/**
+	 * A PSM of the DTASelect file, with the scan and charge of its PSM ID
+	 */
+	private static class PSM {
+		private final String psmID;
+		private final String sequence;
+		private final int scan;
+		private final int charge;
+
+		private PSM(String psmID, String sequence, int scan, int charge) {
+			this.psmID = psmID;
+			this.sequence = sequence;
+			this.scan = scan;
+			this.charge = charge;
+		}
+	}
+
+	/**
+	 * Splits a range of the PSMs of a .ms2 file in two halves until there is only
+	 * one, and scores it, leaving its entry in the same position of the array
+	 */
+	private class PSMScorer extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final List<PSM> psms;
+		private final TIntObjectMap<MS2Spectrum> spectra;
+		private final LuciphorEntry[] entries;
+		private final int start;
+		private final int end;
+
+		private PSMScorer(List<PSM> psms, TIntObjectMap<MS2Spectrum> spectra, LuciphorEntry[] entries, int start,
+				int end) {
+			this.psms = psms;
+			this.spectra = spectra;
+			this.entries = entries;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start > 1) {
+				final int middle = start + (end - start) / 2;
+				invokeAll(new PSMScorer(psms, spectra, entries, start, middle),
+						new PSMScorer(psms, spectra, entries, middle, end));
+				return;
+			}
+			for (int i = start; i < end; i++) {
+				final PSM psm = psms.get(i);
+				final MS2Spectrum spectrum = spectra.get(psm.scan);
+				if (spectrum != null) {
+					entries[i] = scorer.score(psm.psmID, psm.sequence, spectrum, psm.charge, modifiedAAs);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Scores the PSMs of the DTASelect file. A PSM that is in several protein
+	 * groups is only scored once.
+	 *
+	 * @param dtaselectFile
+	 * @return the entries of the PSMs that could be scored
+	 * @throws IOException
+	 */
+	public LuciphorResults rescore(File dtaselectFile) throws IOException {
+		numPSMs = 0;
+		numPSMsScored = 0;
+		numPSMsWithoutSpectrum = 0;
+		final Map<String, List<PSM>> psmsByMS2File = readPSMs(dtaselectFile);
+		final LuciphorResults ret = new LuciphorResults(modifiedAAs);
+		final ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try {
+			for (final Map.Entry<String, List<PSM>> entry : psmsByMS2File.entrySet()) {
+				final File ms2File = new File(ms2Directory, entry.getKey() + MS2_EXTENSION);
+				final List<PSM> psms = entry.getValue();
+				if (!ms2File.isFile()) {
+					System.err.println("MS2 file '" + ms2File.getAbsolutePath() + "' not found for " + psms.size()
+							+ " PSMs");
+					numPSMsWithoutSpectrum += psms.size();
+					continue;
+				}
+				final TIntSet scans = new TIntHashSet();
+				for (final PSM psm : psms) {
+					scans.add(psm.scan);
+				}
+				final TIntObjectMap<MS2Spectrum> spectra = new MS2FileReader(ms2File).read(scans);
+				final LuciphorEntry[] entries = new LuciphorEntry[psms.size()];
+				pool.invoke(new PSMScorer(psms, spectra, entries, 0, psms.size()));
+				for (int i = 0; i < psms.size(); i++) {
+					final LuciphorEntry luciphorEntry = entries[i];
+					if (luciphorEntry != null) {
+						ret.add(luciphorEntry);
+						numPSMsScored++;
+					} else if (!spectra.containsKey(psms.get(i).scan)) {
+						numPSMsWithoutSpectrum++;
+					}
+				}
+				System.out.println(psms.size() + " PSMs of '" + ms2File.getName() + "' scored");
+			}
+		} finally {
+			pool.shutdown();
+		}
+		System.out.println(numPSMsScored + "/" + numPSMs + " "
+				+ LuciphorDtaselectIntegrator.getPercentageString(numPSMsScored, numPSMs)
+				+ " PSMs scored in process (" + numPSMsWithoutSpectrum + " without spectrum). "
+				+ scorer.getLadderCache());
+		return ret;
+	}
+
+	/**
+	 * Reads the PSM lines of the DTASelect file, grouping them by the .ms2 file
+	 * of their spectrum
+	 *
+	 * @param dtaselectFile
+	 * @return
+	 * @throws IOException
+	 */
+	private Map<String, List<PSM>> readPSMs(File dtaselectFile) throws IOException {
+		final Map<String, List<PSM>> ret = new LinkedHashMap<String, List<PSM>>();
+		final Set<String> psmIDs = new HashSet<String>();
+		DTASelectSchema schema = null;
+		try (DTASelectFileScanner scanner = new DTASelectFileScanner(dtaselectFile)) {
+			while (scanner.next()) {
+				final LineType lineType = scanner.getLineType();
+				if (lineType == LineType.FINAL_TABLE) {
+					break;
+				}
+				if (lineType == LineType.PSM_HEADER) {
+					final String headerLine = scanner.getLineAsString();
+					schema = new DTASelectSchema();
+					schema.compilePSMHeader(headerLine);
+					DTASelectSchema.checkColumn(schema.hasPSMID(), DTASelectRewriter.DTA_COL_PSMID, headerLine);
+					DTASelectSchema.checkColumn(schema.hasSequence(), DTASelectRewriter.DTA_COL_SEQUENCE,
+							headerLine);
+				} else if (lineType == LineType.PSM && schema != null) {
+					final String psmID = getColumn(scanner, schema.getPSMIDColumn());
+					if (psmID == null || !psmIDs.add(psmID)) {
+						continue;
+					}
+					numPSMs++;
+					final PSM psm = parsePSM(psmID, getColumn(scanner, schema.getSequenceColumn()));
+					if (psm == null) {
+						numPSMsWithoutSpectrum++;
+						continue;
+					}
+					ret.computeIfAbsent(getMS2FileName(psmID), name -> new ArrayList<PSM>()).add(psm);
+				}
+			}
+		}
+		return ret;
+	}
+
+	private static String getColumn(DTASelectFileScanner scanner, int column) {
+		final byte[] bytes = scanner.getLineBytes();
+		final int start = DTASelectFileScanner.getColumnStart(bytes, 0, scanner.getLineLength(), column);
+		if (start < 0) {
+			return null;
+		}
+		return new String(bytes, start,
+				DTASelectFileScanner.getColumnEnd(bytes, start, scanner.getLineLength()) - start,
+				StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 *
+	 * @param psmID    as sample_1.1234.1234.2
+	 * @param sequence
+	 * @return the PSM or null if the PSM ID doesn't have the scan and charge
+	 */
+	private static PSM parsePSM(String psmID, String sequence) {
+		if (sequence == null) {
+			return null;
+		}
+		final int chargeStart = psmID.lastIndexOf('.');
+		final int lastScanStart = chargeStart > 0 ? psmID.lastIndexOf('.', chargeStart - 1) : -1;
+		final int firstScanStart = lastScanStart > 0 ? psmID.lastIndexOf('.', lastScanStart - 1) : -1;
+		if (firstScanStart <= 0) {
+			return null;
+		}
+		try {
+			return new PSM(psmID, sequence,
+					Integer.parseInt(psmID.substring(firstScanStart + 1, lastScanStart)),
+					Integer.parseInt(psmID.substring(chargeStart + 1)));
+		} catch (final NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static String getMS2FileName(String psmID) {
+		int end = psmID.length();
+		for (int i = 0; i < 3; i++) {
+			end = psmID.lastIndexOf('.', end - 1);
+		}
+		return psmID.substring(0, end);
+	}
+
+	/**
+	 *
+	 * @return number of different PSMs in the DTASelect file
+	 */
+	public int getNumPSMs() {
+		return numPSMs;
+	}
+
+	public int getNumPSMsScored() {
+		return numPSMsScored;
+	}
+
+	public int getNumPSMsWithoutSpectrum() {
+		return numPSMsWithoutSpectrum;
+	}
+}
@@ -0,0 +1,356 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import edu.scripps.yates.luciphor_dtaselect_integrator.utils.FragmentLadderCache;
+import edu.scripps.yates.luciphor_dtaselect_integrator.utils.FragmentLadderEngine;
+import edu.scripps.yates.luciphor_dtaselect_integrator.utils.MassContext;
+import edu.scripps.yates.luciphor_dtaselect_integrator.utils.PeptideSequenceScanner;
+import gnu.trove.map.TIntDoubleMap;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+
+/**
+ * Scores the localization of the PTMs of a PSM against its MS2 spectrum, as
+ * Luciphor does: the PTMs with the target delta mass (phosphorylations by
+ * default) are placed in every possible combination of the target residues of
+ * the peptide, the b and y ions of each isoform are matched against the binned
+ * peaks of the spectrum, and the best and second best isoforms give the
+ * pep1/pep2/delta scores of a {@link LuciphorEntry}.<br>
+ * The score of an isoform is the sum, over its ions at the charges from 1 to
+ * the charge of the precursor minus 1, of the square root of the intensity
+ * (relative to the base peak) of the bin of the ion. The ladders of the
+ * isoforms are kept in a {@link FragmentLadderCache} shared by all the
+ * threads, so the scorer can be used from many threads at the same time.
+ */
+public class LocalizationScorer {
+	public static final double PHOSPHO_MASS = 79.966331;
+	public static final double OXIDATION_MASS = 15.994915;
+	public static final String PHOSPHO_RESIDUES = "STY";
+	public static final int DEFAULT_MAX_ISOFORMS = 1024;
+	public static final int DEFAULT_CACHE_SIZE = 64 * 1024;
+	/**
+	 * Maximum difference between the delta mass of a PTM in the sequence and the
+	 * mass of the modification of its residue
+	 */
+	private static final double DELTA_MASS_TOLERANCE = 0.01;
+
+	private final MassContext context;
+	private final String targetResidues;
+	private final boolean[] isTargetResidue = new boolean[MassContext.SIZE];
+	private final double targetDeltaMass;
+	private final int maxIsoforms;
+	private final FragmentLadderCache ladders;
+	private final ThreadLocal<Scratch> scratches = ThreadLocal.withInitial(Scratch::new);
+
+	/**
+	 * Scorer of phosphorylations, with oxidized methionines as the only other
+	 * modification supported
+	 */
+	public LocalizationScorer() {
+		this(getPhosphoContext(), PHOSPHO_RESIDUES, PHOSPHO_MASS, DEFAULT_MAX_ISOFORMS, DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 *
+	 * @param context         the masses, with the b and y ion fragments and with
+	 *                        the differential modifications of all the residues
+	 *                        that can be modified (target or not)
+	 * @param targetResidues  residues where the PTMs with the target delta mass
+	 *                        can be placed
+	 * @param targetDeltaMass delta mass of the PTMs to localize
+	 * @param maxIsoforms     PSMs with more isoforms than this are not scored
+	 * @param cacheSize       maximum number of peptides in the cache of ladders
+	 */
+	public LocalizationScorer(MassContext context, String targetResidues, double targetDeltaMass, int maxIsoforms,
+			int cacheSize) {
+		this.context = context;
+		this.targetResidues = targetResidues;
+		for (int i = 0; i < targetResidues.length(); i++) {
+			isTargetResidue[targetResidues.charAt(i)] = true;
+		}
+		this.targetDeltaMass = targetDeltaMass;
+		this.maxIsoforms = maxIsoforms;
+		ladders = new FragmentLadderCache(
+				new FragmentLadderEngine(context, false, FragmentLadderEngine.B_ION, FragmentLadderEngine.Y_ION),
+				cacheSize);
+	}
+
+	/**
+	 *
+	 * @return monoisotopic masses with singly charged b and y ions,
+	 *         phosphorylations on S, T and Y and oxidations on M
+	 */
+	public static MassContext getPhosphoContext() {
+		final MassContext mono = MassContext.monoisotopic();
+		MassContext ret = mono.withBionfragment(mono.getHplus())
+				.withYionfragment(mono.getOh() + mono.getH() + mono.getHplus())
+				.withDiffMod('M', OXIDATION_MASS);
+		for (int i = 0; i < PHOSPHO_RESIDUES.length(); i++) {
+			ret = ret.withDiffMod(PHOSPHO_RESIDUES.charAt(i), PHOSPHO_MASS);
+		}
+		return ret;
+	}
+
+	/**
+	 *
+	 * @return residues where the PTMs with the target delta mass can be placed
+	 */
+	public String getTargetResidues() {
+		return targetResidues;
+	}
+
+	public FragmentLadderCache getLadderCache() {
+		return ladders;
+	}
+
+	/**
+	 * Scores the isoforms of the PSM
+	 *
+	 * @param psmID
+	 * @param sequence    sequence of the PSM in the DTASelect file, as
+	 *                    R.PEPT(79.966331)IDE.K
+	 * @param spectrum
+	 * @param charge      charge of the precursor
+	 * @param modifiedAAs set where the target residues are registered as
+	 *                    modified, shared by the entries of the run
+	 * @return the entry with the best isoform as predicted sequence (with the
+	 *         residues with the target PTMs in lower case), the scores of the
+	 *         best and second best isoforms (0 if there is only one) and their
+	 *         difference, and without FLRs; or null if the PSM doesn't have
+	 *         target PTMs, it has PTMs that are not in the {@link MassContext}
+	 *         (other than in the n-term) or it has more than the maximum number
+	 *         of isoforms
+	 */
+	public LuciphorEntry score(String psmID, String sequence, MS2Spectrum spectrum, int charge,
+			Set<Character> modifiedAAs) {
+		final Scratch scratch = scratches.get();
+		final PeptideSequenceScanner scanner = scratch.scanner.scan(sequence, context);
+		final String peptide = scanner.getCleanSequence();
+		final int length = peptide.length();
+		final int[] modIndexHash = scratch.getModIndexHash(length + 1);
+		final int[] originalSites = scratch.getOriginalSites(scanner.getNumPTMs());
+		int numSites = 0;
+		double nTermDeltaMass = 0.0;
+		for (int ptm = 0; ptm < scanner.getNumPTMs(); ptm++) {
+			final int residue = scanner.getPTMPosition(ptm) - 1;
+			final double deltaMass = scanner.getPTMDeltaMass(ptm);
+			if (residue < 0) {
+				if (Double.isNaN(deltaMass)) {
+					return null;
+				}
+				// only shifts the b ions
+				nTermDeltaMass += deltaMass;
+				continue;
+			}
+			if (modIndexHash[residue] > 0 || numSites > 0 && originalSites[numSites - 1] == residue) {
+				// a second PTM in the same residue
+				return null;
+			}
+			final char aa = peptide.charAt(residue);
+			if (!context.isDiffMod(aa) || !(Math.abs(deltaMass - context.getDiffModMass(aa)) < DELTA_MASS_TOLERANCE)) {
+				return null;
+			}
+			if (isTargetResidue[aa] && Math.abs(deltaMass - targetDeltaMass) < DELTA_MASS_TOLERANCE) {
+				originalSites[numSites++] = residue;
+			} else {
+				// not localized, always in the same residue
+				modIndexHash[residue] = 1;
+			}
+		}
+		if (numSites == 0) {
+			return null;
+		}
+		final int[] candidates = scratch.getCandidates(length);
+		int numCandidates = 0;
+		for (int residue = 0; residue < length; residue++) {
+			if (isTargetResidue[peptide.charAt(residue)] && modIndexHash[residue] == 0) {
+				candidates[numCandidates++] = residue;
+			}
+		}
+		if (getNumIsoforms(numCandidates, numSites) > maxIsoforms) {
+			return null;
+		}
+		scratch.binPeaks(spectrum, context);
+		final int maxFragmentCharge = Math.max(1, charge - 1);
+		// the original isoform goes first, so it is kept if others score the same
+		final int[] sites = scratch.getSites(numSites);
+		System.arraycopy(originalSites, 0, sites, 0, numSites);
+		double pep1Score = scoreIsoform(peptide, modIndexHash, sites, numSites, nTermDeltaMass, maxFragmentCharge,
+				scratch.peaks);
+		final int[] bestSites = Arrays.copyOf(sites, numSites);
+		double pep2Score = Double.NEGATIVE_INFINITY;
+		// all the combinations of numSites candidates, as indexes of candidates
+		final int[] combination = new int[numSites];
+		for (int i = 0; i < numSites; i++) {
+			combination[i] = i;
+		}
+		do {
+			for (int i = 0; i < numSites; i++) {
+				sites[i] = candidates[combination[i]];
+			}
+			if (isSameIsoform(sites, originalSites, numSites)) {
+				continue;
+			}
+			final double score = scoreIsoform(peptide, modIndexHash, sites, numSites, nTermDeltaMass,
+					maxFragmentCharge, scratch.peaks);
+			if (score > pep1Score) {
+				pep2Score = pep1Score;
+				pep1Score = score;
+				System.arraycopy(sites, 0, bestSites, 0, numSites);
+			} else if (score > pep2Score) {
+				pep2Score = score;
+			}
+		} while (nextCombination(combination, numCandidates));
+		if (pep2Score == Double.NEGATIVE_INFINITY) {
+			pep2Score = 0.0;
+		}
+		final char[] predictedSequence = peptide.toCharArray();
+		for (final int site : bestSites) {
+			predictedSequence[site] = Character.toLowerCase(predictedSequence[site]);
+		}
+		return new LuciphorEntry(psmID, new String(predictedSequence), Double.NaN, Double.NaN, pep1Score, pep2Score,
+				pep1Score - pep2Score, modifiedAAs);
+	}
+
+	private double scoreIsoform(String peptide, int[] modIndexHash, int[] sites, int numSites, double nTermDeltaMass,
+			int maxFragmentCharge, TIntDoubleMap peaks) {
+		for (int i = 0; i < numSites; i++) {
+			modIndexHash[sites[i]] = 1;
+		}
+		final double[] ionMasses = ladders.get(peptide, modIndexHash);
+		for (int i = 0; i < numSites; i++) {
+			modIndexHash[sites[i]] = 0;
+		}
+		final double hplus = context.getHplus();
+		// the b ions go first
+		final int numBIons = ionMasses.length / 2;
+		double score = 0.0;
+		for (int fragmentCharge = 1; fragmentCharge <= maxFragmentCharge; fragmentCharge++) {
+			final double addedMass = (fragmentCharge - 1) * hplus;
+			for (int ion = 0; ion < ionMasses.length; ion++) {
+				if (ionMasses[ion] > 0.0) {
+					final double ionMass = ion < numBIons ? ionMasses[ion] + nTermDeltaMass : ionMasses[ion];
+					score += peaks.get(context.getBinnedValue((ionMass + addedMass) / fragmentCharge, 0.0));
+				}
+			}
+		}
+		return score;
+	}
+
+	private static boolean isSameIsoform(int[] sites, int[] otherSites, int numSites) {
+		for (int i = 0; i < numSites; i++) {
+			if (sites[i] != otherSites[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Moves to the next combination in lexicographic order
+	 *
+	 * @return false if it was the last one
+	 */
+	private static boolean nextCombination(int[] combination, int n) {
+		final int k = combination.length;
+		int i = k - 1;
+		while (i >= 0 && combination[i] == n - k + i) {
+			i--;
+		}
+		if (i < 0) {
+			return false;
+		}
+		combination[i]++;
+		for (int j = i + 1; j < k; j++) {
+			combination[j] = combination[j - 1] + 1;
+		}
+		return true;
+	}
+
+	/**
+	 *
+	 * @return number of combinations of k of n, or Long.MAX_VALUE if it is too
+	 *         big
+	 */
+	private static long getNumIsoforms(int n, int k) {
+		if (k > n) {
+			return 0;
+		}
+		long ret = 1;
+		for (int i = 1; i <= k; i++) {
+			ret = ret * (n - k + i) / i;
+			if (ret > Integer.MAX_VALUE) {
+				return Long.MAX_VALUE;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Arrays reused by the PSMs scored by a thread
+	 */
+	private static class Scratch {
+		private final PeptideSequenceScanner scanner = new PeptideSequenceScanner();
+		private final TIntDoubleMap peaks = new TIntDoubleHashMap(1024);
+		private int[] modIndexHash = new int[64];
+		private int[] originalSites = new int[8];
+		private int[] sites = new int[8];
+		private int[] candidates = new int[64];
+
+		/**
+		 * @return the array cleared
+		 */
+		private int[] getModIndexHash(int size) {
+			if (size > modIndexHash.length) {
+				modIndexHash = new int[Math.max(size, modIndexHash.length * 2)];
+			} else {
+				Arrays.fill(modIndexHash, 0);
+			}
+			return modIndexHash;
+		}
+
+		private int[] getOriginalSites(int size) {
+			if (size > originalSites.length) {
+				originalSites = new int[size];
+			}
+			return originalSites;
+		}
+
+		private int[] getSites(int size) {
+			if (size > sites.length) {
+				sites = new int[size];
+			}
+			return sites;
+		}
+
+		private int[] getCandidates(int size) {
+			if (size > candidates.length) {
+				candidates = new int[size];
+			}
+			return candidates;
+		}
+
+		/**
+		 * Bins the peaks of the spectrum, keeping in each bin the square root of
+		 * the highest intensity in it relative to the base peak
+		 */
+		private void binPeaks(MS2Spectrum spectrum, MassContext context) {
+			peaks.clear();
+			double basePeak = 0.0;
+			for (int peak = 0; peak < spectrum.getNumPeaks(); peak++) {
+				basePeak = Math.max(basePeak, spectrum.getIntensity(peak));
+			}
+			if (basePeak <= 0.0) {
+				return;
+			}
+			for (int peak = 0; peak < spectrum.getNumPeaks(); peak++) {
+				final int bin = context.getBinnedValue(spectrum.getMz(peak), 0.0);
+				final double value = Math.sqrt(spectrum.getIntensity(peak) / basePeak);
+				if (value > peaks.get(bin)) {
+					peaks.put(bin, value);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary sidecar file with all the entries of a Luciphor file already parsed,
+ * written next to it so that later runs can map it in memory instead of
+ * parsing the text again.<br>
+ * The sidecar has a header with the size, the modification time and a CRC32
+ * checksum of the content of the Luciphor file it was created from, followed by
+ * the number of PSMs read, the aminoacids considered as modified and the
+ * {@link LuciphorResults} with all the entries (score columns, sequence arena
+ * and the hash index of the PSM IDs), and it ends with a CRC32 checksum of
+ * everything before it. It is only used if it is not truncated or corrupted and
+ * the Luciphor file still has the same size, modification time and checksum.
+ * Sidecars bigger than 2Gb are not written, as they are mapped in a single
+ * buffer.
+ */
+public class LuciphorCache {
+	public static final String EXTENSION = ".lucache";
+	private static final byte[] MAGIC = "LUCCACHE".getBytes(StandardCharsets.ISO_8859_1);
+	private static final int VERSION = 2;
+	private final File luciphorFile;
+	private final File cacheFile;
+	private int numPSMsRead;
+
+	public LuciphorCache(File luciphorFile) {
+		this.luciphorFile = luciphorFile;
+		cacheFile = new File(luciphorFile.getAbsolutePath() + EXTENSION);
+	}
+
+	/**
+	 * Reads the entries from the sidecar file if it exists and it was created from
+	 * the current content of the Luciphor file. The aminoacids considered as
+	 * modified are only registered if all the entries could be read.
+	 *
+	 * @param modifiedAAs set in which the aminoacids considered as modified are
+	 *                    registered
+	 * @return all the entries of the Luciphor file or null if the sidecar doesn't
+	 *         exist, it is not valid or it is out of date
+	 * @throws IOException
+	 */
+	public LuciphorResults read(Set<Character> modifiedAAs) throws IOException {
+		if (!cacheFile.isFile()) {
+			return null;
+		}
+		if (cacheFile.length() > Integer.MAX_VALUE) {
+			System.out.println("Luciphor cache '" + cacheFile.getAbsolutePath() + "' is too big to be read");
+			return null;
+		}
+		try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+			final MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.remaining() < MAGIC.length + 4 + 3 * 8 + 2 * 4 + 8 || !hasValidChecksum(buffer)) {
+				System.out.println("Luciphor cache '" + cacheFile.getAbsolutePath() + "' is not valid");
+				return null;
+			}
+			// the checksum at the end is not part of the content
+			buffer.limit(buffer.limit() - 8);
+			final byte[] magic = new byte[MAGIC.length];
+			buffer.get(magic);
+			if (!Arrays.equals(MAGIC, magic) || buffer.getInt() != VERSION) {
+				return null;
+			}
+			final long size = buffer.getLong();
+			final long lastModified = buffer.getLong();
+			final long checksum = buffer.getLong();
+			// the checksum is only calculated if the cheap checks pass
+			if (size != luciphorFile.length() || lastModified != luciphorFile.lastModified()
+					|| checksum != getChecksum(luciphorFile)) {
+				System.out.println("Luciphor cache '" + cacheFile.getAbsolutePath() + "' is out of date");
+				return null;
+			}
+			final int numPSMsRead = buffer.getInt();
+			final int numModifiedAAs = buffer.getInt();
+			if (numModifiedAAs < 0 || numModifiedAAs > buffer.remaining() / 2) {
+				return null;
+			}
+			final char[] aas = new char[numModifiedAAs];
+			buffer.asCharBuffer().get(aas);
+			buffer.position(buffer.position() + 2 * numModifiedAAs);
+			final LuciphorResults ret = LuciphorResults.readFrom(buffer, modifiedAAs);
+			for (final char aa : aas) {
+				LuciphorEntry.registerModifiedAA(aa, modifiedAAs);
+			}
+			this.numPSMsRead = numPSMsRead;
+			System.out.println("Luciphor file read from cache '" + cacheFile.getAbsolutePath() + "'");
+			return ret;
+		}
+	}
+
+	/**
+	 *
+	 * @param buffer the whole sidecar
+	 * @return true if the CRC32 checksum at the end of the buffer is the one of
+	 *         the rest of the buffer
+	 */
+	private static boolean hasValidChecksum(ByteBuffer buffer) {
+		final ByteBuffer content = buffer.duplicate();
+		content.limit(buffer.limit() - 8);
+		final CRC32 crc = new CRC32();
+		crc.update(content);
+		return crc.getValue() == buffer.getLong(buffer.limit() - 8);
+	}
+
+	/**
+	 * Writes the sidecar file with all the entries of the Luciphor file. It is
+	 * written in a temporary file of its own that is renamed at the end, so
+	 * that a sidecar is never left half written, even when other jobs write the
+	 * same one, and it is discarded if it is too big to be read.
+	 *
+	 * @param results      all the entries of the Luciphor file, without
+	 *                     thresholds
+	 * @param numPSMsRead
+	 * @param size         size of the Luciphor file before parsing it
+	 * @param lastModified modification time of the Luciphor file before parsing
+	 *                     it
+	 * @throws IOException
+	 */
+	public void write(LuciphorResults results, int numPSMsRead, long size, long lastModified) throws IOException {
+		final long checksum = getChecksum(luciphorFile);
+		if (size != luciphorFile.length() || lastModified != luciphorFile.lastModified()) {
+			// it changed while it was parsed
+			return;
+		}
+		final String modifiedAAs = getModifiedAAsInOrder(results);
+		// unique in the folder of the sidecar, as other jobs may be writing the
+		// sidecar of the same Luciphor file at the same time
+		final Path tmpFile = Files.createTempFile(cacheFile.getAbsoluteFile().getParentFile().toPath(),
+				cacheFile.getName() + ".", ".tmp");
+		try {
+			final CheckedOutputStream checkedOut = new CheckedOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(tmpFile), 1024 * 1024), new CRC32());
+			try (DataOutputStream out = new DataOutputStream(checkedOut)) {
+				out.write(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(size);
+				out.writeLong(lastModified);
+				out.writeLong(checksum);
+				out.writeInt(numPSMsRead);
+				out.writeInt(modifiedAAs.length());
+				out.writeChars(modifiedAAs);
+				results.writeTo(out);
+				out.writeLong(checkedOut.getChecksum().getValue());
+			}
+			if (Files.size(tmpFile) > Integer.MAX_VALUE) {
+				System.out.println("Luciphor cache not written, as it would be too big to be read");
+				return;
+			}
+			try {
+				// replacing the sidecar in one step, as moving it with REPLACE_EXISTING
+				// deletes it first, which fails when another job replaces it meanwhile
+				Files.move(tmpFile, cacheFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (final AtomicMoveNotSupportedException e) {
+				Files.move(tmpFile, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			// not there anymore once it is moved
+			Files.deleteIfExists(tmpFile);
+		}
+		System.out.println("Luciphor cache written to '" + cacheFile.getAbsolutePath() + "'");
+	}
+
+	/**
+	 * Gets the aminoacids considered as modified in the order in which they
+	 * appear in the entries, which is the order in which they are found when
+	 * parsing the file
+	 *
+	 * @param results
+	 * @return
+	 */
+	private static String getModifiedAAsInOrder(LuciphorResults results) {
+		final StringBuilder ret = new StringBuilder();
+		for (int row = 0; row < results.getNumRows(); row++) {
+			final String sequence = results.getPredictedSequence(row);
+			for (int i = 0; i < sequence.length(); i++) {
+				final char aa = sequence.charAt(i);
+				if (Character.isLowerCase(aa) && ret.indexOf(String.valueOf(Character.toUpperCase(aa))) < 0) {
+					ret.append(Character.toUpperCase(aa));
+				}
+			}
+		}
+		return ret.toString();
+	}
+
+	private static long getChecksum(File file) throws IOException {
+		final CRC32 crc = new CRC32();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+			while (channel.read(buffer) > 0) {
+				buffer.flip();
+				crc.update(buffer);
+				buffer.clear();
+			}
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 *
+	 * @return number of PSMs read from the Luciphor file when the sidecar was
+	 *         created, after {@link #read(Set)} returned the entries
+	 */
+	public int getNumPSMsRead() {
+		return numPSMsRead;
+	}
+
+	public File getCacheFile() {
+		return cacheFile;
+	}
+}
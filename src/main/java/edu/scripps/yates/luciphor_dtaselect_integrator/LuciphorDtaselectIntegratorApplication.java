@@ -1,6 +1,9 @@
 package edu.scripps.yates.luciphor_dtaselect_integrator;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -22,6 +25,11 @@ public class LuciphorDtaselectIntegratorApplication implements CommandLineRunner
 	private static final String OPTION_GFLR = "gflr";
 	private static final String OPTION_DTA = "dta";
 	public static final String OPTION_REMOVE = "rem";
+	private static final String OPTION_THREADS = "t";
+	private static final String OPTION_BATCH = "batch";
+	private static final String OPTION_CACHE = "cache";
+	private static final String OPTION_SWEEP = "sweep";
+	private static final String OPTION_MS2 = "ms2";
 
 	public static void main(String[] args) {
 		options = defineCommandLineOptions();
@@ -42,6 +50,7 @@ public class LuciphorDtaselectIntegratorApplication implements CommandLineRunner
 				} else {
 					e.getCause().printStackTrace();
 				}
+			System.exit(1);
 		}
 	}
 
@@ -59,7 +68,7 @@ public class LuciphorDtaselectIntegratorApplication implements CommandLineRunner
 
 		// luciphor results file
 		options.addOption(
-				Option.builder(OPTION_LUC).desc("Full path to luciphor results file").hasArg().required().build());
+				Option.builder(OPTION_LUC).desc("Full path to luciphor results file").hasArg().required(false).build());
 		// local FLR threshold
 		options.addOption(Option.builder(OPTION_LFLR).desc("Local-FLR threshold (real number from 0 to 1.0)").hasArg()
 				.required(false).build());
@@ -68,11 +77,39 @@ public class LuciphorDtaselectIntegratorApplication implements CommandLineRunner
 				.required(false).build());
 		// dtaselect file
 		options.addOption(
-				Option.builder(OPTION_DTA).desc("Full path to dtaselect results file").hasArg().required().build());
+				Option.builder(OPTION_DTA).desc("Full path to dtaselect results file").hasArg().required(false).build());
 		// remove option
 		options.addOption(Option.builder(OPTION_REMOVE)
 				.desc("If present, it will remove the PSMs that don't pass threshold on Luciphor's scores")
-				.hasArg(false).required().build());
+				.hasArg(false).required(false).build());
+		// number of threads
+		options.addOption(Option.builder(OPTION_THREADS).desc(
+				"Number of threads used to parse the luciphor results file, or number of jobs running at the same time in batch mode (integer, default 1)")
+				.hasArg().required(false).build());
+		// batch mode
+		options.addOption(Option.builder(OPTION_BATCH).desc(
+				"Full path to a manifest file or to a directory to integrate several luciphor and dtaselect files. The manifest is a tab separated file with one line per job with the luciphor file, the dtaselect file and optionally the local-FLR and global-FLR thresholds ('-' if not used) and 'true' to remove PSMs. In a directory, each folder with a DTASelect-filter.txt and a single luciphor .tsv or .txt file is integrated using the thresholds and remove option of the command line. If present, -luc and -dta are ignored")
+				.hasArg().required(false).build());
+		// cache of the luciphor file
+		options.addOption(Option.builder(OPTION_CACHE).desc(
+				"If present, the parsed luciphor file is stored in a binary file next to it (with extension "
+						+ LuciphorCache.EXTENSION
+						+ "), which is used instead of parsing it again in the next runs while the luciphor file doesn't change")
+				.hasArg(false).required(false).build());
+		// threshold sweep
+		options.addOption(Option.builder(OPTION_SWEEP).desc(
+				"If present, the dtaselect file is not modified and, instead, a table is reported with the number of luciphor PSMs passing the thresholds, the dtaselect PSMs that would change and the PSMs and proteins that would be removed with -"
+						+ OPTION_REMOVE
+						+ " for every combination of the local and global FLR thresholds, which are given as comma separated lists in -"
+						+ OPTION_LFLR + " and -" + OPTION_GFLR + " ('-' for no threshold)")
+				.hasArg(false).required(false).build());
+		// in-process rescoring
+		options.addOption(Option.builder(OPTION_MS2).desc(
+				"Full path to the directory with the .ms2 files of the dtaselect PSMs. If present, the localizations of the phosphorylations are scored from the spectra instead of reading a luciphor file (-"
+						+ OPTION_LUC + " is not needed), using all the processors unless -" + OPTION_THREADS
+						+ " is present. The FLRs are not calculated, so -" + OPTION_LFLR + " and -" + OPTION_GFLR
+						+ " can not be used")
+				.hasArg().required(false).build());
 
 		return options;
 
@@ -86,21 +123,14 @@ public class LuciphorDtaselectIntegratorApplication implements CommandLineRunner
 		Double lflrThreshold = null;
 		Double gflrThreshold = null;
 		boolean removePSMsNotPassingThreshold = false;
+		int numThreads = 1;
+		boolean useCache = false;
 
 		final CommandLineParser parser = new DefaultParser();
 		final CommandLine cmd = parser.parse(options, args);
-		luciphorPath = cmd.getOptionValue(OPTION_LUC).trim();
-		final File luciphorFile = new File(luciphorPath);
-		if (!luciphorFile.exists()) {
-			throw new ParseException("Luciphor file not found at '" + luciphorPath + "'");
-		}
-		dtaselectPath = cmd.getOptionValue(OPTION_DTA).trim();
-		final File dtaselectFile = new File(dtaselectPath);
-		if (!dtaselectFile.exists()) {
-			throw new ParseException("DTASelect file not found at '" + dtaselectPath + "'");
-		}
 
-		if (cmd.hasOption(OPTION_LFLR)) {
+		final boolean sweep = cmd.hasOption(OPTION_SWEEP);
+		if (cmd.hasOption(OPTION_LFLR) && !sweep) {
 			try {
 				lflrThreshold = Double.valueOf(cmd.getOptionValue(OPTION_LFLR).trim());
 				if (lflrThreshold < 0.0 || lflrThreshold > 1.0 || lflrThreshold.isNaN() || lflrThreshold.isInfinite()) {
@@ -112,7 +142,7 @@ public class LuciphorDtaselectIntegratorApplication implements CommandLineRunner
 			}
 		}
 
-		if (cmd.hasOption(OPTION_GFLR)) {
+		if (cmd.hasOption(OPTION_GFLR) && !sweep) {
 			try {
 				gflrThreshold = Double.valueOf(cmd.getOptionValue(OPTION_GFLR).trim());
 				if (gflrThreshold < 0.0 || gflrThreshold > 1.0 || gflrThreshold.isNaN() || gflrThreshold.isInfinite()) {
@@ -126,11 +156,125 @@ public class LuciphorDtaselectIntegratorApplication implements CommandLineRunner
 		if (cmd.hasOption(OPTION_REMOVE)) {
 			removePSMsNotPassingThreshold = true;
 		}
+		if (cmd.hasOption(OPTION_CACHE)) {
+			useCache = true;
+		}
+		if (cmd.hasOption(OPTION_THREADS)) {
+			try {
+				numThreads = Integer.valueOf(cmd.getOptionValue(OPTION_THREADS).trim());
+				if (numThreads < 1) {
+					throw new NumberFormatException();
+				}
+			} catch (final NumberFormatException e) {
+				throw new ParseException("Number of threads not valid (" + cmd.getOptionValue(OPTION_THREADS)
+						+ "). It must be an integer greater than 0");
+			}
+		}
+		File ms2Directory = null;
+		if (cmd.hasOption(OPTION_MS2)) {
+			if (cmd.hasOption(OPTION_BATCH) || sweep) {
+				throw new ParseException(
+						"Option -" + OPTION_MS2 + " can not be used with -" + OPTION_BATCH + " or -" + OPTION_SWEEP);
+			}
+			if (lflrThreshold != null || gflrThreshold != null) {
+				throw new ParseException("Options -" + OPTION_LFLR + " and -" + OPTION_GFLR
+						+ " can not be used with -" + OPTION_MS2 + ", as the FLRs are not calculated");
+			}
+			ms2Directory = new File(cmd.getOptionValue(OPTION_MS2).trim());
+			if (!ms2Directory.isDirectory()) {
+				throw new ParseException("Directory of the .ms2 files not found at '" + ms2Directory.getAbsolutePath()
+						+ "'");
+			}
+			if (!cmd.hasOption(OPTION_THREADS)) {
+				numThreads = Runtime.getRuntime().availableProcessors();
+			}
+		}
+		if (cmd.hasOption(OPTION_BATCH)) {
+			if (sweep) {
+				throw new ParseException("Option -" + OPTION_SWEEP + " can not be used with -" + OPTION_BATCH);
+			}
+			final File batchFile = new File(cmd.getOptionValue(OPTION_BATCH).trim());
+			if (!batchFile.exists()) {
+				throw new ParseException("Batch manifest or directory not found at '" + batchFile.getAbsolutePath() + "'");
+			}
+			final BatchIntegrator batchIntegrator;
+			if (batchFile.isDirectory()) {
+				batchIntegrator = BatchIntegrator.fromDirectory(batchFile, lflrThreshold, gflrThreshold,
+						removePSMsNotPassingThreshold, numThreads);
+			} else {
+				batchIntegrator = BatchIntegrator.fromManifest(batchFile, numThreads);
+			}
+			batchIntegrator.setUseCache(useCache);
+			batchIntegrator.run();
+			System.out.println("Program finished correctly");
+			return;
+		}
+		File luciphorFile = null;
+		if (ms2Directory == null) {
+			if (!cmd.hasOption(OPTION_LUC)) {
+				throw new ParseException("Missing required option: " + OPTION_LUC);
+			}
+			luciphorPath = cmd.getOptionValue(OPTION_LUC).trim();
+			luciphorFile = new File(luciphorPath);
+			if (!luciphorFile.exists()) {
+				throw new ParseException("Luciphor file not found at '" + luciphorPath + "'");
+			}
+		}
+		if (!cmd.hasOption(OPTION_DTA)) {
+			throw new ParseException("Missing required option: " + OPTION_DTA);
+		}
+		dtaselectPath = cmd.getOptionValue(OPTION_DTA).trim();
+		final File dtaselectFile = new File(dtaselectPath);
+		if (!dtaselectFile.exists()) {
+			throw new ParseException("DTASelect file not found at '" + dtaselectPath + "'");
+		}
+		if (sweep) {
+			runThresholdSweep(cmd, luciphorFile, dtaselectFile, numThreads, useCache);
+			System.out.println("Program finished correctly");
+			return;
+		}
 		final LuciphorDtaselectIntegrator luciphorIntegrator = new LuciphorDtaselectIntegrator(luciphorPath,
-				dtaselectPath, lflrThreshold, gflrThreshold, removePSMsNotPassingThreshold);
+				dtaselectPath, lflrThreshold, gflrThreshold, removePSMsNotPassingThreshold, numThreads, useCache);
+		luciphorIntegrator.setMS2Directory(ms2Directory);
 		luciphorIntegrator.run();
+		if (luciphorIntegrator.getDTASelectError() != null) {
+			throw new IOException("Error rewriting the DTASelect file '" + dtaselectPath
+					+ "'. The original file was restored", luciphorIntegrator.getDTASelectError());
+		}
 		System.out.println("Program finished correctly");
 
 	}
 
+	private void runThresholdSweep(CommandLine cmd, File luciphorFile, File dtaselectFile, int numThreads,
+			boolean useCache) throws ParseException, IOException {
+		List<Double> lflrThresholds = Collections.singletonList(null);
+		if (cmd.hasOption(OPTION_LFLR)) {
+			try {
+				lflrThresholds = ThresholdSweep.parseThresholds(cmd.getOptionValue(OPTION_LFLR));
+			} catch (final NumberFormatException e) {
+				throw new ParseException("Local FLR thresholds not valid (" + cmd.getOptionValue(OPTION_LFLR)
+						+ "). They must be real numbers between 0 and 1.0 or '-' separated by commas");
+			}
+		}
+		List<Double> gflrThresholds = Collections.singletonList(null);
+		if (cmd.hasOption(OPTION_GFLR)) {
+			try {
+				gflrThresholds = ThresholdSweep.parseThresholds(cmd.getOptionValue(OPTION_GFLR));
+			} catch (final NumberFormatException e) {
+				throw new ParseException("Global FLR thresholds not valid (" + cmd.getOptionValue(OPTION_GFLR)
+						+ "). They must be real numbers between 0 and 1.0 or '-' separated by commas");
+			}
+		}
+		// all the entries are read, and the thresholds are applied by the sweep
+		final LuciphorFileReader reader = new LuciphorFileReader(luciphorFile, null, null, numThreads, useCache);
+		final LuciphorResults luciphorEntries = reader.read();
+		final ThresholdSweep thresholdSweep = new ThresholdSweep(luciphorEntries, reader.getNumPSMsRead(),
+				lflrThresholds, gflrThresholds);
+		thresholdSweep.run(dtaselectFile);
+		final File reportFile = new File(dtaselectFile.getAbsolutePath() + "_threshold_sweep.tsv");
+		thresholdSweep.writeReport(reportFile);
+		thresholdSweep.printReport(System.out);
+		System.out.println("Threshold sweep written to '" + reportFile.getAbsolutePath() + "'");
+	}
+
 }
@@ -1,13 +1,10 @@
 package edu.scripps.yates.luciphor_dtaselect_integrator;
 
-import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-import edu.scripps.yates.luciphor_dtaselect_integrator.utils.FastaParser;
-import edu.scripps.yates.luciphor_dtaselect_integrator.utils.PTMInPeptide;
-import gnu.trove.map.TIntObjectMap;
-import gnu.trove.map.hash.TIntObjectHashMap;
-import gnu.trove.set.hash.THashSet;
+import edu.scripps.yates.luciphor_dtaselect_integrator.utils.DeltaMassFormatter;
+import edu.scripps.yates.luciphor_dtaselect_integrator.utils.PeptideSequenceScanner;
 
 public class LuciphorEntry {
 	private final String psmID;
@@ -17,10 +14,34 @@ public class LuciphorEntry {
 	private final double pep1Score;
 	private final double pep2Score;
 	private final double deltaScore;
-	private static Set<Character> modifiedAAs = new THashSet<Character>();
+	/**
+	 * Aminoacids considered as modified by Luciphor in the run this entry belongs
+	 * to
+	 */
+	private final Set<Character> modifiedAAs;
+	private static final Set<Character> defaultModifiedAAs = ConcurrentHashMap.newKeySet();
+	private static final ThreadLocal<PeptideSequenceScanner> scanners = ThreadLocal
+			.withInitial(PeptideSequenceScanner::new);
 
 	public LuciphorEntry(String psmID, String predictedSequence, double localFLR, double globalFLR, double pep1Score,
 			double pep2Score, double deltaScore) {
+		this(psmID, predictedSequence, localFLR, globalFLR, pep1Score, pep2Score, deltaScore, defaultModifiedAAs);
+	}
+
+	/**
+	 * 
+	 * @param psmID
+	 * @param predictedSequence
+	 * @param localFLR
+	 * @param globalFLR
+	 * @param pep1Score
+	 * @param pep2Score
+	 * @param deltaScore
+	 * @param modifiedAAs       set of aminoacids considered as modified by
+	 *                          Luciphor, shared by all the entries of the same run
+	 */
+	public LuciphorEntry(String psmID, String predictedSequence, double localFLR, double globalFLR, double pep1Score,
+			double pep2Score, double deltaScore, Set<Character> modifiedAAs) {
 		this.psmID = psmID;
 		this.predictedSequence = predictedSequence;
 		this.localFLR = localFLR;
@@ -28,22 +49,39 @@ public class LuciphorEntry {
 		this.pep1Score = pep1Score;
 		this.pep2Score = pep2Score;
 		this.deltaScore = deltaScore;
-		findModifiedAAs(predictedSequence);
+		this.modifiedAAs = modifiedAAs;
+		findModifiedAAs(predictedSequence, modifiedAAs);
 	}
 
-	private void findModifiedAAs(String predictedSequence2) {
+	/**
+	 * Registers the aminoacids in lower case of a predicted sequence as
+	 * aminoacids considered as modified by Luciphor
+	 * 
+	 * @param predictedSequence2
+	 * @param modifiedAAs
+	 */
+	static void findModifiedAAs(String predictedSequence2, Set<Character> modifiedAAs) {
 		for (int i = 0; i < predictedSequence2.length(); i++) {
 			final char aa = predictedSequence2.charAt(i);
 			if (Character.isLowerCase(aa)) {
-				final char upperCase = Character.toUpperCase(aa);
-				if (!modifiedAAs.contains(upperCase)) {
-					modifiedAAs.add(upperCase);
-					System.out.println(upperCase + " is considered as modified by luciphor");
-				}
+				registerModifiedAA(Character.toUpperCase(aa), modifiedAAs);
 			}
 		}
 	}
 
+	/**
+	 * Registers an aminoacid as considered as modified by Luciphor, reporting it
+	 * the first time
+	 * 
+	 * @param upperCase
+	 * @param modifiedAAs
+	 */
+	static void registerModifiedAA(char upperCase, Set<Character> modifiedAAs) {
+		if (modifiedAAs.add(upperCase)) {
+			System.out.println(upperCase + " is considered as modified by luciphor");
+		}
+	}
+
 	public String getPsmID() {
 		return psmID;
 	}
@@ -72,62 +110,79 @@ public class LuciphorEntry {
 	 * @return
 	 */
 	public String getFormattedPredictedSequence(String originalSequence) {
+		return getFormattedPredictedSequence(predictedSequence, originalSequence, modifiedAAs);
+	}
+
+	/**
+	 * See {@link #getFormattedPredictedSequence(String)}
+	 * 
+	 * @param predictedSequence sequence predicted by Luciphor
+	 * @param originalSequence
+	 * @param modifiedAAs       aminoacids considered as modified by Luciphor
+	 * @return
+	 */
+	static String getFormattedPredictedSequence(String predictedSequence, String originalSequence,
+			Set<Character> modifiedAAs) {
+		final PeptideSequenceScanner scanner = scanners.get().scan(originalSequence);
 		final StringBuilder ret = new StringBuilder();
-		final String prefix = FastaParser.getBeforeSeq(originalSequence);
-		final String suffix = FastaParser.getAfterSeq(originalSequence);
-		originalSequence = FastaParser.getSequenceInBetween(originalSequence);
-		final List<PTMInPeptide> ptms = FastaParser.getPTMsInPeptide(originalSequence);
-		final TIntObjectMap<PTMInPeptide> ptmsByPosition = getPTMsByPosition(ptms);
-		int indexPredictedSequence = 0;
-		int numPTM = 0;
+		if (scanner.getPrefix() != null) {
+			ret.append(scanner.getPrefix()).append('.');
+		}
 		// n-term
-		if (ptmsByPosition.containsKey(0)) {
-			final PTMInPeptide ptm = ptmsByPosition.get(0);
-			ret.append("(" + ptm.getFormattedDeltaMass() + ")");
-			numPTM++;
+		final int nTermPTM = scanner.findPTMAt(0);
+		if (nTermPTM >= 0) {
+			appendDeltaMass(ret, scanner, nTermPTM);
 		}
-		while (true) {
-			try {
-				final char aa = predictedSequence.charAt(indexPredictedSequence);
-				if (ptmsByPosition.containsKey(indexPredictedSequence + 1)) {
-					final PTMInPeptide ptm = ptmsByPosition.get(indexPredictedSequence + 1);
-					if (!modifiedAAs.contains(Character.toUpperCase(aa))) {
-						ret.append(Character.toUpperCase(aa) + "(" + ptm.getFormattedDeltaMass() + ")");
-						numPTM++;
-						indexPredictedSequence++;
-						continue;
-					}
-				}
-
-				if (Character.isLowerCase(aa)) {
-					final PTMInPeptide ptm = ptms.get(numPTM++);
-					ret.append(Character.toUpperCase(aa) + "(" + ptm.getFormattedDeltaMass() + ")");
-				} else {
-					ret.append(aa);
-				}
-				indexPredictedSequence++;
-			} finally {
-				if (indexPredictedSequence >= predictedSequence.length()) {
-					break;
-				}
+		// the PTMs that can be moved are given to the residues in lower case in
+		// order, and the others stay in their residues
+		int movablePTM = nextMovablePTM(scanner, -1, modifiedAAs);
+		for (int indexPredictedSequence = 0; indexPredictedSequence < predictedSequence
+				.length(); indexPredictedSequence++) {
+			final char aa = predictedSequence.charAt(indexPredictedSequence);
+			final int ptm = scanner.findPTMAt(indexPredictedSequence + 1);
+			if (ptm >= 0 && !modifiedAAs.contains(Character.toUpperCase(aa))) {
+				ret.append(Character.toUpperCase(aa));
+				appendDeltaMass(ret, scanner, ptm);
+			} else if (Character.isLowerCase(aa)) {
+				ret.append(Character.toUpperCase(aa));
+				appendDeltaMass(ret, scanner, movablePTM);
+				movablePTM = nextMovablePTM(scanner, movablePTM, modifiedAAs);
+			} else {
+				ret.append(aa);
 			}
 		}
-		if (suffix != null) {
-			ret.append(".").append(suffix);
+		if (scanner.getSuffix() != null) {
+			ret.append('.').append(scanner.getSuffix());
 		}
-		if (prefix != null) {
-			return prefix + "." + ret.toString();
-		} else {
-			return ret.toString();
+		return ret.toString();
+	}
+
+	/**
+	 * 
+	 * @param scanner
+	 * @param ptm
+	 * @param modifiedAAs
+	 * @return the next PTM after ptm that is in a residue considered as modified
+	 *         by Luciphor, or the number of PTMs if there is none
+	 */
+	private static int nextMovablePTM(PeptideSequenceScanner scanner, int ptm, Set<Character> modifiedAAs) {
+		final String cleanSequence = scanner.getCleanSequence();
+		for (ptm++; ptm < scanner.getNumPTMs(); ptm++) {
+			final int position = scanner.getPTMPosition(ptm);
+			if (position > 0 && modifiedAAs.contains(cleanSequence.charAt(position - 1))) {
+				return ptm;
+			}
 		}
+		return ptm;
 	}
 
-	private TIntObjectMap<PTMInPeptide> getPTMsByPosition(List<PTMInPeptide> ptms) {
-		final TIntObjectMap<PTMInPeptide> ret = new TIntObjectHashMap<PTMInPeptide>();
-		for (final PTMInPeptide ptmInPeptide : ptms) {
-			ret.put(ptmInPeptide.getPosition(), ptmInPeptide);
+	private static void appendDeltaMass(StringBuilder sb, PeptideSequenceScanner scanner, int ptm) {
+		final double deltaMass = scanner.getPTMDeltaMass(ptm);
+		if (Double.isNaN(deltaMass)) {
+			throw new IllegalArgumentException("PTM without delta mass at position " + scanner.getPTMPosition(ptm)
+					+ " of '" + scanner.getCleanSequence() + "'");
 		}
-		return ret;
+		DeltaMassFormatter.append(sb.append('('), deltaMass).append(')');
 	}
 
 	public double getPep1Score() {
@@ -0,0 +1,426 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import edu.scripps.yates.luciphor_dtaselect_integrator.utils.TabTokenizer;
+
+/**
+ * Reads the Luciphor results file line by line, applying the local and global
+ * FLR thresholds while reading, so that only the PSMs that pass them are kept
+ * in memory.<br>
+ * If more than one thread is requested, the file is split in ranges of bytes
+ * aligned to the end of the lines, which are parsed in parallel.
+ */
+public class LuciphorFileReader {
+	static final String COL_SPEC_ID = "specId";
+	static final String COL_PRED_PEP1 = "predictedPep1";
+	static final String COL_GLOBAL_FLR = "globalFLR";
+	static final String COL_LOCAL_FLR = "localFLR";
+	static final String COL_PEP1SCORE = "pep1score";
+	static final String COL_PEP2SCORE = "pep2score";
+	static final String COL_DELTASCORE = "deltaScore";
+	/**
+	 * Minimum and maximum size in bytes of the ranges of the file that are parsed
+	 * by a single worker in the parallel mode
+	 */
+	private static final long MIN_CHUNK_SIZE = 1024 * 1024;
+	private static final long MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+	private final File luciphorFile;
+	private final Double lflrThreshold;
+	private final Double gflrThreshold;
+	private final int numThreads;
+	private final boolean useCache;
+	/**
+	 * False when all the entries are read to be cached, applying the thresholds
+	 * after reading them
+	 */
+	private boolean applyThresholdsWhileParsing;
+	/**
+	 * Aminoacids considered as modified by Luciphor in this file
+	 */
+	private final Set<Character> modifiedAAs = ConcurrentHashMap.newKeySet();
+	private int numPSMsRead;
+	private int numPSMsPassingThresholds;
+
+	public LuciphorFileReader(File luciphorFile, Double lflrThreshold, Double gflrThreshold) {
+		this(luciphorFile, lflrThreshold, gflrThreshold, 1);
+	}
+
+	/**
+	 *
+	 * @param luciphorFile
+	 * @param lflrThreshold
+	 * @param gflrThreshold
+	 * @param numThreads    if greater than 1, the file is parsed in parallel with
+	 *                      that number of threads
+	 */
+	public LuciphorFileReader(File luciphorFile, Double lflrThreshold, Double gflrThreshold, int numThreads) {
+		this(luciphorFile, lflrThreshold, gflrThreshold, numThreads, false);
+	}
+
+	/**
+	 *
+	 * @param luciphorFile
+	 * @param lflrThreshold
+	 * @param gflrThreshold
+	 * @param numThreads    if greater than 1, the file is parsed in parallel with
+	 *                      that number of threads
+	 * @param useCache      if true, all the entries are read from the
+	 *                      {@link LuciphorCache} sidecar of the file if it is up
+	 *                      to date, or they are parsed and written to it
+	 *                      otherwise
+	 */
+	public LuciphorFileReader(File luciphorFile, Double lflrThreshold, Double gflrThreshold, int numThreads,
+			boolean useCache) {
+		this.luciphorFile = luciphorFile;
+		this.lflrThreshold = lflrThreshold;
+		this.gflrThreshold = gflrThreshold;
+		this.numThreads = numThreads;
+		this.useCache = useCache;
+	}
+
+	/**
+	 * Reads the Luciphor file and returns the entries that pass the thresholds
+	 * in a columnar store, indexed by their PSM ID. If the same PSM ID appears
+	 * more than once, the last one is the one found in the
+	 * {@link LuciphorResults}.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public LuciphorResults read() throws IOException {
+		numPSMsRead = 0;
+		numPSMsPassingThresholds = 0;
+		final LuciphorResults ret;
+		if (useCache) {
+			ret = readWithCache();
+		} else {
+			applyThresholdsWhileParsing = true;
+			ret = parse();
+		}
+		System.out.println(numPSMsRead + " PSMs read from Luciphor file");
+		if (lflrThreshold == null && gflrThreshold == null) {
+			System.out.println("No threshold was defined. All PSMs from Luciphor are considered.");
+		} else {
+			System.out.println(numPSMsPassingThresholds + "/" + numPSMsRead + " "
+					+ LuciphorDtaselectIntegrator.getPercentageString(numPSMsPassingThresholds, numPSMsRead)
+					+ " PSMs from Luciphor pass the threshold(s)");
+		}
+		return ret;
+	}
+
+	private LuciphorResults parse() throws IOException {
+		if (numThreads > 1) {
+			return readInParallel();
+		} else {
+			return readSequentially();
+		}
+	}
+
+	/**
+	 * Reads all the entries from the sidecar or, if it is not up to date, parses
+	 * the file without thresholds and writes the sidecar. Then, the thresholds
+	 * are applied over the score columns.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	private LuciphorResults readWithCache() throws IOException {
+		final LuciphorCache cache = new LuciphorCache(luciphorFile);
+		LuciphorResults allEntries = null;
+		try {
+			allEntries = cache.read(modifiedAAs);
+		} catch (final RuntimeException e) {
+			// a corrupted sidecar that passed the checks, it is parsed again
+			System.err.println("Luciphor cache '" + cache.getCacheFile().getAbsolutePath()
+					+ "' could not be read: " + e);
+		}
+		if (allEntries != null) {
+			numPSMsRead = cache.getNumPSMsRead();
+		} else {
+			final long size = luciphorFile.length();
+			final long lastModified = luciphorFile.lastModified();
+			applyThresholdsWhileParsing = false;
+			allEntries = parse();
+			try {
+				cache.write(allEntries, numPSMsRead, size, lastModified);
+			} catch (final IOException e) {
+				// the cache is just an optimization
+				System.err.println("Luciphor cache could not be written to '" + cache.getCacheFile().getAbsolutePath()
+						+ "': " + e.getMessage());
+			}
+		}
+		if (lflrThreshold == null && gflrThreshold == null) {
+			numPSMsPassingThresholds = allEntries.getNumRows();
+			return allEntries;
+		}
+		final LuciphorResults ret = allEntries.filter(lflrThreshold, gflrThreshold);
+		numPSMsPassingThresholds = ret.getNumRows();
+		return ret;
+	}
+
+	private LuciphorResults readSequentially() throws IOException {
+		final LuciphorResults ret = new LuciphorResults(modifiedAAs);
+		try (BufferedReader br = Files.newBufferedReader(luciphorFile.toPath())) {
+			final String firstLine = br.readLine();
+			if (firstLine != null) {
+				final LuciphorSchema schema = LuciphorSchema.compile(firstLine);
+				if (schema.isValid()) {
+					final TabTokenizer tokenizer = new TabTokenizer();
+					String line = null;
+					while ((line = br.readLine()) != null) {
+						if ("".equals(line)) {
+							continue;
+						}
+						numPSMsRead++;
+						if (parseLine(line, schema, ret, tokenizer)) {
+							numPSMsPassingThresholds++;
+						}
+					}
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Reads the file splitting it in ranges of bytes aligned to the end of the
+	 * lines, that are parsed in a {@link ForkJoinPool} with the number of threads
+	 * of this reader. The entries of all the ranges are merged in the order of the
+	 * file, so that the result is the same as when reading it sequentially.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	private LuciphorResults readInParallel() throws IOException {
+		final LuciphorResults ret = new LuciphorResults(modifiedAAs);
+		try (FileChannel channel = FileChannel.open(luciphorFile.toPath(), StandardOpenOption.READ)) {
+			final long size = channel.size();
+			final long headerEnd = findNextLineStart(channel, 0, size);
+			if (headerEnd == 0) {
+				return ret;
+			}
+			final String firstLine = decodeLine(readRange(channel, 0, headerEnd), 0, (int) headerEnd);
+			final LuciphorSchema schema = LuciphorSchema.compile(firstLine);
+			if (!schema.isValid()) {
+				return ret;
+			}
+			final long chunkSize = Math.max(MIN_CHUNK_SIZE,
+					Math.min(MAX_CHUNK_SIZE, (size - headerEnd) / (numThreads * 4)));
+			final ForkJoinPool pool = new ForkJoinPool(numThreads);
+			final List<ParsedChunk> chunks;
+			try {
+				chunks = pool.invoke(new ChunkParser(channel, headerEnd, size, chunkSize, schema));
+			} catch (final UncheckedIOException e) {
+				throw e.getCause();
+			} finally {
+				pool.shutdown();
+			}
+			for (final ParsedChunk chunk : chunks) {
+				numPSMsRead += chunk.numPSMsRead;
+				numPSMsPassingThresholds += chunk.entries.getNumRows();
+				ret.addAll(chunk.entries);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Parses a line of the Luciphor file, adding it to the results if it passes
+	 * the thresholds. Only the columns that are used are read from the line.
+	 *
+	 * @param line
+	 * @param schema
+	 * @param results
+	 * @param tokenizer     tokenizer of the thread reading the line
+	 * @return true if the line passed the thresholds
+	 */
+	boolean parseLine(String line, LuciphorSchema schema, LuciphorResults results, TabTokenizer tokenizer) {
+		tokenizer.tokenize(line);
+		final String predictedSequence = tokenizer.getString(schema.getPredictedPep1Column());
+		// the modified aminoacids are learned from all the entries, not only from
+		// the ones passing the thresholds
+		LuciphorEntry.findModifiedAAs(predictedSequence, modifiedAAs);
+		double localFLR = Double.NaN;
+		if (schema.hasLocalFLR()) {
+			localFLR = Double.parseDouble(tokenizer.getString(schema.getLocalFLRColumn()));
+			if (applyThresholdsWhileParsing && lflrThreshold != null && localFLR > lflrThreshold) {
+				return false;
+			}
+		}
+		double globalFLR = Double.NaN;
+		if (schema.hasGlobalFLR()) {
+			globalFLR = Double.parseDouble(tokenizer.getString(schema.getGlobalFLRColumn()));
+			if (applyThresholdsWhileParsing && gflrThreshold != null && globalFLR > gflrThreshold) {
+				return false;
+			}
+		}
+		double pep1Score = Double.NaN;
+		if (schema.hasPep1Score()) {
+			pep1Score = Double.parseDouble(tokenizer.getString(schema.getPep1ScoreColumn()));
+		}
+		double pep2Score = Double.NaN;
+		if (schema.hasPep2Score()) {
+			pep2Score = Double.parseDouble(tokenizer.getString(schema.getPep2ScoreColumn()));
+		}
+		double deltaScore = Double.NaN;
+		if (schema.hasDeltaScore()) {
+			deltaScore = Double.parseDouble(tokenizer.getString(schema.getDeltaScoreColumn()));
+		}
+		final String psmID = tokenizer.getString(schema.getSpecIDColumn());
+		results.add(psmID, predictedSequence, localFLR, globalFLR, pep1Score, pep2Score, deltaScore);
+		return true;
+	}
+
+	/**
+	 * Finds the position of the first byte after the next new line character
+	 * found from position, or end if no new line is found before
+	 *
+	 * @param channel
+	 * @param position
+	 * @param end
+	 * @return
+	 * @throws IOException
+	 */
+	private static long findNextLineStart(FileChannel channel, long position, long end) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		while (position < end) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), end - position));
+			final int read = channel.read(buffer, position);
+			if (read <= 0) {
+				break;
+			}
+			for (int i = 0; i < read; i++) {
+				if (buffer.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+			position += read;
+		}
+		return end;
+	}
+
+	private static byte[] readRange(FileChannel channel, long start, long end) throws IOException {
+		final byte[] bytes = new byte[(int) (end - start)];
+		final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		while (buffer.hasRemaining()) {
+			final int read = channel.read(buffer, start + buffer.position());
+			if (read < 0) {
+				throw new EOFException("Unexpected end of file reading " + bytes.length + " bytes at " + start);
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Decodes the line between start and end, removing the new line characters
+	 * at the end
+	 *
+	 * @param bytes
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	private static String decodeLine(byte[] bytes, int start, int end) {
+		while (end > start && (bytes[end - 1] == '\n' || bytes[end - 1] == '\r')) {
+			end--;
+		}
+		return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+	}
+
+	public int getNumPSMsRead() {
+		return numPSMsRead;
+	}
+
+	public int getNumPSMsPassingThresholds() {
+		return numPSMsPassingThresholds;
+	}
+
+	/**
+	 * Entries passing the thresholds in a range of the file, in the same order as
+	 * in the file
+	 */
+	private class ParsedChunk {
+		private final LuciphorResults entries = new LuciphorResults(modifiedAAs);
+		private int numPSMsRead;
+	}
+
+	/**
+	 * Splits a range of the file in two halves aligned to the end of the lines
+	 * until they are not bigger than the chunk size, and parses them
+	 */
+	private class ChunkParser extends RecursiveTask<List<ParsedChunk>> {
+		private static final long serialVersionUID = 1L;
+		private final FileChannel channel;
+		private final long start;
+		private final long end;
+		private final long chunkSize;
+		private final LuciphorSchema schema;
+
+		private ChunkParser(FileChannel channel, long start, long end, long chunkSize,
+				LuciphorSchema schema) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+			this.chunkSize = chunkSize;
+			this.schema = schema;
+		}
+
+		@Override
+		protected List<ParsedChunk> compute() {
+			try {
+				if (end - start > chunkSize) {
+					final long middle = findNextLineStart(channel, start + (end - start) / 2, end);
+					if (middle < end) {
+						final ChunkParser left = new ChunkParser(channel, start, middle, chunkSize, schema);
+						final ChunkParser right = new ChunkParser(channel, middle, end, chunkSize, schema);
+						right.fork();
+						final List<ParsedChunk> ret = new ArrayList<ParsedChunk>(left.compute());
+						ret.addAll(right.join());
+						return ret;
+					}
+				}
+				return Collections.singletonList(parse());
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		private ParsedChunk parse() throws IOException {
+			final ParsedChunk ret = new ParsedChunk();
+			final byte[] bytes = readRange(channel, start, end);
+			final TabTokenizer tokenizer = new TabTokenizer();
+			int lineStart = 0;
+			for (int i = 0; i <= bytes.length; i++) {
+				if (i == bytes.length || bytes[i] == '\n') {
+					final String line = decodeLine(bytes, lineStart, i);
+					lineStart = i + 1;
+					if ("".equals(line)) {
+						continue;
+					}
+					ret.numPSMsRead++;
+					parseLine(line, schema, ret.entries, tokenizer);
+				}
+			}
+			return ret;
+		}
+	}
+}
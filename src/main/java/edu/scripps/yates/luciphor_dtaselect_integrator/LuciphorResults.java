@@ -0,0 +1,316 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Columnar store of Luciphor entries: the scores are kept in one array of
+ * doubles per column and the predicted sequences one after the other in a
+ * single byte arena, all indexed by row. The PSM IDs are kept in a
+ * {@link PSMIndex} that maps each of them to its row. If the same PSM ID is
+ * added more than once, the last row is the one found.
+ */
+public class LuciphorResults {
+	private final PSMIndex index;
+	/**
+	 * Aminoacids considered as modified by Luciphor in the run of these entries
+	 */
+	private final Set<Character> modifiedAAs;
+	private int numRows;
+	private double[] localFLRs = new double[1024];
+	private double[] globalFLRs = new double[1024];
+	private double[] pep1Scores = new double[1024];
+	private double[] pep2Scores = new double[1024];
+	private double[] deltaScores = new double[1024];
+	private int[] sequenceOffsets = new int[1024];
+	private int[] sequenceLengths = new int[1024];
+	/**
+	 * Offset of the PSM ID of each row in the arena of the index
+	 */
+	private int[] idOffsets = new int[1024];
+	private byte[] sequences = new byte[16 * 1024];
+	private int sequencesLength;
+
+	public LuciphorResults() {
+		this(ConcurrentHashMap.newKeySet());
+	}
+
+	/**
+	 *
+	 * @param modifiedAAs aminoacids considered as modified by Luciphor in the run
+	 *                    of these entries
+	 */
+	public LuciphorResults(Set<Character> modifiedAAs) {
+		this(modifiedAAs, new PSMIndex());
+	}
+
+	private LuciphorResults(Set<Character> modifiedAAs, PSMIndex index) {
+		this.modifiedAAs = modifiedAAs;
+		this.index = index;
+	}
+
+	/**
+	 * Adds a row with the values of an entry
+	 *
+	 * @return the row of the entry
+	 */
+	public int add(String psmID, String predictedSequence, double localFLR, double globalFLR, double pep1Score,
+			double pep2Score, double deltaScore) {
+		final byte[] id = psmID.getBytes(StandardCharsets.UTF_8);
+		return addRow(id, predictedSequence.getBytes(StandardCharsets.UTF_8), localFLR, globalFLR, pep1Score,
+				pep2Score, deltaScore);
+	}
+
+	public int add(LuciphorEntry luciphorEntry) {
+		return add(luciphorEntry.getPsmID(), luciphorEntry.getPredictedSequence(), luciphorEntry.getLocalFLR(),
+				luciphorEntry.getGlobalFLR(), luciphorEntry.getPep1Score(), luciphorEntry.getPep2Score(),
+				luciphorEntry.getDeltaScore());
+	}
+
+	private int addRow(byte[] id, byte[] sequence, double localFLR, double globalFLR, double pep1Score,
+			double pep2Score, double deltaScore) {
+		if (numRows == localFLRs.length) {
+			final int capacity = numRows * 2;
+			localFLRs = Arrays.copyOf(localFLRs, capacity);
+			globalFLRs = Arrays.copyOf(globalFLRs, capacity);
+			pep1Scores = Arrays.copyOf(pep1Scores, capacity);
+			pep2Scores = Arrays.copyOf(pep2Scores, capacity);
+			deltaScores = Arrays.copyOf(deltaScores, capacity);
+			sequenceOffsets = Arrays.copyOf(sequenceOffsets, capacity);
+			sequenceLengths = Arrays.copyOf(sequenceLengths, capacity);
+			idOffsets = Arrays.copyOf(idOffsets, capacity);
+		}
+		if (sequencesLength + sequence.length > sequences.length) {
+			sequences = Arrays.copyOf(sequences, Math.max(sequencesLength + sequence.length, sequences.length * 2));
+		}
+		final int row = numRows++;
+		localFLRs[row] = localFLR;
+		globalFLRs[row] = globalFLR;
+		pep1Scores[row] = pep1Score;
+		pep2Scores[row] = pep2Score;
+		deltaScores[row] = deltaScore;
+		System.arraycopy(sequence, 0, sequences, sequencesLength, sequence.length);
+		sequenceOffsets[row] = sequencesLength;
+		sequenceLengths[row] = sequence.length;
+		sequencesLength += sequence.length;
+		idOffsets[row] = index.put(id, 0, id.length, row);
+		return row;
+	}
+
+	/**
+	 * Adds the rows of other results after the ones of these results, in the same
+	 * order
+	 *
+	 * @param other
+	 */
+	public void addAll(LuciphorResults other) {
+		for (int row = 0; row < other.numRows; row++) {
+			other.copyRow(row, this);
+		}
+	}
+
+	private void copyRow(int row, LuciphorResults target) {
+		target.addRow(index.getID(idOffsets[row]), getSequenceBytes(row), localFLRs[row], globalFLRs[row],
+				pep1Scores[row], pep2Scores[row], deltaScores[row]);
+	}
+
+	/**
+	 * Creates new results with the rows passing the thresholds, as if they were
+	 * applied while reading the entries. Rows are checked in a single pass over
+	 * the score columns before copying the ones passing to the new results.
+	 *
+	 * @param lflrThreshold maximum local FLR or null for no threshold
+	 * @param gflrThreshold maximum global FLR or null for no threshold
+	 * @return
+	 */
+	public LuciphorResults filter(Double lflrThreshold, Double gflrThreshold) {
+		// NaN comparisons are false, so entries without FLR always pass
+		final double maxLocalFLR = lflrThreshold != null ? lflrThreshold : Double.POSITIVE_INFINITY;
+		final double maxGlobalFLR = gflrThreshold != null ? gflrThreshold : Double.POSITIVE_INFINITY;
+		final boolean[] passing = new boolean[numRows];
+		for (int row = 0; row < numRows; row++) {
+			passing[row] = !(localFLRs[row] > maxLocalFLR) && !(globalFLRs[row] > maxGlobalFLR);
+		}
+		final LuciphorResults ret = new LuciphorResults(modifiedAAs);
+		for (int row = 0; row < numRows; row++) {
+			if (passing[row]) {
+				copyRow(row, ret);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 *
+	 * @param psmID
+	 * @return the row of the entry with that PSM ID or -1 if there is not any
+	 */
+	public int getRow(String psmID) {
+		return index.get(psmID);
+	}
+
+	/**
+	 *
+	 * @param bytes
+	 * @param start
+	 * @param end
+	 * @return the row of the entry with the PSM ID made of the UTF-8 bytes
+	 *         between start and end or -1 if there is not any
+	 */
+	public int getRow(byte[] bytes, int start, int end) {
+		return index.get(bytes, start, end);
+	}
+
+	private byte[] getSequenceBytes(int row) {
+		return Arrays.copyOfRange(sequences, sequenceOffsets[row], sequenceOffsets[row] + sequenceLengths[row]);
+	}
+
+	public String getPredictedSequence(int row) {
+		return new String(sequences, sequenceOffsets[row], sequenceLengths[row], StandardCharsets.UTF_8);
+	}
+
+	public double getLocalFLR(int row) {
+		return localFLRs[row];
+	}
+
+	public double getGlobalFLR(int row) {
+		return globalFLRs[row];
+	}
+
+	public double getPep1Score(int row) {
+		return pep1Scores[row];
+	}
+
+	public double getPep2Score(int row) {
+		return pep2Scores[row];
+	}
+
+	public double getDeltaScore(int row) {
+		return deltaScores[row];
+	}
+
+	/**
+	 * See {@link LuciphorEntry#getFormattedPredictedSequence(String)}
+	 *
+	 * @param row
+	 * @param originalSequence
+	 * @return
+	 */
+	public String getFormattedPredictedSequence(int row, String originalSequence) {
+		return LuciphorEntry.getFormattedPredictedSequence(getPredictedSequence(row), originalSequence, modifiedAAs);
+	}
+
+	/**
+	 *
+	 * @param row
+	 * @return offset of the PSM ID of the row in the arena of the index, which is
+	 *         the same for all the rows of the same PSM ID
+	 */
+	int getIDOffset(int row) {
+		return idOffsets[row];
+	}
+
+	public Set<Character> getModifiedAAs() {
+		return modifiedAAs;
+	}
+
+	/**
+	 *
+	 * @return number of rows, including the ones of PSM IDs that were added again
+	 *         later
+	 */
+	public int getNumRows() {
+		return numRows;
+	}
+
+	/**
+	 *
+	 * @return number of different PSM IDs
+	 */
+	public int size() {
+		return index.size();
+	}
+
+	public PSMIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Writes the rows, the sequence arena and the index, with fixed-width columns
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(numRows);
+		for (final double[] column : new double[][] { localFLRs, globalFLRs, pep1Scores, pep2Scores,
+				deltaScores }) {
+			for (int row = 0; row < numRows; row++) {
+				out.writeDouble(column[row]);
+			}
+		}
+		for (final int[] column : new int[][] { sequenceOffsets, sequenceLengths, idOffsets }) {
+			for (int row = 0; row < numRows; row++) {
+				out.writeInt(column[row]);
+			}
+		}
+		out.writeInt(sequencesLength);
+		out.write(sequences, 0, sequencesLength);
+		index.writeTo(out);
+	}
+
+	/**
+	 * Reads the results written by {@link #writeTo(DataOutputStream)} from the
+	 * position of the buffer
+	 *
+	 * @param buffer
+	 * @param modifiedAAs
+	 * @return
+	 */
+	static LuciphorResults readFrom(ByteBuffer buffer, Set<Character> modifiedAAs) {
+		final int numRows = buffer.getInt();
+		final int capacity = Math.max(1024, numRows);
+		final double[][] doubleColumns = new double[5][];
+		for (int i = 0; i < doubleColumns.length; i++) {
+			doubleColumns[i] = new double[capacity];
+			buffer.asDoubleBuffer().get(doubleColumns[i], 0, numRows);
+			buffer.position(buffer.position() + 8 * numRows);
+		}
+		final int[][] intColumns = new int[3][];
+		for (int i = 0; i < intColumns.length; i++) {
+			intColumns[i] = new int[capacity];
+			buffer.asIntBuffer().get(intColumns[i], 0, numRows);
+			buffer.position(buffer.position() + 4 * numRows);
+		}
+		final int sequencesLength = buffer.getInt();
+		final byte[] sequences = new byte[Math.max(16 * 1024, sequencesLength)];
+		buffer.get(sequences, 0, sequencesLength);
+		final LuciphorResults ret = new LuciphorResults(modifiedAAs, PSMIndex.readFrom(buffer));
+		ret.numRows = numRows;
+		ret.localFLRs = doubleColumns[0];
+		ret.globalFLRs = doubleColumns[1];
+		ret.pep1Scores = doubleColumns[2];
+		ret.pep2Scores = doubleColumns[3];
+		ret.deltaScores = doubleColumns[4];
+		ret.sequenceOffsets = intColumns[0];
+		ret.sequenceLengths = intColumns[1];
+		ret.idOffsets = intColumns[2];
+		ret.sequences = sequences;
+		ret.sequencesLength = sequencesLength;
+		return ret;
+	}
+
+	/**
+	 *
+	 * @return bytes used by the score columns, the sequences and the index
+	 */
+	public long getMemoryInBytes() {
+		return 5L * 8 * localFLRs.length + 3L * 4 * sequenceOffsets.length + sequences.length
+				+ index.getMemoryInBytes();
+	}
+}
@@ -0,0 +1,100 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import gnu.trove.map.TObjectIntMap;
+
+/**
+ * Positions of the columns of the Luciphor file used by the tool, resolved
+ * once from its header line, so that the rows are parsed without looking up
+ * the columns by name. If a column appears more than once in the header, the
+ * last one is used.
+ */
+public class LuciphorSchema {
+	private static final int MISSING = -1;
+	private final int specIDColumn;
+	private final int predictedPep1Column;
+	private final int localFLRColumn;
+	private final int globalFLRColumn;
+	private final int pep1ScoreColumn;
+	private final int pep2ScoreColumn;
+	private final int deltaScoreColumn;
+
+	private LuciphorSchema(TObjectIntMap<String> indexByHeader) {
+		specIDColumn = getColumn(indexByHeader, LuciphorFileReader.COL_SPEC_ID);
+		predictedPep1Column = getColumn(indexByHeader, LuciphorFileReader.COL_PRED_PEP1);
+		localFLRColumn = getColumn(indexByHeader, LuciphorFileReader.COL_LOCAL_FLR);
+		globalFLRColumn = getColumn(indexByHeader, LuciphorFileReader.COL_GLOBAL_FLR);
+		pep1ScoreColumn = getColumn(indexByHeader, LuciphorFileReader.COL_PEP1SCORE);
+		pep2ScoreColumn = getColumn(indexByHeader, LuciphorFileReader.COL_PEP2SCORE);
+		deltaScoreColumn = getColumn(indexByHeader, LuciphorFileReader.COL_DELTASCORE);
+	}
+
+	/**
+	 *
+	 * @param headerLine first line of the Luciphor file
+	 * @return
+	 */
+	public static LuciphorSchema compile(String headerLine) {
+		return new LuciphorSchema(LuciphorDtaselectIntegrator.getIndexByHeader(headerLine));
+	}
+
+	private static int getColumn(TObjectIntMap<String> indexByHeader, String header) {
+		return indexByHeader.containsKey(header) ? indexByHeader.get(header) : MISSING;
+	}
+
+	/**
+	 *
+	 * @return true if the header has the PSM ID and the predicted sequence
+	 *         columns, without which the rows can not be read
+	 */
+	public boolean isValid() {
+		return specIDColumn != MISSING && predictedPep1Column != MISSING;
+	}
+
+	public int getSpecIDColumn() {
+		return specIDColumn;
+	}
+
+	public int getPredictedPep1Column() {
+		return predictedPep1Column;
+	}
+
+	public boolean hasLocalFLR() {
+		return localFLRColumn != MISSING;
+	}
+
+	public int getLocalFLRColumn() {
+		return localFLRColumn;
+	}
+
+	public boolean hasGlobalFLR() {
+		return globalFLRColumn != MISSING;
+	}
+
+	public int getGlobalFLRColumn() {
+		return globalFLRColumn;
+	}
+
+	public boolean hasPep1Score() {
+		return pep1ScoreColumn != MISSING;
+	}
+
+	public int getPep1ScoreColumn() {
+		return pep1ScoreColumn;
+	}
+
+	public boolean hasPep2Score() {
+		return pep2ScoreColumn != MISSING;
+	}
+
+	public int getPep2ScoreColumn() {
+		return pep2ScoreColumn;
+	}
+
+	public boolean hasDeltaScore() {
+		return deltaScoreColumn != MISSING;
+	}
+
+	public int getDeltaScoreColumn() {
+		return deltaScoreColumn;
+	}
+}
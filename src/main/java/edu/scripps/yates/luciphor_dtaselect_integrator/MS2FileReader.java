@@ -0,0 +1,128 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.TIntSet;
+
+/**
+ * Reads the spectra of a .ms2 file: 'H' header lines, followed by a 'S' line
+ * per spectrum (first scan, last scan and precursor m/z), its 'I' and 'Z'
+ * (charge and M+H+) lines and a line per peak with its m/z and intensity.<br>
+ * Only the peaks of the requested scans are parsed, so reading the spectra of
+ * the PSMs of a DTASelect file doesn't keep the rest of the file in memory.
+ */
+public class MS2FileReader {
+	private final File ms2File;
+
+	public MS2FileReader(File ms2File) {
+		this.ms2File = ms2File;
+	}
+
+	public File getMS2File() {
+		return ms2File;
+	}
+
+	/**
+	 *
+	 * @param scans the scans to read, or null to read all of them
+	 * @return the spectra by their first scan number. If a scan appears more than
+	 *         once, the last one is kept
+	 * @throws IOException
+	 */
+	public TIntObjectMap<MS2Spectrum> read(TIntSet scans) throws IOException {
+		final TIntObjectMap<MS2Spectrum> ret = new TIntObjectHashMap<MS2Spectrum>();
+		try (BufferedReader br = Files.newBufferedReader(ms2File.toPath(), StandardCharsets.ISO_8859_1)) {
+			SpectrumBuilder spectrum = null;
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (line.isEmpty()) {
+					continue;
+				}
+				final char type = line.charAt(0);
+				if (type == 'S') {
+					addSpectrum(spectrum, ret);
+					spectrum = null;
+					final String[] fields = splitFields(line);
+					final int scan = Integer.parseInt(fields[1]);
+					if (scans == null || scans.contains(scan)) {
+						spectrum = new SpectrumBuilder(scan,
+								fields.length > 3 ? Double.parseDouble(fields[3]) : Double.NaN);
+					}
+				} else if (spectrum == null || type == 'H' || type == 'I') {
+					continue;
+				} else if (type == 'Z') {
+					spectrum.charges.add(Integer.parseInt(splitFields(line)[1]));
+				} else {
+					spectrum.addPeak(line);
+				}
+			}
+			addSpectrum(spectrum, ret);
+		}
+		return ret;
+	}
+
+	private static void addSpectrum(SpectrumBuilder spectrum, TIntObjectMap<MS2Spectrum> spectra) {
+		if (spectrum != null) {
+			spectra.put(spectrum.scan, spectrum.build());
+		}
+	}
+
+	private static String[] splitFields(String line) {
+		return line.trim().split("[\t ]+");
+	}
+
+	/**
+	 * The values of a spectrum while its lines are read
+	 */
+	private static class SpectrumBuilder {
+		private final int scan;
+		private final double precursorMz;
+		private final TIntArrayList charges = new TIntArrayList(2);
+		private double[] mzs = new double[256];
+		private double[] intensities = new double[256];
+		private int numPeaks;
+
+		private SpectrumBuilder(int scan, double precursorMz) {
+			this.scan = scan;
+			this.precursorMz = precursorMz;
+		}
+
+		/**
+		 * Parses the m/z and the intensity at the start of a peak line, which are
+		 * separated by a space or a tab
+		 */
+		private void addPeak(String line) {
+			int separator = 0;
+			while (separator < line.length() && line.charAt(separator) != ' ' && line.charAt(separator) != '\t') {
+				separator++;
+			}
+			int end = separator + 1;
+			while (end < line.length() && line.charAt(end) != ' ' && line.charAt(end) != '\t') {
+				end++;
+			}
+			if (separator >= line.length()) {
+				throw new IllegalArgumentException("Peak without intensity in scan " + scan + ": '" + line + "'");
+			}
+			if (numPeaks == mzs.length) {
+				mzs = Arrays.copyOf(mzs, numPeaks * 2);
+				intensities = Arrays.copyOf(intensities, numPeaks * 2);
+			}
+			mzs[numPeaks] = Double.parseDouble(line.substring(0, separator));
+			intensities[numPeaks] = Double.parseDouble(line.substring(separator + 1, end));
+			numPeaks++;
+		}
+
+		private MS2Spectrum build() {
+			return new MS2Spectrum(scan, precursorMz, charges.toArray(), Arrays.copyOf(mzs, numPeaks),
+					Arrays.copyOf(intensities, numPeaks));
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+/**
+ * A spectrum of a .ms2 file: its scan number, the m/z of the precursor, the
+ * charges of its 'Z' lines and its peaks, sorted by m/z as in the file
+ */
+public class MS2Spectrum {
+	private final int scan;
+	private final double precursorMz;
+	private final int[] charges;
+	private final double[] mzs;
+	private final double[] intensities;
+
+	public MS2Spectrum(int scan, double precursorMz, int[] charges, double[] mzs, double[] intensities) {
+		this.scan = scan;
+		this.precursorMz = precursorMz;
+		this.charges = charges;
+		this.mzs = mzs;
+		this.intensities = intensities;
+	}
+
+	public int getScan() {
+		return scan;
+	}
+
+	public double getPrecursorMz() {
+		return precursorMz;
+	}
+
+	public int[] getCharges() {
+		return charges.clone();
+	}
+
+	public int getNumPeaks() {
+		return mzs.length;
+	}
+
+	public double getMz(int peak) {
+		return mzs[peak];
+	}
+
+	public double getIntensity(int peak) {
+		return intensities[peak];
+	}
+}
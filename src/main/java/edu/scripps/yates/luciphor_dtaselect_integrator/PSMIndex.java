@@ -0,0 +1,328 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact index from PSM IDs to int values (the rows of the Luciphor entries),
+ * using open addressing with linear probing.<br>
+ * The bytes of the IDs are stored one after the other in a single
+ * {@link ByteBuffer} arena, preceded by their value and their length, and the
+ * slots of the table only hold the offsets of the IDs in the arena and their
+ * hashes. That way, an ID costs its length plus 16 bytes, and it can be looked
+ * up directly from the bytes of a line, without creating a {@link String}.
+ */
+public class PSMIndex {
+	private static final int EMPTY = -1;
+	private static final int NOT_FOUND = -1;
+	/**
+	 * Bytes stored in the arena before the bytes of each ID: its value and its
+	 * length
+	 */
+	private static final int ID_HEADER_SIZE = 8;
+	private final boolean direct;
+	private ByteBuffer arena;
+	/**
+	 * Offset in the arena of the ID in each slot or {@link #EMPTY}
+	 */
+	private int[] slots;
+	/**
+	 * Hash of the ID in each slot, to skip comparing the bytes of most of the IDs
+	 * that are not equal
+	 */
+	private int[] hashes;
+	private int size;
+
+	public PSMIndex() {
+		this(1024, false);
+	}
+
+	/**
+	 *
+	 * @param expectedSize number of IDs expected, to size the table and the arena
+	 * @param direct       if true, the arena is allocated out of the heap
+	 */
+	public PSMIndex(int expectedSize, boolean direct) {
+		this.direct = direct;
+		final int numSlots = Integer.highestOneBit(Math.max(16, expectedSize) * 2 - 1) << 1;
+		slots = new int[numSlots];
+		Arrays.fill(slots, EMPTY);
+		hashes = new int[numSlots];
+		arena = allocate(Math.max(1024, expectedSize * 32));
+	}
+
+	private PSMIndex(ByteBuffer arena, int[] slots, int[] hashes, int size, boolean direct) {
+		this.arena = arena;
+		this.slots = slots;
+		this.hashes = hashes;
+		this.size = size;
+		this.direct = direct;
+	}
+
+	private ByteBuffer allocate(int capacity) {
+		return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+
+	/**
+	 * Associates the value to the ID, replacing the value of the ID if it was
+	 * already in the index
+	 *
+	 * @param psmID
+	 * @param value a value greater or equal to 0
+	 * @return the offset of the ID in the arena, see {@link #getID(int)}
+	 */
+	public int put(String psmID, int value) {
+		final byte[] bytes = psmID.getBytes(StandardCharsets.UTF_8);
+		return put(bytes, 0, bytes.length, value);
+	}
+
+	/**
+	 * Associates the value to the ID made of the bytes between start and end,
+	 * replacing the value of the ID if it was already in the index
+	 *
+	 * @param bytes
+	 * @param start
+	 * @param end
+	 * @param value a value greater or equal to 0
+	 * @return the offset of the ID in the arena, see {@link #getID(int)}
+	 */
+	public int put(byte[] bytes, int start, int end, int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("Values of the index must not be negative: " + value);
+		}
+		final int hash = hash(bytes, start, end);
+		final int slot = findSlot(bytes, start, end, hash);
+		if (slots[slot] != EMPTY) {
+			arena.putInt(slots[slot], value);
+			return slots[slot];
+		}
+		final int length = end - start;
+		ensureArenaCapacity(ID_HEADER_SIZE + length);
+		final int offset = arena.position();
+		arena.putInt(value);
+		arena.putInt(length);
+		arena.put(bytes, start, length);
+		slots[slot] = offset;
+		hashes[slot] = hash;
+		size++;
+		// keep the load factor under 0.5
+		if (size * 2 > slots.length) {
+			rehash();
+		}
+		return offset;
+	}
+
+	/**
+	 *
+	 * @param idOffset the offset of an ID in the arena, as returned by
+	 *                 {@link #put(byte[], int, int, int)}
+	 * @return the bytes of the ID
+	 */
+	public byte[] getID(int idOffset) {
+		final byte[] ret = new byte[arena.getInt(idOffset + 4)];
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = arena.get(idOffset + ID_HEADER_SIZE + i);
+		}
+		return ret;
+	}
+
+	/**
+	 *
+	 * @param psmID
+	 * @return the value associated to the ID or -1 if it is not in the index
+	 */
+	public int get(String psmID) {
+		final byte[] bytes = psmID.getBytes(StandardCharsets.UTF_8);
+		return get(bytes, 0, bytes.length);
+	}
+
+	/**
+	 *
+	 * @param bytes
+	 * @param start
+	 * @param end
+	 * @return the value associated to the ID made of the bytes between start and
+	 *         end or -1 if it is not in the index
+	 */
+	public int get(byte[] bytes, int start, int end) {
+		final int slot = findSlot(bytes, start, end, hash(bytes, start, end));
+		if (slots[slot] == EMPTY) {
+			return NOT_FOUND;
+		}
+		return arena.getInt(slots[slot]);
+	}
+
+	public boolean contains(byte[] bytes, int start, int end) {
+		return get(bytes, start, end) != NOT_FOUND;
+	}
+
+	/**
+	 * Finds the slot in which the ID is or the empty slot in which it should be
+	 * put
+	 */
+	private int findSlot(byte[] bytes, int start, int end, int hash) {
+		final int mask = slots.length - 1;
+		int slot = hash & mask;
+		while (slots[slot] != EMPTY) {
+			if (hashes[slot] == hash && idEquals(slots[slot], bytes, start, end)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private boolean idEquals(int offset, byte[] bytes, int start, int end) {
+		final int length = arena.getInt(offset + 4);
+		if (length != end - start) {
+			return false;
+		}
+		final int idStart = offset + ID_HEADER_SIZE;
+		for (int i = 0; i < length; i++) {
+			if (arena.get(idStart + i) != bytes[start + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void rehash() {
+		final int[] oldSlots = slots;
+		final int[] oldHashes = hashes;
+		slots = new int[oldSlots.length * 2];
+		Arrays.fill(slots, EMPTY);
+		hashes = new int[slots.length];
+		final int mask = slots.length - 1;
+		for (int i = 0; i < oldSlots.length; i++) {
+			if (oldSlots[i] != EMPTY) {
+				int slot = oldHashes[i] & mask;
+				while (slots[slot] != EMPTY) {
+					slot = (slot + 1) & mask;
+				}
+				slots[slot] = oldSlots[i];
+				hashes[slot] = oldHashes[i];
+			}
+		}
+	}
+
+	private void ensureArenaCapacity(int bytesToAdd) {
+		if (arena.remaining() < bytesToAdd) {
+			final long newCapacity = Math.max(arena.capacity() * 2L, (long) arena.position() + bytesToAdd);
+			if (newCapacity > Integer.MAX_VALUE) {
+				throw new IllegalStateException("PSM index can not store more than 2Gb of PSM IDs");
+			}
+			final ByteBuffer newArena = allocate((int) newCapacity);
+			arena.flip();
+			newArena.put(arena);
+			arena = newArena;
+		}
+	}
+
+	/**
+	 * FNV-1a hash of the bytes, with a final mix of the bits so that the lower
+	 * ones, which select the slot, depend on all of them
+	 */
+	private static int hash(byte[] bytes, int start, int end) {
+		int hash = 0x811c9dc5;
+		for (int i = start; i < end; i++) {
+			hash ^= bytes[i];
+			hash *= 0x01000193;
+		}
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		return hash;
+	}
+
+	/**
+	 * Writes the table and the arena as they are, so that they can be read
+	 * without hashing the IDs again
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(size);
+		out.writeInt(slots.length);
+		for (int i = 0; i < slots.length; i++) {
+			out.writeInt(slots[i]);
+		}
+		for (int i = 0; i < hashes.length; i++) {
+			out.writeInt(hashes[i]);
+		}
+		final ByteBuffer ids = arena.duplicate();
+		ids.flip();
+		out.writeInt(ids.remaining());
+		final byte[] chunk = new byte[64 * 1024];
+		while (ids.hasRemaining()) {
+			final int length = Math.min(chunk.length, ids.remaining());
+			ids.get(chunk, 0, length);
+			out.write(chunk, 0, length);
+		}
+	}
+
+	/**
+	 * Reads an index written by {@link #writeTo(DataOutputStream)} from the
+	 * position of the buffer, leaving the position after it
+	 *
+	 * @param buffer
+	 * @return
+	 */
+	static PSMIndex readFrom(ByteBuffer buffer) {
+		final int size = buffer.getInt();
+		final int numSlots = buffer.getInt();
+		final int[] slots = new int[numSlots];
+		buffer.asIntBuffer().get(slots);
+		buffer.position(buffer.position() + 4 * numSlots);
+		final int[] hashes = new int[numSlots];
+		buffer.asIntBuffer().get(hashes);
+		buffer.position(buffer.position() + 4 * numSlots);
+		final int arenaLength = buffer.getInt();
+		final ByteBuffer arena = ByteBuffer.allocate(Math.max(1024, arenaLength + arenaLength / 4));
+		final ByteBuffer ids = buffer.duplicate();
+		ids.limit(ids.position() + arenaLength);
+		arena.put(ids);
+		buffer.position(buffer.position() + arenaLength);
+		return new PSMIndex(arena, slots, hashes, size, false);
+	}
+
+	/**
+	 *
+	 * @return number of IDs in the index
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 *
+	 * @return bytes used by the arena and the table of slots
+	 */
+	public long getMemoryInBytes() {
+		return arena.capacity() + 4L * slots.length + 4L * hashes.length;
+	}
+
+	/**
+	 * Estimates the bytes that the same IDs would use as the {@link String} keys
+	 * of a hash map, with compressed references: the {@link String} with its byte
+	 * array plus two references in the tables of the map at a load factor of 0.5
+	 *
+	 * @return
+	 */
+	public long estimateStringMapMemoryInBytes() {
+		long ret = 0;
+		for (final int offset : slots) {
+			if (offset != EMPTY) {
+				final int length = arena.getInt(offset + 4);
+				// String object + byte array header and content aligned to 8 bytes
+				ret += 24 + ((16 + length + 7) / 8) * 8;
+				// key and value references in a table twice as big as the size
+				ret += 2 * 2 * 4;
+			}
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,232 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import edu.scripps.yates.luciphor_dtaselect_integrator.utils.TabTokenizer;
+
+/**
+ * Lines of a protein group of a DTASelect file (its protein lines and the PSM
+ * lines that are kept) waiting to be written until all its PSMs are known.<br>
+ * Each line is stored once in an arena of bytes, and while the lines are added
+ * the buffer records where the 'Sequence Count' and 'Spectrum Count' columns of
+ * the protein lines are and keeps the number of PSM lines and the sum of their
+ * redundancies, so when the group is written the counts are patched in the
+ * protein lines without splitting the lines again.<br>
+ * The PSM lines are written to the buffer as an {@link OutputStream} and closed
+ * with {@link #endPSMLine(int)}. The buffer is reused from group to group, so
+ * it is not thread safe.
+ */
+class ProteinGroupBuffer extends OutputStream {
+	private byte[] data = new byte[16 * 1024];
+	private int length;
+	private int[] lineStarts = new int[64];
+	private int[] lineEnds = new int[64];
+	private boolean[] psmLines = new boolean[64];
+	/**
+	 * Positions of the count columns of the protein lines, -1 if the line doesn't
+	 * have them
+	 */
+	private int[] sequenceCountStarts = new int[64];
+	private int[] sequenceCountEnds = new int[64];
+	private int[] spectrumCountStarts = new int[64];
+	private int[] spectrumCountEnds = new int[64];
+	private int numLines;
+	private int lastLineEnd;
+	private int numPSMLines;
+	private int totalRedundancy;
+
+	/**
+	 * Removes all the lines, to start a new protein group
+	 */
+	public void clear() {
+		length = 0;
+		lastLineEnd = 0;
+		numLines = 0;
+		numPSMLines = 0;
+		totalRedundancy = 0;
+	}
+
+	public boolean isEmpty() {
+		return numLines == 0;
+	}
+
+	/**
+	 *
+	 * @return number of PSM lines of the group
+	 */
+	public int getNumPSMLines() {
+		return numPSMLines;
+	}
+
+	/**
+	 *
+	 * @return sum of the redundancies of the PSM lines of the group
+	 */
+	public int getTotalRedundancy() {
+		return totalRedundancy;
+	}
+
+	@Override
+	public void write(int b) {
+		ensureCapacity(length + 1);
+		data[length++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int len) {
+		ensureCapacity(length + len);
+		System.arraycopy(bytes, offset, data, length, len);
+		length += len;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > data.length) {
+			data = Arrays.copyOf(data, Math.max(capacity, data.length * 2));
+		}
+	}
+
+	/**
+	 * Adds a protein line, finding its count columns
+	 *
+	 * @param bytes
+	 * @param start     start of the line
+	 * @param end       end of the line, excluding the new line
+	 * @param schema
+	 * @param tokenizer tokenizer of the thread adding the line
+	 */
+	public void addProteinLine(byte[] bytes, int start, int end, DTASelectSchema schema, TabTokenizer tokenizer) {
+		write(bytes, start, end - start);
+		final int line = endLine(false);
+		tokenizer.tokenize(data, lineStarts[line], lineEnds[line]);
+		// the line is written up to its last non empty column, as it was when
+		// splitting it
+		if (tokenizer.getNumColumns() > 0) {
+			lineEnds[line] = tokenizer.getColumnEnd(tokenizer.getNumColumns() - 1);
+		}
+		final int sequenceCountColumn = schema.getSequenceCountColumn();
+		final int spectrumCountColumn = schema.getSpectrumCountColumn();
+		if (schema.hasSequenceCount() && schema.hasSpectrumCount() && sequenceCountColumn < tokenizer.getNumColumns()
+				&& spectrumCountColumn < tokenizer.getNumColumns()) {
+			sequenceCountStarts[line] = tokenizer.getColumnStart(sequenceCountColumn);
+			sequenceCountEnds[line] = tokenizer.getColumnEnd(sequenceCountColumn);
+			spectrumCountStarts[line] = tokenizer.getColumnStart(spectrumCountColumn);
+			spectrumCountEnds[line] = tokenizer.getColumnEnd(spectrumCountColumn);
+		} else {
+			sequenceCountStarts[line] = -1;
+			spectrumCountStarts[line] = -1;
+		}
+	}
+
+	/**
+	 * Adds a PSM line as it is
+	 *
+	 * @param bytes
+	 * @param start      start of the line
+	 * @param end        end of the line, excluding the new line
+	 * @param redundancy redundancy of the PSM
+	 */
+	public void addPSMLine(byte[] bytes, int start, int end, int redundancy) {
+		write(bytes, start, end - start);
+		endPSMLine(redundancy);
+	}
+
+	/**
+	 * Closes the PSM line made of the bytes written since the previous line
+	 *
+	 * @param redundancy redundancy of the PSM
+	 */
+	public void endPSMLine(int redundancy) {
+		endLine(true);
+		numPSMLines++;
+		totalRedundancy += redundancy;
+	}
+
+	private int endLine(boolean psm) {
+		if (numLines == lineStarts.length) {
+			final int capacity = numLines * 2;
+			lineStarts = Arrays.copyOf(lineStarts, capacity);
+			lineEnds = Arrays.copyOf(lineEnds, capacity);
+			psmLines = Arrays.copyOf(psmLines, capacity);
+			sequenceCountStarts = Arrays.copyOf(sequenceCountStarts, capacity);
+			sequenceCountEnds = Arrays.copyOf(sequenceCountEnds, capacity);
+			spectrumCountStarts = Arrays.copyOf(spectrumCountStarts, capacity);
+			spectrumCountEnds = Arrays.copyOf(spectrumCountEnds, capacity);
+		}
+		lineStarts[numLines] = lastLineEnd;
+		lineEnds[numLines] = length;
+		psmLines[numLines] = psm;
+		lastLineEnd = length;
+		return numLines++;
+	}
+
+	/**
+	 * Writes the lines of the group, each one followed by a new line, with the
+	 * number of PSM lines in the 'Sequence Count' column and the sum of their
+	 * redundancies in the 'Spectrum Count' column of the protein lines. If both
+	 * are the same column, it gets the 'Spectrum Count'. The empty lines at the
+	 * end of the group are not written.
+	 *
+	 * @param out
+	 * @throws IOException
+	 * @throws ArrayIndexOutOfBoundsException if a protein line doesn't have the
+	 *                                        count columns
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		int lastLine = numLines;
+		while (lastLine > 0 && lineStarts[lastLine - 1] == lineEnds[lastLine - 1]) {
+			lastLine--;
+		}
+		final byte[] sequenceCount = String.valueOf(numPSMLines).getBytes(StandardCharsets.ISO_8859_1);
+		final byte[] spectrumCount = String.valueOf(totalRedundancy).getBytes(StandardCharsets.ISO_8859_1);
+		for (int line = 0; line < lastLine; line++) {
+			final int start = lineStarts[line];
+			final int end = lineEnds[line];
+			if (psmLines[line]) {
+				out.write(data, start, end - start);
+			} else {
+				if (sequenceCountStarts[line] < 0) {
+					throw new ArrayIndexOutOfBoundsException(
+							"Protein line without the '" + DTASelectRewriter.SEQUENCE_COUNT + "' or '"
+									+ DTASelectRewriter.SPECTRUM_COUNT + "' column");
+				}
+				writeProteinLine(line, sequenceCount, spectrumCount, out);
+			}
+			out.write('\n');
+		}
+	}
+
+	private void writeProteinLine(int line, byte[] sequenceCount, byte[] spectrumCount, OutputStream out)
+			throws IOException {
+		final int sequenceCountStart = sequenceCountStarts[line];
+		final int spectrumCountStart = spectrumCountStarts[line];
+		final int sequenceCountEnd = sequenceCountEnds[line];
+		final int spectrumCountEnd = spectrumCountEnds[line];
+		int position = lineStarts[line];
+		if (sequenceCountStart == spectrumCountStart) {
+			position = patch(position, spectrumCountStart, spectrumCountEnd, spectrumCount, out);
+		} else if (sequenceCountStart < spectrumCountStart) {
+			position = patch(position, sequenceCountStart, sequenceCountEnd, sequenceCount, out);
+			position = patch(position, spectrumCountStart, spectrumCountEnd, spectrumCount, out);
+		} else {
+			position = patch(position, spectrumCountStart, spectrumCountEnd, spectrumCount, out);
+			position = patch(position, sequenceCountStart, sequenceCountEnd, sequenceCount, out);
+		}
+		out.write(data, position, lineEnds[line] - position);
+	}
+
+	/**
+	 * Writes the bytes from position to the start of the column and the value
+	 * instead of the column
+	 *
+	 * @return the position after the column
+	 */
+	private int patch(int position, int columnStart, int columnEnd, byte[] value, OutputStream out)
+			throws IOException {
+		out.write(data, position, columnStart - position);
+		out.write(value);
+		return columnEnd;
+	}
+}
@@ -0,0 +1,542 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+import edu.scripps.yates.luciphor_dtaselect_integrator.DTASelectFileScanner.LineType;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+/**
+ * Evaluates a grid of local and global FLR thresholds reading the Luciphor
+ * entries and the DTASelect file only once, and without writing any DTASelect
+ * file. For each pair of thresholds it counts the Luciphor PSMs that pass them,
+ * the DTASelect PSMs that would change their localization and the PSMs and
+ * proteins that would be removed with the remove option, the same as a run of
+ * {@link LuciphorDtaselectIntegrator} with those thresholds.<br>
+ * Each entry passes all the thresholds of the sorted grids from the first ones
+ * greater or equal to its FLRs, which are found with a binary search, so it
+ * passes a quadrant of the grid. The quadrants are added to two-dimensional
+ * difference arrays that are accumulated at the end, so the cost is
+ * proportional to the size of the files plus the size of the grid, and not to
+ * their product. Only the PSM IDs that appear more than once in the Luciphor
+ * file are evaluated in each point of the grid.
+ */
+public class ThresholdSweep {
+	private static final String NO_THRESHOLD = "-";
+	/**
+	 * Thresholds sorted in ascending order, where no threshold is
+	 * {@link Double#POSITIVE_INFINITY}
+	 */
+	private final double[] lflrThresholds;
+	private final double[] gflrThresholds;
+	private final LuciphorResults luciphorEntries;
+	private final int numLuciphorPSMsRead;
+	/**
+	 * Index in the grids of the first thresholds passed by each row of the
+	 * Luciphor entries, or the size of the grid if it doesn't pass any
+	 */
+	private int[] lflrIndexByRow;
+	private int[] gflrIndexByRow;
+	/**
+	 * Rows of the PSM IDs with more than one row, by the offset of the PSM ID
+	 */
+	private TIntObjectMap<TIntArrayList> rowsOfRepeatedPSMIDs;
+	private Grid numLuciphorPSMsPassing;
+	private Grid numPSMsKept;
+	private Grid numPSMsChanged;
+	private Grid numProteinsKept;
+	private int numDTASelectPSMs;
+	private int numProteins;
+	private DTASelectSchema schema;
+
+	/**
+	 *
+	 * @param luciphorEntries     all the Luciphor entries, read without thresholds
+	 * @param numLuciphorPSMsRead
+	 * @param lflrThresholds      local FLR thresholds, where null means no
+	 *                            threshold
+	 * @param gflrThresholds      global FLR thresholds, where null means no
+	 *                            threshold
+	 */
+	public ThresholdSweep(LuciphorResults luciphorEntries, int numLuciphorPSMsRead,
+			Collection<Double> lflrThresholds, Collection<Double> gflrThresholds) {
+		this.luciphorEntries = luciphorEntries;
+		this.numLuciphorPSMsRead = numLuciphorPSMsRead;
+		this.lflrThresholds = toSortedGrid(lflrThresholds);
+		this.gflrThresholds = toSortedGrid(gflrThresholds);
+	}
+
+	private static double[] toSortedGrid(Collection<Double> thresholds) {
+		final TreeSet<Double> sorted = new TreeSet<Double>();
+		for (final Double threshold : thresholds) {
+			sorted.add(threshold != null ? threshold : Double.POSITIVE_INFINITY);
+		}
+		if (sorted.isEmpty()) {
+			sorted.add(Double.POSITIVE_INFINITY);
+		}
+		final double[] ret = new double[sorted.size()];
+		int i = 0;
+		for (final Double threshold : sorted) {
+			ret[i++] = threshold;
+		}
+		return ret;
+	}
+
+	/**
+	 * Reads the DTASelect file and evaluates all the thresholds
+	 *
+	 * @param dtaselectFile
+	 * @throws IOException
+	 */
+	public void run(File dtaselectFile) throws IOException {
+		numLuciphorPSMsPassing = new Grid();
+		numPSMsKept = new Grid();
+		numPSMsChanged = new Grid();
+		numProteinsKept = new Grid();
+		numDTASelectPSMs = 0;
+		numProteins = 0;
+		schema = null;
+		indexRows();
+		for (int row = 0; row < luciphorEntries.getNumRows(); row++) {
+			numLuciphorPSMsPassing.addQuadrant(lflrIndexByRow[row], gflrIndexByRow[row], 1);
+		}
+		readDTASelect(dtaselectFile);
+		numLuciphorPSMsPassing.accumulate();
+		numPSMsKept.accumulate();
+		numPSMsChanged.accumulate();
+		numProteinsKept.accumulate();
+	}
+
+	/**
+	 * Finds the first thresholds passed by each row, in a pass over the score
+	 * columns, and the rows of the PSM IDs that are repeated
+	 */
+	private void indexRows() {
+		final int numRows = luciphorEntries.getNumRows();
+		lflrIndexByRow = new int[numRows];
+		gflrIndexByRow = new int[numRows];
+		for (int row = 0; row < numRows; row++) {
+			lflrIndexByRow[row] = getFirstThresholdPassed(luciphorEntries.getLocalFLR(row), lflrThresholds);
+		}
+		for (int row = 0; row < numRows; row++) {
+			gflrIndexByRow[row] = getFirstThresholdPassed(luciphorEntries.getGlobalFLR(row), gflrThresholds);
+		}
+		rowsOfRepeatedPSMIDs = new TIntObjectHashMap<TIntArrayList>();
+		if (luciphorEntries.size() < numRows) {
+			final TIntIntMap numRowsByPSMID = new TIntIntHashMap();
+			for (int row = 0; row < numRows; row++) {
+				numRowsByPSMID.adjustOrPutValue(luciphorEntries.getIDOffset(row), 1, 1);
+			}
+			for (int row = 0; row < numRows; row++) {
+				final int idOffset = luciphorEntries.getIDOffset(row);
+				if (numRowsByPSMID.get(idOffset) > 1) {
+					if (!rowsOfRepeatedPSMIDs.containsKey(idOffset)) {
+						rowsOfRepeatedPSMIDs.put(idOffset, new TIntArrayList());
+					}
+					rowsOfRepeatedPSMIDs.get(idOffset).add(row);
+				}
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @param flr
+	 * @param thresholds sorted thresholds
+	 * @return the index of the first threshold that the FLR passes, which is 0 if
+	 *         it is NaN as in that case the threshold is not applied, or the
+	 *         number of thresholds if it doesn't pass any
+	 */
+	private static int getFirstThresholdPassed(double flr, double[] thresholds) {
+		if (Double.isNaN(flr)) {
+			return 0;
+		}
+		int low = 0;
+		int high = thresholds.length;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (thresholds[middle] < flr) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Reads the DTASelect file grouping the lines in protein groups in the same
+	 * way as {@link DTASelectRewriter}
+	 *
+	 * @param dtaselectFile
+	 * @throws IOException
+	 */
+	private void readDTASelect(File dtaselectFile) throws IOException {
+		boolean passedPSMHeader = false;
+		boolean isFinalTable = false;
+		boolean isProtein = false;
+		ProteinGroup proteinGroup = null;
+		// the last group is only counted when another group or the final table
+		// follows it, as it is written by the DTASelectRewriter
+		ProteinGroup lastProteinGroup = null;
+		try (DTASelectFileScanner scanner = new DTASelectFileScanner(dtaselectFile)) {
+			while (scanner.next()) {
+				final LineType lineType = isFinalTable ? LineType.OTHER : scanner.getLineType();
+				if (lineType == LineType.PSM_HEADER) {
+					final String headerLine = scanner.getLineAsString();
+					schema = new DTASelectSchema();
+					schema.compilePSMHeader(headerLine);
+					DTASelectSchema.checkColumn(schema.hasPSMID(), DTASelectRewriter.DTA_COL_PSMID, headerLine);
+					DTASelectSchema.checkColumn(schema.hasSequence(), DTASelectRewriter.DTA_COL_SEQUENCE,
+							headerLine);
+					passedPSMHeader = true;
+				} else if (lineType == LineType.FINAL_TABLE) {
+					if (proteinGroup != null) {
+						countProteinGroup(lastProteinGroup);
+						lastProteinGroup = proteinGroup;
+						proteinGroup = null;
+					}
+					countProteinGroup(lastProteinGroup);
+					lastProteinGroup = null;
+					isProtein = false;
+					isFinalTable = true;
+				} else if (lineType == LineType.PSM) {
+					if (proteinGroup == null) {
+						proteinGroup = new ProteinGroup();
+					}
+					addPSM(scanner.getLineBytes(), scanner.getLineLength(), proteinGroup);
+					isProtein = false;
+				} else if (lineType != LineType.PROTEIN_HEADER && passedPSMHeader && !isFinalTable) {
+					// a protein line
+					if (!isProtein) {
+						// a new protein group starts
+						if (proteinGroup != null) {
+							countProteinGroup(lastProteinGroup);
+							lastProteinGroup = proteinGroup;
+						}
+						proteinGroup = new ProteinGroup();
+					}
+					proteinGroup.hasProteins = true;
+					isProtein = true;
+				}
+			}
+		}
+		if (proteinGroup != null) {
+			countProteinGroup(lastProteinGroup);
+		}
+	}
+
+	private void addPSM(byte[] bytes, int lineLength, ProteinGroup proteinGroup) {
+		numDTASelectPSMs++;
+		final int psmIDStart = DTASelectFileScanner.getColumnStart(bytes, 0, lineLength,
+				schema.getPSMIDColumn());
+		if (psmIDStart < 0) {
+			return;
+		}
+		final int row = luciphorEntries.getRow(bytes, psmIDStart,
+				DTASelectFileScanner.getColumnEnd(bytes, psmIDStart, lineLength));
+		if (row < 0) {
+			// removed with any threshold
+			return;
+		}
+		final TIntArrayList rows = rowsOfRepeatedPSMIDs.get(luciphorEntries.getIDOffset(row));
+		if (rows == null) {
+			final int lflrIndex = lflrIndexByRow[row];
+			final int gflrIndex = gflrIndexByRow[row];
+			if (lflrIndex < lflrThresholds.length && gflrIndex < gflrThresholds.length) {
+				numPSMsKept.addQuadrant(lflrIndex, gflrIndex, 1);
+				if (isChanged(row, bytes, lineLength)) {
+					numPSMsChanged.addQuadrant(lflrIndex, gflrIndex, 1);
+				}
+				proteinGroup.addPSM(lflrIndex, gflrIndex);
+			}
+			return;
+		}
+		// the PSM ID is repeated, so the row used depends on the thresholds: the
+		// last one passing them
+		final boolean[] changed = new boolean[rows.size()];
+		for (int k = 0; k < rows.size(); k++) {
+			changed[k] = isChanged(rows.get(k), bytes, lineLength);
+		}
+		for (int i = 0; i < lflrThresholds.length; i++) {
+			for (int j = 0; j < gflrThresholds.length; j++) {
+				for (int k = rows.size() - 1; k >= 0; k--) {
+					if (lflrIndexByRow[rows.get(k)] <= i && gflrIndexByRow[rows.get(k)] <= j) {
+						numPSMsKept.add(i, j, 1);
+						if (changed[k]) {
+							numPSMsChanged.add(i, j, 1);
+						}
+						proteinGroup.getKept()[i][j] = true;
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return true if the sequence predicted by Luciphor in the row is different
+	 *         from the sequence of the PSM line
+	 */
+	private boolean isChanged(int row, byte[] bytes, int lineLength) {
+		final int sequenceStart = DTASelectFileScanner.getColumnStart(bytes, 0, lineLength,
+				schema.getSequenceColumn());
+		final String originalSequence = new String(bytes, sequenceStart,
+				DTASelectFileScanner.getColumnEnd(bytes, sequenceStart, lineLength) - sequenceStart,
+				StandardCharsets.ISO_8859_1);
+		return !originalSequence.equals(luciphorEntries.getFormattedPredictedSequence(row, originalSequence));
+	}
+
+	/**
+	 * Counts the protein group as kept in the thresholds in which any of its PSMs
+	 * is kept
+	 *
+	 * @param proteinGroup
+	 */
+	private void countProteinGroup(ProteinGroup proteinGroup) {
+		if (proteinGroup == null || !proteinGroup.hasProteins) {
+			return;
+		}
+		numProteins++;
+		if (proteinGroup.kept != null) {
+			final boolean[][] kept = proteinGroup.kept;
+			for (int k = 0; k < proteinGroup.psms.size(); k += 2) {
+				for (int i = proteinGroup.psms.get(k); i < lflrThresholds.length; i++) {
+					for (int j = proteinGroup.psms.get(k + 1); j < gflrThresholds.length; j++) {
+						kept[i][j] = true;
+					}
+				}
+			}
+			for (int i = 0; i < lflrThresholds.length; i++) {
+				for (int j = 0; j < gflrThresholds.length; j++) {
+					if (kept[i][j]) {
+						numProteinsKept.add(i, j, 1);
+					}
+				}
+			}
+			return;
+		}
+		// the union of the quadrants of the PSMs is a staircase that is added as
+		// the quadrants of its corners minus the ones of their intersections
+		final int numPSMs = proteinGroup.psms.size() / 2;
+		if (numPSMs == 0) {
+			return;
+		}
+		final long[] psms = new long[numPSMs];
+		for (int k = 0; k < numPSMs; k++) {
+			psms[k] = ((long) proteinGroup.psms.get(2 * k) << 32) | proteinGroup.psms.get(2 * k + 1);
+		}
+		// by lflr index and then by gflr index
+		Arrays.sort(psms);
+		int lastGflrIndex = Integer.MAX_VALUE;
+		int lastLflrIndex = -1;
+		for (final long psm : psms) {
+			final int lflrIndex = (int) (psm >>> 32);
+			final int gflrIndex = (int) psm;
+			if (gflrIndex >= lastGflrIndex) {
+				// inside the quadrant of a previous corner
+				continue;
+			}
+			numProteinsKept.addQuadrant(lflrIndex, gflrIndex, 1);
+			if (lastLflrIndex >= 0) {
+				numProteinsKept.addQuadrant(lflrIndex, lastGflrIndex, -1);
+			}
+			lastLflrIndex = lflrIndex;
+			lastGflrIndex = gflrIndex;
+		}
+	}
+
+	/**
+	 * Writes a tab separated table with a row per pair of thresholds
+	 *
+	 * @param writer
+	 * @throws IOException
+	 */
+	public void writeReport(Writer writer) throws IOException {
+		writer.write("lflr\tgflr\tluciphor_PSMs_read\tluciphor_PSMs_passing\tdtaselect_PSMs\tPSMs_changed\t"
+				+ "PSMs_removed_with_" + LuciphorDtaselectIntegratorApplication.OPTION_REMOVE + "\tproteins_removed_with_"
+				+ LuciphorDtaselectIntegratorApplication.OPTION_REMOVE + "\n");
+		for (int i = 0; i < lflrThresholds.length; i++) {
+			for (int j = 0; j < gflrThresholds.length; j++) {
+				writer.write(toString(lflrThresholds[i]) + "\t" + toString(gflrThresholds[j]) + "\t"
+						+ numLuciphorPSMsRead + "\t" + numLuciphorPSMsPassing.get(i, j) + "\t" + numDTASelectPSMs
+						+ "\t" + numPSMsChanged.get(i, j) + "\t" + getNumPSMsRemoved(i, j) + "\t"
+						+ getNumProteinsRemoved(i, j) + "\n");
+			}
+		}
+	}
+
+	public void writeReport(File file) throws IOException {
+		try (FileWriter fw = new FileWriter(file, false)) {
+			writeReport(fw);
+		}
+	}
+
+	public void printReport(PrintStream out) throws IOException {
+		final StringWriter sw = new StringWriter();
+		writeReport(sw);
+		out.print(sw.toString());
+	}
+
+	private static String toString(double threshold) {
+		return threshold == Double.POSITIVE_INFINITY ? NO_THRESHOLD : String.valueOf(threshold);
+	}
+
+	public int getNumLuciphorPSMsPassing(int lflrIndex, int gflrIndex) {
+		return numLuciphorPSMsPassing.get(lflrIndex, gflrIndex);
+	}
+
+	public int getNumPSMsChanged(int lflrIndex, int gflrIndex) {
+		return numPSMsChanged.get(lflrIndex, gflrIndex);
+	}
+
+	public int getNumPSMsRemoved(int lflrIndex, int gflrIndex) {
+		return numDTASelectPSMs - numPSMsKept.get(lflrIndex, gflrIndex);
+	}
+
+	public int getNumProteinsRemoved(int lflrIndex, int gflrIndex) {
+		return numProteins - numProteinsKept.get(lflrIndex, gflrIndex);
+	}
+
+	public int getNumDTASelectPSMs() {
+		return numDTASelectPSMs;
+	}
+
+	/**
+	 *
+	 * @return the local FLR thresholds in the order of the report, where
+	 *         {@link Double#POSITIVE_INFINITY} is no threshold
+	 */
+	public double[] getLflrThresholds() {
+		return lflrThresholds;
+	}
+
+	/**
+	 *
+	 * @return the global FLR thresholds in the order of the report, where
+	 *         {@link Double#POSITIVE_INFINITY} is no threshold
+	 */
+	public double[] getGflrThresholds() {
+		return gflrThresholds;
+	}
+
+	/**
+	 * A count per pair of thresholds, with a difference array for the counts
+	 * added to quadrants of the grid
+	 */
+	private class Grid {
+		private final int[][] counts = new int[lflrThresholds.length][gflrThresholds.length];
+		private final int[][] differences = new int[lflrThresholds.length][gflrThresholds.length];
+
+		/**
+		 * Adds the value to all the pairs of thresholds from the ones at those
+		 * indexes, or to none if any of the indexes is out of the grid
+		 */
+		private void addQuadrant(int lflrIndex, int gflrIndex, int value) {
+			if (lflrIndex < lflrThresholds.length && gflrIndex < gflrThresholds.length) {
+				differences[lflrIndex][gflrIndex] += value;
+			}
+		}
+
+		private void add(int lflrIndex, int gflrIndex, int value) {
+			counts[lflrIndex][gflrIndex] += value;
+		}
+
+		/**
+		 * Adds the accumulated differences to the counts
+		 */
+		private void accumulate() {
+			for (int i = 0; i < lflrThresholds.length; i++) {
+				for (int j = 0; j < gflrThresholds.length; j++) {
+					if (i > 0) {
+						differences[i][j] += differences[i - 1][j];
+					}
+					if (j > 0) {
+						differences[i][j] += differences[i][j - 1];
+					}
+					if (i > 0 && j > 0) {
+						differences[i][j] -= differences[i - 1][j - 1];
+					}
+				}
+			}
+			for (int i = 0; i < lflrThresholds.length; i++) {
+				for (int j = 0; j < gflrThresholds.length; j++) {
+					counts[i][j] += differences[i][j];
+					differences[i][j] = 0;
+				}
+			}
+		}
+
+		private int get(int lflrIndex, int gflrIndex) {
+			return counts[lflrIndex][gflrIndex];
+		}
+	}
+
+	/**
+	 * The indexes of the first thresholds passed by the PSMs of a protein group
+	 */
+	private class ProteinGroup {
+		private boolean hasProteins;
+		/**
+		 * Pairs of lflr and gflr indexes
+		 */
+		private final TIntArrayList psms = new TIntArrayList();
+		/**
+		 * Thresholds in which the group is kept, only used if it has PSMs with
+		 * repeated PSM IDs
+		 */
+		private boolean[][] kept;
+
+		private void addPSM(int lflrIndex, int gflrIndex) {
+			psms.add(lflrIndex);
+			psms.add(gflrIndex);
+		}
+
+		private boolean[][] getKept() {
+			if (kept == null) {
+				kept = new boolean[lflrThresholds.length][gflrThresholds.length];
+			}
+			return kept;
+		}
+	}
+
+	/**
+	 * Parses a comma separated list of thresholds, where '-' is no threshold
+	 *
+	 * @param thresholds
+	 * @return
+	 * @throws NumberFormatException if any of them is not a number between 0 and
+	 *                               1.0
+	 */
+	public static List<Double> parseThresholds(String thresholds) {
+		final List<Double> ret = new ArrayList<Double>();
+		for (String threshold : thresholds.split(",")) {
+			threshold = threshold.trim();
+			if (NO_THRESHOLD.equals(threshold)) {
+				ret.add(null);
+				continue;
+			}
+			final Double value = Double.valueOf(threshold);
+			if (value < 0.0 || value > 1.0 || value.isNaN()) {
+				throw new NumberFormatException(threshold);
+			}
+			ret.add(value);
+		}
+		return ret;
+	}
+}
@@ -7,9 +7,8 @@ public class AssignMass {
 
 	public static final double MADD_DIFF_C12C13 = 1.003354826;
 	public static final int MADD_DIFF_C12C13_PPM = 1003;
-	private static final double double_ZERO = 0.000001;
 
-	private static final double[] aaMassAvg = new double[SIZE];
+	protected static final double[] aaMassAvg = new double[SIZE];
 	protected static final double[] aaMassMono = new double[SIZE];
 	// added by SALVA May-3rd-2018
 	public static final double H = 1.00784;
@@ -43,12 +42,11 @@ public class AssignMass {
 	public static final double H2O_PROTON = H2O + PROTON;
 	public static final double H2O_PROTON_SCALED_DOWN = H2O_PROTON * 1000;
 
-	private static double[] aaMasses;
 	private static AssignMass assignMass;
-	private static double cTerm;
-	private static double nTerm;
-	private static double yionfragment;
-	private static double bionfragment;
+	/**
+	 * Averagine distributions every ~516 Da up to ~10 kDa. See
+	 * {@link IsotopeEnvelopeCalculator} for the distribution of any mass
+	 */
 	private static final double[][] isotopicDistribution = new double[20][20];
 	public static final int[][] intensePeaks = new int[20][];
 	public static final int[] mostIntensePeaks = new int[20];
@@ -526,17 +524,20 @@ public class AssignMass {
 		loadMostIntensePeaks();
 	}
 
-	private static double hplus;
-	private static double h;
-	private static double oh;
-	private static double binWidth;
-	private static boolean useMono = true;
-
 	public static void main(String[] args) {
 		final AssignMass am = new AssignMass(true);
 	}
 
-	public static AssignMass getInstance(boolean useMono) {
+	/**
+	 * Creates the instance the first time, making the default
+	 * {@link MassContext} monoisotopic or average. Later calls return the same
+	 * instance and ignore useMono, so to use other masses, pass a
+	 * {@link MassContext} to the code that needs them.
+	 *
+	 * @param useMono
+	 * @return
+	 */
+	public static synchronized AssignMass getInstance(boolean useMono) {
 		if (assignMass == null)
 			assignMass = new AssignMass(useMono);
 
@@ -544,199 +545,35 @@ public class AssignMass {
 	}
 
 	public static double getMass(int i) {
-		return aaMasses[i];
+		return MassContext.getDefault().getMass(i);
 	}
 
+	/**
+	 * @see MassContext#getFragIonArr(String, int)
+	 */
 	public static double[] getFragIonArr(String seq, int ion) {
-
-		final int size = seq.length() - 1; // TODO BUG ? should be seq.length()
-		final double[] arr = new double[size];
-		// System.out.println(size + " " + seq.length()+ "");
-
-		int count = 0;
-		double addMass = 0.0;
-
-		for (int i = 0; i < size; i++) {
-			final double mass = getMass(seq.charAt(i));
-
-			if (mass <= double_ZERO)
-				continue;
-
-			// System.out.println(seq.charAt(i) + "\t" + mass);
-			addMass += mass;
-
-			switch (ion) {
-
-			/* a */case 0:
-				arr[count] = addMass + nTerm - 27.0;
-				break;
-			/* b */case 1:
-				arr[count] = addMass + getBionfragment();
-				// System.out.println("---" + arr[count] + " " + addMass + " " +
-				// getBionfragment());
-				break;
-			/* c */case 2:
-				arr[count] = addMass + getnTerm() + 18.0;
-				break;
-			// /*x*/ case 6: rarr[rcount] = pepMass - addMass +
-			// getcTerm() + 45.0; break;
-			// /*y*/ case 7: rarr[rcount] = pepMass - addMass +
-			// getYionfragment(); break;
-			// /*z*/ case 8: rarr[rcount] = pepMass - addMass +
-			// getcTerm() + 3.0; break;
-			}
-
-			count++;
-		}
-
-		return arr;
+		return MassContext.getDefault().getFragIonArr(seq, ion);
 	}
 
+	/**
+	 * @see MassContext#getFragIonArrRev(String, int)
+	 */
 	public static double[] getFragIonArrRev(String seq, int ion) {
-
-		// seq="YLK";
-
-		final int size = seq.length() - 1; // TODO BUG? should be seq.length()
-		final double[] rarr = new double[size];
-
-		// System.out.println(size + " " + seq + "\t" + seq.length());
-
-		int rcount = size - 1;
-		double raddMass = 0.0;
-
-		for (int i = 0; i < size; i++) {
-			final double rmass = getMass(seq.charAt(rcount + 1));
-			if (rmass <= double_ZERO)
-				continue;
-			raddMass += rmass;
-			// arr[count] = mass
-			// dAddNterminus
-
-			// System.out.println("iiiiiiii\t" + rcount + " " +
-			// seq.charAt(rcount+1) + "\t" + raddMass +"\t" +
-			// getYionfragment() + "\t" + (raddMass +
-			// getYionfragment()));
-			switch (ion) {
-			/* x */case 6:
-				rarr[rcount] = raddMass + getcTerm() + 45.0;
-				break;
-			/* y */case 7:
-				rarr[rcount] = raddMass + getYionfragment();
-				break;
-			/* z */case 8:
-				rarr[rcount] = raddMass + getcTerm() + 3.0;
-				break;
-			}
-
-			rcount--;
-			// System.out.println(seq.charAt(i) + "\t" + ionToUse + "\t" +
-			// addMass + "\t" + arr.length);
-		}
-
-		// for(int i=0;i<arr.length;i++) {
-		// System.out.println(arr[i] + "\t" + rarr[i] + "\t" +
-		// getBionfragment());
-		// }
-
-		return rarr;
+		return MassContext.getDefault().getFragIonArrRev(seq, ion);
 	}
 
+	/**
+	 * @see MassContext#getFragIonArrMod(String, int, int[])
+	 */
 	public static double[] getFragIonArrMod(String seq, int ion, int[] modIndexHash) {
-
-		final int size = seq.length() - 1;
-		final double[] arr = new double[size];
-		// System.out.println(size + " " + seq.length()+ "");
-
-		int count = 0;
-		double addMass = 0.0;
-
-		for (int i = 0; i < size; i++) {
-			final char ch = seq.charAt(i);
-			double mass = getMass(ch);
-
-			if (modIndexHash[i] > 0) {
-
-				// System.out.println(modIndexHash + " " + "aaa" + " " + ch +
-				// " " + mass + " " + DiffModification.getDiffModMass(ch));
-				mass += DiffModification.getDiffModMass(ch);
-			}
-
-			addMass += mass;
-
-			switch (ion) {
-			/* a */case 0:
-				arr[count] = addMass + nTerm - 27.0;
-				break;
-			/* b */case 1:
-				arr[count] = addMass + getBionfragment();
-				break;
-			/* c */case 2:
-				arr[count] = addMass + getnTerm() + 18.0;
-				break;
-			// /*x*/ case 6: rarr[rcount] = pepMass - addMass +
-			// getcTerm() + 45.0; break;
-			// /*y*/ case 7: rarr[rcount] = pepMass - addMass +
-			// getYionfragment(); break;
-			// /*z*/ case 8: rarr[rcount] = pepMass - addMass +
-			// getcTerm() + 3.0; break;
-			}
-
-			count++;
-		}
-
-		return arr;
+		return MassContext.getDefault().getFragIonArrMod(seq, ion, modIndexHash);
 	}
 
+	/**
+	 * @see MassContext#getFragIonArrRevMod(String, int, int[])
+	 */
 	public static double[] getFragIonArrRevMod(String seq, int ion, int[] modIndexHash) {
-
-		final int size = seq.length() - 1; // TODO BUG? should be seq.length()
-		final double[] rarr = new double[size];
-
-		// System.out.println(size + " " + seq + "\t" + seq.length());
-		int rcount = size - 1;
-		double raddMass = 0.0;
-
-		for (int i = 0; i < size; i++) {
-			final char ch = seq.charAt(rcount + 1);
-
-			double rmass = getMass(ch);
-
-			if (modIndexHash[size - i] > 0) {
-				// System.out.println(ch + "\t1");
-				rmass += DiffModification.getDiffModMass(ch);
-			}
-
-			raddMass += rmass;
-			// arr[count] = mass
-			// dAddNterminus
-
-			// System.out.println("iiiiiiii\t" + rcount + " " +
-			// seq.charAt(rcount+1) + "\t" + raddMass +"\t" +
-			// getYionfragment() + "\t" + (raddMass +
-			// getYionfragment()));
-			switch (ion) {
-			/* x */case 6:
-				rarr[rcount] = raddMass + getcTerm() + 45.0;
-				break;
-			/* y */case 7:
-				rarr[rcount] = raddMass + getYionfragment();
-				break;
-			/* z */case 8:
-				rarr[rcount] = raddMass + getcTerm() + 3.0;
-				break;
-			}
-
-			rcount--;
-			// System.out.println(seq.charAt(i) + "\t" + ionToUse + "\t" +
-			// addMass + "\t" + arr.length);
-		}
-
-		// for(int i=0;i<arr.length;i++) {
-		// System.out.println(arr[i] + "\t" + rarr[i] + "\t" +
-		// getBionfragment());
-		// }
-
-		return rarr;
+		return MassContext.getDefault().getFragIonArrRevMod(seq, ion, modIndexHash);
 	}
 
 	public static void addMass(int i, double mass) {
@@ -744,96 +581,73 @@ public class AssignMass {
 		if (mass <= 0)
 			return;
 
-		aaMasses[i] += mass;
+		MassContext.updateDefault(context -> context.withMass((char) i, context.getMass(i) + mass));
 	}
 
 	public static void setMass(int i, double mass) {
 
 		if (mass <= 0)
 			return;
-		aaMasses[i] = mass;
+		MassContext.updateDefault(context -> context.withMass((char) i, mass));
 	}
 
 	public AssignMass(boolean useMono) {
 		// void ASSIGN_MASS(double *pdAAMass,int bUseMonoMasses,double *dHplus,
 		// double *dH, double *dOH)
 
-		AssignMass.useMono = useMono;
-
-		// System.out.println("=======" + useMono);
-
-		// pdAAMass = new double[SIZE];
-		if (useMono) {
-			aaMasses = aaMassMono;
-
-			binWidth = 1.0005079;
-			hplus = 1.0072765;
-			h = 1.0078250;
-			oh = 15.9949146f + h;
-		} else /* average masses */
-		{
-			aaMasses = aaMassAvg;
-			binWidth = 1.0011413;
-			hplus = 1.00739;
-			h = 1.00794;
-			oh = 15.9994f + h;
-		}
-
+		MassContext.updateDefault(context -> context.withMassType(useMono));
 	}
 
 	public static double getHplus() {
-		return hplus;
+		return MassContext.getDefault().getHplus();
 	}
 
 	public static void setHplus(double hplus) {
-		AssignMass.hplus = hplus;
+		MassContext.updateDefault(context -> context.withHplus(hplus));
 	}
 
 	public static double getH() {
-		return h;
+		return MassContext.getDefault().getH();
 	}
 
 	public static void setH(double h) {
-		AssignMass.h = h;
+		MassContext.updateDefault(context -> context.withH(h));
 	}
 
 	public static double getOh() {
-		return oh;
+		return MassContext.getDefault().getOh();
 	}
 
 	public static void setOh(double oh) {
-		AssignMass.oh = oh;
+		MassContext.updateDefault(context -> context.withOh(oh));
 	}
 
 	public static double getBinWidth() {
-		return binWidth;
+		return MassContext.getDefault().getBinWidth();
 	}
 
 	public static void setBinWidth(double binWidth) {
-		AssignMass.binWidth = binWidth;
+		MassContext.updateDefault(context -> context.withBinWidth(binWidth));
 	}
 
 	public double[] getPdAAMass() {
-		if (useMono)
-			return aaMassMono;
-		else
-			return aaMassAvg;
+		return MassContext.getDefault().getMasses();
 	}
 
 	public static double[] getAaMasses() {
-		return aaMasses;
+		return MassContext.getDefault().getMasses();
 	}
 
 	public static void setAaMasses(double[] aaMasses) {
-		AssignMass.aaMasses = aaMasses;
+		MassContext.updateDefault(context -> context.withMasses(aaMasses));
 	}
 
 	public boolean isUseMono() {
-		return useMono;
+		return MassContext.getDefault().isMonoisotopic();
 	}
 
 	public void setUseMono(boolean useMono) {
-		AssignMass.useMono = useMono;
+		MassContext.updateDefault(context -> context.withMassType(useMono));
 	}
 
 	public static AssignMass getAssignMass() {
@@ -845,58 +659,49 @@ public class AssignMass {
 	}
 
 	public static double getcTerm() {
-		return cTerm;
+		return MassContext.getDefault().getcTerm();
 	}
 
 	public static void setcTerm(double cTerm) {
-		AssignMass.cTerm = cTerm;
+		MassContext.updateDefault(context -> context.withcTerm(cTerm));
 	}
 
 	public static double getnTerm() {
-		return nTerm;
+		return MassContext.getDefault().getnTerm();
 	}
 
 	public static void setnTerm(double nTerm) {
-		AssignMass.nTerm = nTerm;
+		MassContext.updateDefault(context -> context.withnTerm(nTerm));
 	}
 
 	public static double getBionfragment() {
-		return bionfragment;
+		return MassContext.getDefault().getBionfragment();
 	}
 
 	public static void setBionfragment(double bionfragment) {
-		AssignMass.bionfragment = bionfragment;
+		MassContext.updateDefault(context -> context.withBionfragment(bionfragment));
 	}
 
 	public static double getYionfragment() {
-		return yionfragment;
+		return MassContext.getDefault().getYionfragment();
 	}
 
 	public static void setYionfragment(double yionfragment) {
-		AssignMass.yionfragment = yionfragment;
+		MassContext.updateDefault(context -> context.withYionfragment(yionfragment));
 	}
 
 	public static int getBinnedValue(double mass, double shift) {
+		return MassContext.getDefault().getBinnedValue(mass, shift);
+	}
 
-		// System.out.println("===" + mass + " " + shift+ " " +
-		// getBinWidth() + " " +
-		// (int)((mass+shift)/getBinWidth() + 0.5) + " " +
-		// ((mass+shift)/getBinWidth() + 0.5) + " " +
-		// (int)(mass+shift+ 0.5));
-		// System.out.println( (int)((mass+shift)/getBinWidth() +
-		// 0.5) + " " + (int)(mass+shift+ 0.5) + " " +
-		// ((int)((mass+shift)/getBinWidth() + 0.5) ==
-		// (int)(mass+shift+ 0.5)) );
-		// System.out.println("===" + mass + " " + shift+ " " +
-		// getBinWidth() + " " +
-		// (int)((mass+shift)/getBinWidth() + 0.5) + " " +
-		// (int)(mass+shift+ 0.5));
-		// return (int)( (mass+shift)/getBinWidth() + 0.5);
-
-		// System.out.println("frag ion ===\t" + mass + "\t" + (int)(
-		// (mass+shift)/getBinWidth() + 1.5));
-		return (int) ((mass + shift) / getBinWidth() + 0.5);
-		// return (int)( (mass+shift)+ 0.5);
+	/**
+	 *
+	 * @param row
+	 * @return a copy of the row of the averagine distributions, relative to
+	 *         their most intense peak
+	 */
+	static double[] getIsotopicDistribution(int row) {
+		return isotopicDistribution[row].clone();
 	}
 
 	public static void loadIntensePeaks() {
@@ -932,13 +737,6 @@ public class AssignMass {
 	}
 
 	public static boolean containsMass(char aa) {
-		try {
-			if (getMass(aa) != 0.0) {
-				return true;
-			}
-		} catch (final NullPointerException e) {
-
-		}
-		return false;
+		return MassContext.getDefault().containsMass(aa);
 	}
 }
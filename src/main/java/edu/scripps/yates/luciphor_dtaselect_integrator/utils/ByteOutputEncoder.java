@@ -0,0 +1,219 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a file through a large byte buffer that is reused for all its
+ * content, appending text as ASCII (ISO-8859-1, the encoding in which the
+ * lines of the DTASelect files are read) and numbers without creating a
+ * {@link String} for them.<br>
+ * The buffer is only written to the {@link FileChannel} of the file when it is
+ * full, so every write but the last one has the size of the buffer, which is a
+ * multiple of {@value #ALIGNMENT} bytes, and starts at a multiple of it in the
+ * file, as long as {@link #flush()} is not called before closing it. It is not
+ * thread safe.
+ */
+public class ByteOutputEncoder extends OutputStream {
+	public static final int ALIGNMENT = 64 * 1024;
+	public static final int DEFAULT_BUFFER_SIZE = 4 * 1024 * 1024;
+	private final FileChannel channel;
+	private final byte[] buffer;
+	private final ByteBuffer byteBuffer;
+	private int position;
+	private int numWrites;
+	private long numBytesWritten;
+
+	/**
+	 * Creates or truncates the file, with a buffer of
+	 * {@value #DEFAULT_BUFFER_SIZE} bytes
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public ByteOutputEncoder(File file) throws IOException {
+		this(file, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates or truncates the file
+	 *
+	 * @param file
+	 * @param bufferSize size of the buffer, rounded up to a multiple of
+	 *                   {@value #ALIGNMENT}
+	 * @throws IOException
+	 */
+	public ByteOutputEncoder(File file, int bufferSize) throws IOException {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("Not valid buffer size " + bufferSize);
+		}
+		buffer = new byte[(bufferSize + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT];
+		byteBuffer = ByteBuffer.wrap(buffer);
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (position == buffer.length) {
+			writeBuffer();
+		}
+		buffer[position++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException {
+		if (position > 0) {
+			final int numBytes = Math.min(length, buffer.length - position);
+			System.arraycopy(bytes, offset, buffer, position, numBytes);
+			position += numBytes;
+			offset += numBytes;
+			length -= numBytes;
+			if (position < buffer.length) {
+				return;
+			}
+			writeBuffer();
+		}
+		// the whole buffers are written from the bytes, without copying them
+		final int numBytesToWrite = length - length % buffer.length;
+		if (numBytesToWrite > 0) {
+			write(ByteBuffer.wrap(bytes, offset, numBytesToWrite));
+			offset += numBytesToWrite;
+			length -= numBytesToWrite;
+		}
+		System.arraycopy(bytes, offset, buffer, 0, length);
+		position = length;
+	}
+
+	/**
+	 * Appends the characters as ISO-8859-1, writing '?' for the ones that are
+	 * not in it, as {@link String#getBytes(java.nio.charset.Charset)}
+	 *
+	 * @param chars
+	 * @return this encoder
+	 * @throws IOException
+	 */
+	public ByteOutputEncoder append(CharSequence chars) throws IOException {
+		for (int i = 0; i < chars.length(); i++) {
+			if (position == buffer.length) {
+				writeBuffer();
+			}
+			final char c = chars.charAt(i);
+			buffer[position++] = c <= 0xFF ? (byte) c : (byte) '?';
+		}
+		return this;
+	}
+
+	public ByteOutputEncoder append(char c) throws IOException {
+		write(c <= 0xFF ? c : '?');
+		return this;
+	}
+
+	/**
+	 * Appends the number with the same text as {@link String#valueOf(long)}
+	 *
+	 * @param value
+	 * @return this encoder
+	 * @throws IOException
+	 */
+	public ByteOutputEncoder append(long value) throws IOException {
+		ensureRoom(20);
+		if (value < 0) {
+			if (value == Long.MIN_VALUE) {
+				return append(String.valueOf(value));
+			}
+			buffer[position++] = '-';
+			value = -value;
+		}
+		int numDigits = 1;
+		for (long rest = value / 10; rest > 0; rest /= 10) {
+			numDigits++;
+		}
+		for (int i = position + numDigits - 1; i >= position; i--) {
+			buffer[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		position += numDigits;
+		return this;
+	}
+
+	/**
+	 * Appends the number with the same text as {@link String#valueOf(double)},
+	 * with {@link DoubleFormatter}
+	 *
+	 * @param value
+	 * @return this encoder
+	 * @throws IOException
+	 */
+	public ByteOutputEncoder append(double value) throws IOException {
+		ensureRoom(DoubleFormatter.MAX_LENGTH);
+		position = DoubleFormatter.write(value, buffer, position);
+		return this;
+	}
+
+	/**
+	 * Writes the buffer if it doesn't have room for that number of bytes
+	 */
+	private void ensureRoom(int numBytes) throws IOException {
+		if (buffer.length - position < numBytes) {
+			writeBuffer();
+		}
+	}
+
+	private void writeBuffer() throws IOException {
+		byteBuffer.clear().limit(position);
+		write(byteBuffer);
+		position = 0;
+	}
+
+	private void write(ByteBuffer bytes) throws IOException {
+		while (bytes.hasRemaining()) {
+			numBytesWritten += channel.write(bytes);
+			numWrites++;
+		}
+	}
+
+	/**
+	 * Writes the bytes in the buffer to the file. The writes after it are no
+	 * longer aligned.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (position > 0) {
+			writeBuffer();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!channel.isOpen()) {
+			return;
+		}
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 *
+	 * @return number of writes to the file
+	 */
+	public int getNumWrites() {
+		return numWrites;
+	}
+
+	/**
+	 *
+	 * @return number of bytes written to the file, not counting the ones still in
+	 *         the buffer
+	 */
+	public long getNumBytesWritten() {
+		return numBytesWritten;
+	}
+}
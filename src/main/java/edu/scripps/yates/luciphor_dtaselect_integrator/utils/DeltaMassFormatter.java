@@ -0,0 +1,130 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator.utils;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+
+/**
+ * Formats the delta masses of the PTMs with up to 6 decimals, giving the same
+ * text as a {@link DecimalFormat} with the pattern "#.######" (rounding half
+ * to even from the exact value of the double and removing the zeros at the
+ * end of the decimals), without using a {@link DecimalFormat} for each
+ * mass.<br>
+ * A run only has a few different delta masses, so the texts of the last ones
+ * formatted are kept in a small cache. The class is thread safe.
+ */
+public class DeltaMassFormatter {
+	private static final String PATTERN = "#.######";
+	private static final int DECIMALS = 6;
+	private static final long SCALE = 1000000L;
+	private static final long[] POWERS_OF_10 = { 1L, 10L, 100L, 1000L, 10000L, 100000L };
+	/**
+	 * Masses from this value on are formatted with a {@link DecimalFormat}, so
+	 * that the error of scaling them is much smaller than the decimals that
+	 * decide the rounding
+	 */
+	private static final double MAX_FAST_MASS = 1000000.0;
+	/**
+	 * How far from the half the scaled mass has to be to be rounded without a
+	 * {@link DecimalFormat}
+	 */
+	private static final double HALF_MARGIN = 0.001;
+	private static final int CACHE_SIZE = 64;
+	// DecimalFormat is not thread safe
+	private static final ThreadLocal<DecimalFormat> decimalFormats = ThreadLocal
+			.withInitial(() -> new DecimalFormat(PATTERN));
+	private static final char decimalSeparator;
+	/**
+	 * False if the symbols of the default locale are not the ones written by
+	 * this class, in which case all the masses are formatted with a
+	 * {@link DecimalFormat}
+	 */
+	private static final boolean fastFormatSupported;
+	private static final CachedMass[] cache = new CachedMass[CACHE_SIZE];
+
+	static {
+		final DecimalFormatSymbols symbols = new DecimalFormat(PATTERN).getDecimalFormatSymbols();
+		decimalSeparator = symbols.getDecimalSeparator();
+		fastFormatSupported = symbols.getZeroDigit() == '0' && symbols.getMinusSign() == '-';
+	}
+
+	/**
+	 * A mass and its text. As its fields are final, it can be read from other
+	 * threads without synchronization
+	 */
+	private static class CachedMass {
+		private final long bits;
+		private final String text;
+
+		private CachedMass(long bits, String text) {
+			this.bits = bits;
+			this.text = text;
+		}
+	}
+
+	/**
+	 *
+	 * @param deltaMass
+	 * @return the text of the delta mass, as "#.######"
+	 */
+	public static String format(double deltaMass) {
+		final long bits = Double.doubleToRawLongBits(deltaMass);
+		final int index = (int) (bits ^ (bits >>> 32) ^ (bits >>> 17)) & (CACHE_SIZE - 1);
+		final CachedMass cached = cache[index];
+		if (cached != null && cached.bits == bits) {
+			return cached.text;
+		}
+		final String text = append(new StringBuilder(16), deltaMass, bits).toString();
+		cache[index] = new CachedMass(bits, text);
+		return text;
+	}
+
+	/**
+	 * Appends the text of the delta mass, as "#.######". The digits are written
+	 * directly in the {@link StringBuilder}, without the cache of
+	 * {@link #format(double)} and without creating a {@link String}, except for
+	 * the masses that are formatted with a {@link DecimalFormat}.
+	 *
+	 * @param sb
+	 * @param deltaMass
+	 * @return the {@link StringBuilder}
+	 */
+	public static StringBuilder append(StringBuilder sb, double deltaMass) {
+		return append(sb, deltaMass, Double.doubleToRawLongBits(deltaMass));
+	}
+
+	private static StringBuilder append(StringBuilder sb, double deltaMass, long bits) {
+		final double absoluteMass = Math.abs(deltaMass);
+		if (!fastFormatSupported || !(absoluteMass < MAX_FAST_MASS)) {
+			// NaN and infinite too
+			return sb.append(decimalFormats.get().format(deltaMass));
+		}
+		final double scaled = absoluteMass * SCALE;
+		final double floor = Math.floor(scaled);
+		final double fraction = scaled - floor;
+		if (Math.abs(fraction - 0.5) < HALF_MARGIN) {
+			// close to the half, the exact value of the double decides
+			return sb.append(decimalFormats.get().format(deltaMass));
+		}
+		final long rounded = (long) floor + (fraction > 0.5 ? 1 : 0);
+		// the sign is kept even if it is rounded to 0, as DecimalFormat does
+		if (bits < 0) {
+			sb.append('-');
+		}
+		sb.append(rounded / SCALE);
+		long decimals = rounded % SCALE;
+		if (decimals != 0) {
+			int numDecimals = DECIMALS;
+			while (decimals % 10 == 0) {
+				decimals /= 10;
+				numDecimals--;
+			}
+			sb.append(decimalSeparator);
+			// zeros after the separator
+			for (long power = POWERS_OF_10[numDecimals - 1]; power > decimals; power /= 10) {
+				sb.append('0');
+			}
+			sb.append(decimals);
+		}
+		return sb;
+	}
+}
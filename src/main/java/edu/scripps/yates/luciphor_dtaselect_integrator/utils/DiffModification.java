@@ -5,49 +5,54 @@
 package edu.scripps.yates.luciphor_dtaselect_integrator.utils;
 
 /**
+ * Differential modifications of the default {@link MassContext}
  *
  * @author rpark
  */
 public class DiffModification {
     public static final int SIZE= 256;
-    private static double[] diffMod = new double[SIZE];
-    private static boolean[] isDiffMod = new boolean[SIZE];
     //public static void diffModTrue(char ch) {
     //    isDiffMod[ch] = true;
    // }
     
     public static boolean isDiffMod(char ch) {
-        return isDiffMod[ch];
+        return MassContext.getDefault().isDiffMod(ch);
     }
     
     public static void setDiffModMass(char ch, double mass) {
-        diffMod[ch] = mass;
-        isDiffMod[ch] = true;
+        MassContext.updateDefault(context -> context.withDiffMod(ch, mass));
     }
     
     public static double getDiffModMass(char ch) {
-        return diffMod[ch];
+        return MassContext.getDefault().getDiffModMass(ch);
     }
     
     public static void test() {
-        for(boolean b:isDiffMod )
+        for(boolean b:MassContext.getDefault().getDiffMods() )
             System.out.println("==" + b);
     }
 
+    /**
+     * @return a copy of the masses of the differential modifications
+     */
     public static double[] getDiffMod() {
-        return diffMod;
+        return MassContext.getDefault().getDiffModMasses();
     }
 
     public static void setDiffMod(double[] diffMod) {
-        DiffModification.diffMod = diffMod;
+        MassContext.updateDefault(context -> context.withDiffMods(diffMod, context.getDiffMods()));
     }
 
+    /**
+     * @return a copy of the flags of the aminoacids with a differential
+     *         modification
+     */
     public static boolean[] getIsDiffMod() {
-        return isDiffMod;
+        return MassContext.getDefault().getDiffMods();
     }
 
     public static void setIsDiffMod(boolean[] isDiffMod) {
-        DiffModification.isDiffMod = isDiffMod;
+        MassContext.updateDefault(context -> context.withDiffMods(context.getDiffModMasses(), isDiffMod));
     }
 
     
@@ -0,0 +1,209 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator.utils;
+
+/**
+ * Writes doubles as ASCII bytes with the same text as
+ * {@link String#valueOf(double)}, without creating a {@link String} for each
+ * one.<br>
+ * The text is the shortest decimal that is read back as the same double. It is
+ * found with long arithmetic, checking each candidate with a single division
+ * or multiplication by a power of 10, which gives the exact double of the
+ * decimal while its digits are less than 2^53 and the power is not greater
+ * than 10^22. The doubles written in scientific notation, the ones that need
+ * more digits than that (most of the ones with 17 significant digits) and the
+ * ones with two shortest decimals are written from
+ * {@link Double#toString(double)}, as the JDKs before 19 don't always give the
+ * shortest or the closest decimal for them. The class is thread safe.
+ */
+public class DoubleFormatter {
+	/**
+	 * Maximum number of bytes of a double, as -1.2345678901234567E-308
+	 */
+	public static final int MAX_LENGTH = 24;
+	private static final int MAX_FAST_DIGITS = 16;
+	private static final long MAX_EXACT_DIGITS = 1L << 53;
+	private static final long NOT_EXACT = -1L;
+	private static final int MIN_EXPONENT = -3;
+	/**
+	 * Range of the doubles that {@link Double#toString(double)} doesn't write in
+	 * scientific notation
+	 */
+	private static final double MIN_PLAIN = 1e-3;
+	private static final double MAX_PLAIN = 1e7;
+	private static final double[] POWERS_OF_10 = new double[23];
+	private static final long[] LONG_POWERS_OF_10 = new long[19];
+	/**
+	 * 10^-3 to 10^7, to find the position of the first digit
+	 */
+	private static final double[] PLAIN_POWERS_OF_10 = { 1e-3, 1e-2, 1e-1, 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6,
+			1e7 };
+
+	static {
+		double power = 1.0;
+		for (int i = 0; i < POWERS_OF_10.length; i++) {
+			POWERS_OF_10[i] = power;
+			power *= 10.0;
+		}
+		long longPower = 1L;
+		for (int i = 0; i < LONG_POWERS_OF_10.length; i++) {
+			LONG_POWERS_OF_10[i] = longPower;
+			longPower *= 10L;
+		}
+	}
+
+	/**
+	 *
+	 * @param value
+	 * @param buffer with room for {@link #MAX_LENGTH} bytes from the offset
+	 * @param offset
+	 * @return the offset after the text
+	 */
+	public static int write(double value, byte[] buffer, int offset) {
+		final double absoluteValue = Math.abs(value);
+		if (!(absoluteValue >= MIN_PLAIN && absoluteValue < MAX_PLAIN)) {
+			// 0, NaN and infinite too
+			return writeAscii(Double.toString(value), buffer, offset);
+		}
+		// position of the first digit, from -3 (0.00x) to 6 (x000000.0)
+		int exponent = MIN_EXPONENT;
+		while (absoluteValue >= PLAIN_POWERS_OF_10[exponent - MIN_EXPONENT + 1]) {
+			exponent++;
+		}
+		// any number of digits greater than the fewest ones is read back as the
+		// same double too, so first the most digits that can be checked, and
+		// then fewer, one by one as most doubles need 15 or 16, and by halves
+		// after the first 3
+		int numDigits = MAX_FAST_DIGITS;
+		long digits = findDigits(absoluteValue, numDigits - 1 - exponent);
+		while (digits == NOT_EXACT && numDigits > 1) {
+			digits = findDigits(absoluteValue, --numDigits - 1 - exponent);
+		}
+		if (digits <= 0) {
+			return writeAscii(Double.toString(value), buffer, offset);
+		}
+		int minNumDigits = 1;
+		int maxNumDigits = numDigits - 1;
+		int step = 0;
+		while (minNumDigits <= maxNumDigits) {
+			final int candidateNumDigits = step++ < 3 ? maxNumDigits : (minNumDigits + maxNumDigits) >>> 1;
+			final long candidate = findDigits(absoluteValue, candidateNumDigits - 1 - exponent);
+			if (candidate > 0) {
+				digits = candidate;
+				numDigits = candidateNumDigits;
+				maxNumDigits = candidateNumDigits - 1;
+			} else {
+				minNumDigits = candidateNumDigits + 1;
+			}
+		}
+		int decimals = numDigits - 1 - exponent;
+		if (isAmbiguous(absoluteValue, digits, decimals)) {
+			return writeAscii(Double.toString(value), buffer, offset);
+		}
+		while (decimals > 0 && digits % 10 == 0) {
+			digits /= 10;
+			decimals--;
+		}
+		final double shortest = getDouble(digits, decimals);
+		if (!(shortest >= MIN_PLAIN && shortest < MAX_PLAIN)) {
+			// rounded out of the plain range, as 9999999.999999999999 to 1.0E7
+			return writeAscii(Double.toString(value), buffer, offset);
+		}
+		if (value < 0) {
+			buffer[offset++] = '-';
+		}
+		return writePlain(digits, decimals, buffer, offset);
+	}
+
+	/**
+	 *
+	 * @param absoluteValue
+	 * @param decimals
+	 * @return the digits of a decimal with those decimals that is read back as
+	 *         the value, 0 if there is none or {@link #NOT_EXACT} if the digits
+	 *         can not be checked
+	 */
+	private static long findDigits(double absoluteValue, int decimals) {
+		final double scaled = decimals >= 0 ? absoluteValue * POWERS_OF_10[decimals]
+				: absoluteValue / POWERS_OF_10[-decimals];
+		final long rounded = Math.round(scaled);
+		if (rounded + 1 >= MAX_EXACT_DIGITS) {
+			return NOT_EXACT;
+		}
+		if (getDouble(rounded, decimals) == absoluteValue) {
+			return rounded;
+		}
+		// scaled is not exact, so the decimal can be the one before or after
+		final long other = scaled > rounded ? rounded + 1 : rounded - 1;
+		if (other > 0 && getDouble(other, decimals) == absoluteValue) {
+			return other;
+		}
+		return 0;
+	}
+
+	/**
+	 *
+	 * @return true if the decimal before or after the digits is read back as the
+	 *         value too
+	 */
+	private static boolean isAmbiguous(double absoluteValue, long digits, int decimals) {
+		return getDouble(digits - 1, decimals) == absoluteValue || getDouble(digits + 1, decimals) == absoluteValue;
+	}
+
+	/**
+	 * Writes the digits with the decimals, with at least a digit before and after
+	 * the point, as {@link Double#toString(double)}
+	 */
+	private static int writePlain(long digits, int decimals, byte[] buffer, int offset) {
+		if (decimals <= 0) {
+			offset = writeDigits(digits, getNumDigits(digits), buffer, offset);
+			for (int i = 0; i < -decimals; i++) {
+				buffer[offset++] = '0';
+			}
+			buffer[offset++] = '.';
+			buffer[offset++] = '0';
+			return offset;
+		}
+		final long integerPart = digits / LONG_POWERS_OF_10[decimals];
+		offset = writeDigits(integerPart, getNumDigits(integerPart), buffer, offset);
+		buffer[offset++] = '.';
+		// with the zeros after the point
+		return writeDigits(digits % LONG_POWERS_OF_10[decimals], decimals, buffer, offset);
+	}
+
+	/**
+	 * Writes the digits right aligned in the given number of bytes, with zeros
+	 * before them
+	 */
+	private static int writeDigits(long digits, int numBytes, byte[] buffer, int offset) {
+		final int end = offset + numBytes;
+		for (int i = end - 1; i >= offset; i--) {
+			buffer[i] = (byte) ('0' + digits % 10);
+			digits /= 10;
+		}
+		return end;
+	}
+
+	private static int getNumDigits(long digits) {
+		int ret = 1;
+		while (digits >= 10) {
+			digits /= 10;
+			ret++;
+		}
+		return ret;
+	}
+
+	/**
+	 *
+	 * @return the double of digits * 10^-decimals, as
+	 *         {@link Double#parseDouble(String)} would read it
+	 */
+	private static double getDouble(long digits, int decimals) {
+		return decimals >= 0 ? digits / POWERS_OF_10[decimals] : digits * POWERS_OF_10[-decimals];
+	}
+
+	private static int writeAscii(String string, byte[] buffer, int offset) {
+		for (int i = 0; i < string.length(); i++) {
+			buffer[offset++] = (byte) string.charAt(i);
+		}
+		return offset;
+	}
+}
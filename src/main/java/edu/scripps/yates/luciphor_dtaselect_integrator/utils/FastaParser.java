@@ -5,8 +5,6 @@ import java.util.List;
 
 import org.apache.commons.lang.math.NumberUtils;
 
-import gnu.trove.list.array.TIntArrayList;
-
 public class FastaParser {
 
 	public static List<String> getOutside(String seq) {
@@ -169,9 +167,8 @@ public class FastaParser {
 	 * @return
 	 */
 	private static Integer getBeforeSeqPointIndex(String sequence) {
-		final TIntArrayList allPositionsOf = StringUtils.allPositionsOf(sequence, ".");
-		for (int i = 0; i < allPositionsOf.size(); i++) {
-			final Integer index = allPositionsOf.get(i) - 1;
+		for (int index = StringUtils.nextIndexOf(sequence, '.', 0); index >= 0;
+				index = StringUtils.nextIndexOf(sequence, '.', index + 1)) {
 			if (index < sequence.length() - 1) {
 				// is followed by a number?
 				final char charAt = sequence.charAt(index + 1);
@@ -192,9 +189,8 @@ public class FastaParser {
 	 * @return
 	 */
 	private static Integer getAfterSeqPointIndex(String sequence) {
-		final TIntArrayList allPositionsOf = StringUtils.allPositionsOf(sequence, ".");
-		for (int i = allPositionsOf.size() - 1; i >= 0; i--) {
-			final Integer index = allPositionsOf.get(i) - 1;
+		for (int index = StringUtils.previousIndexOf(sequence, '.', sequence.length() - 1); index >= 0;
+				index = StringUtils.previousIndexOf(sequence, '.', index - 1)) {
 			if (index < sequence.length() - 1) {
 				// is followed by a number? then is a modification like (80.009)
 				final char charAt = sequence.charAt(index + 1);
@@ -287,40 +283,52 @@ public class FastaParser {
 	 * @return
 	 */
 	public static String cleanSequence(String seq) {
+		return cleanSequence(seq, MassContext.getDefault());
+	}
+
+	/**
+	 * As {@link #cleanSequence(String)}, accepting the aminoacids of the
+	 * context
+	 *
+	 * @param seq
+	 * @param context
+	 * @return
+	 */
+	public static String cleanSequence(String seq, MassContext context) {
 		if (seq == null)
 			return null;
-		final String seqTmp = seq.trim();
-
-		if (somethingExtrangeInSequence(seqTmp)) {
-
+		String sequence = seq;
+		while (somethingExtrangeInSequence(sequence)) {
 			// parenthesis or brackets
-			final List<String> outside = getOutside(seqTmp);
-			if (!outside.isEmpty()) {
-				final String tmp = appendList(outside);
-				final String removeBeforeAfterAAs = removeBeforeAfterAAs(tmp);
-				if (!removeBeforeAfterAAs.equals(seq)) {
-					return cleanSequence(removeBeforeAfterAAs);
-				}
+			final List<String> outside = getOutside(sequence.trim());
+			if (outside.isEmpty()) {
+				break;
 			}
-
-		}
-		final String errorMessage = "Peptide sequence '" + seq
-				+ "' is not supported. Either having not recognizable characteres or in lower case? Has it a non standard PTM enconded on it? PTMs can be encoded as in PEPTID[+45.92]E";
-		AssignMass.getInstance(true);
-		for (int index = 0; index < seq.length(); index++) {
-			final char aa = seq.charAt(index);
-			if (!AssignMass.containsMass(aa)) {
-				throw new IllegalArgumentException("'" + aa + "' not recognized. " + errorMessage);
+			final String removeBeforeAfterAAs = removeBeforeAfterAAs(appendList(outside));
+			if (removeBeforeAfterAAs.equals(sequence)) {
+				break;
 			}
+			// clean it again
+			sequence = removeBeforeAfterAAs;
 		}
-		if (!seq.toUpperCase().equals(seq)) {
-			// it has something in lower case
-
-			throw new IllegalArgumentException(errorMessage);
-
+		for (int index = 0; index < sequence.length(); index++) {
+			final char aa = sequence.charAt(index);
+			if (!context.isResidue(aa)) {
+				throw new IllegalArgumentException("'" + aa + "' not recognized. Peptide sequence '" + sequence
+						+ "' is not supported. Either having not recognizable characteres or in lower case? Has it a non standard PTM enconded on it? PTMs can be encoded as in PEPTID[+45.92]E");
+			}
 		}
-		return seq.toUpperCase();
+		return sequence;
+	}
 
+	/**
+	 *
+	 * @param c
+	 * @return true if the character is an aminoacid in upper case with a mass in
+	 *         the default {@link MassContext}
+	 */
+	public static boolean isResidue(char c) {
+		return MassContext.getDefault().isResidue(c);
 	}
 
 	private static String appendList(List<String> list) {
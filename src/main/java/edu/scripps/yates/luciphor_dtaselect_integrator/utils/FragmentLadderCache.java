@@ -0,0 +1,216 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator.utils;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the fragment ion ladders calculated by a {@link FragmentLadderEngine}
+ * for the last modified peptides used, so that a peptide found in many PSMs (or
+ * with many charge states) is only fragmented once.<br>
+ * A peptide is identified by its sequence and the positions of its modified
+ * residues (the ones greater than 0 in the modIndexHash). The cache holds up to
+ * a maximum number of peptides, removing the least recently used ones. It is
+ * split in segments, each one with its own lock, so it can be shared by many
+ * threads; the ladders are calculated out of the locks, so a peptide requested
+ * by two threads at the same time may be calculated twice, but only one of
+ * them is kept.
+ */
+public class FragmentLadderCache {
+	private static final int NUM_SEGMENTS = 16;
+	private final FragmentLadderEngine engine;
+	private final Segment[] segments;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 *
+	 * @param engine      the engine that calculates the ladders
+	 * @param maxPeptides maximum number of peptides kept
+	 */
+	public FragmentLadderCache(FragmentLadderEngine engine, int maxPeptides) {
+		if (maxPeptides < 1) {
+			throw new IllegalArgumentException("The cache has to keep at least one peptide");
+		}
+		this.engine = engine;
+		final int numSegments = Math.min(NUM_SEGMENTS, Integer.highestOneBit(maxPeptides));
+		segments = new Segment[numSegments];
+		for (int i = 0; i < numSegments; i++) {
+			// the first segments get the rest of the division
+			segments[i] = new Segment(maxPeptides / numSegments + (i < maxPeptides % numSegments ? 1 : 0));
+		}
+	}
+
+	public FragmentLadderEngine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * Gets the ladders of the peptide, calculating them if they are not in the
+	 * cache. The array is shared with the other callers, so it must not be
+	 * modified.
+	 *
+	 * @param seq
+	 * @param modIndexHash as in
+	 *                     {@link FragmentLadderEngine#compute(String, int[])}
+	 * @return the ladders, as {@link FragmentLadderEngine#compute(String, int[])}
+	 */
+	public double[] get(String seq, int[] modIndexHash) {
+		final PeptideKey key = new PeptideKey(seq, modIndexHash);
+		final Segment segment = segments[(key.hash & 0x7fffffff) % segments.length];
+		double[] ladders;
+		synchronized (segment) {
+			ladders = segment.get(key);
+		}
+		if (ladders != null) {
+			hits.increment();
+			return ladders;
+		}
+		misses.increment();
+		ladders = engine.compute(seq, modIndexHash);
+		synchronized (segment) {
+			final double[] previous = segment.putIfAbsent(key, ladders);
+			return previous != null ? previous : ladders;
+		}
+	}
+
+	/**
+	 * Copies the ladders of the peptide in the buffer, as
+	 * {@link FragmentLadderEngine#compute(String, int[], double[], int)}
+	 *
+	 * @param seq
+	 * @param modIndexHash
+	 * @param buffer
+	 * @param offset
+	 * @return number of values copied
+	 */
+	public int get(String seq, int[] modIndexHash, double[] buffer, int offset) {
+		final double[] ladders = get(seq, modIndexHash);
+		System.arraycopy(ladders, 0, buffer, offset, ladders.length);
+		return ladders.length;
+	}
+
+	/**
+	 *
+	 * @return number of peptides in the cache
+	 */
+	public int size() {
+		int size = 0;
+		for (final Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	public void clear() {
+		for (final Segment segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return number of ladders found in the cache
+	 */
+	public long getNumHits() {
+		return hits.sum();
+	}
+
+	/**
+	 *
+	 * @return number of ladders calculated because they were not in the cache
+	 */
+	public long getNumMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 *
+	 * @return number of peptides removed to keep the size of the cache
+	 */
+	public long getNumEvictions() {
+		return evictions.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "Fragment ladder cache with " + size() + " peptides: " + getNumHits() + " hits, " + getNumMisses()
+				+ " misses and " + getNumEvictions() + " evictions";
+	}
+
+	/**
+	 * Peptides of a part of the cache, in the order in which they were used
+	 */
+	private class Segment extends LinkedHashMap<PeptideKey, double[]> {
+		private static final long serialVersionUID = 1L;
+		private final int maxSize;
+
+		private Segment(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<PeptideKey, double[]> eldest) {
+			if (size() > maxSize) {
+				evictions.increment();
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * The sequence of a peptide with a bit for each of its residues, set if it is
+	 * modified
+	 */
+	private static class PeptideKey {
+		private final String sequence;
+		/**
+		 * null if the peptide doesn't have a modIndexHash, which is not the same as
+		 * a peptide without modified residues, as the residues without mass are
+		 * skipped
+		 */
+		private final long[] modifiedResidues;
+		private final int hash;
+
+		private PeptideKey(String sequence, int[] modIndexHash) {
+			this.sequence = sequence;
+			if (modIndexHash != null) {
+				modifiedResidues = new long[(sequence.length() + 63) >>> 6];
+				for (int i = 0; i < sequence.length(); i++) {
+					if (modIndexHash[i] > 0) {
+						modifiedResidues[i >>> 6] |= 1L << i;
+					}
+				}
+			} else {
+				modifiedResidues = null;
+			}
+			hash = 31 * sequence.hashCode() + (modifiedResidues != null ? Arrays.hashCode(modifiedResidues) : 0);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof PeptideKey)) {
+				return false;
+			}
+			final PeptideKey other = (PeptideKey) obj;
+			return hash == other.hash && sequence.equals(other.sequence)
+					&& Arrays.equals(modifiedResidues, other.modifiedResidues);
+		}
+	}
+}
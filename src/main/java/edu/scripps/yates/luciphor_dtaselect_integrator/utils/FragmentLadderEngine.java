@@ -0,0 +1,373 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator.utils;
+
+import java.util.Arrays;
+
+/**
+ * Calculates the fragment ion ladders of peptides, for all the requested ion
+ * series at once: a single pass over the sequence adds the masses of the
+ * residues from the n-term and from the c-term at the same time and writes
+ * every series from those sums, into a buffer given by the caller, so the
+ * buffers can be reused from peptide to peptide.<br>
+ * The values are the same as the ones of
+ * {@link MassContext#getFragIonArr(String, int)} and
+ * {@link MassContext#getFragIonArrRev(String, int)} for peptides without
+ * modifications (skipping the residues without mass), and of
+ * {@link MassContext#getFragIonArrMod(String, int, int[])} and
+ * {@link MassContext#getFragIonArrRevMod(String, int, int[])} for peptides
+ * with them, in the same order (including that, without modifications, the
+ * x, y and z ions stop at the first residue without mass from the c-term, as
+ * getFragIonArrRev reads that residue again and again). Those only give
+ * length-1 ions; with fullLength, the ladders have one ion per residue, the
+ * ion of index i of x, y and z is the one starting at the residue i (instead
+ * of at the residue i+1), and the residues without mass are skipped from both
+ * termini.<br>
+ * The engine doesn't change once created, so it can be shared between
+ * threads.
+ */
+public class FragmentLadderEngine {
+	public static final int A_ION = 0;
+	public static final int B_ION = 1;
+	public static final int C_ION = 2;
+	public static final int X_ION = 6;
+	public static final int Y_ION = 7;
+	public static final int Z_ION = 8;
+	private static final double double_ZERO = 0.000001;
+
+	private final MassContext context;
+	private final int[] ions;
+	private final boolean fullLength;
+	/**
+	 * For each series, whether it is calculated from the c-term, and the two
+	 * masses added to the sum of the residues, in the order in which
+	 * {@link MassContext} adds them
+	 */
+	private final boolean[] reverse;
+	private final double[] firstAddedMasses;
+	private final double[] secondAddedMasses;
+	/**
+	 * Indexes of the series calculated from the n-term and from the c-term
+	 */
+	private final int[] forwardSeries;
+	private final int[] reverseSeries;
+
+	/**
+	 * Ladders of length-1 ions with the default {@link MassContext}
+	 *
+	 * @param ions the ion series, as {@link #A_ION}...{@link #Z_ION}, in the
+	 *             order in which they are written
+	 */
+	public FragmentLadderEngine(int... ions) {
+		this(MassContext.getDefault(), false, ions);
+	}
+
+	/**
+	 *
+	 * @param context    the masses
+	 * @param fullLength true to have one ion per residue, false to have length-1
+	 *                   ions as {@link AssignMass}
+	 * @param ions       the ion series, as {@link #A_ION}...{@link #Z_ION}, in
+	 *                   the order in which they are written
+	 * @throws IllegalArgumentException if an ion series is not supported
+	 */
+	public FragmentLadderEngine(MassContext context, boolean fullLength, int... ions) {
+		this.context = context;
+		this.fullLength = fullLength;
+		this.ions = ions.clone();
+		reverse = new boolean[ions.length];
+		firstAddedMasses = new double[ions.length];
+		secondAddedMasses = new double[ions.length];
+		for (int series = 0; series < ions.length; series++) {
+			switch (ions[series]) {
+			case A_ION:
+				firstAddedMasses[series] = context.getnTerm();
+				secondAddedMasses[series] = -27.0;
+				break;
+			case B_ION:
+				firstAddedMasses[series] = context.getBionfragment();
+				break;
+			case C_ION:
+				firstAddedMasses[series] = context.getnTerm();
+				secondAddedMasses[series] = 18.0;
+				break;
+			case X_ION:
+				reverse[series] = true;
+				firstAddedMasses[series] = context.getcTerm();
+				secondAddedMasses[series] = 45.0;
+				break;
+			case Y_ION:
+				reverse[series] = true;
+				firstAddedMasses[series] = context.getYionfragment();
+				break;
+			case Z_ION:
+				reverse[series] = true;
+				firstAddedMasses[series] = context.getcTerm();
+				secondAddedMasses[series] = 3.0;
+				break;
+			default:
+				throw new IllegalArgumentException("Ion series " + ions[series] + " not supported");
+			}
+		}
+		int numReverse = 0;
+		for (final boolean fromCTerm : reverse) {
+			if (fromCTerm) {
+				numReverse++;
+			}
+		}
+		forwardSeries = new int[ions.length - numReverse];
+		reverseSeries = new int[numReverse];
+		int forward = 0;
+		numReverse = 0;
+		for (int series = 0; series < ions.length; series++) {
+			if (reverse[series]) {
+				reverseSeries[numReverse++] = series;
+			} else {
+				forwardSeries[forward++] = series;
+			}
+		}
+	}
+
+	public MassContext getContext() {
+		return context;
+	}
+
+	/**
+	 *
+	 * @return a copy of the ion series, in the order in which they are written
+	 */
+	public int[] getIons() {
+		return ions.clone();
+	}
+
+	public int getNumSeries() {
+		return ions.length;
+	}
+
+	public boolean isFullLength() {
+		return fullLength;
+	}
+
+	/**
+	 *
+	 * @param seq
+	 * @return number of ions of each series of the peptide
+	 */
+	public int getNumIons(String seq) {
+		return Math.max(0, fullLength ? seq.length() : seq.length() - 1);
+	}
+
+	/**
+	 *
+	 * @param seq
+	 * @return number of values written for the peptide, the ions of all the
+	 *         series
+	 */
+	public int getLadderSize(String seq) {
+		return getNumIons(seq) * ions.length;
+	}
+
+	/**
+	 *
+	 * @param seq
+	 * @param modIndexHash greater than 0 at the positions of the residues with
+	 *                     the differential modification of the
+	 *                     {@link MassContext}, or null if the peptide is not
+	 *                     modified
+	 * @return the ladders, one series after the other
+	 */
+	public double[] compute(String seq, int[] modIndexHash) {
+		final double[] ladders = new double[getLadderSize(seq)];
+		compute(seq, modIndexHash, ladders, 0);
+		return ladders;
+	}
+
+	/**
+	 * Writes the ladders of the peptide, one series after the other, so that the
+	 * ion i of the series s is at offset + s * {@link #getNumIons(String)} + i
+	 *
+	 * @param seq
+	 * @param modIndexHash greater than 0 at the positions of the residues with
+	 *                     the differential modification of the
+	 *                     {@link MassContext}, or null if the peptide is not
+	 *                     modified
+	 * @param buffer
+	 * @param offset
+	 * @return number of values written, as {@link #getLadderSize(String)}
+	 */
+	public int compute(String seq, int[] modIndexHash, double[] buffer, int offset) {
+		final int numIons = getNumIons(seq);
+		final int lastResidue = seq.length() - 1;
+		final boolean skipResiduesWithoutMass = modIndexHash == null;
+		double addMass = 0.0;
+		double raddMass = 0.0;
+		int count = 0;
+		int rcount = numIons - 1;
+		boolean reverseStopped = false;
+		for (int i = 0; i < numIons; i++) {
+			final double mass = getResidueMass(seq, i, modIndexHash);
+			if (!skipResiduesWithoutMass || mass > double_ZERO) {
+				addMass += mass;
+				write(forwardSeries, addMass, buffer, offset + count, numIons);
+				count++;
+			}
+			if (reverseStopped) {
+				continue;
+			}
+			final double rmass = getResidueMass(seq, lastResidue - i, modIndexHash);
+			if (!skipResiduesWithoutMass || rmass > double_ZERO) {
+				raddMass += rmass;
+				write(reverseSeries, raddMass, buffer, offset + rcount, numIons);
+				rcount--;
+			} else if (!fullLength) {
+				reverseStopped = true;
+			}
+		}
+		// the ions not reached because of the residues without mass
+		for (int series = 0; series < ions.length; series++) {
+			final int start = offset + series * numIons;
+			if (reverse[series]) {
+				Arrays.fill(buffer, start, start + rcount + 1, 0.0);
+			} else {
+				Arrays.fill(buffer, start + count, start + numIons, 0.0);
+			}
+		}
+		return numIons * ions.length;
+	}
+
+	private double getResidueMass(String seq, int i, int[] modIndexHash) {
+		final char ch = seq.charAt(i);
+		double mass = context.getMass(ch);
+		if (modIndexHash != null && modIndexHash[i] > 0) {
+			mass += context.getDiffModMass(ch);
+		}
+		return mass;
+	}
+
+	private void write(int[] seriesToWrite, double sum, double[] buffer, int position, int numIons) {
+		for (final int series : seriesToWrite) {
+			buffer[position + series * numIons] = sum + firstAddedMasses[series] + secondAddedMasses[series];
+		}
+	}
+
+	/**
+	 * Calculates the ladders of a batch of peptides into one array
+	 *
+	 * @param peptides
+	 * @param modIndexHashes for each peptide, as in
+	 *                       {@link #compute(String, int[])}, or null if none of
+	 *                       them is modified
+	 * @param ladders        the ladders of a previous batch, to reuse their
+	 *                       arrays, or null
+	 * @return the ladders
+	 */
+	public Ladders compute(String[] peptides, int[][] modIndexHashes, Ladders ladders) {
+		if (ladders == null) {
+			ladders = new Ladders();
+		}
+		ladders.numSeries = ions.length;
+		ladders.numPeptides = 0;
+		ladders.ensurePeptideCapacity(peptides.length);
+		int size = 0;
+		for (final String peptide : peptides) {
+			size += getLadderSize(peptide);
+		}
+		ladders.ensureValueCapacity(size);
+		int offset = 0;
+		for (int i = 0; i < peptides.length; i++) {
+			ladders.starts[i] = offset;
+			ladders.numIons[i] = getNumIons(peptides[i]);
+			offset += compute(peptides[i], modIndexHashes != null ? modIndexHashes[i] : null, ladders.values,
+					offset);
+		}
+		ladders.starts[peptides.length] = offset;
+		ladders.numPeptides = peptides.length;
+		return ladders;
+	}
+
+	/**
+	 * The ladders of a batch of peptides in a flat array: the ones of each
+	 * peptide start at {@link #getStart(int)} and have its series one after the
+	 * other. The arrays are reused by the next batch computed with them.
+	 */
+	public static class Ladders {
+		private double[] values = new double[1024];
+		private int[] starts = new int[33];
+		private int[] numIons = new int[32];
+		private int numPeptides;
+		private int numSeries;
+
+		private void ensurePeptideCapacity(int capacity) {
+			if (capacity >= starts.length) {
+				starts = new int[capacity + 1];
+				numIons = new int[capacity];
+			}
+		}
+
+		private void ensureValueCapacity(int capacity) {
+			if (capacity > values.length) {
+				values = new double[Math.max(capacity, values.length * 2)];
+			}
+		}
+
+		public int getNumPeptides() {
+			return numPeptides;
+		}
+
+		/**
+		 *
+		 * @return the array with the ladders, which can be larger than
+		 *         {@link #getSize()}
+		 */
+		public double[] getValues() {
+			return values;
+		}
+
+		/**
+		 *
+		 * @return number of values of the batch
+		 */
+		public int getSize() {
+			return starts[numPeptides];
+		}
+
+		/**
+		 *
+		 * @param peptide index of the peptide in the batch
+		 * @return position of its first value
+		 */
+		public int getStart(int peptide) {
+			checkPeptide(peptide);
+			return starts[peptide];
+		}
+
+		/**
+		 *
+		 * @param peptide index of the peptide in the batch
+		 * @return number of ions of each series of the peptide
+		 */
+		public int getNumIons(int peptide) {
+			checkPeptide(peptide);
+			return numIons[peptide];
+		}
+
+		/**
+		 *
+		 * @param peptide index of the peptide in the batch
+		 * @param series  index of the series in the ions of the engine
+		 * @param ion     index of the ion in the series
+		 * @return
+		 */
+		public double getIon(int peptide, int series, int ion) {
+			checkPeptide(peptide);
+			if (series < 0 || series >= numSeries || ion < 0 || ion >= numIons[peptide]) {
+				throw new IndexOutOfBoundsException("Ion " + ion + " of series " + series + " of peptide " + peptide);
+			}
+			return values[starts[peptide] + series * numIons[peptide] + ion];
+		}
+
+		private void checkPeptide(int peptide) {
+			if (peptide < 0 || peptide >= numPeptides) {
+				throw new IndexOutOfBoundsException("Peptide " + peptide + " of " + numPeptides);
+			}
+		}
+	}
+}
@@ -0,0 +1,283 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator.utils;
+
+/**
+ * Gives the expected isotope distribution of a peptide (or a fragment) of a
+ * given mass, modelled as a number of averagine residues
+ * (C4.9384 H7.7583 N1.3577 O1.4773 S0.0417 per 111.1254 Da).<br>
+ * The distributions are calculated when the calculator is created, every
+ * binWidth Da up to the maximum mass, and the ones of the masses in between
+ * are interpolated from the two closest, so up to the maximum mass
+ * {@link #getAbundance(double, int)} and
+ * {@link #getAbundances(double, double[], int)} only interpolate, without
+ * allocating anything. Masses over the maximum are calculated each time, in
+ * new arrays. {@link #getDistribution(double)},
+ * {@link #getMostIntensePeak(double)} and
+ * {@link #getIntensePeaks(double, double)} allocate the arrays they use.<br>
+ * The calculator doesn't change once created, so it can be shared between
+ * threads. It gives the same distributions as the table of {@link AssignMass}
+ * (which has one every ~516 Da up to ~10 kDa) within 0.012, other than for
+ * its row 18, which doesn't follow the averagine, and the peak 18 of its row
+ * 17, which is out of line with the rest of the row.
+ */
+public final class IsotopeEnvelopeCalculator {
+	public static final double AVERAGINE_MASS = 111.1254;
+	public static final double DEFAULT_MAX_MASS = 10000.0;
+	public static final double DEFAULT_BIN_WIDTH = 10.0;
+	public static final int DEFAULT_NUM_PEAKS = 20;
+	/**
+	 * Atoms of C, H, N, O and S of an averagine residue
+	 */
+	private static final double[] AVERAGINE_COMPOSITION = { 4.9384, 7.7583, 1.3577, 1.4773, 0.0417 };
+	/**
+	 * Abundances of the isotopes of C, H, N, O and S, from the lightest one, in
+	 * steps of ~1 Da
+	 */
+	private static final double[][] ISOTOPE_ABUNDANCES = { //
+			{ 0.9893, 0.0107 }, //
+			{ 0.999885, 0.000115 }, //
+			{ 0.99636, 0.00364 }, //
+			{ 0.99757, 0.00038, 0.00205 }, //
+			{ 0.9499, 0.0075, 0.0425, 0.0, 0.0001 } };
+	private static final IsotopeEnvelopeCalculator defaultCalculator = new IsotopeEnvelopeCalculator(
+			DEFAULT_MAX_MASS, DEFAULT_BIN_WIDTH, DEFAULT_NUM_PEAKS);
+
+	private final double maxMass;
+	private final double binWidth;
+	private final int numPeaks;
+	private final int numBins;
+	/**
+	 * Abundances of the peaks of the bins, one bin after the other, each one
+	 * adding up to 1
+	 */
+	private final double[] abundances;
+
+	/**
+	 *
+	 * @return the calculator with distributions of
+	 *         {@value #DEFAULT_NUM_PEAKS} peaks every {@value #DEFAULT_BIN_WIDTH}
+	 *         Da up to {@value #DEFAULT_MAX_MASS} Da
+	 */
+	public static IsotopeEnvelopeCalculator getDefault() {
+		return defaultCalculator;
+	}
+
+	/**
+	 *
+	 * @param maxMass  maximum mass of the table
+	 * @param binWidth distance in Da between the distributions of the table
+	 * @param numPeaks number of peaks of the distributions, from the
+	 *                 monoisotopic one
+	 */
+	public IsotopeEnvelopeCalculator(double maxMass, double binWidth, int numPeaks) {
+		if (!(maxMass > 0.0) || !(binWidth > 0.0) || numPeaks < 1) {
+			throw new IllegalArgumentException(
+					"Not valid table of " + numPeaks + " peaks every " + binWidth + " Da up to " + maxMass + " Da");
+		}
+		this.binWidth = binWidth;
+		this.numPeaks = numPeaks;
+		numBins = (int) Math.ceil(maxMass / binWidth) + 1;
+		this.maxMass = (numBins - 1) * binWidth;
+		abundances = new double[numBins * numPeaks];
+		for (int bin = 0; bin < numBins; bin++) {
+			calculateAbundances(bin * binWidth, numPeaks, abundances, bin * numPeaks);
+		}
+	}
+
+	public double getMaxMass() {
+		return maxMass;
+	}
+
+	public double getBinWidth() {
+		return binWidth;
+	}
+
+	public int getNumPeaks() {
+		return numPeaks;
+	}
+
+	/**
+	 *
+	 * @param mz
+	 * @param charge
+	 * @return the neutral mass of an ion, to get its distribution
+	 */
+	public static double getMass(double mz, int charge) {
+		return (mz - AssignMass.PROTON) * charge;
+	}
+
+	/**
+	 *
+	 * @param mass
+	 * @param peak index of the peak, 0 for the monoisotopic one
+	 * @return fraction of the envelope in the peak
+	 */
+	public double getAbundance(double mass, int peak) {
+		if (peak < 0 || peak >= numPeaks) {
+			throw new IndexOutOfBoundsException("Peak " + peak + " of " + numPeaks);
+		}
+		checkMass(mass);
+		final double position = mass / binWidth;
+		final int bin = (int) position;
+		if (bin >= numBins - 1) {
+			final double[] ret = new double[numPeaks];
+			calculateAbundances(mass, numPeaks, ret, 0);
+			return ret[peak];
+		}
+		final double fraction = position - bin;
+		final int index = bin * numPeaks + peak;
+		return abundances[index] + fraction * (abundances[index + numPeaks] - abundances[index]);
+	}
+
+	/**
+	 * Writes the abundances of the peaks of the envelope of the mass, which add
+	 * up to 1
+	 *
+	 * @param mass
+	 * @param buffer
+	 * @param offset
+	 * @return number of values written, as {@link #getNumPeaks()}
+	 */
+	public int getAbundances(double mass, double[] buffer, int offset) {
+		checkMass(mass);
+		final double position = mass / binWidth;
+		final int bin = (int) position;
+		if (bin >= numBins - 1) {
+			calculateAbundances(mass, numPeaks, buffer, offset);
+			return numPeaks;
+		}
+		final double fraction = position - bin;
+		final int start = bin * numPeaks;
+		for (int peak = 0; peak < numPeaks; peak++) {
+			final double abundance = abundances[start + peak];
+			buffer[offset + peak] = abundance + fraction * (abundances[start + numPeaks + peak] - abundance);
+		}
+		return numPeaks;
+	}
+
+	/**
+	 *
+	 * @param mass
+	 * @return the intensities of the peaks of the envelope of the mass relative
+	 *         to the most intense one, as in the table of {@link AssignMass}
+	 */
+	public double[] getDistribution(double mass) {
+		final double[] ret = new double[numPeaks];
+		getAbundances(mass, ret, 0);
+		final double mostIntense = ret[getMostIntensePeak(ret)];
+		for (int peak = 0; peak < numPeaks; peak++) {
+			ret[peak] /= mostIntense;
+		}
+		return ret;
+	}
+
+	/**
+	 *
+	 * @param mass
+	 * @return index of the most intense peak of the envelope of the mass, 0 for
+	 *         the monoisotopic one
+	 */
+	public int getMostIntensePeak(double mass) {
+		final double[] distribution = new double[numPeaks];
+		getAbundances(mass, distribution, 0);
+		return getMostIntensePeak(distribution);
+	}
+
+	private int getMostIntensePeak(double[] distribution) {
+		int ret = 0;
+		for (int peak = 1; peak < numPeaks; peak++) {
+			if (distribution[peak] > distribution[ret]) {
+				ret = peak;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 *
+	 * @param mass
+	 * @param minRelativeIntensity minimum intensity relative to the most intense
+	 *                             peak, as the 0.25 of
+	 *                             {@link AssignMass#loadIntensePeaks()}
+	 * @return indexes of the peaks of the envelope of the mass with at least that
+	 *         relative intensity, from the lightest one
+	 */
+	public int[] getIntensePeaks(double mass, double minRelativeIntensity) {
+		final double[] distribution = getDistribution(mass);
+		int numIntensePeaks = 0;
+		for (final double intensity : distribution) {
+			if (intensity >= minRelativeIntensity) {
+				numIntensePeaks++;
+			}
+		}
+		final int[] ret = new int[numIntensePeaks];
+		numIntensePeaks = 0;
+		for (int peak = 0; peak < numPeaks; peak++) {
+			if (distribution[peak] >= minRelativeIntensity) {
+				ret[numIntensePeaks++] = peak;
+			}
+		}
+		return ret;
+	}
+
+	private static void checkMass(double mass) {
+		if (!(mass >= 0.0) || Double.isInfinite(mass)) {
+			throw new IllegalArgumentException("Not valid mass " + mass);
+		}
+	}
+
+	/**
+	 * Calculates the distribution of the averagine peptide of the mass, as the
+	 * product of the distributions of its atoms, keeping only the first peaks.
+	 * The numbers of atoms are not rounded, so the distributions change smoothly
+	 * with the mass. With fractional numbers of atoms, the last peaks can come
+	 * out slightly negative, and they are taken as 0.
+	 */
+	private static void calculateAbundances(double mass, int numPeaks, double[] buffer, int offset) {
+		final double numResidues = mass / AVERAGINE_MASS;
+		double[] ret = new double[numPeaks];
+		ret[0] = 1.0;
+		for (int element = 0; element < AVERAGINE_COMPOSITION.length; element++) {
+			ret = convolve(ret, power(ISOTOPE_ABUNDANCES[element], AVERAGINE_COMPOSITION[element] * numResidues,
+					numPeaks));
+		}
+		double total = 0.0;
+		for (int peak = 0; peak < numPeaks; peak++) {
+			ret[peak] = Math.max(0.0, ret[peak]);
+			total += ret[peak];
+		}
+		for (int peak = 0; peak < numPeaks; peak++) {
+			buffer[offset + peak] = ret[peak] / total;
+		}
+	}
+
+	/**
+	 * First peaks of the distribution of n atoms, which doesn't need to be an
+	 * integer, with the recurrence of J.C.P. Miller for the powers of a
+	 * polynomial
+	 */
+	private static double[] power(double[] distribution, double n, int numPeaks) {
+		final double[] ret = new double[numPeaks];
+		ret[0] = Math.pow(distribution[0], n);
+		for (int k = 1; k < numPeaks; k++) {
+			double sum = 0.0;
+			for (int j = 1; j <= k && j < distribution.length; j++) {
+				sum += ((n + 1) * j - k) * distribution[j] * ret[k - j];
+			}
+			ret[k] = sum / (k * distribution[0]);
+		}
+		return ret;
+	}
+
+	private static double[] convolve(double[] a, double[] b) {
+		final double[] ret = new double[a.length];
+		for (int i = 0; i < a.length; i++) {
+			if (a[i] == 0.0) {
+				continue;
+			}
+			for (int j = 0; i + j < ret.length; j++) {
+				ret[i + j] += a[i] * b[j];
+			}
+		}
+		return ret;
+	}
+}
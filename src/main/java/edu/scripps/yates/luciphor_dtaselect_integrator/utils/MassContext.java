@@ -0,0 +1,470 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * The chemistry used to calculate masses: the masses of the aminoacids
+ * (monoisotopic or average), the masses added to the termini and to the b and
+ * y ions, the mass of the proton and the width of the mass bins, and the
+ * differential modifications of the aminoacids.<br>
+ * A context never changes once created (the with* methods return a new one),
+ * so it can be shared between threads, and a JVM can use as many as needed.
+ * The static methods of {@link AssignMass} and {@link DiffModification} use
+ * the default context, which those methods replace when they change
+ * something.
+ */
+public final class MassContext {
+	public static final int SIZE = AssignMass.SIZE;
+	private static final double double_ZERO = 0.000001;
+	private static final MassContext MONOISOTOPIC = new MassContext(true, AssignMass.aaMassMono, 0.0, 0.0, 0.0, 0.0,
+			1.0072765, 1.0078250, 15.9949146f + 1.0078250, 1.0005079, new double[DiffModification.SIZE],
+			new boolean[DiffModification.SIZE]);
+	private static final MassContext AVERAGE = new MassContext(false, AssignMass.aaMassAvg, 0.0, 0.0, 0.0, 0.0,
+			1.00739, 1.00794, 15.9994f + 1.00794, 1.0011413, new double[DiffModification.SIZE],
+			new boolean[DiffModification.SIZE]);
+	private static final AtomicReference<MassContext> defaultContext = new AtomicReference<MassContext>(
+			MONOISOTOPIC);
+
+	private final boolean monoisotopic;
+	private final double[] aaMasses;
+	/**
+	 * The characters accepted as aminoacids in the sequences: the upper case
+	 * ones with a mass
+	 */
+	private final boolean[] residues;
+	private final double nTerm;
+	private final double cTerm;
+	private final double bIonFragment;
+	private final double yIonFragment;
+	private final double hplus;
+	private final double h;
+	private final double oh;
+	private final double binWidth;
+	private final double[] diffModMasses;
+	private final boolean[] diffMods;
+
+	private MassContext(boolean monoisotopic, double[] aaMasses, double nTerm, double cTerm, double bIonFragment,
+			double yIonFragment, double hplus, double h, double oh, double binWidth, double[] diffModMasses,
+			boolean[] diffMods) {
+		this.monoisotopic = monoisotopic;
+		this.aaMasses = Arrays.copyOf(aaMasses, SIZE);
+		residues = new boolean[SIZE];
+		for (char c = 0; c < SIZE; c++) {
+			residues[c] = this.aaMasses[c] != 0.0 && Character.toUpperCase(c) == c;
+		}
+		this.nTerm = nTerm;
+		this.cTerm = cTerm;
+		this.bIonFragment = bIonFragment;
+		this.yIonFragment = yIonFragment;
+		this.hplus = hplus;
+		this.h = h;
+		this.oh = oh;
+		this.binWidth = binWidth;
+		this.diffModMasses = Arrays.copyOf(diffModMasses, DiffModification.SIZE);
+		this.diffMods = Arrays.copyOf(diffMods, DiffModification.SIZE);
+	}
+
+	/**
+	 *
+	 * @return a context with the monoisotopic masses, no masses added to the
+	 *         termini and no differential modifications
+	 */
+	public static MassContext monoisotopic() {
+		return MONOISOTOPIC;
+	}
+
+	/**
+	 *
+	 * @return a context with the average masses, no masses added to the termini
+	 *         and no differential modifications
+	 */
+	public static MassContext average() {
+		return AVERAGE;
+	}
+
+	/**
+	 *
+	 * @param useMono
+	 * @return {@link #monoisotopic()} or {@link #average()}
+	 */
+	public static MassContext of(boolean useMono) {
+		return useMono ? MONOISOTOPIC : AVERAGE;
+	}
+
+	/**
+	 *
+	 * @return the context used by the static methods of {@link AssignMass},
+	 *         {@link DiffModification} and {@link FastaParser}, monoisotopic
+	 *         unless it is changed
+	 */
+	public static MassContext getDefault() {
+		return defaultContext.get();
+	}
+
+	public static void setDefault(MassContext context) {
+		if (context == null) {
+			throw new IllegalArgumentException("The default mass context can not be null");
+		}
+		defaultContext.set(context);
+	}
+
+	/**
+	 * Replaces the default context by the one returned by the function, which
+	 * may be called more than once if other thread changes it at the same time
+	 *
+	 * @param function
+	 * @return the new default context
+	 */
+	static MassContext updateDefault(UnaryOperator<MassContext> function) {
+		return defaultContext.updateAndGet(function);
+	}
+
+	public boolean isMonoisotopic() {
+		return monoisotopic;
+	}
+
+	public double getMass(int i) {
+		return aaMasses[i];
+	}
+
+	/**
+	 *
+	 * @return a copy of the masses of the aminoacids, by their code
+	 */
+	public double[] getMasses() {
+		return aaMasses.clone();
+	}
+
+	public boolean containsMass(char aa) {
+		return aa < SIZE && aaMasses[aa] != 0.0;
+	}
+
+	/**
+	 *
+	 * @param c
+	 * @return true if the character is an aminoacid in upper case with a mass
+	 */
+	public boolean isResidue(char c) {
+		return c < SIZE && residues[c];
+	}
+
+	public double getnTerm() {
+		return nTerm;
+	}
+
+	public double getcTerm() {
+		return cTerm;
+	}
+
+	public double getBionfragment() {
+		return bIonFragment;
+	}
+
+	public double getYionfragment() {
+		return yIonFragment;
+	}
+
+	public double getHplus() {
+		return hplus;
+	}
+
+	public double getH() {
+		return h;
+	}
+
+	public double getOh() {
+		return oh;
+	}
+
+	public double getBinWidth() {
+		return binWidth;
+	}
+
+	public boolean isDiffMod(char ch) {
+		return diffMods[ch];
+	}
+
+	public double getDiffModMass(char ch) {
+		return diffModMasses[ch];
+	}
+
+	/**
+	 *
+	 * @return a copy of the masses of the differential modifications, by the code
+	 *         of the aminoacid
+	 */
+	public double[] getDiffModMasses() {
+		return diffModMasses.clone();
+	}
+
+	/**
+	 *
+	 * @return a copy of the flags of the aminoacids with a differential
+	 *         modification, by their code
+	 */
+	public boolean[] getDiffMods() {
+		return diffMods.clone();
+	}
+
+	/**
+	 *
+	 * @param useMono
+	 * @return a context with the masses of the aminoacids, the proton, the
+	 *         hydrogen, the hydroxyl and the bin width of
+	 *         {@link #monoisotopic()} or {@link #average()}, and the rest as in
+	 *         this one
+	 */
+	public MassContext withMassType(boolean useMono) {
+		final MassContext type = of(useMono);
+		return new MassContext(useMono, type.aaMasses, nTerm, cTerm, bIonFragment, yIonFragment, type.hplus, type.h,
+				type.oh, type.binWidth, diffModMasses, diffMods);
+	}
+
+	public MassContext withMasses(double[] aaMasses) {
+		return new MassContext(monoisotopic, aaMasses, nTerm, cTerm, bIonFragment, yIonFragment, hplus, h, oh,
+				binWidth, diffModMasses, diffMods);
+	}
+
+	public MassContext withMass(char aa, double mass) {
+		final double[] masses = aaMasses.clone();
+		masses[aa] = mass;
+		return withMasses(masses);
+	}
+
+	public MassContext withnTerm(double nTerm) {
+		return new MassContext(monoisotopic, aaMasses, nTerm, cTerm, bIonFragment, yIonFragment, hplus, h, oh,
+				binWidth, diffModMasses, diffMods);
+	}
+
+	public MassContext withcTerm(double cTerm) {
+		return new MassContext(monoisotopic, aaMasses, nTerm, cTerm, bIonFragment, yIonFragment, hplus, h, oh,
+				binWidth, diffModMasses, diffMods);
+	}
+
+	public MassContext withBionfragment(double bionfragment) {
+		return new MassContext(monoisotopic, aaMasses, nTerm, cTerm, bionfragment, yIonFragment, hplus, h, oh,
+				binWidth, diffModMasses, diffMods);
+	}
+
+	public MassContext withYionfragment(double yionfragment) {
+		return new MassContext(monoisotopic, aaMasses, nTerm, cTerm, bIonFragment, yionfragment, hplus, h, oh,
+				binWidth, diffModMasses, diffMods);
+	}
+
+	public MassContext withHplus(double hplus) {
+		return new MassContext(monoisotopic, aaMasses, nTerm, cTerm, bIonFragment, yIonFragment, hplus, h, oh,
+				binWidth, diffModMasses, diffMods);
+	}
+
+	public MassContext withH(double h) {
+		return new MassContext(monoisotopic, aaMasses, nTerm, cTerm, bIonFragment, yIonFragment, hplus, h, oh,
+				binWidth, diffModMasses, diffMods);
+	}
+
+	public MassContext withOh(double oh) {
+		return new MassContext(monoisotopic, aaMasses, nTerm, cTerm, bIonFragment, yIonFragment, hplus, h, oh,
+				binWidth, diffModMasses, diffMods);
+	}
+
+	public MassContext withBinWidth(double binWidth) {
+		return new MassContext(monoisotopic, aaMasses, nTerm, cTerm, bIonFragment, yIonFragment, hplus, h, oh,
+				binWidth, diffModMasses, diffMods);
+	}
+
+	/**
+	 *
+	 * @param diffModMasses masses of the differential modifications, by the code
+	 *                      of the aminoacid
+	 * @param diffMods      flags of the aminoacids with a differential
+	 *                      modification, by their code
+	 * @return
+	 */
+	public MassContext withDiffMods(double[] diffModMasses, boolean[] diffMods) {
+		return new MassContext(monoisotopic, aaMasses, nTerm, cTerm, bIonFragment, yIonFragment, hplus, h, oh,
+				binWidth, diffModMasses, diffMods);
+	}
+
+	public MassContext withDiffMod(char ch, double mass) {
+		final double[] masses = diffModMasses.clone();
+		final boolean[] flags = diffMods.clone();
+		masses[ch] = mass;
+		flags[ch] = true;
+		return withDiffMods(masses, flags);
+	}
+
+	public int getBinnedValue(double mass, double shift) {
+		return (int) ((mass + shift) / binWidth + 0.5);
+	}
+
+	/**
+	 *
+	 * @param seq
+	 * @param ion 0 for a ions, 1 for b ions and 2 for c ions
+	 * @return masses of the first length-1 ions, from the n-term, skipping the
+	 *         aminoacids without mass
+	 */
+	public double[] getFragIonArr(String seq, int ion) {
+
+		final int size = seq.length() - 1; // TODO BUG ? should be seq.length()
+		final double[] arr = new double[size];
+
+		int count = 0;
+		double addMass = 0.0;
+
+		for (int i = 0; i < size; i++) {
+			final double mass = getMass(seq.charAt(i));
+
+			if (mass <= double_ZERO)
+				continue;
+
+			addMass += mass;
+
+			switch (ion) {
+
+			/* a */case 0:
+				arr[count] = addMass + nTerm - 27.0;
+				break;
+			/* b */case 1:
+				arr[count] = addMass + bIonFragment;
+				break;
+			/* c */case 2:
+				arr[count] = addMass + nTerm + 18.0;
+				break;
+			}
+
+			count++;
+		}
+
+		return arr;
+	}
+
+	/**
+	 *
+	 * @param seq
+	 * @param ion 6 for x ions, 7 for y ions and 8 for z ions
+	 * @return masses of the last length-1 ions, from the c-term, skipping the
+	 *         aminoacids without mass
+	 */
+	public double[] getFragIonArrRev(String seq, int ion) {
+
+		final int size = seq.length() - 1; // TODO BUG? should be seq.length()
+		final double[] rarr = new double[size];
+
+		int rcount = size - 1;
+		double raddMass = 0.0;
+
+		for (int i = 0; i < size; i++) {
+			final double rmass = getMass(seq.charAt(rcount + 1));
+			if (rmass <= double_ZERO)
+				continue;
+			raddMass += rmass;
+			switch (ion) {
+			/* x */case 6:
+				rarr[rcount] = raddMass + cTerm + 45.0;
+				break;
+			/* y */case 7:
+				rarr[rcount] = raddMass + yIonFragment;
+				break;
+			/* z */case 8:
+				rarr[rcount] = raddMass + cTerm + 3.0;
+				break;
+			}
+
+			rcount--;
+		}
+
+		return rarr;
+	}
+
+	/**
+	 * As {@link #getFragIonArr(String, int)}, adding the mass of the
+	 * differential modification of the aminoacids flagged in modIndexHash
+	 *
+	 * @param seq
+	 * @param ion
+	 * @param modIndexHash greater than 0 at the modified positions
+	 * @return
+	 */
+	public double[] getFragIonArrMod(String seq, int ion, int[] modIndexHash) {
+
+		final int size = seq.length() - 1;
+		final double[] arr = new double[size];
+
+		int count = 0;
+		double addMass = 0.0;
+
+		for (int i = 0; i < size; i++) {
+			final char ch = seq.charAt(i);
+			double mass = getMass(ch);
+
+			if (modIndexHash[i] > 0) {
+				mass += getDiffModMass(ch);
+			}
+
+			addMass += mass;
+
+			switch (ion) {
+			/* a */case 0:
+				arr[count] = addMass + nTerm - 27.0;
+				break;
+			/* b */case 1:
+				arr[count] = addMass + bIonFragment;
+				break;
+			/* c */case 2:
+				arr[count] = addMass + nTerm + 18.0;
+				break;
+			}
+
+			count++;
+		}
+
+		return arr;
+	}
+
+	/**
+	 * As {@link #getFragIonArrRev(String, int)}, adding the mass of the
+	 * differential modification of the aminoacids flagged in modIndexHash
+	 *
+	 * @param seq
+	 * @param ion
+	 * @param modIndexHash greater than 0 at the modified positions
+	 * @return
+	 */
+	public double[] getFragIonArrRevMod(String seq, int ion, int[] modIndexHash) {
+
+		final int size = seq.length() - 1; // TODO BUG? should be seq.length()
+		final double[] rarr = new double[size];
+
+		int rcount = size - 1;
+		double raddMass = 0.0;
+
+		for (int i = 0; i < size; i++) {
+			final char ch = seq.charAt(rcount + 1);
+
+			double rmass = getMass(ch);
+
+			if (modIndexHash[size - i] > 0) {
+				rmass += getDiffModMass(ch);
+			}
+
+			raddMass += rmass;
+			switch (ion) {
+			/* x */case 6:
+				rarr[rcount] = raddMass + cTerm + 45.0;
+				break;
+			/* y */case 7:
+				rarr[rcount] = raddMass + yIonFragment;
+				break;
+			/* z */case 8:
+				rarr[rcount] = raddMass + cTerm + 3.0;
+				break;
+			}
+
+			rcount--;
+		}
+
+		return rarr;
+	}
+}
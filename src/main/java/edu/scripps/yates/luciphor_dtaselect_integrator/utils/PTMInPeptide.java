@@ -1,13 +1,10 @@
 package edu.scripps.yates.luciphor_dtaselect_integrator.utils;
 
-import java.text.DecimalFormat;
-
 import org.apache.commons.lang.builder.HashCodeBuilder;
 
 public class PTMInPeptide {
 
 	private final Double deltaMass;
-	private final static DecimalFormat formatter6Decimals = new DecimalFormat("#.######");
 	private final int position;
 	private final String peptideSequence;
 	public final static char NULL_CHAR = '0';
@@ -46,7 +43,10 @@ public class PTMInPeptide {
 	}
 
 	public String getFormattedDeltaMass() {
-		return formatter6Decimals.format(deltaMass);
+		if (deltaMass == null) {
+			throw new IllegalArgumentException("PTM without delta mass at position " + position);
+		}
+		return DeltaMassFormatter.format(deltaMass);
 	}
 
 	public String getPeptideSequence() {
@@ -0,0 +1,310 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator.utils;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parses a DTASelect sequence such as R.PEPT(79.966331)IDE.K in a single left
+ * to right pass, getting the aminoacid before and after the peptide, the
+ * peptide without the PTMs and the positions and delta masses of the PTMs, as
+ * {@link FastaParser#getBeforeSeq(String)},
+ * {@link FastaParser#getAfterSeq(String)},
+ * {@link FastaParser#getSequenceInBetween(String)},
+ * {@link FastaParser#cleanSequence(String)} and
+ * {@link FastaParser#getPTMsInPeptide(String)} do.<br>
+ * PTMs are between parenthesis or brackets, and their position is the number
+ * of aminoacids before them (0 for the n-term). Sequences that don't follow
+ * that form (nested brackets, points in the middle of the peptide, characters
+ * that are not aminoacids...) are parsed with {@link FastaParser}, so the
+ * results (and the errors) are always the same.<br>
+ * The scanner is reused for every sequence, so it is not thread safe.
+ */
+public class PeptideSequenceScanner {
+	private String sequence;
+	private MassContext context;
+	private String prefix;
+	private String suffix;
+	private char[] residues = new char[64];
+	private int residuesStart;
+	private int residuesEnd;
+	private String cleanSequence;
+	private int[] ptmPositions = new int[8];
+	private double[] ptmDeltaMasses = new double[8];
+	/**
+	 * Start and end of the text of each PTM in the sequence
+	 */
+	private int[] ptmStarts = new int[8];
+	private int[] ptmEnds = new int[8];
+	private int ptmsStart;
+	private int ptmsEnd;
+
+	/**
+	 * Parses the sequence, with the aminoacids of the default
+	 * {@link MassContext}
+	 *
+	 * @param sequence
+	 * @return this scanner
+	 * @throws IllegalArgumentException as
+	 *                                  {@link FastaParser#cleanSequence(String)}
+	 *                                  if the peptide has characters that are
+	 *                                  not aminoacids
+	 */
+	public PeptideSequenceScanner scan(String sequence) {
+		return scan(sequence, MassContext.getDefault());
+	}
+
+	/**
+	 * Parses the sequence
+	 *
+	 * @param sequence
+	 * @param context  the aminoacids accepted in the peptide
+	 * @return this scanner
+	 * @throws IllegalArgumentException as
+	 *                                  {@link FastaParser#cleanSequence(String, MassContext)}
+	 *                                  if the peptide has characters that are
+	 *                                  not aminoacids
+	 */
+	public PeptideSequenceScanner scan(String sequence, MassContext context) {
+		this.sequence = sequence;
+		this.context = context;
+		cleanSequence = null;
+		final int length = sequence.length();
+		// all the points, as used to get the sequence in between
+		int firstPoint = -1;
+		int lastPoint = -1;
+		// the points not followed by a digit, as used to get the prefix and suffix
+		int firstFlankingPoint = -1;
+		int lastFlankingPoint = -1;
+		// points out of the PTMs, with the number of residues and PTMs before them
+		int numPointsOutOfPTMs = 0;
+		int residuesAtFirstPoint = 0;
+		int ptmsAtFirstPoint = 0;
+		int residuesAtLastPoint = 0;
+		int ptmsAtLastPoint = 0;
+		boolean firstPointInPTM = false;
+		boolean lastPointInPTM = false;
+		// the characters that the fast parsing doesn't support
+		int firstUnsupported = -1;
+		int firstUnsupportedAfterFirstPoint = -1;
+
+		int numResidues = 0;
+		int numPTMs = 0;
+		int ptmStart = -1;
+		for (int i = 0; i < length; i++) {
+			final char c = sequence.charAt(i);
+			boolean unsupported = false;
+			if (c == '.') {
+				if (firstPoint < 0) {
+					firstPoint = i;
+					firstPointInPTM = ptmStart >= 0;
+				}
+				lastPoint = i;
+				lastPointInPTM = ptmStart >= 0;
+				if (i < length - 1 && !Character.isDigit(sequence.charAt(i + 1))) {
+					if (firstFlankingPoint < 0) {
+						firstFlankingPoint = i;
+					}
+					lastFlankingPoint = i;
+				}
+				if (ptmStart < 0) {
+					if (numPointsOutOfPTMs++ == 0) {
+						residuesAtFirstPoint = numResidues;
+						ptmsAtFirstPoint = numPTMs;
+					}
+					residuesAtLastPoint = numResidues;
+					ptmsAtLastPoint = numPTMs;
+				}
+			} else if (c == '(' || c == '[') {
+				if (ptmStart >= 0) {
+					unsupported = true;
+				} else {
+					ptmStart = i + 1;
+				}
+			} else if (c == ')' || c == ']') {
+				if (ptmStart < 0) {
+					unsupported = true;
+				} else {
+					// empty ones are not PTMs
+					if (i > ptmStart) {
+						ensurePTMCapacity(numPTMs + 1);
+						ptmPositions[numPTMs] = numResidues;
+						ptmStarts[numPTMs] = ptmStart;
+						ptmEnds[numPTMs] = i;
+						numPTMs++;
+					}
+					ptmStart = -1;
+				}
+			} else if (ptmStart < 0) {
+				if (numResidues == residues.length) {
+					residues = Arrays.copyOf(residues, numResidues * 2);
+				}
+				residues[numResidues++] = c;
+				unsupported = !context.isResidue(c);
+			}
+			if (unsupported) {
+				if (firstUnsupported < 0) {
+					firstUnsupported = i;
+				}
+				if (firstPoint >= 0 && firstUnsupportedAfterFirstPoint < 0) {
+					firstUnsupportedAfterFirstPoint = i;
+				}
+			}
+		}
+
+		// as FastaParser.getBeforeSeq and getAfterSeq
+		if (firstFlankingPoint >= 0 && firstFlankingPoint != lastFlankingPoint) {
+			prefix = sequence.substring(0, firstFlankingPoint);
+			suffix = sequence.substring(lastFlankingPoint + 1);
+		} else {
+			prefix = null;
+			suffix = null;
+		}
+		// as FastaParser.getSequenceInBetween
+		final boolean inBetween = firstPoint != lastPoint && !isDigit(firstPoint - 1) && !isDigit(firstPoint + 1)
+				&& !isDigit(lastPoint - 1) && !isDigit(lastPoint + 1);
+		final boolean supported;
+		if (inBetween) {
+			supported = !firstPointInPTM && !lastPointInPTM && numPointsOutOfPTMs == 2
+					&& (firstUnsupportedAfterFirstPoint < 0 || firstUnsupportedAfterFirstPoint > lastPoint);
+			residuesStart = residuesAtFirstPoint;
+			residuesEnd = residuesAtLastPoint;
+			ptmsStart = ptmsAtFirstPoint;
+			ptmsEnd = ptmsAtLastPoint;
+		} else {
+			supported = numPointsOutOfPTMs == 0 && firstUnsupported < 0 && ptmStart < 0;
+			residuesStart = 0;
+			residuesEnd = numResidues;
+			ptmsStart = 0;
+			ptmsEnd = numPTMs;
+		}
+		// neither is a peptide made only of PTMs
+		final boolean emptyPeptide = inBetween ? lastPoint == firstPoint + 1 : length == 0;
+		if (!supported || (residuesStart == residuesEnd && !emptyPeptide)) {
+			scanWithFastaParser();
+			return this;
+		}
+		for (int ptm = ptmsStart; ptm < ptmsEnd; ptm++) {
+			ptmPositions[ptm] -= residuesStart;
+			ptmDeltaMasses[ptm] = parseDeltaMass(sequence.substring(ptmStarts[ptm], ptmEnds[ptm]));
+		}
+		return this;
+	}
+
+	private boolean isDigit(int i) {
+		return i >= 0 && i < sequence.length() && Character.isDigit(sequence.charAt(i));
+	}
+
+	private static double parseDeltaMass(String text) {
+		try {
+			return Double.parseDouble(text);
+		} catch (final NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	private void ensurePTMCapacity(int capacity) {
+		if (capacity > ptmPositions.length) {
+			final int newCapacity = Math.max(capacity, ptmPositions.length * 2);
+			ptmPositions = Arrays.copyOf(ptmPositions, newCapacity);
+			ptmDeltaMasses = Arrays.copyOf(ptmDeltaMasses, newCapacity);
+			ptmStarts = Arrays.copyOf(ptmStarts, newCapacity);
+			ptmEnds = Arrays.copyOf(ptmEnds, newCapacity);
+		}
+	}
+
+	/**
+	 * Gets the results from {@link FastaParser}, for the sequences that are not
+	 * parsed by the scanner
+	 */
+	private void scanWithFastaParser() {
+		prefix = FastaParser.getBeforeSeq(sequence);
+		suffix = FastaParser.getAfterSeq(sequence);
+		final String sequenceInBetween = FastaParser.getSequenceInBetween(sequence);
+		final List<PTMInPeptide> ptms = FastaParser.getPTMsInPeptide(sequenceInBetween);
+		cleanSequence = FastaParser.cleanSequence(sequenceInBetween, context);
+		residuesStart = 0;
+		residuesEnd = 0;
+		ptmsStart = 0;
+		ptmsEnd = ptms.size();
+		ensurePTMCapacity(ptms.size());
+		for (int i = 0; i < ptms.size(); i++) {
+			final PTMInPeptide ptm = ptms.get(i);
+			ptmPositions[i] = ptm.getPosition();
+			ptmDeltaMasses[i] = ptm.getDeltaMass() != null ? ptm.getDeltaMass() : Double.NaN;
+		}
+	}
+
+	/**
+	 *
+	 * @return the aminoacid before the peptide, or null if the sequence doesn't
+	 *         have it
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
+
+	/**
+	 *
+	 * @return the aminoacid after the peptide, or null if the sequence doesn't
+	 *         have it
+	 */
+	public String getSuffix() {
+		return suffix;
+	}
+
+	/**
+	 *
+	 * @return the peptide without the PTMs
+	 */
+	public String getCleanSequence() {
+		if (cleanSequence == null) {
+			cleanSequence = new String(residues, residuesStart, residuesEnd - residuesStart);
+		}
+		return cleanSequence;
+	}
+
+	public int getNumPTMs() {
+		return ptmsEnd - ptmsStart;
+	}
+
+	/**
+	 *
+	 * @param ptm index of the PTM, in the order in which they are in the
+	 *            sequence
+	 * @return number of aminoacids before the PTM, 0 for the n-term
+	 */
+	public int getPTMPosition(int ptm) {
+		return ptmPositions[checkPTM(ptm)];
+	}
+
+	/**
+	 *
+	 * @param ptm index of the PTM, in the order in which they are in the
+	 *            sequence
+	 * @return delta mass of the PTM, or NaN if it is not a number
+	 */
+	public double getPTMDeltaMass(int ptm) {
+		return ptmDeltaMasses[checkPTM(ptm)];
+	}
+
+	private int checkPTM(int ptm) {
+		if (ptm < 0 || ptm >= getNumPTMs()) {
+			throw new IndexOutOfBoundsException("PTM " + ptm + " of " + getNumPTMs() + " in " + sequence);
+		}
+		return ptmsStart + ptm;
+	}
+
+	/**
+	 *
+	 * @param position number of aminoacids before the PTM, 0 for the n-term
+	 * @return index of the last PTM at the position, or -1 if there is none
+	 */
+	public int findPTMAt(int position) {
+		for (int ptm = ptmsEnd - 1; ptm >= ptmsStart; ptm--) {
+			if (ptmPositions[ptm] == position) {
+				return ptm - ptmsStart;
+			}
+		}
+		return -1;
+	}
+}
@@ -9,8 +9,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import gnu.trove.TIntCollection;
 import gnu.trove.list.TIntList;
@@ -73,18 +71,33 @@ public class StringUtils {
 	 */
 	public static TIntArrayList allPositionsOf(String sourceString, String targetString) {
 		final TIntArrayList ret = new TIntArrayList();
-		if (sourceString != null && targetString != null && !"".equals(sourceString) && !"".equals(targetString)) {
-			final Pattern p = Pattern.compile(targetString, Pattern.LITERAL);
-			final Matcher m = p.matcher(sourceString);
-			int start = 0;
-			while (m.find(start)) {
-				start = m.start() + 1;
-				ret.add(start);
-			}
-		}
+		allPositionsOf(sourceString, targetString, ret);
 		return ret;
 	}
 
+	/**
+	 * Search the targetString in the source string and adds to the list the
+	 * positions (starting by 1) in which the targetString appears in the
+	 * sourceString, including the ones that overlap
+	 *
+	 * @param sourceString
+	 * @param targetString
+	 * @param positions    list to which the positions are added
+	 */
+	public static void allPositionsOf(String sourceString, String targetString, TIntArrayList positions) {
+		if (sourceString == null || targetString == null || "".equals(sourceString) || "".equals(targetString)) {
+			return;
+		}
+		if (targetString.length() == 1) {
+			allPositionsOf(sourceString, targetString.charAt(0), positions);
+			return;
+		}
+		for (int index = sourceString.indexOf(targetString); index >= 0;
+				index = sourceString.indexOf(targetString, index + 1)) {
+			positions.add(index + 1);
+		}
+	}
+
 	/**
 	 * Search the targetString in the source string and returns the positions
 	 * (starting by 1) in which the targetString appears in the sourceString.<br>
@@ -95,7 +108,69 @@ public class StringUtils {
 	 * @return
 	 */
 	public static TIntArrayList allPositionsOf(String sourceString, char targetCharacter) {
-		return allPositionsOf(sourceString, String.valueOf(targetCharacter));
+		final TIntArrayList ret = new TIntArrayList();
+		allPositionsOf(sourceString, targetCharacter, ret);
+		return ret;
+	}
+
+	/**
+	 * Adds to the list the positions (starting by 1) in which the character
+	 * appears in the sourceString
+	 *
+	 * @param sourceString
+	 * @param targetCharacter
+	 * @param positions       list to which the positions are added
+	 */
+	public static void allPositionsOf(CharSequence sourceString, char targetCharacter, TIntArrayList positions) {
+		if (sourceString == null) {
+			return;
+		}
+		for (int index = nextIndexOf(sourceString, targetCharacter, 0); index >= 0;
+				index = nextIndexOf(sourceString, targetCharacter, index + 1)) {
+			positions.add(index + 1);
+		}
+	}
+
+	/**
+	 *
+	 * @param sourceString
+	 * @param targetCharacter
+	 * @param fromIndex       index (starting by 0) from which the character is
+	 *                        searched forward
+	 * @return the index (starting by 0) of the first occurrence of the character
+	 *         at fromIndex or after it, or -1 if there is none
+	 */
+	public static int nextIndexOf(CharSequence sourceString, char targetCharacter, int fromIndex) {
+		if (sourceString instanceof String) {
+			return ((String) sourceString).indexOf(targetCharacter, fromIndex);
+		}
+		for (int index = Math.max(fromIndex, 0); index < sourceString.length(); index++) {
+			if (sourceString.charAt(index) == targetCharacter) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 *
+	 * @param sourceString
+	 * @param targetCharacter
+	 * @param fromIndex       index (starting by 0) from which the character is
+	 *                        searched backward
+	 * @return the index (starting by 0) of the last occurrence of the character
+	 *         at fromIndex or before it, or -1 if there is none
+	 */
+	public static int previousIndexOf(CharSequence sourceString, char targetCharacter, int fromIndex) {
+		if (sourceString instanceof String) {
+			return ((String) sourceString).lastIndexOf(targetCharacter, fromIndex);
+		}
+		for (int index = Math.min(fromIndex, sourceString.length() - 1); index >= 0; index--) {
+			if (sourceString.charAt(index) == targetCharacter) {
+				return index;
+			}
+		}
+		return -1;
 	}
 
 	/**
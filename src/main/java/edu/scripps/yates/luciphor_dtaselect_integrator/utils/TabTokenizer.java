@@ -0,0 +1,259 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Splits tab separated lines recording where each column starts and ends, so
+ * that the columns can be read from the line (a {@link CharSequence} or a
+ * range of a byte array) without creating a {@link String} for each one of
+ * them. The tokenizer is reused for every line, so it is not thread safe.<br>
+ * The columns are the same as the ones of {@link String#split(String)} with
+ * "\t": the empty columns at the end of the line are not counted, and asking
+ * for a column that is not counted throws an
+ * {@link ArrayIndexOutOfBoundsException}.
+ */
+public class TabTokenizer {
+	private CharSequence chars;
+	private byte[] bytes;
+	private int[] columnStarts = new int[32];
+	private int[] columnEnds = new int[32];
+	private int numColumns;
+
+	/**
+	 * Tokenizes the whole line
+	 *
+	 * @param line
+	 * @return this tokenizer
+	 */
+	public TabTokenizer tokenize(CharSequence line) {
+		chars = line;
+		bytes = null;
+		numColumns = 0;
+		final int end = line.length();
+		int columnStart = 0;
+		for (int i = 0; i < end; i++) {
+			if (line.charAt(i) == '\t') {
+				addColumn(columnStart, i);
+				columnStart = i + 1;
+			}
+		}
+		addColumn(columnStart, end);
+		removeEmptyLastColumns();
+		return this;
+	}
+
+	/**
+	 * Tokenizes the line made of the bytes between start and end, which are
+	 * decoded as ISO-8859-1 when a column is requested as a {@link String}
+	 *
+	 * @param bytes
+	 * @param start
+	 * @param end
+	 * @return this tokenizer
+	 */
+	public TabTokenizer tokenize(byte[] bytes, int start, int end) {
+		this.bytes = bytes;
+		chars = null;
+		numColumns = 0;
+		int columnStart = start;
+		for (int i = start; i < end; i++) {
+			if (bytes[i] == '\t') {
+				addColumn(columnStart, i);
+				columnStart = i + 1;
+			}
+		}
+		addColumn(columnStart, end);
+		removeEmptyLastColumns();
+		return this;
+	}
+
+	private void addColumn(int start, int end) {
+		if (numColumns == columnStarts.length) {
+			columnStarts = Arrays.copyOf(columnStarts, numColumns * 2);
+			columnEnds = Arrays.copyOf(columnEnds, numColumns * 2);
+		}
+		columnStarts[numColumns] = start;
+		columnEnds[numColumns] = end;
+		numColumns++;
+	}
+
+	/**
+	 * As {@link String#split(String)}, which keeps the only column of a line
+	 * without tabs even if it is empty
+	 */
+	private void removeEmptyLastColumns() {
+		if (numColumns > 1) {
+			while (numColumns > 0 && columnStarts[numColumns - 1] == columnEnds[numColumns - 1]) {
+				numColumns--;
+			}
+		}
+	}
+
+	public int getNumColumns() {
+		return numColumns;
+	}
+
+	/**
+	 *
+	 * @param column
+	 * @return position of the first char or byte of the column in the line
+	 */
+	public int getColumnStart(int column) {
+		checkColumn(column);
+		return columnStarts[column];
+	}
+
+	/**
+	 *
+	 * @param column
+	 * @return position after the last char or byte of the column in the line
+	 */
+	public int getColumnEnd(int column) {
+		checkColumn(column);
+		return columnEnds[column];
+	}
+
+	private void checkColumn(int column) {
+		if (column < 0 || column >= numColumns) {
+			throw new ArrayIndexOutOfBoundsException(column);
+		}
+	}
+
+	/**
+	 *
+	 * @param column
+	 * @return a view of the column, without copying it, so it changes if the
+	 *         line changes. The bytes are read as ISO-8859-1
+	 */
+	public CharSequence getColumn(int column) {
+		checkColumn(column);
+		if (chars != null) {
+			return CharBuffer.wrap(chars, columnStarts[column], columnEnds[column]);
+		}
+		return new ByteCharSequence(bytes, columnStarts[column], columnEnds[column]);
+	}
+
+	/**
+	 *
+	 * @param column
+	 * @return a new {@link String} with the column
+	 */
+	public String getString(int column) {
+		checkColumn(column);
+		if (chars != null) {
+			return chars.subSequence(columnStarts[column], columnEnds[column]).toString();
+		}
+		return new String(bytes, columnStarts[column], columnEnds[column] - columnStarts[column],
+				StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Parses the column as {@link Integer#parseInt(String)} would do, without
+	 * creating a {@link String} if it only has digits and an optional sign
+	 *
+	 * @param column
+	 * @return
+	 * @throws NumberFormatException if the column is not an int
+	 */
+	public int getInt(int column) {
+		checkColumn(column);
+		final int start = columnStarts[column];
+		final int end = columnEnds[column];
+		final boolean negative = start < end && charAt(start) == '-';
+		int i = start < end && (charAt(start) == '-' || charAt(start) == '+') ? start + 1 : start;
+		// up to 9 digits can not overflow
+		if (i == end || end - i > 9) {
+			return Integer.parseInt(getString(column));
+		}
+		int ret = 0;
+		for (; i < end; i++) {
+			final int digit = charAt(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return Integer.parseInt(getString(column));
+			}
+			ret = ret * 10 + digit;
+		}
+		return negative ? -ret : ret;
+	}
+
+	private char charAt(int i) {
+		return chars != null ? chars.charAt(i) : (char) (bytes[i] & 0xff);
+	}
+
+	/**
+	 * Appends the column to the {@link StringBuilder}
+	 *
+	 * @param sb
+	 * @param column
+	 */
+	public void appendColumn(StringBuilder sb, int column) {
+		checkColumn(column);
+		if (chars != null) {
+			sb.append(chars, columnStarts[column], columnEnds[column]);
+		} else {
+			for (int i = columnStarts[column]; i < columnEnds[column]; i++) {
+				sb.append((char) (bytes[i] & 0xff));
+			}
+		}
+	}
+
+	/**
+	 * Writes the bytes of the column of a line tokenized from bytes
+	 *
+	 * @param out
+	 * @param column
+	 * @throws IOException
+	 */
+	public void writeColumn(OutputStream out, int column) throws IOException {
+		checkColumn(column);
+		if (bytes == null) {
+			throw new IllegalStateException("The line was not tokenized from bytes");
+		}
+		out.write(bytes, columnStarts[column], columnEnds[column] - columnStarts[column]);
+	}
+
+	/**
+	 * A range of a byte array read as ISO-8859-1 chars
+	 */
+	private static class ByteCharSequence implements CharSequence {
+		private final byte[] bytes;
+		private final int start;
+		private final int end;
+
+		private ByteCharSequence(byte[] bytes, int start, int end) {
+			this.bytes = bytes;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public int length() {
+			return end - start;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (index < 0 || index >= length()) {
+				throw new IndexOutOfBoundsException(String.valueOf(index));
+			}
+			return (char) (bytes[start + index] & 0xff);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			if (start < 0 || end > length() || start > end) {
+				throw new IndexOutOfBoundsException("[" + start + ", " + end + ") of " + length());
+			}
+			return new ByteCharSequence(bytes, this.start + start, this.start + end);
+		}
+
+		@Override
+		public String toString() {
+			return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import edu.scripps.yates.luciphor_dtaselect_integrator.BatchIntegrator.BatchJob;
+import edu.scripps.yates.luciphor_dtaselect_integrator.BatchIntegrator.BatchJobResult;
+
+class BatchIntegratorTest {
+	@TempDir
+	Path folder;
+
+	@Test
+	void readsManifest() throws IOException {
+		final File absoluteDTASelectFile = folder.resolve("c").resolve(TestDataset.DTASELECT_FILE_NAME).toFile();
+		final File manifest = writeManifest("# luciphor\tdtaselect\tlflr\tgflr\trem\n" //
+				+ "\n" //
+				+ "a/luciphor.tsv\ta/DTASelect-filter.txt\n" //
+				+ "b/luciphor.tsv\tb/DTASelect-filter.txt\t0.05\t-\ttrue\n" //
+				+ "c/luciphor.tsv\t" + absoluteDTASelectFile.getAbsolutePath() + "\t\t0.1\n");
+		final List<BatchJob> jobs = BatchIntegrator.fromManifest(manifest, 2).getJobs();
+		assertEquals(3, jobs.size());
+		assertEquals(folder.resolve("a").resolve("luciphor.tsv").toFile(), jobs.get(0).getLuciphorFile());
+		assertEquals(folder.resolve("a").resolve(TestDataset.DTASELECT_FILE_NAME).toFile(),
+				jobs.get(0).getDtaselectFile());
+		assertNull(jobs.get(0).getLflrThreshold());
+		assertNull(jobs.get(0).getGflrThreshold());
+		assertFalse(jobs.get(0).isRemovePSMsNotPassingThreshold());
+		assertEquals(0.05, jobs.get(1).getLflrThreshold());
+		assertNull(jobs.get(1).getGflrThreshold());
+		assertTrue(jobs.get(1).isRemovePSMsNotPassingThreshold());
+		assertEquals(absoluteDTASelectFile, jobs.get(2).getDtaselectFile());
+		assertNull(jobs.get(2).getLflrThreshold());
+		assertEquals(0.1, jobs.get(2).getGflrThreshold());
+	}
+
+	@Test
+	void rejectsNotValidManifestLines() throws IOException {
+		assertThrows(IllegalArgumentException.class,
+				() -> BatchIntegrator.fromManifest(writeManifest("a/luciphor.tsv\n"), 1));
+		assertThrows(IllegalArgumentException.class, () -> BatchIntegrator
+				.fromManifest(writeManifest("a/luciphor.tsv\ta/DTASelect-filter.txt\t1.5\n"), 1));
+	}
+
+	@Test
+	void rejectsSameDTASelectFileInSeveralJobs() throws IOException {
+		final File manifest = writeManifest("a/luciphor.tsv\ta/DTASelect-filter.txt\t0.01\n"
+				+ "a/luciphor.tsv\ta/../a/DTASelect-filter.txt\t0.05\n");
+		assertThrows(IllegalArgumentException.class, () -> BatchIntegrator.fromManifest(manifest, 2));
+	}
+
+	@Test
+	void findsJobsInDirectory() throws IOException {
+		TestDataset.copyTo(folder.toFile());
+		TestDataset.copyTo(folder.resolve("b").resolve("c").toFile());
+		TestDataset.copyTo(folder.resolve("a").toFile());
+		// with two luciphor files it is skipped
+		final File skipped = folder.resolve("d").toFile();
+		TestDataset.copyTo(skipped);
+		TestDataset.copy(TestDataset.LUCIPHOR_FILE_NAME, new File(skipped, "luciphor_results_2.txt"));
+		final List<BatchJob> jobs = BatchIntegrator.fromDirectory(folder.toFile(), 0.05, null, true, 2).getJobs();
+		final File[] expected = { folder.toFile(), folder.resolve("a").toFile(),
+				folder.resolve("b").resolve("c").toFile() };
+		assertEquals(expected.length, jobs.size());
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(new File(expected[i], TestDataset.DTASELECT_FILE_NAME), jobs.get(i).getDtaselectFile());
+			assertEquals(new File(expected[i], TestDataset.LUCIPHOR_FILE_NAME), jobs.get(i).getLuciphorFile());
+			assertEquals(0.05, jobs.get(i).getLflrThreshold());
+			assertNull(jobs.get(i).getGflrThreshold());
+			assertTrue(jobs.get(i).isRemovePSMsNotPassingThreshold());
+		}
+	}
+
+	@Test
+	void writesSummaryWithTheCountsOfEachJob() throws Exception {
+		TestDataset.copyTo(folder.resolve("a").toFile());
+		TestDataset.copyTo(folder.resolve("b").toFile());
+		final File manifest = writeManifest("a/luciphor_results.tsv\ta/DTASelect-filter.txt\t0.05\t-\ttrue\n"
+				+ "b/luciphor_results.tsv\tb/DTASelect-filter.txt\n");
+		final List<BatchJobResult> results = BatchIntegrator.fromManifest(manifest, 2).run();
+		// the same jobs run one by one
+		final File single = folder.resolve("single").toFile();
+		TestDataset.copyTo(single);
+		final LuciphorDtaselectIntegrator expected = new LuciphorDtaselectIntegrator(
+				new File(single, TestDataset.LUCIPHOR_FILE_NAME).getAbsolutePath(),
+				new File(single, TestDataset.DTASELECT_FILE_NAME).getAbsolutePath(), 0.05, null, true, 1, false);
+		expected.run();
+		final List<String> lines = Files.readAllLines(folder.resolve(BatchIntegrator.SUMMARY_FILE_NAME),
+				StandardCharsets.UTF_8);
+		assertEquals(3, lines.size());
+		assertTrue(lines.get(0).startsWith("luciphor_file\tdtaselect_file\tlflr\tgflr\trem\tstatus\t"));
+		final String[] columns = lines.get(1).split("\t", -1);
+		assertEquals(14, columns.length);
+		assertArrayEquals(new String[] { "0.05", "-", "true", "OK", //
+				String.valueOf(expected.getNumLuciphorPSMs()),
+				String.valueOf(expected.getNumLuciphorPSMsPassingThresholds()),
+				String.valueOf(expected.getNumDTASelectPSMs()), String.valueOf(expected.getNumPSMsChanged()),
+				String.valueOf(expected.getNumPSMsRemoved()), String.valueOf(expected.getNumProteinsRemoved()) },
+				Arrays.copyOfRange(columns, 2, 12));
+		assertEquals("", columns[13]);
+		assertTrue(lines.get(2).contains("\t-\t-\tfalse\tOK\t"));
+		for (final BatchJobResult result : results) {
+			assertTrue(result.isSuccessful());
+		}
+		// the DTASelect files are rewritten as in a single run
+		assertArrayEquals(Files.readAllBytes(new File(single, TestDataset.DTASELECT_FILE_NAME).toPath()),
+				Files.readAllBytes(folder.resolve("a").resolve(TestDataset.DTASELECT_FILE_NAME)));
+	}
+
+	private File writeManifest(String content) throws IOException {
+		final Path ret = folder.resolve("manifest.tsv");
+		Files.write(ret, content.getBytes(StandardCharsets.UTF_8));
+		return ret.toFile();
+	}
+}
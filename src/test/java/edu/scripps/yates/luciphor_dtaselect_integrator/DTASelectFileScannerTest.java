@@ -0,0 +1,120 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import edu.scripps.yates.luciphor_dtaselect_integrator.DTASelectFileScanner.LineType;
+
+class DTASelectFileScannerTest {
+	private static final String[] NEW_LINES = { "\n", "\r\n", "\r" };
+
+	@TempDir
+	Path folder;
+
+	@Test
+	void splitsLinesAsBufferedReaderOverTinyWindows() throws IOException {
+		final Random random = new Random(1);
+		for (int test = 0; test < 50; test++) {
+			final StringBuilder sb = new StringBuilder();
+			final int numLines = random.nextInt(30);
+			for (int i = 0; i < numLines; i++) {
+				final int length = random.nextInt(4) == 0 ? 0 : random.nextInt(12);
+				for (int j = 0; j < length; j++) {
+					sb.append((char) ('a' + random.nextInt(26)));
+				}
+				// the last line without new line too
+				if (i < numLines - 1 || random.nextBoolean()) {
+					sb.append(NEW_LINES[random.nextInt(NEW_LINES.length)]);
+				}
+			}
+			final String content = sb.toString();
+			for (int windowSize = 1; windowSize <= 16; windowSize++) {
+				assertEquals(readLines(content), scanLines(content, windowSize),
+						"window of " + windowSize + " bytes in '" + content + "'");
+			}
+		}
+	}
+
+	@Test
+	void scansLinesLongerThanTheWindow() throws IOException {
+		final StringBuilder longLine = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			longLine.append((char) ('a' + i % 26));
+		}
+		final String content = "first\r" + longLine + "\r\nlast\r";
+		assertEquals(readLines(content), scanLines(content, 8));
+		assertEquals(readLines(content), scanLines(content, 1));
+	}
+
+	@Test
+	void scansEmptyFile() throws IOException {
+		assertEquals(new ArrayList<String>(), scanLines("", 4));
+	}
+
+	@Test
+	void classifiesLines() throws IOException {
+		final File file = write("DTASelect v2.1.12\r\nLocus\tSequence Count\nUnique\tFileName\n*\tsample.1.1.2\n"
+				+ "\tsample.2.2.2\n\tProteins\tPeptide IDs\n");
+		try (DTASelectFileScanner scanner = new DTASelectFileScanner(file, 4)) {
+			final LineType[] expected = { LineType.OTHER, LineType.PROTEIN_HEADER, LineType.PSM_HEADER,
+					LineType.PSM, LineType.PSM, LineType.FINAL_TABLE };
+			for (final LineType lineType : expected) {
+				assertTrue(scanner.next());
+				assertEquals(lineType, scanner.getLineType());
+			}
+			assertFalse(scanner.next());
+		}
+	}
+
+	@Test
+	void getsColumns() {
+		final byte[] line = "a\t\tccc".getBytes(StandardCharsets.ISO_8859_1);
+		assertEquals("a", DTASelectFileScanner.getColumn(line, 0, line.length, 0));
+		assertEquals("", DTASelectFileScanner.getColumn(line, 0, line.length, 1));
+		assertEquals("ccc", DTASelectFileScanner.getColumn(line, 0, line.length, 2));
+		assertEquals(null, DTASelectFileScanner.getColumn(line, 0, line.length, 3));
+	}
+
+	private List<String> scanLines(String content, int windowSize) throws IOException {
+		final List<String> ret = new ArrayList<String>();
+		try (DTASelectFileScanner scanner = new DTASelectFileScanner(write(content), windowSize)) {
+			while (scanner.next()) {
+				ret.add(scanner.getLineAsString());
+			}
+		}
+		return ret;
+	}
+
+	private static List<String> readLines(String content) throws IOException {
+		final List<String> ret = new ArrayList<String>();
+		try (BufferedReader reader = new BufferedReader(new StringReader(content))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				ret.add(line);
+			}
+		}
+		return ret;
+	}
+
+	private File write(String content) throws IOException {
+		// a new file every time, as the windows mapped are not unmapped when closing
+		final Path ret = Files.createTempFile(folder, "DTASelect-filter", ".txt");
+		Files.write(ret, content.getBytes(StandardCharsets.ISO_8859_1));
+		return ret.toFile();
+	}
+}
@@ -0,0 +1,114 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DTASelectRewriterTest {
+	private static final Duration TIMEOUT = Duration.ofSeconds(30);
+	/**
+	 * More protein groups than the blocks that fit in the queues between the
+	 * stages, so that the reader is still running when a later stage fails
+	 */
+	private static final int NUM_PROTEIN_GROUPS = 2000;
+	@TempDir
+	Path folder;
+
+	@Test
+	void restoresTheFileWhenAPSMLineIsNotValid() throws Exception {
+		TestDataset.copyTo(folder.toFile());
+		final File dtaselectFile = folder.resolve(TestDataset.DTASELECT_FILE_NAME).toFile();
+		// a redundancy that is not a number in the first PSM line
+		writeWithManyProteinGroups(dtaselectFile, "\t1\tK.PEST(79.966331)IDEK.R", "\tone\tK.PEST(79.966331)IDEK.R");
+		final byte[] original = Files.readAllBytes(dtaselectFile.toPath());
+		final LuciphorDtaselectIntegrator integrator = new LuciphorDtaselectIntegrator(
+				folder.resolve(TestDataset.LUCIPHOR_FILE_NAME).toString(), dtaselectFile.getAbsolutePath(), null,
+				null, false, 1, false);
+		assertTimeoutPreemptively(TIMEOUT, () -> integrator.run());
+		assertTrue(integrator.getDTASelectError() instanceof NumberFormatException,
+				String.valueOf(integrator.getDTASelectError()));
+		assertArrayEquals(original, Files.readAllBytes(dtaselectFile.toPath()));
+	}
+
+	@Test
+	void restoresTheFileWhenARequiredColumnIsMissing() throws Exception {
+		for (final String header : new String[] { "FileName", "Sequence", "Redundancy", "Sequence Count",
+				"Spectrum Count" }) {
+			TestDataset.copyTo(folder.toFile());
+			final File dtaselectFile = folder.resolve(TestDataset.DTASELECT_FILE_NAME).toFile();
+			// Sequence is the last column of its header
+			final String end = header.equals("Sequence") ? "\n" : "\t";
+			writeWithManyProteinGroups(dtaselectFile, "\t" + header + end, "\tOther" + end);
+			final byte[] original = Files.readAllBytes(dtaselectFile.toPath());
+			final LuciphorDtaselectIntegrator integrator = new LuciphorDtaselectIntegrator(
+					folder.resolve(TestDataset.LUCIPHOR_FILE_NAME).toString(), dtaselectFile.getAbsolutePath(),
+					null, null, false, 1, false);
+			assertTimeoutPreemptively(TIMEOUT, () -> integrator.run());
+			final Exception error = integrator.getDTASelectError();
+			assertTrue(error instanceof IllegalArgumentException, header + ": " + error);
+			assertTrue(error.getMessage().startsWith("Column '" + header + "' not found"), error.getMessage());
+			assertArrayEquals(original, Files.readAllBytes(dtaselectFile.toPath()), header);
+		}
+	}
+
+	@Test
+	void resolvesMissingColumnsToMinusOne() {
+		final DTASelectSchema schema = new DTASelectSchema();
+		assertFalse(schema.hasPSMID());
+		assertFalse(schema.hasSequenceCount());
+		schema.compilePSMHeader("Unique\tFileName\tXCorr\tSequence");
+		assertEquals(1, schema.getPSMIDColumn());
+		assertEquals(3, schema.getSequenceColumn());
+		assertFalse(schema.hasRedundancy());
+		assertEquals(-1, schema.getRedundancyColumn());
+		schema.compileProteinHeader("Locus\tSpectrum Count\tSequence Count");
+		assertEquals(2, schema.getSequenceCountColumn());
+		assertEquals(1, schema.getSpectrumCountColumn());
+		assertTrue(schema.hasSequenceCount() && schema.hasSpectrumCount());
+	}
+
+	@Test
+	void failsWhenTheOutputCanNotBeWritten() throws Exception {
+		TestDataset.copyTo(folder.toFile());
+		final File dtaselectFile = folder.resolve(TestDataset.DTASELECT_FILE_NAME).toFile();
+		writeWithManyProteinGroups(dtaselectFile, "", "");
+		final LuciphorResults luciphorResults = new LuciphorFileReader(
+				folder.resolve(TestDataset.LUCIPHOR_FILE_NAME).toFile(), null, null, 1, false).read();
+		final DTASelectRewriter rewriter = new DTASelectRewriter(luciphorResults, false);
+		// a directory can not be opened as the output file
+		final File output = Files.createDirectory(folder.resolve("output")).toFile();
+		assertTimeoutPreemptively(TIMEOUT,
+				() -> assertThrows(IOException.class, () -> rewriter.rewrite(dtaselectFile, output)));
+	}
+
+	/**
+	 * Rewrites the DTASelect file replacing the text, and repeating its last
+	 * protein group before the final table
+	 */
+	private static void writeWithManyProteinGroups(File dtaselectFile, String text, String replacement)
+			throws IOException {
+		final String content = new String(Files.readAllBytes(dtaselectFile.toPath()), StandardCharsets.ISO_8859_1)
+				.replace(text, replacement);
+		final int finalTable = content.indexOf("\tProteins\t");
+		final int lastProteinGroup = content.lastIndexOf("sp|", finalTable);
+		final StringBuilder sb = new StringBuilder(content.substring(0, finalTable));
+		for (int i = 0; i < NUM_PROTEIN_GROUPS; i++) {
+			sb.append(content, lastProteinGroup, finalTable);
+		}
+		sb.append(content.substring(finalTable));
+		Files.write(dtaselectFile.toPath(), sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+	}
+}
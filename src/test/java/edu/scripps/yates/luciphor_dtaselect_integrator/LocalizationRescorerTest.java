@@ -0,0 +1,117 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LocalizationRescorerTest {
+	private static final double PROTON = 1.007276;
+	private static final double Y_ION = 19.01784;
+	/**
+	 * The residue masses of PESTIDEK with the phospho in the S
+	 */
+	private static final double[] PHOSPHO_IN_S = { 97.05276, 129.04259, 87.03203 + LocalizationScorer.PHOSPHO_MASS,
+			101.04768, 113.08406, 115.02694, 129.04259, 128.09496 };
+
+	@TempDir
+	Path folder;
+
+	/**
+	 * A phospho is moved from T to S by the only PSM of the run, so T is never
+	 * in lower case in a predicted sequence
+	 */
+	@Test
+	void movesPTMToResidueNotInLowerCaseInOtherPSMs() throws IOException {
+		final File dtaselectFile = writeDTASelectFile("K.PEST(79.966331)IDEK.R", 100);
+		writeMS2File(PHOSPHO_IN_S, 100);
+		final LocalizationRescorer rescorer = new LocalizationRescorer(folder.toFile(), new LocalizationScorer(),
+				1);
+		final LuciphorResults results = rescorer.rescore(dtaselectFile);
+		assertEquals(1, rescorer.getNumPSMsScored());
+		final int row = results.getRow("sample_1.100.100.2");
+		assertEquals("PEsTIDEK", results.getPredictedSequence(row));
+		assertTrue(results.getModifiedAAs().contains('T'));
+		assertEquals("K.PES(79.966331)TIDEK.R", results.getFormattedPredictedSequence(row, "K.PEST(79.966331)IDEK.R"));
+	}
+
+	@Test
+	void scoresThePSMsInTheOrderOfTheFile() throws IOException {
+		// the first scan twice, and only the spectra of the even scans
+		final int[] scans = new int[41];
+		final int[] evenScans = new int[20];
+		for (int i = 0; i < 40; i++) {
+			scans[i + 1] = 100 + i;
+			if (i % 2 == 0) {
+				evenScans[i / 2] = 100 + i;
+			}
+		}
+		scans[0] = 100;
+		final File dtaselectFile = writeDTASelectFile("K.PEST(79.966331)IDEK.R", scans);
+		writeMS2File(PHOSPHO_IN_S, evenScans);
+		final LocalizationRescorer rescorer = new LocalizationRescorer(folder.toFile(), new LocalizationScorer(),
+				4);
+		final LuciphorResults results = rescorer.rescore(dtaselectFile);
+		assertEquals(40, rescorer.getNumPSMs());
+		assertEquals(20, rescorer.getNumPSMsScored());
+		assertEquals(20, rescorer.getNumPSMsWithoutSpectrum());
+		assertEquals(20, results.getNumRows());
+		for (int i = 0; i < evenScans.length; i++) {
+			final int row = results.getRow("sample_1." + evenScans[i] + "." + evenScans[i] + ".2");
+			assertEquals(i, row);
+			assertEquals("PEsTIDEK", results.getPredictedSequence(row));
+		}
+	}
+
+	private File writeDTASelectFile(String sequence, int... scans) throws IOException {
+		final File ret = folder.resolve("DTASelect-filter.txt").toFile();
+		final String content = "DTASelect v2.1.12\n" //
+				+ "Locus\tSequence Count\tSpectrum Count\tSequence Coverage\tLength\tMolWt\tpI\tValidation Status\tNSAF\tEMPAI\tDescriptive Name\n"
+				+ "Unique\tFileName\tXCorr\tDeltCN\tConf%\tM+H+\tCalcM+H+\tPPM\tTotalIntensity\tSpR\tProb Score\tpI\tIonProportion\tRedundancy\tSequence\n"
+				+ "sp|P00001|PROT1_HUMAN\t1\t1\t12.5%\t400\t45000\t6.1\tU\t0.0001\t0.3\tProtein 1\n";
+		final StringBuilder sb = new StringBuilder(content);
+		for (final int scan : scans) {
+			sb.append("*\tsample_1." + scan + "." + scan
+					+ ".2\t3.21\t0.3\t99.9\t1000.0\t1000.0\t1.2\t12000.0\t1\t50.0\t5.5\t40.0\t1\t" + sequence + "\n");
+		}
+		sb.append("\tProteins\tPeptide IDs\tSpectra\n");
+		Files.write(ret.toPath(), sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+		return ret;
+	}
+
+	private void writeMS2File(double[] residueMasses, int... scans) throws IOException {
+		double mass = Y_ION - PROTON;
+		for (final double residueMass : residueMasses) {
+			mass += residueMass;
+		}
+		final StringBuilder sb = new StringBuilder("H\tExtractor\ttest\n");
+		// b and y ions
+		final double[] peaks = new double[2 * (residueMasses.length - 1)];
+		double b = PROTON;
+		double y = Y_ION;
+		for (int i = 0; i < residueMasses.length - 1; i++) {
+			b += residueMasses[i];
+			y += residueMasses[residueMasses.length - 1 - i];
+			peaks[2 * i] = b;
+			peaks[2 * i + 1] = y;
+		}
+		Arrays.sort(peaks);
+		for (final int scan : scans) {
+			sb.append(String.format(Locale.US, "S\t%06d\t%06d\t%.5f\nZ\t2\t%.5f\n", scan, scan,
+					(mass + 2 * PROTON) / 2, mass + PROTON));
+			for (final double peak : peaks) {
+				sb.append(String.format(Locale.US, "%.4f 1000.0\n", peak));
+			}
+		}
+		Files.write(folder.resolve("sample_1.ms2"), sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+	}
+}
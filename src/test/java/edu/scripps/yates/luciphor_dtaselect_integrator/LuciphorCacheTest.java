@@ -0,0 +1,179 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LuciphorCacheTest {
+	@TempDir
+	Path folder;
+	private File luciphorFile;
+
+	@BeforeEach
+	void writeCache() throws IOException {
+		luciphorFile = new File(folder.toFile(), TestDataset.LUCIPHOR_FILE_NAME);
+		TestDataset.copy(TestDataset.LUCIPHOR_FILE_NAME, luciphorFile);
+		new LuciphorFileReader(luciphorFile, null, null, 1, true).read();
+		assertTrue(new LuciphorCache(luciphorFile).getCacheFile().isFile());
+	}
+
+	@Test
+	void readsTheSameEntriesAsTheFile() throws IOException {
+		final LuciphorCache cache = new LuciphorCache(luciphorFile);
+		final Set<Character> modifiedAAs = new HashSet<Character>();
+		final LuciphorResults cached = cache.read(modifiedAAs);
+		assertNotNull(cached);
+		assertEquals(6, cache.getNumPSMsRead());
+		assertEquals(new HashSet<Character>(Arrays.asList('S', 'T', 'Y')), modifiedAAs);
+		assertSameEntries(new LuciphorFileReader(luciphorFile, null, null).read(), cached);
+		// with thresholds applied after reading it
+		final LuciphorFileReader reader = new LuciphorFileReader(luciphorFile, 0.05, null, 1, true);
+		assertSameEntries(new LuciphorFileReader(luciphorFile, 0.05, null).read(), reader.read());
+		assertEquals(6, reader.getNumPSMsRead());
+		assertEquals(2, reader.getNumPSMsPassingThresholds());
+	}
+
+	@Test
+	void isOutOfDateWhenTheSizeChanges() throws IOException {
+		final long lastModified = luciphorFile.lastModified();
+		Files.write(luciphorFile.toPath(),
+				"sample_1.1007.1007.2\tSPK\tsPK\tsPK\t1\t1\t12.5\t20.25\t7.75\t0.01\t0.01\n"
+						.getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.APPEND);
+		luciphorFile.setLastModified(lastModified);
+		assertStale(7);
+	}
+
+	@Test
+	void isOutOfDateWhenTheModificationTimeChanges() throws IOException {
+		luciphorFile.setLastModified(luciphorFile.lastModified() - 10000);
+		assertStale(6);
+	}
+
+	@Test
+	void isOutOfDateWhenTheContentChanges() throws IOException {
+		final long lastModified = luciphorFile.lastModified();
+		final long size = luciphorFile.length();
+		final String content = new String(Files.readAllBytes(luciphorFile.toPath()), StandardCharsets.UTF_8);
+		// same size and modification time
+		Files.write(luciphorFile.toPath(),
+				content.replace("0.8\t0.06", "0.8\t0.01").getBytes(StandardCharsets.UTF_8));
+		luciphorFile.setLastModified(lastModified);
+		assertEquals(size, luciphorFile.length());
+		assertStale(6);
+		final LuciphorResults results = new LuciphorFileReader(luciphorFile, null, null, 1, true).read();
+		assertEquals(0.01, results.getLocalFLR(results.getRow("sample_1.1006.1006.2")));
+	}
+
+	@Test
+	void isNotValidWhenTruncated() throws IOException {
+		final File cacheFile = new LuciphorCache(luciphorFile).getCacheFile();
+		final byte[] bytes = Files.readAllBytes(cacheFile.toPath());
+		// every byte of the header, then every 101 bytes and the last one
+		for (int length = 0; length < bytes.length; length = length < 64 ? length + 1 : length + 101) {
+			Files.write(cacheFile.toPath(), Arrays.copyOf(bytes, length));
+			final Set<Character> modifiedAAs = new HashSet<Character>();
+			assertNull(new LuciphorCache(luciphorFile).read(modifiedAAs), "truncated to " + length + " bytes");
+			assertTrue(modifiedAAs.isEmpty());
+		}
+		Files.write(cacheFile.toPath(), Arrays.copyOf(bytes, bytes.length - 1));
+		// and it is parsed and written again
+		final LuciphorFileReader reader = new LuciphorFileReader(luciphorFile, null, null, 1, true);
+		assertSameEntries(new LuciphorFileReader(luciphorFile, null, null).read(), reader.read());
+		assertEquals(6, reader.getNumPSMsRead());
+		assertArrayEquals(bytes, Files.readAllBytes(cacheFile.toPath()));
+	}
+
+	@Test
+	void parsesTheFileWhenTheEntriesCannotBeRead() throws IOException {
+		final File cacheFile = new LuciphorCache(luciphorFile).getCacheFile();
+		final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(cacheFile.toPath()));
+		// a negative number of rows after the header and the 3 modified aminoacids,
+		// with a valid checksum
+		buffer.putInt(8 + 4 + 3 * 8 + 4 + 4 + 3 * 2, -1);
+		final CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, buffer.capacity() - 8);
+		buffer.putLong(buffer.capacity() - 8, crc.getValue());
+		Files.write(cacheFile.toPath(), buffer.array());
+		final LuciphorFileReader reader = new LuciphorFileReader(luciphorFile, null, null, 1, true);
+		final LuciphorResults results = reader.read();
+		assertSameEntries(new LuciphorFileReader(luciphorFile, null, null).read(), results);
+		assertEquals(6, reader.getNumPSMsRead());
+		assertEquals(new HashSet<Character>(Arrays.asList('S', 'T', 'Y')), results.getModifiedAAs());
+	}
+
+	@Test
+	void writesTheSameSidecarFromManyThreads() throws Exception {
+		final File cacheFile = new LuciphorCache(luciphorFile).getCacheFile();
+		final byte[] bytes = Files.readAllBytes(cacheFile.toPath());
+		final LuciphorResults results = new LuciphorFileReader(luciphorFile, null, null).read();
+		final long size = luciphorFile.length();
+		final long lastModified = luciphorFile.lastModified();
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			final List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int i = 0; i < 50; i++) {
+				futures.add(executor.submit(() -> {
+					new LuciphorCache(luciphorFile).write(results, 6, size, lastModified);
+					return null;
+				}));
+			}
+			for (final Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertArrayEquals(bytes, Files.readAllBytes(cacheFile.toPath()));
+		// no temporary files left
+		assertEquals(new HashSet<String>(Arrays.asList(luciphorFile.getName(), cacheFile.getName())),
+				new HashSet<String>(Arrays.asList(folder.toFile().list())));
+	}
+
+	private void assertStale(int numPSMs) throws IOException {
+		final Set<Character> modifiedAAs = new HashSet<Character>();
+		assertNull(new LuciphorCache(luciphorFile).read(modifiedAAs));
+		assertTrue(modifiedAAs.isEmpty());
+		final LuciphorFileReader reader = new LuciphorFileReader(luciphorFile, null, null, 1, true);
+		assertSameEntries(new LuciphorFileReader(luciphorFile, null, null).read(), reader.read());
+		assertEquals(numPSMs, reader.getNumPSMsRead());
+		// the sidecar is up to date again
+		assertNotNull(new LuciphorCache(luciphorFile).read(modifiedAAs));
+	}
+
+	private static void assertSameEntries(LuciphorResults expected, LuciphorResults actual) {
+		assertEquals(expected.getNumRows(), actual.getNumRows());
+		assertEquals(expected.size(), actual.size());
+		for (int row = 0; row < expected.getNumRows(); row++) {
+			assertEquals(expected.getPredictedSequence(row), actual.getPredictedSequence(row));
+			assertEquals(expected.getLocalFLR(row), actual.getLocalFLR(row));
+			assertEquals(expected.getGlobalFLR(row), actual.getGlobalFLR(row));
+			assertEquals(expected.getPep1Score(row), actual.getPep1Score(row));
+			assertEquals(expected.getPep2Score(row), actual.getPep2Score(row));
+			assertEquals(expected.getDeltaScore(row), actual.getDeltaScore(row));
+		}
+	}
+}
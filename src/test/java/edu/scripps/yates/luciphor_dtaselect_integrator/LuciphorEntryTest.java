@@ -0,0 +1,44 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class LuciphorEntryTest {
+	private static final Set<Character> STY = new HashSet<Character>(Arrays.asList('S', 'T', 'Y'));
+
+	@Test
+	void movesPTMsToLowerCaseResidues() {
+		assertEquals("L.QCTN(203.079373)VTN(203.079373)NITDDMRGELK.N",
+				LuciphorEntry.getFormattedPredictedSequence("QCTnVTnNITDDMRGELK",
+						"L.QCTN(203.079373)VTNN(203.079373)ITDDMRGELK.N",
+						new HashSet<Character>(Arrays.asList('N'))));
+		assertEquals("K.PES(79.966331)TIDE.R",
+				LuciphorEntry.getFormattedPredictedSequence("PEsTIDE", "K.PEST(79.966331)IDE.R", STY));
+	}
+
+	@Test
+	void keepsNotMovablePTMsInTheirResidues() {
+		// the phospho moved past the oxidized M has to keep its own mass
+		assertEquals("K.SM(15.994915)PEY(79.966331)K.R", LuciphorEntry
+				.getFormattedPredictedSequence("SMPEyK", "K.S(79.966331)M(15.994915)PEYK.R", STY));
+		assertEquals("K.M(15.994915)PEY(79.966331)SM(15.994915)K.R", LuciphorEntry.getFormattedPredictedSequence(
+				"MPEySMK", "K.M(15.994915)PEYS(79.966331)M(15.994915)K.R", STY));
+	}
+
+	@Test
+	void keepsNTermPTM() {
+		assertEquals("K.(42.010565)PES(79.966331)TIDE.R", LuciphorEntry.getFormattedPredictedSequence("PEsTIDE",
+				"K.(42.010565)PEST(79.966331)IDE.R", STY));
+	}
+
+	@Test
+	void keepsSequencesWithoutChanges() {
+		assertEquals("K.PEPT(79.966331)IDE.R",
+				LuciphorEntry.getFormattedPredictedSequence("PEPtIDE", "K.PEPT(79.966331)IDE.R", STY));
+	}
+}
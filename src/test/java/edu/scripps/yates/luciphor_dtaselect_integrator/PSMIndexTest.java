@@ -0,0 +1,105 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class PSMIndexTest {
+
+	@Test
+	void growsFromTheSmallestSize() {
+		for (final boolean direct : new boolean[] { false, true }) {
+			final PSMIndex index = new PSMIndex(1, direct);
+			final Map<String, Integer> expected = new HashMap<String, Integer>();
+			for (int i = 0; i < 20000; i++) {
+				// IDs that are prefixes of others and IDs of the same length
+				final String psmID = "sample_" + (i % 7) + "." + i + "." + i + "." + (2 + i % 3);
+				index.put(psmID, i);
+				expected.put(psmID, i);
+			}
+			assertEquals(expected.size(), index.size());
+			for (final Map.Entry<String, Integer> entry : expected.entrySet()) {
+				assertEquals(entry.getValue().intValue(), index.get(entry.getKey()));
+			}
+		}
+	}
+
+	@Test
+	void doesNotFindMissingIDs() {
+		final PSMIndex index = new PSMIndex();
+		assertEquals(-1, index.get("sample.1.1.2"));
+		for (int i = 0; i < 1000; i++) {
+			index.put("sample." + i + "." + i + ".2", i);
+		}
+		for (int i = 1000; i < 2000; i++) {
+			assertEquals(-1, index.get("sample." + i + "." + i + ".2"));
+		}
+		// prefix, longer and same length
+		assertEquals(-1, index.get("sample.1.1."));
+		assertEquals(-1, index.get("sample.1.1.22"));
+		assertEquals(-1, index.get("sample.1.1.3"));
+		assertEquals(-1, index.get(""));
+	}
+
+	@Test
+	void replacesValues() {
+		final PSMIndex index = new PSMIndex();
+		final int offset = index.put("sample.1.1.2", 1);
+		assertEquals(offset, index.put("sample.1.1.2", 5));
+		assertEquals(5, index.get("sample.1.1.2"));
+		assertEquals(1, index.size());
+		assertArrayEquals("sample.1.1.2".getBytes(StandardCharsets.UTF_8), index.getID(offset));
+		assertThrows(IllegalArgumentException.class, () -> index.put("sample.2.2.2", -1));
+	}
+
+	@Test
+	void findsTheSameIDsFromBytesAndStrings() {
+		final PSMIndex index = new PSMIndex();
+		index.put("sample.1.1.2", 1);
+		// as in a DTASelect line, with UTF-8 characters
+		final byte[] line = "\tsample.1.1.2\t3.21\tmuestra_ñ.2.2.3\t".getBytes(StandardCharsets.UTF_8);
+		index.put(line, 19, line.length - 1, 2);
+		assertEquals(1, index.get(line, 1, 13));
+		assertTrue(index.contains(line, 1, 13));
+		assertFalse(index.contains(line, 1, 12));
+		assertEquals(2, index.get("muestra_ñ.2.2.3"));
+		final byte[] id = "sample.1.1.2".getBytes(StandardCharsets.UTF_8);
+		assertEquals(1, index.get(id, 0, id.length));
+	}
+
+	@Test
+	void readsWhatItWrites() throws IOException {
+		final PSMIndex index = new PSMIndex(10, false);
+		for (int i = 0; i < 100; i++) {
+			index.put("sample." + i + "." + i + ".2", i);
+		}
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			index.writeTo(out);
+			out.writeInt(12345);
+		}
+		final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+		final PSMIndex read = PSMIndex.readFrom(buffer);
+		assertEquals(12345, buffer.getInt());
+		assertEquals(index.size(), read.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, read.get("sample." + i + "." + i + ".2"));
+		}
+		assertEquals(-1, read.get("sample.100.100.2"));
+		// and it can grow
+		read.put("sample.100.100.2", 100);
+		assertEquals(100, read.get("sample.100.100.2"));
+	}
+}
@@ -0,0 +1,40 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Small DTASelect file and its Luciphor results, in the test resources, with
+ * PSMs in several protein groups, a protein group with two proteins, a PSM
+ * without Luciphor entry, a PSM ID repeated in the Luciphor file and a
+ * phospho moved past an oxidized methionine
+ */
+final class TestDataset {
+	static final String DTASELECT_FILE_NAME = "DTASelect-filter.txt";
+	static final String LUCIPHOR_FILE_NAME = "luciphor_results.tsv";
+
+	private TestDataset() {
+	}
+
+	/**
+	 * Copies the DTASelect and Luciphor files to the folder, creating it if
+	 * needed
+	 *
+	 * @param folder
+	 * @throws IOException
+	 */
+	static void copyTo(File folder) throws IOException {
+		Files.createDirectories(folder.toPath());
+		copy(DTASELECT_FILE_NAME, new File(folder, DTASELECT_FILE_NAME));
+		copy(LUCIPHOR_FILE_NAME, new File(folder, LUCIPHOR_FILE_NAME));
+	}
+
+	static void copy(String name, File file) throws IOException {
+		try (InputStream in = TestDataset.class.getResourceAsStream("dataset/" + name)) {
+			Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ThresholdSweepTest {
+	private static final List<Double> LFLR_THRESHOLDS = Arrays.asList(0.3, 0.01, null, 0.05, 0.1, 0.2, 0.5, 0.04);
+	private static final List<Double> GFLR_THRESHOLDS = Arrays.asList(0.01, 0.1, null, 0.3, 0.9);
+
+	@TempDir
+	Path folder;
+
+	@Test
+	void countsAsTheIntegratorInEveryPointOfTheGrid() throws Exception {
+		final File sweepFolder = folder.resolve("sweep").toFile();
+		TestDataset.copyTo(sweepFolder);
+		final ThresholdSweep sweep = sweep(sweepFolder);
+		assertSameCountsAsIntegrator(sweep);
+	}
+
+	@Test
+	void keepsProteinGroupsPassingAnyOfTheirQuadrants() throws Exception {
+		// the two PSMs of the group of P2 and P3 pass quadrants of the grid that
+		// don't contain each other, so the group is kept in their union
+		final File sweepFolder = folder.resolve("sweep").toFile();
+		TestDataset.copyTo(sweepFolder);
+		final Path luciphorFile = sweepFolder.toPath().resolve(TestDataset.LUCIPHOR_FILE_NAME);
+		final String content = new String(Files.readAllBytes(luciphorFile), StandardCharsets.UTF_8);
+		Files.write(luciphorFile,
+				content.replace("7.75\t0.3\t0.5", "7.75\t0.9\t0.05").getBytes(StandardCharsets.UTF_8));
+		final ThresholdSweep sweep = sweep(sweepFolder);
+		assertSameCountsAsIntegrator(sweep);
+		final double[] lflrs = sweep.getLflrThresholds();
+		final double[] gflrs = sweep.getGflrThresholds();
+		// 1002 passes lflr >= 0.2 and gflr >= 0.1, 1004 passes lflr >= 0.05 and
+		// gflr >= 0.9, and the group of P5 is kept from lflr 0.1 and gflr 0.9
+		assertEquals(2, sweep.getNumProteinsRemoved(indexOf(lflrs, 0.05), indexOf(gflrs, 0.3)));
+		assertEquals(1, sweep.getNumProteinsRemoved(indexOf(lflrs, 0.2), indexOf(gflrs, 0.3)));
+		assertEquals(1, sweep.getNumProteinsRemoved(indexOf(lflrs, 0.05), indexOf(gflrs, 0.9)));
+		assertEquals(0, sweep.getNumProteinsRemoved(indexOf(lflrs, 0.2), indexOf(gflrs, 0.9)));
+	}
+
+	@Test
+	void countsTheLastEntryPassingTheThresholdsOfRepeatedPSMIDs() throws Exception {
+		final File sweepFolder = folder.resolve("sweep").toFile();
+		TestDataset.copyTo(sweepFolder);
+		final ThresholdSweep sweep = sweep(sweepFolder);
+		final double[] lflrs = sweep.getLflrThresholds();
+		final double[] gflrs = sweep.getGflrThresholds();
+		assertEquals(7, sweep.getNumDTASelectPSMs());
+		assertArrayEquals(new double[] { 0.01, 0.04, 0.05, 0.1, 0.2, 0.3, 0.5, Double.POSITIVE_INFINITY }, lflrs);
+		// only VTEsYR passes for sample_1.1005.1005.2, moving the site of the
+		// DTASelect file, as in sample_0.1001.1001.2
+		final int lflr = indexOf(lflrs, 0.05);
+		final int noGflr = gflrs.length - 1;
+		assertEquals(2, sweep.getNumLuciphorPSMsPassing(lflr, noGflr));
+		assertEquals(2, sweep.getNumPSMsChanged(lflr, noGflr));
+		// with both entries passing, the last one, VtESYR, is the one used, which
+		// is the site already in the DTASelect file
+		final int noLflr = lflrs.length - 1;
+		assertEquals(6, sweep.getNumLuciphorPSMsPassing(noLflr, noGflr));
+		assertEquals(4, sweep.getNumPSMsChanged(noLflr, noGflr));
+		assertEquals(1, sweep.getNumPSMsRemoved(noLflr, noGflr));
+		// thresholds equal to the FLRs are passed
+		assertEquals(1, sweep.getNumLuciphorPSMsPassing(0, 0));
+		assertEquals(1, sweep.getNumPSMsChanged(0, 0));
+	}
+
+	@Test
+	void parsesThresholds() {
+		assertEquals(Arrays.asList(0.05, null, 1.0), ThresholdSweep.parseThresholds("0.05, -,1"));
+		assertThrows(NumberFormatException.class, () -> ThresholdSweep.parseThresholds("0.05,1.5"));
+		assertThrows(NumberFormatException.class, () -> ThresholdSweep.parseThresholds("NaN"));
+	}
+
+	private static ThresholdSweep sweep(File folder) throws IOException {
+		final LuciphorFileReader reader = new LuciphorFileReader(new File(folder, TestDataset.LUCIPHOR_FILE_NAME),
+				null, null);
+		final ThresholdSweep ret = new ThresholdSweep(reader.read(), reader.getNumPSMsRead(), LFLR_THRESHOLDS,
+				GFLR_THRESHOLDS);
+		ret.run(new File(folder, TestDataset.DTASELECT_FILE_NAME));
+		return ret;
+	}
+
+	/**
+	 * Runs the integrator with the remove option in every point of the grid over
+	 * a copy of the files of the sweep
+	 */
+	private void assertSameCountsAsIntegrator(ThresholdSweep sweep) throws Exception {
+		final File sweepFolder = folder.resolve("sweep").toFile();
+		final double[] lflrs = sweep.getLflrThresholds();
+		final double[] gflrs = sweep.getGflrThresholds();
+		for (int i = 0; i < lflrs.length; i++) {
+			for (int j = 0; j < gflrs.length; j++) {
+				final File runFolder = folder.resolve("run_" + i + "_" + j).toFile();
+				Files.createDirectories(runFolder.toPath());
+				for (final String name : new String[] { TestDataset.LUCIPHOR_FILE_NAME,
+						TestDataset.DTASELECT_FILE_NAME }) {
+					Files.copy(new File(sweepFolder, name).toPath(), new File(runFolder, name).toPath());
+				}
+				final LuciphorDtaselectIntegrator integrator = new LuciphorDtaselectIntegrator(
+						new File(runFolder, TestDataset.LUCIPHOR_FILE_NAME).getAbsolutePath(),
+						new File(runFolder, TestDataset.DTASELECT_FILE_NAME).getAbsolutePath(),
+						toThreshold(lflrs[i]), toThreshold(gflrs[j]), true, 1, false);
+				integrator.run();
+				final String point = "lflr " + lflrs[i] + " gflr " + gflrs[j];
+				assertEquals(integrator.getNumLuciphorPSMsPassingThresholds(),
+						sweep.getNumLuciphorPSMsPassing(i, j), point);
+				assertEquals(integrator.getNumDTASelectPSMs(), sweep.getNumDTASelectPSMs(), point);
+				assertEquals(integrator.getNumPSMsChanged(), sweep.getNumPSMsChanged(i, j), point);
+				assertEquals(integrator.getNumPSMsRemoved(), sweep.getNumPSMsRemoved(i, j), point);
+				assertEquals(integrator.getNumProteinsRemoved(), sweep.getNumProteinsRemoved(i, j), point);
+			}
+		}
+	}
+
+	private static Double toThreshold(double threshold) {
+		return threshold == Double.POSITIVE_INFINITY ? null : threshold;
+	}
+
+	private static int indexOf(double[] thresholds, double threshold) {
+		final int ret = Arrays.binarySearch(thresholds, threshold);
+		assertEquals(true, ret >= 0, "threshold " + threshold);
+		return ret;
+	}
+}
@@ -0,0 +1,164 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ByteOutputEncoderTest {
+	private static final int BUFFER_SIZE = ByteOutputEncoder.ALIGNMENT;
+	@TempDir
+	Path folder;
+
+	@Test
+	void writesOnlyFullBuffersUntilClosed() throws IOException {
+		final File file = folder.resolve("out.txt").toFile();
+		final byte[] bytes = randomBytes(3 * BUFFER_SIZE + 10, 1);
+		try (ByteOutputEncoder encoder = new ByteOutputEncoder(file, BUFFER_SIZE)) {
+			// up to one byte before the end of the buffer
+			encoder.write(bytes, 0, BUFFER_SIZE - 1);
+			assertEquals(0, encoder.getNumBytesWritten());
+			assertEquals(0, file.length());
+			// the last byte of the buffer
+			encoder.write(bytes[BUFFER_SIZE - 1]);
+			assertEquals(0, encoder.getNumBytesWritten());
+			// the buffer is written with the first byte after it
+			encoder.write(bytes[BUFFER_SIZE]);
+			assertEquals(BUFFER_SIZE, encoder.getNumBytesWritten());
+			assertEquals(1, encoder.getNumWrites());
+			// crossing the end of the buffer
+			encoder.write(bytes, BUFFER_SIZE + 1, BUFFER_SIZE);
+			assertEquals(2 * BUFFER_SIZE, encoder.getNumBytesWritten());
+			encoder.write(bytes, 2 * BUFFER_SIZE + 1, bytes.length - 2 * BUFFER_SIZE - 1);
+			assertEquals(3 * BUFFER_SIZE, encoder.getNumBytesWritten());
+			assertEquals(3, encoder.getNumWrites());
+			assertEquals(3 * BUFFER_SIZE, file.length());
+		}
+		assertArrayEquals(bytes, Files.readAllBytes(file.toPath()));
+	}
+
+	@Test
+	void writesBytesLargerThanTheBuffer() throws IOException {
+		final File file = folder.resolve("out.txt").toFile();
+		final byte[] bytes = randomBytes(5 * BUFFER_SIZE + 7, 2);
+		final ByteOutputEncoder encoder = new ByteOutputEncoder(file, BUFFER_SIZE);
+		// from the start of the buffer, the whole buffers are written at once
+		encoder.write(bytes, 0, 2 * BUFFER_SIZE + 3);
+		assertEquals(2 * BUFFER_SIZE, encoder.getNumBytesWritten());
+		// from the middle of it, filling the buffer first
+		encoder.write(bytes, 2 * BUFFER_SIZE + 3, 3 * BUFFER_SIZE);
+		assertEquals(5 * BUFFER_SIZE, encoder.getNumBytesWritten());
+		// ending exactly at the end of the buffer
+		encoder.write(bytes, 5 * BUFFER_SIZE + 3, 4);
+		encoder.close();
+		assertEquals(bytes.length, encoder.getNumBytesWritten());
+		assertArrayEquals(bytes, Files.readAllBytes(file.toPath()));
+	}
+
+	@Test
+	void writesTheBufferWhenFlushed() throws IOException {
+		final File file = folder.resolve("out.txt").toFile();
+		final ByteOutputEncoder encoder = new ByteOutputEncoder(file, 1);
+		// rounded up
+		encoder.write(new byte[BUFFER_SIZE - 1], 0, BUFFER_SIZE - 1);
+		assertEquals(0, encoder.getNumBytesWritten());
+		encoder.flush();
+		assertEquals(BUFFER_SIZE - 1, file.length());
+		encoder.append("abc");
+		assertEquals(BUFFER_SIZE - 1, file.length());
+		encoder.flush();
+		assertEquals(BUFFER_SIZE + 2, file.length());
+		assertEquals(2, encoder.getNumWrites());
+		// nothing to write
+		encoder.flush();
+		assertEquals(2, encoder.getNumWrites());
+		encoder.append('d');
+		encoder.close();
+		assertEquals(BUFFER_SIZE + 3, encoder.getNumBytesWritten());
+		// closing it again does nothing
+		encoder.close();
+		encoder.flush();
+		assertEquals(3, encoder.getNumWrites());
+		final byte[] content = Files.readAllBytes(file.toPath());
+		assertEquals("abcd", new String(content, BUFFER_SIZE - 1, 4, StandardCharsets.ISO_8859_1));
+		// but writing more bytes fails
+		encoder.append("e");
+		assertThrows(IOException.class, () -> encoder.flush());
+	}
+
+	@Test
+	void truncatesTheFile() throws IOException {
+		final File file = folder.resolve("out.txt").toFile();
+		Files.write(file.toPath(), "previous content".getBytes(StandardCharsets.ISO_8859_1));
+		try (ByteOutputEncoder encoder = new ByteOutputEncoder(file)) {
+			encoder.append("new");
+		}
+		assertEquals("new", new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1));
+		assertThrows(IllegalArgumentException.class, () -> new ByteOutputEncoder(file, 0));
+	}
+
+	@Test
+	void appendsAsStringBuilder() throws IOException {
+		final File file = folder.resolve("out.txt").toFile();
+		final StringBuilder expected = new StringBuilder();
+		final Random random = new Random(3);
+		try (ByteOutputEncoder encoder = new ByteOutputEncoder(file, BUFFER_SIZE)) {
+			// several buffers, so that the numbers and texts are split between them
+			while (expected.length() < 4 * BUFFER_SIZE) {
+				switch (random.nextInt(5)) {
+				case 0:
+					final String text = "K.PEPT(79.966331)IDE.R\té€".substring(random.nextInt(10));
+					encoder.append(text);
+					expected.append(text);
+					break;
+				case 1:
+					final char c = random.nextBoolean() ? '\t' : 'Δ';
+					encoder.append(c);
+					expected.append(c);
+					break;
+				case 2:
+					final long longValue = random.nextBoolean() ? random.nextLong() : random.nextInt(1000) - 500;
+					encoder.append(longValue);
+					expected.append(longValue);
+					break;
+				case 3:
+					final double doubleValue = random.nextBoolean() ? Double.longBitsToDouble(random.nextLong())
+							: Math.round(random.nextDouble() * 1e8) / 1e4;
+					encoder.append(doubleValue);
+					expected.append(doubleValue);
+					break;
+				default:
+					final byte[] bytes = "\n".getBytes(StandardCharsets.ISO_8859_1);
+					encoder.write(bytes);
+					expected.append('\n');
+				}
+			}
+			for (final long value : new long[] { 0L, -1L, Long.MAX_VALUE, Long.MIN_VALUE }) {
+				encoder.append(value).append(' ');
+				expected.append(value).append(' ');
+			}
+			for (final double value : new double[] { -0.0, Double.NaN, Double.NEGATIVE_INFINITY, Double.MIN_VALUE }) {
+				encoder.append(value).append(' ');
+				expected.append(value).append(' ');
+			}
+		}
+		// the characters that are not ISO-8859-1 as '?'
+		assertArrayEquals(expected.toString().getBytes(StandardCharsets.ISO_8859_1),
+				Files.readAllBytes(file.toPath()));
+	}
+
+	private static byte[] randomBytes(int length, long seed) {
+		final byte[] ret = new byte[length];
+		new Random(seed).nextBytes(ret);
+		return ret;
+	}
+}
@@ -0,0 +1,88 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.text.DecimalFormat;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class DeltaMassFormatterTest {
+	private final DecimalFormat decimalFormat = new DecimalFormat("#.######");
+
+	@Test
+	void formatsTheMassesOfPTMsAsDecimalFormat() {
+		for (final double mass : new double[] { 79.966331, 15.994915, 42.010565, 0.984016, 114.042927, -18.010565,
+				-17.026549, 0.0, 1.0, 100.0, 0.5, 0.000001, 0.0000001, 1e-300 }) {
+			assertSameText(mass);
+			assertSameText(-mass);
+		}
+	}
+
+	@Test
+	void roundsTiesAsDecimalFormat() {
+		// halves of the last decimal, most of them not exact in binary
+		for (final double mass : new double[] { 0.0000005, 0.0000015, 0.0000025, 1.0000005, 1.0000015, 0.1234565,
+				79.9663315, 79.9663305, 15.9949155, 0.9999995, 9.9999995, 999999.9999995, 0.5000005, 2.5e-6,
+				0.0000045, 123.4567895 }) {
+			assertSameText(mass);
+			assertSameText(-mass);
+			assertSameText(Math.nextUp(mass));
+			assertSameText(Math.nextDown(mass));
+		}
+		final Random random = new Random(1);
+		for (int i = 0; i < 100000; i++) {
+			// an odd number of halves of the last decimal
+			final double mass = (2 * random.nextInt(2000000000) + 1) / 2000000.0 / Math.pow(10, random.nextInt(4));
+			assertSameText(mass);
+			assertSameText(-mass);
+		}
+	}
+
+	@Test
+	void formatsNegativeValuesRoundedToZeroAsDecimalFormat() {
+		for (final double mass : new double[] { -0.0, -0.0000001, -0.0000004, -0.0000005, -0.0000006,
+				-0.4999999 }) {
+			assertSameText(mass);
+		}
+	}
+
+	@Test
+	void formatsMassesAroundTheLimitOfTheFastFormatAsDecimalFormat() {
+		final double maxFastMass = 1000000.0;
+		for (final double mass : new double[] { maxFastMass, Math.nextDown(maxFastMass), Math.nextUp(maxFastMass),
+				maxFastMass - 0.0000004, maxFastMass - 0.0000006, maxFastMass + 0.123456789, 1e15, 1e20,
+				Double.MAX_VALUE, Double.MIN_VALUE, Double.MIN_NORMAL }) {
+			assertSameText(mass);
+			assertSameText(-mass);
+		}
+	}
+
+	@Test
+	void formatsNotFiniteValuesAsDecimalFormat() {
+		assertSameText(Double.NaN);
+		assertSameText(Double.POSITIVE_INFINITY);
+		assertSameText(Double.NEGATIVE_INFINITY);
+	}
+
+	@Test
+	void formatsRandomMassesAsDecimalFormat() {
+		final Random random = new Random(1);
+		for (int i = 0; i < 100000; i++) {
+			final double mass = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(9) - 2);
+			assertSameText(mass);
+		}
+	}
+
+	/**
+	 * Compares format, twice to use the cache, and append, after some text
+	 */
+	private void assertSameText(double mass) {
+		final String expected = decimalFormat.format(mass);
+		final String message = Double.toString(mass);
+		assertEquals(expected, DeltaMassFormatter.format(mass), message);
+		assertEquals(expected, DeltaMassFormatter.format(mass), message);
+		assertEquals("(" + expected + ")",
+				DeltaMassFormatter.append(new StringBuilder("("), mass).append(')').toString(), message);
+	}
+}
@@ -0,0 +1,85 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class DoubleFormatterTest {
+
+	@Test
+	void formatsSubnormalsAsStringValueOf() {
+		for (final double value : new double[] { Double.MIN_VALUE, 2 * Double.MIN_VALUE, 3 * Double.MIN_VALUE,
+				Math.nextDown(Double.MIN_NORMAL), Double.MIN_NORMAL, Math.nextUp(Double.MIN_NORMAL), 1e-310,
+				1e-320, 4.9e-324 }) {
+			assertSameText(value);
+		}
+	}
+
+	@Test
+	void formatsPowersOfTenAsStringValueOf() {
+		for (int exponent = -324; exponent <= 308; exponent++) {
+			final double value = Double.parseDouble("1e" + exponent);
+			assertSameText(value);
+			assertSameText(Math.nextUp(value));
+			assertSameText(Math.nextDown(value));
+			assertSameText(2 * value);
+			assertSameText(9 * value);
+		}
+	}
+
+	@Test
+	void formatsValuesAroundTheNotationSwitchAsStringValueOf() {
+		// scientific notation under 1e-3 and from 1e7
+		for (final double limit : new double[] { 1e-3, 1e7 }) {
+			double up = limit;
+			double down = limit;
+			for (int i = 0; i < 1000; i++) {
+				assertSameText(up);
+				assertSameText(down);
+				up = Math.nextUp(up);
+				down = Math.nextDown(down);
+			}
+		}
+		for (final double value : new double[] { 0.001, 0.0010, 0.00099999, 0.000999999999999999, 0.002, 0.0015,
+				9999999.0, 9999999.5, 9999999.999999998, 9999999.999999999, 10000000.000000002, 1.0E7, 1.5E7 }) {
+			assertSameText(value);
+		}
+	}
+
+	@Test
+	void formatsZerosAndNotFiniteValuesAsStringValueOf() {
+		for (final double value : new double[] { 0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY,
+				Double.NEGATIVE_INFINITY, Double.MAX_VALUE, Math.nextDown(Double.MAX_VALUE) }) {
+			assertSameText(value);
+		}
+	}
+
+	@Test
+	void formatsRandomValuesAsStringValueOf() {
+		final Random random = new Random(1);
+		for (int i = 0; i < 200000; i++) {
+			// masses and scores with a few decimals, and any bits
+			assertSameText(Math.round(random.nextDouble() * 1e9) / Math.pow(10, random.nextInt(10)));
+			assertSameText((random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(14) - 5));
+			assertSameText(Double.longBitsToDouble(random.nextLong()));
+		}
+	}
+
+	/**
+	 * Writes the value after some bytes, with the negative too, checking that the
+	 * text has the same bytes as {@link String#valueOf(double)} and that it is not
+	 * longer than {@link DoubleFormatter#MAX_LENGTH}
+	 */
+	private static void assertSameText(double value) {
+		for (final double signedValue : new double[] { value, -value }) {
+			final String expected = String.valueOf(signedValue);
+			final byte[] buffer = new byte[3 + DoubleFormatter.MAX_LENGTH];
+			final int end = DoubleFormatter.write(signedValue, buffer, 3);
+			assertEquals(expected, new String(buffer, 3, end - 3, StandardCharsets.ISO_8859_1), expected);
+			assertEquals(expected.length() + 3, end, expected);
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+class FragmentLadderCacheTest {
+	/**
+	 * As in {@link FragmentLadderEngineTest}, with X without mass and
+	 * differential modifications in S and M
+	 */
+	private static final MassContext CONTEXT = MassContext.monoisotopic().withnTerm(1.007825).withcTerm(17.00274)
+			.withBionfragment(1.007276).withYionfragment(19.01784).withMass('X', 0.0).withDiffMod('S', 79.966331)
+			.withDiffMod('M', 15.994915);
+	private static final FragmentLadderEngine ENGINE = new FragmentLadderEngine(CONTEXT, false,
+			FragmentLadderEngine.B_ION, FragmentLadderEngine.Y_ION);
+	private static final String RESIDUES = "ACDEFGHIKLMNPQRSTVWYX";
+
+	@Test
+	void getsTheLaddersOfTheEngine() {
+		final FragmentLadderCache cache = new FragmentLadderCache(ENGINE, 1000);
+		final Random random = new Random(1);
+		for (int test = 0; test < 2000; test++) {
+			final String seq = randomSequence(random, 1 + random.nextInt(80));
+			final int[] modIndexHash = random.nextBoolean() ? randomModIndexHash(random, seq.length()) : null;
+			final double[] expected = ENGINE.compute(seq, modIndexHash);
+			assertArrayEquals(expected, cache.get(seq, modIndexHash), seq);
+			// from the cache the second time
+			assertArrayEquals(expected, cache.get(seq, modIndexHash), seq);
+			final double[] buffer = new double[expected.length + 3];
+			assertEquals(expected.length, cache.get(seq, modIndexHash, buffer, 3));
+			assertArrayEquals(expected, Arrays.copyOfRange(buffer, 3, buffer.length), seq);
+		}
+	}
+
+	@Test
+	void countsHitsMissesAndEvictions() {
+		// 2 segments, the first one with room for 2 peptides, where the peptides
+		// without modIndexHash go when the hash code of their sequence is even
+		final FragmentLadderCache cache = new FragmentLadderCache(ENGINE, 3);
+		for (final String seq : new String[] { "PEK", "TEK", "LEK" }) {
+			assertEquals(0, seq.hashCode() % 2, seq);
+		}
+		final double[] pek = cache.get("PEK", null);
+		assertSame(pek, cache.get("PEK", null));
+		cache.get("TEK", null);
+		// PEK is used after TEK, so TEK is the one removed for LEK
+		assertSame(pek, cache.get("PEK", null));
+		cache.get("LEK", null);
+		assertEquals(2, cache.size());
+		assertSame(pek, cache.get("PEK", null));
+		assertArrayEquals(ENGINE.compute("TEK", null), cache.get("TEK", null));
+		assertEquals(3, cache.getNumHits());
+		assertEquals(4, cache.getNumMisses());
+		assertEquals(2, cache.getNumEvictions());
+		assertEquals("Fragment ladder cache with 2 peptides: 3 hits, 4 misses and 2 evictions", cache.toString());
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertThrows(IllegalArgumentException.class, () -> new FragmentLadderCache(ENGINE, 0));
+	}
+
+	@Test
+	void keepsPeptidesWithoutModIndexHashApartFromNotModifiedOnes() {
+		final FragmentLadderCache cache = new FragmentLadderCache(ENGINE, 100);
+		// the residues without mass are only skipped without modIndexHash
+		final double[] withoutModIndexHash = cache.get("PEXK", null);
+		final double[] notModified = cache.get("PEXK", new int[4]);
+		assertEquals(2, cache.getNumMisses());
+		assertFalse(Arrays.equals(withoutModIndexHash, notModified));
+		assertArrayEquals(ENGINE.compute("PEXK", null), withoutModIndexHash);
+		assertArrayEquals(ENGINE.compute("PEXK", new int[4]), notModified);
+		// any value greater than 0 is a modified residue
+		final double[] modified = cache.get("PSEK", new int[] { 0, 1, 0, 0 });
+		assertSame(modified, cache.get("PSEK", new int[] { 0, 2, 0, 0 }));
+		assertNotSame(modified, cache.get("PSEK", new int[] { 0, 0, 0, 0 }));
+		// modified residues after the first 64
+		final char[] residues = new char[70];
+		Arrays.fill(residues, 'S');
+		final String seq = new String(residues);
+		final int[] modIndexHash = new int[seq.length()];
+		modIndexHash[66] = 1;
+		final double[] modifiedAt66 = cache.get(seq, modIndexHash);
+		modIndexHash[66] = 0;
+		modIndexHash[2] = 1;
+		assertNotSame(modifiedAt66, cache.get(seq, modIndexHash));
+		assertArrayEquals(ENGINE.compute(seq, modIndexHash), cache.get(seq, modIndexHash));
+	}
+
+	@Test
+	void keepsTheMaximumNumberOfPeptides() {
+		final Random random = new Random(2);
+		// not a multiple of the number of segments
+		for (final int maxPeptides : new int[] { 1, 3, 17, 37, 100 }) {
+			final FragmentLadderCache cache = new FragmentLadderCache(ENGINE, maxPeptides);
+			for (int i = 0; i < 50 * maxPeptides; i++) {
+				cache.get(randomSequence(random, 5 + random.nextInt(10)), null);
+				assertTrue(cache.size() <= maxPeptides, cache.toString());
+			}
+			// all the segments are full
+			assertEquals(maxPeptides, cache.size(), cache.toString());
+			assertEquals(cache.getNumMisses() - cache.size(), cache.getNumEvictions(), cache.toString());
+		}
+	}
+
+	@Test
+	void getsTheSameLaddersFromManyThreads() throws Exception {
+		final Random random = new Random(3);
+		final String[] peptides = new String[300];
+		final int[][] modIndexHashes = new int[peptides.length][];
+		final double[][] expected = new double[peptides.length][];
+		for (int i = 0; i < peptides.length; i++) {
+			peptides[i] = randomSequence(random, 2 + random.nextInt(30));
+			modIndexHashes[i] = i % 3 == 0 ? null : randomModIndexHash(random, peptides[i].length());
+			expected[i] = ENGINE.compute(peptides[i], modIndexHashes[i]);
+		}
+		// smaller than the number of peptides, so that they are evicted while they
+		// are used
+		final FragmentLadderCache cache = new FragmentLadderCache(ENGINE, 100);
+		final int numThreads = 8;
+		final int numGets = 20000;
+		final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			final List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int thread = 0; thread < numThreads; thread++) {
+				final Random threadRandom = new Random(thread);
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < numGets; i++) {
+						// most of them from the first peptides
+						final int peptide = Math.min(threadRandom.nextInt(peptides.length),
+								threadRandom.nextInt(peptides.length));
+						assertArrayEquals(expected[peptide], cache.get(peptides[peptide], modIndexHashes[peptide]),
+								peptides[peptide]);
+					}
+				}));
+			}
+			for (final Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(numThreads * numGets, cache.getNumHits() + cache.getNumMisses());
+		assertTrue(cache.getNumHits() > 0);
+		assertTrue(cache.size() <= 100);
+		// a peptide requested by two threads at the same time is calculated by
+		// both, but kept once
+		assertTrue(cache.getNumEvictions() <= cache.getNumMisses() - cache.size(), cache.toString());
+	}
+
+	private static int[] randomModIndexHash(Random random, int length) {
+		final int[] ret = new int[length];
+		for (int i = 0; i < length; i++) {
+			ret[i] = random.nextInt(3) == 0 ? 1 : 0;
+		}
+		return ret;
+	}
+
+	private static String randomSequence(Random random, int length) {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			sb.append(RESIDUES.charAt(random.nextInt(RESIDUES.length())));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,152 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import edu.scripps.yates.luciphor_dtaselect_integrator.utils.FragmentLadderEngine.Ladders;
+
+class FragmentLadderEngineTest {
+	private static final int[] ALL_IONS = { FragmentLadderEngine.A_ION, FragmentLadderEngine.B_ION,
+			FragmentLadderEngine.C_ION, FragmentLadderEngine.X_ION, FragmentLadderEngine.Y_ION,
+			FragmentLadderEngine.Z_ION };
+	/**
+	 * Masses added to the termini and to the b and y ions, X without mass and
+	 * differential modifications in S and M
+	 */
+	private static final MassContext CONTEXT = MassContext.monoisotopic().withnTerm(1.007825).withcTerm(17.00274)
+			.withBionfragment(1.007276).withYionfragment(19.01784).withMass('X', 0.0).withDiffMod('S', 79.966331)
+			.withDiffMod('M', 15.994915);
+	private static final String RESIDUES = "ACDEFGHIKLMNPQRSTVWYX";
+
+	@Test
+	void computesTheSameIonsAsMassContext() {
+		final Random random = new Random(1);
+		final FragmentLadderEngine engine = new FragmentLadderEngine(CONTEXT, false, ALL_IONS);
+		// in other order and with a series twice
+		final int[] otherIons = { FragmentLadderEngine.Y_ION, FragmentLadderEngine.B_ION,
+				FragmentLadderEngine.Y_ION };
+		final FragmentLadderEngine otherEngine = new FragmentLadderEngine(CONTEXT, false, otherIons);
+		for (int test = 0; test < 10000; test++) {
+			final String seq = randomSequence(random, 1 + random.nextInt(20));
+			final int[] modIndexHash = new int[seq.length()];
+			for (int i = 0; i < modIndexHash.length; i++) {
+				modIndexHash[i] = random.nextInt(3) == 0 ? 1 : 0;
+			}
+			assertArrayEquals(getFragIonArrs(seq, ALL_IONS, null), engine.compute(seq, null), seq);
+			assertArrayEquals(getFragIonArrs(seq, ALL_IONS, modIndexHash), engine.compute(seq, modIndexHash), seq);
+			assertArrayEquals(getFragIonArrs(seq, otherIons, null), otherEngine.compute(seq, null), seq);
+			assertArrayEquals(getFragIonArrs(seq, otherIons, modIndexHash), otherEngine.compute(seq, modIndexHash),
+					seq);
+		}
+	}
+
+	@Test
+	void computesTheSameIonsAsMassContextWithResiduesWithoutMass() {
+		final FragmentLadderEngine engine = new FragmentLadderEngine(CONTEXT, false, ALL_IONS);
+		for (final String seq : new String[] { "X", "XX", "PEXTIDE", "XPEPTIDE", "PEPTIDEX", "PEPTIDXE", "XPEPTIDXE",
+				"PXXXE", "SMXSM" }) {
+			assertArrayEquals(getFragIonArrs(seq, ALL_IONS, null), engine.compute(seq, null), seq);
+			final int[] modIndexHash = new int[seq.length()];
+			Arrays.fill(modIndexHash, 1);
+			assertArrayEquals(getFragIonArrs(seq, ALL_IONS, modIndexHash), engine.compute(seq, modIndexHash), seq);
+		}
+	}
+
+	@Test
+	void computesBatchesAsSinglePeptides() {
+		final Random random = new Random(2);
+		final FragmentLadderEngine engine = new FragmentLadderEngine(CONTEXT, true, ALL_IONS);
+		Ladders ladders = null;
+		for (int batch = 0; batch < 20; batch++) {
+			final String[] peptides = new String[random.nextInt(50)];
+			final int[][] modIndexHashes = new int[peptides.length][];
+			for (int i = 0; i < peptides.length; i++) {
+				peptides[i] = randomSequence(random, random.nextInt(30));
+				modIndexHashes[i] = new int[peptides[i].length()];
+				for (int j = 0; j < peptides[i].length(); j++) {
+					modIndexHashes[i][j] = random.nextInt(2);
+				}
+			}
+			ladders = engine.compute(peptides, batch % 2 == 0 ? modIndexHashes : null, ladders);
+			assertEquals(peptides.length, ladders.getNumPeptides());
+			int size = 0;
+			for (int i = 0; i < peptides.length; i++) {
+				final double[] expected = engine.compute(peptides[i], batch % 2 == 0 ? modIndexHashes[i] : null);
+				assertEquals(size, ladders.getStart(i));
+				assertEquals(peptides[i].length(), ladders.getNumIons(i));
+				assertArrayEquals(expected, Arrays.copyOfRange(ladders.getValues(), ladders.getStart(i),
+						ladders.getStart(i) + expected.length));
+				size += expected.length;
+			}
+			assertEquals(size, ladders.getSize());
+		}
+		final Ladders lastLadders = ladders;
+		assertThrows(IndexOutOfBoundsException.class, () -> lastLadders.getStart(lastLadders.getNumPeptides()));
+	}
+
+	@Test
+	void computesOneIonPerResidueWithFullLength() {
+		final FragmentLadderEngine engine = new FragmentLadderEngine(CONTEXT, true, FragmentLadderEngine.B_ION,
+				FragmentLadderEngine.Y_ION);
+		assertEquals(3, engine.getNumIons("PEK"));
+		assertEquals(6, engine.getLadderSize("PEK"));
+		final double p = CONTEXT.getMass('P');
+		final double e = CONTEXT.getMass('E');
+		final double k = CONTEXT.getMass('K');
+		final double s = CONTEXT.getMass('S') + CONTEXT.getDiffModMass('S');
+		final double b = CONTEXT.getBionfragment();
+		final double y = CONTEXT.getYionfragment();
+		// b ions from the n-term, then y ions, where the ion i starts at the
+		// residue i
+		assertArrayEquals(new double[] { p + b, p + e + b, p + e + k + b, //
+				k + e + p + y, k + e + y, k + y }, engine.compute("PEK", null));
+		// the residues without mass are skipped from both termini, leaving the
+		// last b ions and the first y ions at 0
+		assertArrayEquals(new double[] { p + b, p + e + b, p + e + k + b, 0.0, //
+				0.0, k + e + p + y, k + e + y, k + y }, engine.compute("PEXK", null));
+		// and they are not skipped with modifications
+		assertArrayEquals(new double[] { s + b, s + e + b, s + e + k + b, //
+				k + e + s + y, k + e + y, k + y }, engine.compute("SEK", new int[] { 1, 0, 0 }));
+		assertArrayEquals(new double[0], engine.compute("", null));
+	}
+
+	@Test
+	void rejectsNotSupportedIons() {
+		assertThrows(IllegalArgumentException.class, () -> new FragmentLadderEngine(CONTEXT, false, 3));
+	}
+
+	/**
+	 * The ions of the series from the {@link MassContext} methods, one series
+	 * after the other
+	 */
+	private static double[] getFragIonArrs(String seq, int[] ions, int[] modIndexHash) {
+		final double[] ret = new double[(seq.length() - 1) * ions.length];
+		for (int series = 0; series < ions.length; series++) {
+			final int ion = ions[series];
+			final boolean reverse = ion >= FragmentLadderEngine.X_ION;
+			final double[] values;
+			if (modIndexHash == null) {
+				values = reverse ? CONTEXT.getFragIonArrRev(seq, ion) : CONTEXT.getFragIonArr(seq, ion);
+			} else {
+				values = reverse ? CONTEXT.getFragIonArrRevMod(seq, ion, modIndexHash)
+						: CONTEXT.getFragIonArrMod(seq, ion, modIndexHash);
+			}
+			System.arraycopy(values, 0, ret, series * values.length, values.length);
+		}
+		return ret;
+	}
+
+	private static String randomSequence(Random random, int length) {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			sb.append(RESIDUES.charAt(random.nextInt(RESIDUES.length())));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,132 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class IsotopeEnvelopeCalculatorTest {
+	private static final int NUM_PEAKS = IsotopeEnvelopeCalculator.DEFAULT_NUM_PEAKS;
+	/**
+	 * Calculates every distribution, as all the masses are over its table
+	 */
+	private final IsotopeEnvelopeCalculator exactCalculator = new IsotopeEnvelopeCalculator(1.0, 1.0, NUM_PEAKS);
+
+	@Test
+	void givesTheDistributionsOfTheAssignMassTable() {
+		// the table doesn't say the mass of each row, so the mass that fits best
+		// is searched every 0.25 Da
+		final IsotopeEnvelopeCalculator calculator = new IsotopeEnvelopeCalculator(11000.0, 1.0, NUM_PEAKS);
+		double previousMass = 0.0;
+		int previousRow = -1;
+		for (int row = 0; row < 20; row++) {
+			if (row == 18) {
+				// it doesn't follow the averagine
+				continue;
+			}
+			final double[] expected = AssignMass.getIsotopicDistribution(row);
+			if (row == 17) {
+				// out of line with the rest of the row
+				expected[18] = Double.NaN;
+			}
+			double bestMass = 0.0;
+			double bestError = Double.MAX_VALUE;
+			for (double mass = 100.0; mass <= 11000.0; mass += 0.25) {
+				final double error = getMaxError(expected, calculator.getDistribution(mass));
+				if (error < bestError) {
+					bestError = error;
+					bestMass = mass;
+				}
+			}
+			assertTrue(bestError < 0.012, "row " + row + " differs in " + bestError + " at " + bestMass + " Da");
+			// one every ~516 Da
+			final int numRows = row - previousRow;
+			assertTrue(bestMass > previousMass + numRows * 400.0 && bestMass < previousMass + numRows * 700.0,
+					"row " + row + " at " + bestMass + " Da");
+			previousMass = bestMass;
+			previousRow = row;
+			assertEquals(AssignMass.mostIntensePeaks[row], calculator.getMostIntensePeak(bestMass), "row " + row);
+			final int[] intensePeaks = AssignMass.intensePeaks[row].clone();
+			Arrays.sort(intensePeaks);
+			assertArrayEquals(intensePeaks, calculator.getIntensePeaks(bestMass, 0.25), "row " + row);
+		}
+	}
+
+	@Test
+	void interpolatesTheDistributions() {
+		final IsotopeEnvelopeCalculator calculator = IsotopeEnvelopeCalculator.getDefault();
+		final double[] interpolated = new double[NUM_PEAKS];
+		final double[] exact = new double[NUM_PEAKS];
+		final Random random = new Random(1);
+		for (int i = 0; i < 20000; i++) {
+			final double mass = 1.0 + random.nextDouble() * (calculator.getMaxMass() - 1.0);
+			calculator.getAbundances(mass, interpolated, 0);
+			exactCalculator.getAbundances(mass, exact, 0);
+			for (int peak = 0; peak < NUM_PEAKS; peak++) {
+				assertEquals(exact[peak], interpolated[peak], 1e-5, mass + " Da");
+				assertEquals(interpolated[peak], calculator.getAbundance(mass, peak), 1e-15, mass + " Da");
+			}
+		}
+	}
+
+	@Test
+	void givesDistributionsAddingUpToOne() {
+		final IsotopeEnvelopeCalculator calculator = IsotopeEnvelopeCalculator.getDefault();
+		final double[] buffer = new double[NUM_PEAKS + 2];
+		for (final double mass : new double[] { 0.0, 0.5, 10.0, 111.1254, 1234.5, 9999.99, 10000.0, 10000.5,
+				25000.0 }) {
+			assertEquals(NUM_PEAKS, calculator.getAbundances(mass, buffer, 2));
+			double total = 0.0;
+			for (int peak = 0; peak < NUM_PEAKS; peak++) {
+				assertTrue(buffer[2 + peak] >= 0.0, mass + " Da");
+				assertEquals(buffer[2 + peak], calculator.getAbundance(mass, peak), 1e-15, mass + " Da");
+				total += buffer[2 + peak];
+			}
+			assertEquals(1.0, total, 1e-9, mass + " Da");
+			final double[] distribution = calculator.getDistribution(mass);
+			assertEquals(1.0, distribution[calculator.getMostIntensePeak(mass)]);
+		}
+		// only the monoisotopic peak without mass
+		assertEquals(1.0, calculator.getAbundance(0.0, 0));
+	}
+
+	@Test
+	void calculatesMassesOverTheTable() {
+		final IsotopeEnvelopeCalculator calculator = new IsotopeEnvelopeCalculator(1000.0, 10.0, NUM_PEAKS);
+		for (final double mass : new double[] { 1000.0, 1000.1, 5000.0 }) {
+			assertArrayEquals(exactCalculator.getDistribution(mass), calculator.getDistribution(mass), 1e-15);
+		}
+		assertEquals(1000.0, calculator.getMaxMass());
+		// rounded up to a multiple of the bin width
+		assertEquals(1005.0, new IsotopeEnvelopeCalculator(1001.0, 5.0, NUM_PEAKS).getMaxMass());
+	}
+
+	@Test
+	void rejectsNotValidArguments() {
+		final IsotopeEnvelopeCalculator calculator = IsotopeEnvelopeCalculator.getDefault();
+		assertThrows(IllegalArgumentException.class, () -> calculator.getAbundance(-1.0, 0));
+		assertThrows(IllegalArgumentException.class, () -> calculator.getAbundance(Double.NaN, 0));
+		assertThrows(IllegalArgumentException.class, () -> calculator.getAbundance(Double.POSITIVE_INFINITY, 0));
+		assertThrows(IndexOutOfBoundsException.class, () -> calculator.getAbundance(1000.0, NUM_PEAKS));
+		assertThrows(IllegalArgumentException.class, () -> new IsotopeEnvelopeCalculator(0.0, 1.0, NUM_PEAKS));
+		assertThrows(IllegalArgumentException.class, () -> new IsotopeEnvelopeCalculator(1000.0, 1.0, 0));
+	}
+
+	/**
+	 * Maximum difference between the peaks, skipping the ones that are NaN
+	 */
+	private static double getMaxError(double[] expected, double[] actual) {
+		double ret = 0.0;
+		for (int peak = 0; peak < expected.length; peak++) {
+			if (!Double.isNaN(expected[peak])) {
+				ret = Math.max(ret, Math.abs(expected[peak] - actual[peak]));
+			}
+		}
+		return ret;
+	}
+}
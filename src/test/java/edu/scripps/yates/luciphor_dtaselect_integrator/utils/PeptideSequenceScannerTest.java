@@ -0,0 +1,128 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class PeptideSequenceScannerTest {
+	private static final String[] SEQUENCES = {
+			// the forms in the javadocs
+			"R.PEPT(79.966331)IDE.K", "R.LLLQQVSL(+80.123)PELPGEYSMK.V", "PEPTID[+45.92]E",
+			"R.LLLQQVSLPELPGEYSMK.V", "LLLQQVSLPELPGEYSMK",
+			// n-term, c-term and several PTMs
+			"K.(42.010565)PEPTIDE.R", "K.PEPTIDE(0.984016).R", "K.S(79.966331)M(15.994915)PEYK.R",
+			"K.S(79.966331)(15.994915)PEYK.-", "-.PEPTIDE.-", "PEPT(79.966331)IDE", "(42.010565)PEPTIDE",
+			// without one of the flanking aminoacids or the peptide
+			"", ".", "..", "R..K", "R.PEPTIDE", "PEPTIDE.K", "R.PEPTIDE.", ".PEPTIDE.K", "R.(79.966331).K",
+			"R.(79.966331)", "R.PE.PT.IDE.K",
+			// points next to digits
+			"1.2.3", "R.PEPT(79.)IDE.K", "R.PEPT(.9)IDE.K", "R.PEPT(7.9).K", "7.PEPTIDE.K", "R.PEPTIDE.7",
+			"R(79.9).PEPTIDE.K",
+			// nested, not balanced and empty brackets
+			"R.PEP((79.9))TIDE.K", "R.PEP[(79.9)]TIDE.K", "R.PEP(79.9(1))TIDE.K", "R.PEP(79.9TIDE.K",
+			"R.PEP)TIDE.K", "R.PEP(79.9]TIDE.K", "R.PEP()TIDE.K", "R.PEP[]TIDE.K", "R.PEP(.)TIDE.K",
+			"R.PEP(79.9.K", "R.PEP(A.B)TIDE.K",
+			// PTMs that are not numbers and residues that are not aminoacids
+			"R.PEPT(abc)IDE.K", "R.PEPT(Phospho)IDE.K", "R.PEPxIDE.K", "R.PEP1IDE.K", "R.PEP IDE.K",
+			"PEPxIDE", "x.PEPTIDE.y", "R.pepTIDE.K", "R.PEP*TIDE.K" };
+
+	@Test
+	void parsesAsFastaParser() {
+		final PeptideSequenceScanner scanner = new PeptideSequenceScanner();
+		for (final String sequence : SEQUENCES) {
+			assertEquals(parseWithFastaParser(sequence), parseWithScanner(scanner, sequence), sequence);
+		}
+	}
+
+	@Test
+	void parsesRandomSequencesAsFastaParser() {
+		final char[] chars = "PESTMYK..()[]79-x".toCharArray();
+		final Random random = new Random(1);
+		final PeptideSequenceScanner scanner = new PeptideSequenceScanner();
+		for (int test = 0; test < 100000; test++) {
+			final StringBuilder sb = new StringBuilder();
+			final int length = random.nextInt(14);
+			for (int i = 0; i < length; i++) {
+				sb.append(chars[random.nextInt(chars.length)]);
+			}
+			final String sequence = sb.toString();
+			assertEquals(parseWithFastaParser(sequence), parseWithScanner(scanner, sequence), sequence);
+		}
+	}
+
+	@Test
+	void throwsTheErrorsOfFastaParser() {
+		final PeptideSequenceScanner scanner = new PeptideSequenceScanner();
+		for (final String sequence : new String[] { "R.PEPxIDE.K", "R.PEP1IDE.K", "R.pepTIDE.K", "PEPxIDE" }) {
+			final IllegalArgumentException expected = assertThrows(IllegalArgumentException.class,
+					() -> FastaParser.cleanSequence(FastaParser.getSequenceInBetween(sequence)), sequence);
+			final IllegalArgumentException actual = assertThrows(IllegalArgumentException.class,
+					() -> scanner.scan(sequence).getCleanSequence(), sequence);
+			assertEquals(expected.getMessage(), actual.getMessage());
+		}
+	}
+
+	@Test
+	void findsPTMsByPosition() {
+		final PeptideSequenceScanner scanner = new PeptideSequenceScanner()
+				.scan("K.(42.010565)S(79.966331)M(15.994915)PEY(79.966331)K.R");
+		assertEquals(4, scanner.getNumPTMs());
+		assertEquals(0, scanner.findPTMAt(0));
+		assertEquals(1, scanner.findPTMAt(1));
+		assertEquals(3, scanner.findPTMAt(5));
+		assertEquals(-1, scanner.findPTMAt(3));
+		assertThrows(IndexOutOfBoundsException.class, () -> scanner.getPTMPosition(4));
+		// more PTMs and residues than the initial capacity
+		final StringBuilder sb = new StringBuilder("R.");
+		for (int i = 0; i < 100; i++) {
+			sb.append("S(79.966331)");
+		}
+		final String sequence = sb.append(".K").toString();
+		assertEquals(parseWithFastaParser(sequence), parseWithScanner(scanner, sequence));
+	}
+
+	/**
+	 * Prefix, suffix, clean sequence and positions and delta masses of the PTMs,
+	 * or the error
+	 */
+	private static List<Object> parseWithFastaParser(String sequence) {
+		final List<Object> ret = new ArrayList<Object>();
+		try {
+			ret.add(FastaParser.getBeforeSeq(sequence));
+			ret.add(FastaParser.getAfterSeq(sequence));
+			final String sequenceInBetween = FastaParser.getSequenceInBetween(sequence);
+			final List<PTMInPeptide> ptms = FastaParser.getPTMsInPeptide(sequenceInBetween);
+			ret.add(FastaParser.cleanSequence(sequenceInBetween));
+			for (final PTMInPeptide ptm : ptms) {
+				ret.add(ptm.getPosition());
+				ret.add(ptm.getDeltaMass() != null ? ptm.getDeltaMass() : Double.NaN);
+			}
+		} catch (final RuntimeException e) {
+			return Arrays.<Object>asList(e.getClass(), e.getMessage());
+		}
+		return ret;
+	}
+
+	private static List<Object> parseWithScanner(PeptideSequenceScanner scanner, String sequence) {
+		final List<Object> ret = new ArrayList<Object>();
+		try {
+			scanner.scan(sequence);
+			ret.add(scanner.getPrefix());
+			ret.add(scanner.getSuffix());
+			ret.add(scanner.getCleanSequence());
+			for (int ptm = 0; ptm < scanner.getNumPTMs(); ptm++) {
+				ret.add(scanner.getPTMPosition(ptm));
+				ret.add(scanner.getPTMDeltaMass(ptm));
+			}
+		} catch (final RuntimeException e) {
+			return Arrays.<Object>asList(e.getClass(), e.getMessage());
+		}
+		return ret;
+	}
+}
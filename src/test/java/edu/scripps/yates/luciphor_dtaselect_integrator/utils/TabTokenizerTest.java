@@ -0,0 +1,114 @@
+package edu.scripps.yates.luciphor_dtaselect_integrator.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class TabTokenizerTest {
+	private static final String[] LINES = { "", "\t", "\t\t", "a", "a\t", "a\t\t", "\ta", "\t\ta", "a\tb", "a\t\tb",
+			"\ta\t", "\t\ta\t\t", "a\t\t\tb\t", "*\tsample.1.1.2\t3.21\t\tK.PEPT(79.966331)IDE.R" };
+
+	@Test
+	void splitsAsStringSplit() throws IOException {
+		for (final String line : LINES) {
+			assertSameColumns(line);
+		}
+		final Random random = new Random(1);
+		final char[] chars = { 'a', 'b', '\t' };
+		for (int test = 0; test < 10000; test++) {
+			final StringBuilder line = new StringBuilder();
+			final int length = random.nextInt(12);
+			for (int i = 0; i < length; i++) {
+				line.append(chars[random.nextInt(chars.length)]);
+			}
+			assertSameColumns(line.toString());
+		}
+	}
+
+	@Test
+	void growsWithManyColumns() throws IOException {
+		final StringBuilder line = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			line.append(i).append(i % 3 == 0 ? "\t\t" : "\t");
+		}
+		assertSameColumns(line.toString());
+	}
+
+	@Test
+	void rejectsColumnsNotCounted() {
+		final TabTokenizer tokenizer = new TabTokenizer().tokenize("a\tb\t\t");
+		assertEquals(2, tokenizer.getNumColumns());
+		assertThrows(ArrayIndexOutOfBoundsException.class, () -> tokenizer.getString(2));
+		assertThrows(ArrayIndexOutOfBoundsException.class, () -> tokenizer.getColumnStart(-1));
+		assertThrows(IllegalStateException.class, () -> tokenizer.writeColumn(new ByteArrayOutputStream(), 0));
+	}
+
+	@Test
+	void parsesIntsAsIntegerParseInt() {
+		final String[] values = { "0", "7", "-7", "+7", "123456789", "-123456789", "2147483647", "-2147483648",
+				"0012" };
+		final TabTokenizer tokenizer = new TabTokenizer();
+		for (final String value : values) {
+			assertEquals(Integer.parseInt(value), tokenizer.tokenize("x\t" + value).getInt(1), value);
+		}
+		for (final String value : new String[] { "", "-", "+", "1.5", "2147483648", "1a" }) {
+			tokenizer.tokenize("x\t" + value + "\ty");
+			assertThrows(NumberFormatException.class, () -> tokenizer.getInt(1), value);
+		}
+	}
+
+	@Test
+	void getsTheColumnsOfBytesWithoutCopyingThem() {
+		final byte[] bytes = "a\tK.PEPT(79.966331)IDE.R\t\u00e9".getBytes(StandardCharsets.ISO_8859_1);
+		final TabTokenizer tokenizer = new TabTokenizer().tokenize(bytes, 0, bytes.length);
+		final CharSequence sequence = tokenizer.getColumn(1);
+		assertEquals(22, sequence.length());
+		assertEquals('K', sequence.charAt(0));
+		assertEquals("PEPT", sequence.subSequence(2, 6).toString());
+		assertEquals("\u00e9", tokenizer.getColumn(2).toString());
+		assertThrows(IndexOutOfBoundsException.class, () -> sequence.charAt(22));
+		assertThrows(IndexOutOfBoundsException.class, () -> sequence.subSequence(3, 23));
+		// a view of the bytes
+		bytes[5] = 'A';
+		assertEquals("K.PAPT(79.966331)IDE.R", sequence.toString());
+	}
+
+	/**
+	 * Tokenizes the line as chars and as bytes in the middle of a bigger array,
+	 * comparing the columns with the ones of {@link String#split(String)}
+	 */
+	private static void assertSameColumns(String line) throws IOException {
+		final String[] expected = line.split("\t");
+		final String message = "'" + line.replace("\t", "\\t") + "'";
+		final TabTokenizer tokenizer = new TabTokenizer().tokenize(line);
+		assertEquals(expected.length, tokenizer.getNumColumns(), message);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], tokenizer.getString(i), message);
+			assertEquals(expected[i], tokenizer.getColumn(i).toString(), message);
+			assertEquals(expected[i], line.substring(tokenizer.getColumnStart(i), tokenizer.getColumnEnd(i)),
+					message);
+			final StringBuilder sb = new StringBuilder();
+			tokenizer.appendColumn(sb, i);
+			assertEquals(expected[i], sb.toString(), message);
+		}
+		final byte[] bytes = ("\tx\t" + line + "\ty").getBytes(StandardCharsets.ISO_8859_1);
+		tokenizer.tokenize(bytes, 3, bytes.length - 2);
+		assertEquals(expected.length, tokenizer.getNumColumns(), message);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], tokenizer.getString(i), message);
+			assertEquals(expected[i], tokenizer.getColumn(i).toString(), message);
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			tokenizer.writeColumn(out, i);
+			assertEquals(expected[i], new String(out.toByteArray(), StandardCharsets.ISO_8859_1), message);
+			final StringBuilder sb = new StringBuilder();
+			tokenizer.appendColumn(sb, i);
+			assertEquals(expected[i], sb.toString(), message);
+		}
+	}
+}